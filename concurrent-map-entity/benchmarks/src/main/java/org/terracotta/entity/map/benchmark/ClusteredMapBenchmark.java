@@ -0,0 +1,185 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terracotta.connection.Connection;
+import org.terracotta.connection.ConnectionFactory;
+import org.terracotta.connection.entity.EntityRef;
+import org.terracotta.entity.map.TerracottaClusteredMapClientService;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
+import org.terracotta.entity.map.common.ConcurrentClusteredMap;
+import org.terracotta.entity.map.server.TerracottaClusteredMapService;
+import org.terracotta.passthrough.PassthroughClusterControl;
+import org.terracotta.passthrough.PassthroughServer;
+import org.terracotta.passthrough.PassthroughServerRegistry;
+import org.terracotta.passthrough.PassthroughTestHelpers;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a clustered map hosted by a passthrough server with a mix of reads and writes.
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar ClusteredMapBenchmark}. The client threads are set with JMH's
+ * {@code -t} option, the benchmark parameters with {@code -p}, e.g. {@code -p distribution=ZIPFIAN -p readRatio=0.5}.
+ * The sample time mode reports throughput along with latency percentiles, and allocation is reported by adding
+ * {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ClusteredMapBenchmark {
+
+  private static final String SERVER_NAME = "benchmark-server";
+  private static final String MAP_NAME = "benchmark-map";
+  private static final int PRELOAD_BATCH_SIZE = 1000;
+
+  /**
+   * Number of distinct keys, all loaded before the measurement.
+   */
+  @Param({"100000"})
+  long keyCount;
+
+  @Param({"UNIFORM", "ZIPFIAN"})
+  KeyDistribution distribution;
+
+  /**
+   * Size in bytes of the values written.
+   */
+  @Param({"64", "4096"})
+  int valueSize;
+
+  /**
+   * Fraction of the operations that are reads, the others being puts.
+   */
+  @Param({"0.9", "0.5"})
+  double readRatio;
+
+  /**
+   * Number of client connections, the benchmark threads being spread over them.
+   */
+  @Param({"1"})
+  int clients;
+
+  private final AtomicInteger threads = new AtomicInteger();
+  private PassthroughClusterControl clusterControl;
+  private Connection[] connections;
+  private ConcurrentClusteredMap<Long, byte[]>[] maps;
+
+  @Setup(Level.Trial)
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    clusterControl = PassthroughTestHelpers.createActiveOnly("benchmark", new PassthroughTestHelpers.ServerInitializer() {
+      @Override
+      public void registerServicesForServer(PassthroughServer server) {
+        server.setServerName(SERVER_NAME);
+        server.registerClientEntityService(new TerracottaClusteredMapClientService());
+        server.registerServerEntityService(new TerracottaClusteredMapService());
+        PassthroughServerRegistry.getSharedInstance().registerServer(SERVER_NAME, server);
+      }
+    });
+    connections = new Connection[clients];
+    maps = new ConcurrentClusteredMap[clients];
+    for (int i = 0; i < clients; i++) {
+      connections[i] = ConnectionFactory.connect(URI.create("passthrough://" + SERVER_NAME + "/" + MAP_NAME), new Properties());
+      EntityRef<ConcurrentClusteredMap, Object> entityRef = connections[i].getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, MAP_NAME);
+      if (i == 0) {
+        entityRef.create(ClusteredMapConfiguration.defaultConfiguration());
+      }
+      maps[i] = entityRef.fetchEntity();
+      maps[i].setTypes(Long.class, byte[].class);
+    }
+
+    Random random = new Random(0);
+    Map<Long, byte[]> batch = new HashMap<>();
+    for (long key = 0; key < keyCount; key++) {
+      batch.put(key, newValue(random));
+      if (batch.size() == PRELOAD_BATCH_SIZE) {
+        maps[0].putAll(batch);
+        batch.clear();
+      }
+    }
+    maps[0].putAll(batch);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    for (int i = 0; i < clients; i++) {
+      maps[i].close();
+      connections[i].close();
+    }
+    clusterControl.terminateAllServers();
+  }
+
+  byte[] newValue(Random random) {
+    byte[] value = new byte[valueSize];
+    random.nextBytes(value);
+    return value;
+  }
+
+  /**
+   * The per thread state: the map client used by the thread, its keys and the value it writes.
+   */
+  @State(Scope.Thread)
+  public static class Client {
+    ConcurrentClusteredMap<Long, byte[]> map;
+    KeyDistribution.KeySequence keys;
+    Random random;
+    byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp(ClusteredMapBenchmark benchmark) {
+      int thread = benchmark.threads.getAndIncrement();
+      map = benchmark.maps[thread % benchmark.clients];
+      random = new Random(thread);
+      keys = benchmark.distribution.newSequence(benchmark.keyCount, random);
+      value = benchmark.newValue(random);
+    }
+  }
+
+  @Benchmark
+  public byte[] readOrWrite(Client client) {
+    Long key = client.keys.next();
+    if (client.random.nextDouble() < readRatio) {
+      return client.map.get(key);
+    } else {
+      return client.map.put(key, client.value);
+    }
+  }
+}
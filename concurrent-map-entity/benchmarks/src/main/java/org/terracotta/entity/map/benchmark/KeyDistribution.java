@@ -0,0 +1,52 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.benchmark;
+
+import java.util.Random;
+
+/**
+ * How the benchmark picks the keys it accesses amongst {@code keyCount} keys, numbered from {@code 0}.
+ */
+public enum KeyDistribution {
+  /**
+   * Every key is equally likely.
+   */
+  UNIFORM {
+    @Override
+    KeySequence newSequence(long keyCount, Random random) {
+      return () -> (long) (random.nextDouble() * keyCount);
+    }
+  },
+  /**
+   * A few keys are much more likely than the others, the probability of the key of rank {@code i} being proportional
+   * to {@code 1 / i^0.99}, as in YCSB.
+   */
+  ZIPFIAN {
+    @Override
+    KeySequence newSequence(long keyCount, Random random) {
+      return new ZipfianSequence(keyCount, ZipfianSequence.DEFAULT_THETA, random);
+    }
+  };
+
+  abstract KeySequence newSequence(long keyCount, Random random);
+
+  /**
+   * An infinite sequence of keys, used by a single thread.
+   */
+  interface KeySequence {
+    long next();
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.benchmark;
+
+import java.util.Random;
+
+/**
+ * Zipfian distributed keys, following Gray et al., "Quickly Generating Billion-Record Synthetic Databases".
+ * <p>
+ * The key of rank {@code 0} is the most popular, the cost of drawing a key is constant once the {@code zeta}
+ * constants are computed, which is linear in the number of keys.
+ */
+class ZipfianSequence implements KeyDistribution.KeySequence {
+
+  static final double DEFAULT_THETA = 0.99;
+
+  private final Random random;
+  private final long keyCount;
+  private final double theta;
+  private final double alpha;
+  private final double zetaN;
+  private final double eta;
+
+  ZipfianSequence(long keyCount, double theta, Random random) {
+    this.random = random;
+    this.keyCount = keyCount;
+    this.theta = theta;
+    this.alpha = 1.0 / (1.0 - theta);
+    this.zetaN = zeta(keyCount, theta);
+    this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+  }
+
+  private static double zeta(long n, double theta) {
+    double sum = 0;
+    for (long i = 1; i <= n; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+
+  @Override
+  public long next() {
+    double u = random.nextDouble();
+    double uz = u * zetaN;
+    if (uz < 1.0) {
+      return 0;
+    } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+      return 1;
+    } else {
+      return Math.min(keyCount - 1, (long) (keyCount * Math.pow(eta * u - eta + 1, alpha)));
+    }
+  }
+}
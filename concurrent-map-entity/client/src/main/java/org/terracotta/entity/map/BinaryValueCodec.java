@@ -0,0 +1,47 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map;
+
+import org.terracotta.entity.map.common.ValueWrapper;
+
+/**
+ * Base class of the codecs storing objects as byte arrays.
+ * <p>
+ * The bytes are wrapped along with the hash code of the object, so the object hash code has to be stable across JVMs
+ * for it to be usable as a key.
+ *
+ * @param <T> the encoded type
+ */
+public abstract class BinaryValueCodec<T> implements ValueCodec<T> {
+
+  @Override
+  public final Object encode(T input) {
+    return new ValueWrapper(hashCode(input), toBytes(input));
+  }
+
+  @Override
+  public final T decode(Object input) {
+    return fromBytes(((ValueWrapper) input).getValue());
+  }
+
+  protected int hashCode(T input) {
+    return input.hashCode();
+  }
+
+  protected abstract byte[] toBytes(T input);
+
+  protected abstract T fromBytes(byte[] bytes);
+}
@@ -0,0 +1,655 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map;
+
+import org.terracotta.entity.map.common.ChangeListener;
+import org.terracotta.entity.map.common.ConcurrentClusteredMap;
+import org.terracotta.entity.map.common.EvictionListener;
+import org.terracotta.entity.map.common.StoredKeyOrder;
+import org.terracotta.entity.map.common.ValueWrapper;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A clustered map partitioned over several map entities, possibly on different stripes, to scale beyond the capacity
+ * and throughput of a single active server.
+ * <p>
+ * Keys are assigned to shards by the hash of their encoded form, which unlike their own hash code is the same in all
+ * JVMs, so all the clients of a sharded map must list the same shards in the same order and use the same key codec.
+ * Operations on a single key go to its shard, with the key encoded once, while operations on the whole map are sent
+ * to all shards in parallel and their results merged. Operations spanning several shards are not atomic. As with a
+ * single map entity, keys of another type than the key type are absent.
+ * <p>
+ * When the shards are sorted, ordered operations merge the shards in the order the server sorts keys, see
+ * {@link StoredKeyOrder}.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@SuppressWarnings("unchecked")
+public class ShardedClusteredMap<K, V> implements ConcurrentClusteredMap<K, V> {
+
+  private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+  private final List<ConcurrentClusteredMap<K, V>> shards;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private volatile Class<K> keyClass;
+  private volatile ValueCodec<K> keyCodec;
+
+  /**
+   * @param shards the map entities holding the shards, in the same order for all clients
+   * @throws IllegalArgumentException if a shard is not a {@link TerracottaClusteredMap} or a sharded map
+   */
+  public ShardedClusteredMap(List<? extends ConcurrentClusteredMap<K, V>> shards) {
+    this(shards, Executors.newCachedThreadPool(new ThreadFactory() {
+      private final String prefix = "sharded-clustered-map-" + POOL_COUNTER.incrementAndGet() + "-";
+      private final AtomicInteger threadCounter = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, prefix + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    }), true);
+  }
+
+  /**
+   * @param shards the map entities holding the shards, in the same order for all clients
+   * @param executor the executor running the operations sent to all shards
+   * @throws IllegalArgumentException if a shard is not a {@link TerracottaClusteredMap} or a sharded map
+   */
+  public ShardedClusteredMap(List<? extends ConcurrentClusteredMap<K, V>> shards, ExecutorService executor) {
+    this(shards, executor, false);
+  }
+
+  private ShardedClusteredMap(List<? extends ConcurrentClusteredMap<K, V>> shards, ExecutorService executor, boolean ownsExecutor) {
+    if (shards.isEmpty()) {
+      throw new IllegalArgumentException("A sharded map needs at least one shard");
+    }
+    for (ConcurrentClusteredMap<K, V> shard : shards) {
+      if (!(shard instanceof TerracottaClusteredMap<?, ?>) && !(shard instanceof ShardedClusteredMap<?, ?>)) {
+        throw new IllegalArgumentException("Shard " + shard + " is not a clustered map entity or a sharded map");
+      }
+    }
+    this.shards = Collections.unmodifiableList(new ArrayList<ConcurrentClusteredMap<K, V>>(shards));
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+  }
+
+  /**
+   * Mixes the hash of the encoded key to a fraction of 2<sup>32</sup>, which {@link #shardFor(Object, long)} maps to
+   * a shard by its high bits, so that the keys of a shard remain spread over the segments of its entity, which are
+   * chosen by the low bits of the hash.
+   * <p>
+   * Keys encoded to bytes are hashed from their bytes, as the hash code a {@link ValueWrapper} carries is the one of
+   * the original key.
+   */
+  static long mixedHash(Object encodedKey) {
+    int hash = encodedKey instanceof ValueWrapper ? Arrays.hashCode(((ValueWrapper) encodedKey).getValue()) : encodedKey.hashCode();
+    return (hash * 0x9E3779B9L) & 0xFFFFFFFFL;
+  }
+
+  /**
+   * @return the map entity holding {@code encodedKey}, which the keyed operation is sent to with the key already
+   * encoded
+   */
+  private TerracottaClusteredMap<K, V> shardFor(Object encodedKey) {
+    return shardFor(encodedKey, mixedHash(encodedKey));
+  }
+
+  /**
+   * Scales {@code fraction} by the shard count: the integer part is the shard, and a nested sharded map picks its own
+   * shard from the remaining fraction, so that the keys of a shard spread over all of its nested shards.
+   */
+  private TerracottaClusteredMap<K, V> shardFor(Object encodedKey, long fraction) {
+    long scaled = fraction * shards.size();
+    ConcurrentClusteredMap<K, V> shard = shards.get((int) (scaled >>> 32));
+    if (shard instanceof ShardedClusteredMap<?, ?>) {
+      return ((ShardedClusteredMap<K, V>) shard).shardFor(encodedKey, scaled & 0xFFFFFFFFL);
+    } else {
+      return (TerracottaClusteredMap<K, V>) shard;
+    }
+  }
+
+  /**
+   * @return {@code true} if {@code key} is of the key type, keys of other types being absent from the map
+   */
+  private boolean isKey(Object key) {
+    Class<K> type = keyClass;
+    if (type == null) {
+      throw new IllegalStateException("The key and value types of the map must be set first");
+    }
+    return type.isAssignableFrom(key.getClass());
+  }
+
+  private Object encode(K key) {
+    ValueCodec<K> codec = keyCodec;
+    if (codec == null) {
+      throw new IllegalStateException("The key and value types of the map must be set first");
+    }
+    return codec.encode(key);
+  }
+
+  private interface ShardCall<K, V, R> {
+    R call(ConcurrentClusteredMap<K, V> shard);
+  }
+
+  private <R> List<R> onAllShards(final ShardCall<K, V, R> call) {
+    List<Future<R>> futures = new ArrayList<Future<R>>(shards.size());
+    for (final ConcurrentClusteredMap<K, V> shard : shards) {
+      futures.add(executor.submit(new Callable<R>() {
+        @Override
+        public R call() {
+          return call.call(shard);
+        }
+      }));
+    }
+    return getAll(futures);
+  }
+
+  private static <R> List<R> getAll(List<Future<R>> futures) {
+    List<R> results = new ArrayList<R>(futures.size());
+    try {
+      for (Future<R> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for shards", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw new RuntimeException("Shard operation failed", e.getCause());
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public void setTypes(Class<K> keyClass, Class<V> valueClass) {
+    for (ConcurrentClusteredMap<K, V> shard : shards) {
+      shard.setTypes(keyClass, valueClass);
+    }
+    this.keyClass = keyClass;
+    keyCodec = new ValueCodecFactory().getCodecForClass(keyClass);
+  }
+
+  /**
+   * Records the key and value classes, encoding them with the codecs of {@code codecs}.
+   *
+   * @param keyClass the key class
+   * @param valueClass the value class
+   * @param codecs the factory providing the key and value codecs
+   * @throws IllegalArgumentException if a shard is not a {@link TerracottaClusteredMap} or a sharded map
+   */
+  public void setTypes(Class<K> keyClass, Class<V> valueClass, ValueCodecFactory codecs) {
+    for (ConcurrentClusteredMap<K, V> shard : shards) {
+      if (shard instanceof TerracottaClusteredMap<?, ?>) {
+        ((TerracottaClusteredMap<K, V>) shard).setTypes(keyClass, valueClass, codecs);
+      } else if (shard instanceof ShardedClusteredMap<?, ?>) {
+        ((ShardedClusteredMap<K, V>) shard).setTypes(keyClass, valueClass, codecs);
+      } else {
+        throw new IllegalArgumentException("Shard " + shard + " does not support custom codecs");
+      }
+    }
+    this.keyClass = keyClass;
+    keyCodec = codecs.getCodecForClass(keyClass);
+  }
+
+  @Override
+  public void close() {
+    try {
+      for (ConcurrentClusteredMap<K, V> shard : shards) {
+        shard.close();
+      }
+    } finally {
+      if (ownsExecutor) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    long size = 0;
+    for (Integer shardSize : onAllShards(new ShardCall<K, V, Integer>() {
+      @Override
+      public Integer call(ConcurrentClusteredMap<K, V> shard) {
+        return shard.size();
+      }
+    })) {
+      size += shardSize;
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    if (!isKey(key)) {
+      return false;
+    }
+    Object encodedKey = encode((K) key);
+    return shardFor(encodedKey).containsEncodedKey(encodedKey);
+  }
+
+  @Override
+  public boolean containsValue(final Object value) {
+    return onAllShards(new ShardCall<K, V, Boolean>() {
+      @Override
+      public Boolean call(ConcurrentClusteredMap<K, V> shard) {
+        return shard.containsValue(value);
+      }
+    }).contains(Boolean.TRUE);
+  }
+
+  @Override
+  public V get(Object key) {
+    if (!isKey(key)) {
+      return null;
+    }
+    Object encodedKey = encode((K) key);
+    return shardFor(encodedKey).getEncoded(encodedKey);
+  }
+
+  @Override
+  public V put(K key, V value) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).putEncoded(encodedKey, value);
+  }
+
+  @Override
+  public V remove(Object key) {
+    if (!isKey(key)) {
+      return null;
+    }
+    Object encodedKey = encode((K) key);
+    return shardFor(encodedKey).removeEncoded(encodedKey);
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m) {
+    Map<TerracottaClusteredMap<K, V>, Map<Object, V>> perShard = new HashMap<TerracottaClusteredMap<K, V>, Map<Object, V>>();
+    for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+      Object encodedKey = encode(entry.getKey());
+      TerracottaClusteredMap<K, V> shard = shardFor(encodedKey);
+      Map<Object, V> shardEntries = perShard.get(shard);
+      if (shardEntries == null) {
+        shardEntries = new HashMap<Object, V>();
+        perShard.put(shard, shardEntries);
+      }
+      shardEntries.put(encodedKey, entry.getValue());
+    }
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(perShard.size());
+    for (final Entry<TerracottaClusteredMap<K, V>, Map<Object, V>> shardEntries : perShard.entrySet()) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          shardEntries.getKey().putAllEncoded(shardEntries.getValue());
+          return null;
+        }
+      }));
+    }
+    getAll(futures);
+  }
+
+  @Override
+  public void clear() {
+    onAllShards(new ShardCall<K, V, Void>() {
+      @Override
+      public Void call(ConcurrentClusteredMap<K, V> shard) {
+        shard.clear();
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public Set<K> keySet() {
+    Set<K> keys = new HashSet<K>();
+    for (Set<K> shardKeys : onAllShards(new ShardCall<K, V, Set<K>>() {
+      @Override
+      public Set<K> call(ConcurrentClusteredMap<K, V> shard) {
+        return shard.keySet();
+      }
+    })) {
+      keys.addAll(shardKeys);
+    }
+    return keys;
+  }
+
+  @Override
+  public Collection<V> values() {
+    List<V> values = new ArrayList<V>();
+    for (Collection<V> shardValues : onAllShards(new ShardCall<K, V, Collection<V>>() {
+      @Override
+      public Collection<V> call(ConcurrentClusteredMap<K, V> shard) {
+        return shard.values();
+      }
+    })) {
+      values.addAll(shardValues);
+    }
+    return values;
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    Set<Entry<K, V>> entries = new HashSet<Entry<K, V>>();
+    for (Set<Entry<K, V>> shardEntries : onAllShards(new ShardCall<K, V, Set<Entry<K, V>>>() {
+      @Override
+      public Set<Entry<K, V>> call(ConcurrentClusteredMap<K, V> shard) {
+        return shard.entrySet();
+      }
+    })) {
+      for (Entry<K, V> entry : shardEntries) {
+        entries.add(new AbstractMap.SimpleEntry<K, V>(entry.getKey(), entry.getValue()));
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).putIfAbsentEncoded(encodedKey, value);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    if (!isKey(key)) {
+      return false;
+    }
+    Object encodedKey = encode((K) key);
+    return shardFor(encodedKey).removeEncoded(encodedKey, value);
+  }
+
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).replaceEncoded(encodedKey, oldValue, newValue);
+  }
+
+  @Override
+  public V replace(K key, V value) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).replaceEncoded(encodedKey, value);
+  }
+
+  @Override
+  public V compute(K key, String function, Object argument) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).computeEncoded(encodedKey, function, argument);
+  }
+
+  @Override
+  public V mergeWith(K key, V value, String function) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).mergeWithEncoded(encodedKey, value, function);
+  }
+
+  @Override
+  public V computeIfAbsent(K key, String function, Object argument) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).computeIfAbsentEncoded(encodedKey, function, argument);
+  }
+
+  @Override
+  public V put(K key, V value, long timeToLive, TimeUnit unit) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).putEncoded(encodedKey, value, timeToLive, unit);
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value, long timeToLive, TimeUnit unit) {
+    Object encodedKey = encode(key);
+    return shardFor(encodedKey).putIfAbsentEncoded(encodedKey, value, timeToLive, unit);
+  }
+
+  @Override
+  public void addEvictionListener(EvictionListener<K> listener) {
+    for (ConcurrentClusteredMap<K, V> shard : shards) {
+      shard.addEvictionListener(listener);
+    }
+  }
+
+  @Override
+  public void removeEvictionListener(EvictionListener<K> listener) {
+    for (ConcurrentClusteredMap<K, V> shard : shards) {
+      shard.removeEvictionListener(listener);
+    }
+  }
+
+  /**
+   * Registers {@code listener} with every shard, so it may receive changes from several shards concurrently and
+   * {@link ChangeListener#onClear()} once per shard.
+   */
+  @Override
+  public void addChangeListener(ChangeListener<K, V> listener, long batchWindow, TimeUnit unit) {
+    for (ConcurrentClusteredMap<K, V> shard : shards) {
+      shard.addChangeListener(listener, batchWindow, unit);
+    }
+  }
+
+  @Override
+  public void removeChangeListener(ChangeListener<K, V> listener) {
+    for (ConcurrentClusteredMap<K, V> shard : shards) {
+      shard.removeChangeListener(listener);
+    }
+  }
+
+  @Override
+  public Iterator<Object> query(final String query, final Object argument, final int pageSize) {
+    return new ConcatenatingIterator<Object>() {
+      @Override
+      Iterator<Object> iterate(ConcurrentClusteredMap<K, V> shard) {
+        return shard.query(query, argument, pageSize);
+      }
+    };
+  }
+
+  @Override
+  public Iterator<K> queryKeys(final String query, final Object argument, final int pageSize) {
+    return new ConcatenatingIterator<K>() {
+      @Override
+      Iterator<K> iterate(ConcurrentClusteredMap<K, V> shard) {
+        return shard.queryKeys(query, argument, pageSize);
+      }
+    };
+  }
+
+  @Override
+  public K firstKey() {
+    K first = null;
+    for (K key : onAllShards(new ShardCall<K, V, K>() {
+      @Override
+      public K call(ConcurrentClusteredMap<K, V> shard) {
+        return shard.firstKey();
+      }
+    })) {
+      if (key != null && (first == null || compare(key, first) < 0)) {
+        first = key;
+      }
+    }
+    return first;
+  }
+
+  @Override
+  public K lastKey() {
+    K last = null;
+    for (K key : onAllShards(new ShardCall<K, V, K>() {
+      @Override
+      public K call(ConcurrentClusteredMap<K, V> shard) {
+        return shard.lastKey();
+      }
+    })) {
+      if (key != null && (last == null || compare(key, last) > 0)) {
+        last = key;
+      }
+    }
+    return last;
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> range(K fromKey, K toKey, int pageSize) {
+    return new MergingIterator(fromKey, toKey, pageSize);
+  }
+
+  private int compare(K a, K b) {
+    return StoredKeyOrder.INSTANCE.compare(encode(a), encode(b));
+  }
+
+  @Override
+  public void enableWriteBehind(int batchSize, int maxPending, long maxDelay, TimeUnit unit) {
+    for (ConcurrentClusteredMap<K, V> shard : shards) {
+      shard.enableWriteBehind(batchSize, maxPending, maxDelay, unit);
+    }
+  }
+
+  @Override
+  public void flush() {
+    onAllShards(new ShardCall<K, V, Void>() {
+      @Override
+      public Void call(ConcurrentClusteredMap<K, V> shard) {
+        shard.flush();
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Iterates over the shards one after the other, only starting the iteration of a shard once the previous one is
+   * exhausted.
+   */
+  private abstract class ConcatenatingIterator<T> implements Iterator<T> {
+    private final Iterator<ConcurrentClusteredMap<K, V>> remainingShards = shards.iterator();
+    private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+    abstract Iterator<T> iterate(ConcurrentClusteredMap<K, V> shard);
+
+    @Override
+    public boolean hasNext() {
+      while (!current.hasNext()) {
+        if (!remainingShards.hasNext()) {
+          return false;
+        }
+        current = iterate(remainingShards.next());
+      }
+      return true;
+    }
+
+    @Override
+    public T next() {
+      if (hasNext()) {
+        return current.next();
+      } else {
+        throw new NoSuchElementException();
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Merges the ranges of all shards, each shard range being read a page at a time.
+   */
+  private class MergingIterator implements Iterator<Map.Entry<K, V>> {
+    private final PriorityQueue<ShardRange> heads;
+
+    MergingIterator(K fromKey, K toKey, int pageSize) {
+      heads = new PriorityQueue<ShardRange>(shards.size());
+      for (ConcurrentClusteredMap<K, V> shard : shards) {
+        ShardRange range = new ShardRange(shard.range(fromKey, toKey, pageSize));
+        if (range.advance()) {
+          heads.add(range);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !heads.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+      ShardRange range = heads.poll();
+      if (range == null) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<K, V> entry = range.head;
+      if (range.advance()) {
+        heads.add(range);
+      }
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private class ShardRange implements Comparable<ShardRange> {
+    private final Iterator<Map.Entry<K, V>> entries;
+    private Map.Entry<K, V> head;
+    private Object encodedHeadKey;
+
+    ShardRange(Iterator<Map.Entry<K, V>> entries) {
+      this.entries = entries;
+    }
+
+    boolean advance() {
+      head = entries.hasNext() ? entries.next() : null;
+      encodedHeadKey = head == null ? null : encode(head.getKey());
+      return head != null;
+    }
+
+    @Override
+    public int compareTo(ShardRange other) {
+      return StoredKeyOrder.INSTANCE.compare(encodedHeadKey, other.encodedHeadKey);
+    }
+  }
+}
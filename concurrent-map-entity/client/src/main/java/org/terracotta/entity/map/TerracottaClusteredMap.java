@@ -15,9 +15,18 @@
  */
 package org.terracotta.entity.map;
 
+import org.terracotta.entity.EndpointDelegate;
 import org.terracotta.entity.EntityClientEndpoint;
+import org.terracotta.entity.EntityResponse;
+import org.terracotta.entity.InvokeFuture;
 import org.terracotta.entity.map.common.BooleanResponse;
+import org.terracotta.entity.map.common.BuiltinFunctions;
+import org.terracotta.entity.map.common.ChangeEvent;
+import org.terracotta.entity.map.common.ChangeEventsResponse;
+import org.terracotta.entity.map.common.ChangeListener;
 import org.terracotta.entity.map.common.ClearOperation;
+import org.terracotta.entity.map.common.ComputeIfAbsentOperation;
+import org.terracotta.entity.map.common.ComputeOperation;
 import org.terracotta.entity.map.common.ConcurrentClusteredMap;
 import org.terracotta.entity.map.common.ConditionalRemoveOperation;
 import org.terracotta.entity.map.common.ConditionalReplaceOperation;
@@ -25,31 +34,50 @@ import org.terracotta.entity.map.common.ContainsKeyOperation;
 import org.terracotta.entity.map.common.ContainsValueOperation;
 import org.terracotta.entity.map.common.EntrySetOperation;
 import org.terracotta.entity.map.common.EntrySetResponse;
+import org.terracotta.entity.map.common.ErrorResponse;
+import org.terracotta.entity.map.common.EvictedKeysResponse;
+import org.terracotta.entity.map.common.EvictionListener;
 import org.terracotta.entity.map.common.GetOperation;
 import org.terracotta.entity.map.common.KeySetOperation;
 import org.terracotta.entity.map.common.KeySetResponse;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
 import org.terracotta.entity.map.common.MapValueResponse;
+import org.terracotta.entity.map.common.MergeOperation;
 import org.terracotta.entity.map.common.PutAllOperation;
 import org.terracotta.entity.map.common.PutIfAbsentOperation;
+import org.terracotta.entity.map.common.PutIfAbsentWithTtlOperation;
 import org.terracotta.entity.map.common.PutIfPresentOperation;
 import org.terracotta.entity.map.common.PutOperation;
+import org.terracotta.entity.map.common.PutWithTtlOperation;
+import org.terracotta.entity.map.common.FirstKeyOperation;
+import org.terracotta.entity.map.common.LastKeyOperation;
+import org.terracotta.entity.map.common.QueryOperation;
+import org.terracotta.entity.map.common.QueryResponse;
+import org.terracotta.entity.map.common.RangeOperation;
+import org.terracotta.entity.map.common.RangeResponse;
 import org.terracotta.entity.map.common.RemoveOperation;
 import org.terracotta.entity.map.common.SizeOperation;
 import org.terracotta.entity.map.common.SizeResponse;
+import org.terracotta.entity.map.common.SubscribeChangesOperation;
+import org.terracotta.entity.map.common.SubscribeEvictionsOperation;
 import org.terracotta.entity.map.common.ValueCollectionResponse;
 import org.terracotta.entity.map.common.ValuesOperation;
+import org.terracotta.entity.map.common.WriteEntriesOperation;
 
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Map;
 import java.util.Set;
-
-import static org.terracotta.entity.map.ValueCodecFactory.getCodecForClass;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings("unchecked")
 public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V> {
@@ -61,21 +89,50 @@ public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V
   private ValueCodec<K> keyValueCodec;
   private ValueCodec<V> valueValueCodec;
 
+  private final List<EvictionListener<K>> evictionListeners = new CopyOnWriteArrayList<EvictionListener<K>>();
+  private volatile boolean subscribedToEvictions;
+  private final List<ChangeListener<K, V>> changeListeners = new CopyOnWriteArrayList<ChangeListener<K, V>>();
+  private volatile long changesBatchWindowMillis;
+  // Only guards the subscription: change batches are delivered under the changeListeners monitor, and may arrive
+  // before the subscription is acknowledged
+  private final Object changesSubscription = new Object();
+  private long expectedChangesSequence;
+  private volatile WriteBehindBuffer writeBehind;
+
   public TerracottaClusteredMap(EntityClientEndpoint<MapOperation, MapResponse> endpoint) {
     this.endpoint = endpoint;
+    this.endpoint.setDelegate(new ClusteredMapDelegate());
   }
 
   @Override
   public void setTypes(Class<K> keyClass, Class<V> valueClass) {
+    setTypes(keyClass, valueClass, new ValueCodecFactory());
+  }
+
+  /**
+   * Records the key and value classes, encoding them with the codecs of {@code codecs}.
+   *
+   * @param keyClass the key class
+   * @param valueClass the value class
+   * @param codecs the factory providing the key and value codecs
+   */
+  public void setTypes(Class<K> keyClass, Class<V> valueClass, ValueCodecFactory codecs) {
     this.keyClass = keyClass;
     this.valueClass = valueClass;
-    keyValueCodec = getCodecForClass(keyClass);
-    valueValueCodec = getCodecForClass(valueClass);
+    keyValueCodec = codecs.getCodecForClass(keyClass);
+    valueValueCodec = codecs.getCodecForClass(valueClass);
   }
 
   @Override
   public void close() {
-    this.endpoint.close();
+    WriteBehindBuffer buffer = writeBehind;
+    try {
+      if (buffer != null) {
+        buffer.close();
+      }
+    } finally {
+      this.endpoint.close();
+    }
   }
 
   @Override
@@ -97,10 +154,22 @@ public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V
 
   @Override
   public boolean containsKey(Object key) {
-    if (!keyClass.isAssignableFrom(key.getClass())) {
-      return false;
+    return keyClass.isAssignableFrom(key.getClass()) && containsEncodedKey(keyValueCodec.encode((K) key));
+  }
+
+  /**
+   * Like the other keyed operations suffixed with {@code Encoded}, takes a key already encoded by the key codec, so
+   * that a {@link ShardedClusteredMap} encodes each key once, both to choose its shard and to send it.
+   */
+  boolean containsEncodedKey(Object encodedKey) {
+    WriteBehindBuffer buffer = writeBehind;
+    if (buffer != null) {
+      Object buffered = buffer.lookup(encodedKey);
+      if (buffered != WriteBehindBuffer.MISSING) {
+        return buffered != null;
+      }
     }
-    return ((BooleanResponse)invokeWithReturn(new ContainsKeyOperation(keyValueCodec.encode((K)key)))).isTrue();
+    return ((BooleanResponse)invokeDirectly(new ContainsKeyOperation(encodedKey))).isTrue();
   }
 
   @Override
@@ -113,45 +182,110 @@ public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V
 
   @Override
   public V get(Object key) {
-    if (!keyClass.isAssignableFrom(key.getClass())) {
-      return null;
+    return keyClass.isAssignableFrom(key.getClass()) ? getEncoded(keyValueCodec.encode((K) key)) : null;
+  }
+
+  V getEncoded(Object encodedKey) {
+    WriteBehindBuffer buffer = writeBehind;
+    if (buffer != null) {
+      Object buffered = buffer.lookup(encodedKey);
+      if (buffered != WriteBehindBuffer.MISSING) {
+        return valueValueCodec.decode(buffered);
+      }
     }
-    MapValueResponse response = (MapValueResponse) invokeWithReturn(new GetOperation(keyValueCodec.encode((K) key)));
+    MapValueResponse response = (MapValueResponse) invokeDirectly(new GetOperation(encodedKey));
     return valueValueCodec.decode(response.getValue());
   }
 
   @Override
   public V put(K key, V value) {
-    MapValueResponse response = (MapValueResponse) invokeWithReturn(new PutOperation(keyValueCodec.encode(key), valueValueCodec.encode(value)));
+    return putEncoded(keyValueCodec.encode(key), value);
+  }
+
+  V putEncoded(Object encodedKey, V value) {
+    WriteBehindBuffer buffer = writeBehind;
+    if (buffer != null) {
+      buffer.put(encodedKey, valueValueCodec.encode(value));
+      return null;
+    }
+    MapValueResponse response = (MapValueResponse) invokeWithReturn(new PutOperation(encodedKey, valueValueCodec.encode(value)));
     return valueValueCodec.decode(response.getValue());
   }
 
   @Override
   public V remove(Object key) {
-    if (!keyClass.isAssignableFrom(key.getClass())) {
+    return keyClass.isAssignableFrom(key.getClass()) ? removeEncoded(keyValueCodec.encode((K) key)) : null;
+  }
+
+  V removeEncoded(Object encodedKey) {
+    WriteBehindBuffer buffer = writeBehind;
+    if (buffer != null) {
+      buffer.remove(encodedKey);
       return null;
     }
-    MapValueResponse mapValueResponse = (MapValueResponse) invokeWithReturn(new RemoveOperation(keyValueCodec.encode((K) key)));
+    MapValueResponse mapValueResponse = (MapValueResponse) invokeWithReturn(new RemoveOperation(encodedKey));
     return valueValueCodec.decode(mapValueResponse.getValue());
   }
 
+  /**
+   * Invokes {@code operation} once the buffered writes, if any, are applied.
+   */
   private MapResponse invokeWithReturn(MapOperation operation) {
+    WriteBehindBuffer buffer = writeBehind;
+    if (buffer != null) {
+      buffer.flush();
+    }
+    return invokeDirectly(operation);
+  }
+
+  private MapResponse invokeDirectly(MapOperation operation) {
+    return getResponse(operation, invokeAsync(operation));
+  }
+
+  private InvokeFuture<MapResponse> invokeAsync(MapOperation operation) {
     try {
       return endpoint.beginInvoke()
           .message(operation)
           .replicate(operation.operationType().replicate())
-          .invoke()
-          .get();
+          .invoke();
     } catch (Exception e) {
       throw new RuntimeException("Exception while processing map operation " + operation, e);
     }
   }
 
+  private static MapResponse getResponse(MapOperation operation, InvokeFuture<MapResponse> future) {
+    MapResponse response;
+    try {
+      response = future.get();
+    } catch (Exception e) {
+      throw new RuntimeException("Exception while processing map operation " + operation, e);
+    }
+    if (response instanceof ErrorResponse) {
+      throw new IllegalArgumentException(((ErrorResponse) response).getMessage());
+    }
+    return response;
+  }
+
   @Override
   public void putAll(Map<? extends K, ? extends V> m) {
-    HashMap<Object, Object> input = new HashMap<Object, Object>();
+    HashMap<Object, V> encoded = new HashMap<Object, V>();
     for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
-      input.put(keyValueCodec.encode(entry.getKey()), valueValueCodec.encode(entry.getValue()));
+      encoded.put(keyValueCodec.encode(entry.getKey()), entry.getValue());
+    }
+    putAllEncoded(encoded);
+  }
+
+  void putAllEncoded(Map<Object, ? extends V> m) {
+    WriteBehindBuffer buffer = writeBehind;
+    if (buffer != null) {
+      for (Entry<Object, ? extends V> entry : m.entrySet()) {
+        buffer.put(entry.getKey(), valueValueCodec.encode(entry.getValue()));
+      }
+      return;
+    }
+    HashMap<Object, Object> input = new HashMap<Object, Object>();
+    for (Entry<Object, ? extends V> entry : m.entrySet()) {
+      input.put(entry.getKey(), valueValueCodec.encode(entry.getValue()));
     }
     invokeWithReturn(new PutAllOperation(input));
   }
@@ -193,32 +327,447 @@ public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V
 
   @Override
   public V putIfAbsent(K key, V value) {
-    MapValueResponse response = (MapValueResponse) invokeWithReturn(new PutIfAbsentOperation(keyValueCodec.encode(key), valueValueCodec.encode(value)));
+    return putIfAbsentEncoded(keyValueCodec.encode(key), value);
+  }
+
+  V putIfAbsentEncoded(Object encodedKey, V value) {
+    MapValueResponse response = (MapValueResponse) invokeWithReturn(new PutIfAbsentOperation(encodedKey, valueValueCodec.encode(value)));
     return valueValueCodec.decode(response.getValue());
   }
 
   @Override
   public boolean remove(Object key, Object value) {
-    if (!keyClass.isAssignableFrom(key.getClass())) {
-      return false;
-    }
+    return keyClass.isAssignableFrom(key.getClass()) && removeEncoded(keyValueCodec.encode((K) key), value);
+  }
+
+  boolean removeEncoded(Object encodedKey, Object value) {
     if (!valueClass.isAssignableFrom(value.getClass())) {
       return false;
     }
-    MapOperation operation = new ConditionalRemoveOperation(keyValueCodec.encode((K) key), valueValueCodec.encode((V) value));
+    MapOperation operation = new ConditionalRemoveOperation(encodedKey, valueValueCodec.encode((V) value));
     return ((BooleanResponse) invokeWithReturn(operation)).isTrue();
   }
 
   @Override
   public boolean replace(K key, V oldValue, V newValue) {
-    MapOperation operation = new ConditionalReplaceOperation(keyValueCodec.encode(key), valueValueCodec.encode(oldValue), valueValueCodec.encode(newValue));
+    return replaceEncoded(keyValueCodec.encode(key), oldValue, newValue);
+  }
+
+  boolean replaceEncoded(Object encodedKey, V oldValue, V newValue) {
+    MapOperation operation = new ConditionalReplaceOperation(encodedKey, valueValueCodec.encode(oldValue), valueValueCodec.encode(newValue));
     return ((BooleanResponse) invokeWithReturn(operation)).isTrue();
   }
 
   @Override
   public V replace(K key, V value) {
-    MapOperation operation = new PutIfPresentOperation(keyValueCodec.encode(key), valueValueCodec.encode(value));
+    return replaceEncoded(keyValueCodec.encode(key), value);
+  }
+
+  V replaceEncoded(Object encodedKey, V value) {
+    MapOperation operation = new PutIfPresentOperation(encodedKey, valueValueCodec.encode(value));
+    MapValueResponse response = (MapValueResponse) invokeWithReturn(operation);
+    return valueValueCodec.decode(response.getValue());
+  }
+
+  @Override
+  public V compute(K key, String function, Object argument) {
+    return computeEncoded(keyValueCodec.encode(key), function, argument);
+  }
+
+  V computeEncoded(Object encodedKey, String function, Object argument) {
+    MapOperation operation = new ComputeOperation(encodedKey, function, toValueType(function, argument));
+    MapValueResponse response = (MapValueResponse) invokeWithReturn(operation);
+    return valueValueCodec.decode(response.getValue());
+  }
+
+  @Override
+  public V mergeWith(K key, V value, String function) {
+    return mergeWithEncoded(keyValueCodec.encode(key), value, function);
+  }
+
+  V mergeWithEncoded(Object encodedKey, V value, String function) {
+    MapOperation operation = new MergeOperation(encodedKey, valueValueCodec.encode(value), function);
     MapValueResponse response = (MapValueResponse) invokeWithReturn(operation);
     return valueValueCodec.decode(response.getValue());
   }
+
+  @Override
+  public V computeIfAbsent(K key, String function, Object argument) {
+    return computeIfAbsentEncoded(keyValueCodec.encode(key), function, argument);
+  }
+
+  V computeIfAbsentEncoded(Object encodedKey, String function, Object argument) {
+    MapOperation operation = new ComputeIfAbsentOperation(encodedKey, function, toValueType(function, argument));
+    MapValueResponse response = (MapValueResponse) invokeWithReturn(operation);
+    return valueValueCodec.decode(response.getValue());
+  }
+
+  @Override
+  public V put(K key, V value, long timeToLive, TimeUnit unit) {
+    return putEncoded(keyValueCodec.encode(key), value, timeToLive, unit);
+  }
+
+  V putEncoded(Object encodedKey, V value, long timeToLive, TimeUnit unit) {
+    MapOperation operation = new PutWithTtlOperation(encodedKey, valueValueCodec.encode(value), toTimeToLiveMillis(timeToLive, unit));
+    MapValueResponse response = (MapValueResponse) invokeWithReturn(operation);
+    return valueValueCodec.decode(response.getValue());
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value, long timeToLive, TimeUnit unit) {
+    return putIfAbsentEncoded(keyValueCodec.encode(key), value, timeToLive, unit);
+  }
+
+  V putIfAbsentEncoded(Object encodedKey, V value, long timeToLive, TimeUnit unit) {
+    MapOperation operation = new PutIfAbsentWithTtlOperation(encodedKey, valueValueCodec.encode(value), toTimeToLiveMillis(timeToLive, unit));
+    MapValueResponse response = (MapValueResponse) invokeWithReturn(operation);
+    return valueValueCodec.decode(response.getValue());
+  }
+
+  @Override
+  public void addEvictionListener(EvictionListener<K> listener) {
+    evictionListeners.add(listener);
+    synchronized (evictionListeners) {
+      if (!subscribedToEvictions) {
+        invokeWithReturn(new SubscribeEvictionsOperation());
+        subscribedToEvictions = true;
+      }
+    }
+  }
+
+  @Override
+  public void removeEvictionListener(EvictionListener<K> listener) {
+    evictionListeners.remove(listener);
+  }
+
+  @Override
+  public void addChangeListener(ChangeListener<K, V> listener, long batchWindow, TimeUnit unit) {
+    if (batchWindow <= 0) {
+      throw new IllegalArgumentException("Batch window must be positive: " + batchWindow);
+    }
+    changeListeners.add(listener);
+    synchronized (changesSubscription) {
+      if (changesBatchWindowMillis == 0) {
+        long batchWindowMillis = Math.max(1, unit.toMillis(batchWindow));
+        invokeWithReturn(new SubscribeChangesOperation(batchWindowMillis));
+        changesBatchWindowMillis = batchWindowMillis;
+      }
+    }
+  }
+
+  @Override
+  public void removeChangeListener(ChangeListener<K, V> listener) {
+    changeListeners.remove(listener);
+  }
+
+  private void handleChanges(ChangeEventsResponse changes) {
+    synchronized (changeListeners) {
+      boolean resync = changes.isResync() || changes.getSequence() != expectedChangesSequence;
+      expectedChangesSequence = changes.getSequence() + 1;
+      for (ChangeListener<K, V> listener : changeListeners) {
+        if (resync) {
+          listener.onResync();
+        }
+        for (ChangeEvent event : changes.getEvents()) {
+          switch (event.getType()) {
+            case PUT:
+              listener.onPut(keyValueCodec.decode(event.getKey()), valueValueCodec.decode(event.getValue()));
+              break;
+            case REMOVE:
+              listener.onRemove(keyValueCodec.decode(event.getKey()));
+              break;
+            case CLEAR:
+              listener.onClear();
+              break;
+            default:
+              throw new AssertionError("Unsupported change type " + event.getType());
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public Iterator<Object> query(String query, Object argument, int pageSize) {
+    return new QueryIterator<Object>(query, argument, false, pageSize) {
+      @Override
+      Object decode(Object result) {
+        return result;
+      }
+    };
+  }
+
+  @Override
+  public Iterator<K> queryKeys(String query, Object argument, int pageSize) {
+    return new QueryIterator<K>(query, argument, true, pageSize) {
+      @Override
+      K decode(Object result) {
+        return keyValueCodec.decode(result);
+      }
+    };
+  }
+
+  @Override
+  public K firstKey() {
+    return keyValueCodec.decode(((MapValueResponse) invokeWithReturn(new FirstKeyOperation())).getValue());
+  }
+
+  @Override
+  public K lastKey() {
+    return keyValueCodec.decode(((MapValueResponse) invokeWithReturn(new LastKeyOperation())).getValue());
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> range(K fromKey, K toKey, int pageSize) {
+    return new RangeIterator(fromKey == null ? null : keyValueCodec.encode(fromKey), toKey == null ? null : keyValueCodec.encode(toKey), pageSize);
+  }
+
+  @Override
+  public synchronized void enableWriteBehind(int batchSize, int maxPending, long maxDelay, TimeUnit unit) {
+    if (batchSize <= 0 || maxPending < batchSize) {
+      throw new IllegalArgumentException("Batch size must be positive and at most the maximum pending writes: " + batchSize + ", " + maxPending);
+    }
+    if (maxDelay <= 0) {
+      throw new IllegalArgumentException("Maximum delay must be positive: " + maxDelay);
+    }
+    if (writeBehind != null) {
+      throw new IllegalStateException("Write-behind is already enabled");
+    }
+    writeBehind = new WriteBehindBuffer(new WriteBehindBuffer.Writer() {
+      @Override
+      public void write(Map<Object, Object> puts, Set<Object> removals) {
+        writeEntries(puts, removals);
+      }
+    }, batchSize, maxPending, Math.max(1, unit.toMillis(maxDelay)));
+  }
+
+  /**
+   * Writes a batch as one operation per segment, all in flight at once, so that it is only ordered with the other
+   * operations on the segments it writes rather than excluding all operations on the map.
+   *
+   * @throws WriteBehindBuffer.PartialWriteException listing the keys of the segments that failed, the other segments
+   * being written
+   */
+  private void writeEntries(Map<Object, Object> puts, Set<Object> removals) {
+    Map<Object, Object>[] segmentPuts = new Map[WriteEntriesOperation.SEGMENT_COUNT];
+    Set<Object>[] segmentRemovals = new Set[WriteEntriesOperation.SEGMENT_COUNT];
+    for (int i = 0; i < WriteEntriesOperation.SEGMENT_COUNT; i++) {
+      segmentPuts[i] = new HashMap<Object, Object>();
+      segmentRemovals[i] = new HashSet<Object>();
+    }
+    for (Map.Entry<Object, Object> put : puts.entrySet()) {
+      segmentPuts[WriteEntriesOperation.segmentIndex(put.getKey())].put(put.getKey(), put.getValue());
+    }
+    for (Object removal : removals) {
+      segmentRemovals[WriteEntriesOperation.segmentIndex(removal)].add(removal);
+    }
+
+    List<WriteEntriesOperation> operations = new ArrayList<WriteEntriesOperation>();
+    for (int i = 0; i < WriteEntriesOperation.SEGMENT_COUNT; i++) {
+      if (!segmentPuts[i].isEmpty() || !segmentRemovals[i].isEmpty()) {
+        operations.add(new WriteEntriesOperation(segmentPuts[i], segmentRemovals[i]));
+      }
+    }
+
+    RuntimeException failure = null;
+    List<InvokeFuture<MapResponse>> futures = new ArrayList<InvokeFuture<MapResponse>>();
+    try {
+      for (WriteEntriesOperation operation : operations) {
+        futures.add(invokeAsync(operation));
+      }
+    } catch (RuntimeException e) {
+      // The operations not sent yet fail along with this one
+      failure = e;
+    }
+    Set<Object> failedKeys = new HashSet<Object>();
+    for (int i = 0; i < operations.size(); i++) {
+      WriteEntriesOperation operation = operations.get(i);
+      boolean written = false;
+      if (i < futures.size()) {
+        try {
+          getResponse(operation, futures.get(i));
+          written = true;
+        } catch (RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if (!written) {
+        failedKeys.addAll(operation.getPuts().keySet());
+        failedKeys.addAll(operation.getRemovals());
+      }
+    }
+    if (failure != null) {
+      throw new WriteBehindBuffer.PartialWriteException(failedKeys, failure);
+    }
+  }
+
+  @Override
+  public void flush() {
+    WriteBehindBuffer buffer = writeBehind;
+    if (buffer != null) {
+      buffer.flush();
+    }
+  }
+
+  /**
+   * Converts the delta of an increment to the value type, as it becomes the value of absent keys.
+   */
+  private Object toValueType(String function, Object argument) {
+    if (!BuiltinFunctions.INCREMENT.equals(function) || !(argument instanceof Number) || valueClass.isInstance(argument)) {
+      return argument;
+    }
+    Number delta = (Number) argument;
+    if (valueClass == Long.class) {
+      return delta.longValue();
+    } else if (valueClass == Integer.class) {
+      return delta.intValue();
+    } else if (valueClass == Double.class) {
+      return delta.doubleValue();
+    } else if (valueClass == Float.class) {
+      return delta.floatValue();
+    } else {
+      throw new IllegalArgumentException("Cannot increment values of type " + valueClass);
+    }
+  }
+
+  private static long toTimeToLiveMillis(long timeToLive, TimeUnit unit) {
+    if (timeToLive <= 0) {
+      throw new IllegalArgumentException("Time to live must be positive: " + timeToLive);
+    }
+    return Math.max(1, unit.toMillis(timeToLive));
+  }
+
+  class ClusteredMapDelegate implements EndpointDelegate {
+    @Override
+    public void handleMessage(EntityResponse messageFromServer) {
+      if (messageFromServer instanceof EvictedKeysResponse) {
+        for (Object key : ((EvictedKeysResponse) messageFromServer).getKeys()) {
+          K decodedKey = keyValueCodec.decode(key);
+          for (EvictionListener<K> listener : evictionListeners) {
+            listener.onEviction(decodedKey);
+          }
+        }
+      } else if (messageFromServer instanceof ChangeEventsResponse) {
+        handleChanges((ChangeEventsResponse) messageFromServer);
+      }
+    }
+
+    @Override
+    public byte[] createExtendedReconnectData() {
+      // Re-subscribes to evictions and changes on the server we reconnect to
+      return ByteBuffer.allocate(9).put((byte) (subscribedToEvictions ? 1 : 0)).putLong(changesBatchWindowMillis).array();
+    }
+
+    @Override
+    public void didDisconnectUnexpectedly() {
+    }
+  }
+
+  /**
+   * Fetches the next page of results once the current one is consumed.
+   */
+  abstract class QueryIterator<T> implements Iterator<T> {
+    private final String query;
+    private final Object argument;
+    private final boolean keysOnly;
+    private final int pageSize;
+    private Iterator<Object> page;
+    private QueryResponse lastResponse;
+
+    QueryIterator(String query, Object argument, boolean keysOnly, int pageSize) {
+      if (pageSize <= 0) {
+        throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+      }
+      this.query = query;
+      this.argument = argument;
+      this.keysOnly = keysOnly;
+      this.pageSize = pageSize;
+    }
+
+    abstract T decode(Object result);
+
+    @Override
+    public boolean hasNext() {
+      while (page == null || !page.hasNext()) {
+        if (lastResponse != null && lastResponse.isLast()) {
+          return false;
+        }
+        int segment = lastResponse == null ? 0 : lastResponse.getNextSegment();
+        Object lastKey = lastResponse == null ? null : lastResponse.getLastKey();
+        long cursor = lastResponse == null ? QueryOperation.NO_CURSOR : lastResponse.getCursor();
+        lastResponse = (QueryResponse) invokeWithReturn(new QueryOperation(query, argument, keysOnly, segment, lastKey, pageSize, cursor));
+        page = lastResponse.getResults().iterator();
+      }
+      return true;
+    }
+
+    @Override
+    public T next() {
+      if (hasNext()) {
+        return decode(page.next());
+      } else {
+        throw new NoSuchElementException();
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Fetches the next page of a range once the current one is consumed, resuming after the last key returned.
+   */
+  class RangeIterator implements Iterator<Map.Entry<K, V>> {
+    private final Object toKey;
+    private final int pageSize;
+    private Object fromKey;
+    private boolean fromInclusive = true;
+    private RangeResponse lastResponse;
+    private int index;
+
+    RangeIterator(Object fromKey, Object toKey, int pageSize) {
+      if (pageSize <= 0) {
+        throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+      }
+      this.fromKey = fromKey;
+      this.toKey = toKey;
+      this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (lastResponse == null || index == lastResponse.getKeys().size()) {
+        if (lastResponse != null) {
+          if (lastResponse.isLast()) {
+            return false;
+          }
+          fromKey = lastResponse.getKeys().get(index - 1);
+          fromInclusive = false;
+        }
+        lastResponse = (RangeResponse) invokeWithReturn(new RangeOperation(fromKey, fromInclusive, toKey, pageSize));
+        index = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if (hasNext()) {
+        Object key = lastResponse.getKeys().get(index);
+        Object value = lastResponse.getValues().get(index++);
+        return new AbstractMap.SimpleImmutableEntry<K, V>(keyValueCodec.decode(key), valueValueCodec.decode(value));
+      } else {
+        throw new NoSuchElementException();
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
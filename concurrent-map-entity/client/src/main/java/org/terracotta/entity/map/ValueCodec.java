@@ -15,14 +15,26 @@
  */
 package org.terracotta.entity.map;
 
-import java.io.Serializable;
-
 /**
- * ValueCodec
+ * Converts keys or values of a clustered map to and from the form they are stored in on the server.
+ * <p>
+ * The stored form of keys is compared on the server, so equal keys must be encoded to equal objects with equal hash
+ * codes. Codecs producing bytes can extend {@link BinaryValueCodec} to satisfy this.
+ *
+ * @param <T> the encoded type
+ * @see ValueCodecFactory#registerCodec(Class, ValueCodec)
  */
-interface ValueCodec<T> {
+public interface ValueCodec<T> {
 
+  /**
+   * @param input the object to encode, never {@code null}
+   * @return the encoded form, a {@code String}, a boxed primitive or a {@link org.terracotta.entity.map.common.ValueWrapper}
+   */
   Object encode(T input);
 
+  /**
+   * @param input the encoded form, never {@code null}
+   * @return the decoded object
+   */
   T decode(Object input);
 }
@@ -19,24 +19,81 @@ import org.terracotta.entity.map.common.ValueWrapper;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * ValueCodecFactory
+ * Provides the {@link ValueCodec} of the key and value classes of clustered maps.
+ * <p>
+ * Codecs registered through {@link #registerCodec(Class, ValueCodec)} take precedence. Otherwise boxed primitives and
+ * strings are stored as-is, {@code byte[]}, {@link UUID} and {@link Externalizable} types have dedicated binary codecs
+ * and other types go through Java serialization.
+ * <p>
+ * Registered codecs only apply to the maps given this factory, see
+ * {@link TerracottaClusteredMap#setTypes(Class, Class, ValueCodecFactory)}. The encoded form of the built-in codecs
+ * is part of the wire format of {@link org.terracotta.entity.map.common.ConcurrentClusteredMap#VERSION version 2} of
+ * the map entity.
  */
 public class ValueCodecFactory {
-  static <T> ValueCodec<T> getCodecForClass(Class<T> clazz) {
+
+  private final ConcurrentMap<Class<?>, ValueCodec<?>> registeredCodecs = new ConcurrentHashMap<Class<?>, ValueCodec<?>>();
+
+  /**
+   * Registers the codec used for the key or value class {@code type}, when it is exactly that class.
+   * <p>
+   * All the clients of a map must use the same codecs. Codecs must be registered before the factory is given to the
+   * maps using them.
+   *
+   * @param type the encoded class
+   * @param codec its codec
+   * @param <T> the encoded type
+   * @return this factory
+   */
+  public <T> ValueCodecFactory registerCodec(Class<T> type, ValueCodec<T> codec) {
+    if (codec == null) {
+      throw new NullPointerException("Codec cannot be null");
+    }
+    registeredCodecs.put(type, codec);
+    return this;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> ValueCodec<T> getCodecForClass(Class<T> clazz) {
+    ValueCodec<T> registered = (ValueCodec<T>) registeredCodecs.get(clazz);
+    if (registered != null) {
+      return new NullSafeCodec<T>(registered);
+    }
     if (!Serializable.class.isAssignableFrom(clazz)) {
-      throw new IllegalArgumentException("The provided type is invalid as it is not Serializable " + clazz);
+      throw new IllegalArgumentException("The provided type is invalid as it is not Serializable and has no registered codec " + clazz);
     }
     if (Integer.class.equals(clazz) || Long.class.equals(clazz)
         || Float.class.equals(clazz) || Double.class.equals(clazz)
         || Byte.class.equals(clazz) || Character.class.equals(clazz)
+        || Short.class.equals(clazz) || Boolean.class.equals(clazz)
         || clazz.isPrimitive() || String.class.equals(clazz)) {
       return new IdentityCodec<T>();
+    } else if (byte[].class.equals(clazz)) {
+      return (ValueCodec<T>) new NullSafeCodec<byte[]>(new ByteArrayCodec());
+    } else if (UUID.class.equals(clazz)) {
+      return (ValueCodec<T>) new NullSafeCodec<UUID>(new UUIDCodec());
+    } else if (Externalizable.class.isAssignableFrom(clazz)) {
+      return new NullSafeCodec<T>((ValueCodec<T>) new ExternalizableCodec(clazz.asSubclass(Externalizable.class)));
     } else {
       return new SerializationWrapperCodec<T>();
     }
@@ -48,12 +105,160 @@ public class ValueCodecFactory {
       return input;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public T decode(Object input) {
       return (T) input;
     }
   }
 
+  /**
+   * Maps {@code null} to itself, so that the wrapped codec only ever sees actual objects.
+   */
+  private static class NullSafeCodec<T> implements ValueCodec<T> {
+    private final ValueCodec<T> delegate;
+
+    NullSafeCodec(ValueCodec<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Object encode(T input) {
+      return input == null ? null : delegate.encode(input);
+    }
+
+    @Override
+    public T decode(Object input) {
+      return input == null ? null : delegate.decode(input);
+    }
+  }
+
+  private static class ByteArrayCodec extends BinaryValueCodec<byte[]> {
+    @Override
+    protected int hashCode(byte[] input) {
+      return Arrays.hashCode(input);
+    }
+
+    /**
+     * Copies the array, which the caller may modify once it is put, possibly before a write-behind flush.
+     */
+    @Override
+    protected byte[] toBytes(byte[] input) {
+      return input.clone();
+    }
+
+    @Override
+    protected byte[] fromBytes(byte[] bytes) {
+      return bytes;
+    }
+  }
+
+  private static class UUIDCodec extends BinaryValueCodec<UUID> {
+    @Override
+    protected byte[] toBytes(UUID input) {
+      return ByteBuffer.allocate(16).putLong(input.getMostSignificantBits()).putLong(input.getLeastSignificantBits()).array();
+    }
+
+    @Override
+    protected UUID fromBytes(byte[] bytes) {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      return new UUID(buffer.getLong(), buffer.getLong());
+    }
+  }
+
+  /**
+   * Writes only the external form of the object, without the stream header and class descriptors Java serialization
+   * adds.
+   * <p>
+   * The object is written to a plain data stream, only the objects it writes through
+   * {@link java.io.ObjectOutput#writeObject(Object)} going through Java serialization.
+   */
+  private static class ExternalizableCodec extends BinaryValueCodec<Externalizable> {
+    private final Constructor<? extends Externalizable> constructor;
+
+    ExternalizableCodec(Class<? extends Externalizable> type) {
+      try {
+        this.constructor = type.getConstructor();
+      } catch (NoSuchMethodException e) {
+        throw new IllegalArgumentException("Externalizable type has no public no-arg constructor " + type, e);
+      }
+    }
+
+    @Override
+    protected byte[] toBytes(Externalizable input) {
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataObjectOutput output = new DataObjectOutput(bytes);
+        input.writeExternal(output);
+        output.flush();
+        return bytes.toByteArray();
+      } catch (IOException e) {
+        throw new RuntimeException("Object cannot be externalized", e);
+      }
+    }
+
+    @Override
+    protected Externalizable fromBytes(byte[] bytes) {
+      try {
+        Externalizable object = constructor.newInstance();
+        object.readExternal(new DataObjectInput(new ByteArrayInputStream(bytes)));
+        return object;
+      } catch (IOException e) {
+        throw new RuntimeException("Object cannot be read", e);
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException("Could not load class", e);
+      } catch (InstantiationException e) {
+        throw new RuntimeException("Could not instantiate " + constructor.getDeclaringClass(), e);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException("Could not instantiate " + constructor.getDeclaringClass(), e);
+      } catch (InvocationTargetException e) {
+        throw new RuntimeException("Could not instantiate " + constructor.getDeclaringClass(), e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Writes primitives directly, and objects as their length prefixed serialized form.
+   */
+  private static class DataObjectOutput extends DataOutputStream implements ObjectOutput {
+
+    DataObjectOutput(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void writeObject(Object object) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream output = new ObjectOutputStream(bytes);
+      try {
+        output.writeObject(object);
+      } finally {
+        output.close();
+      }
+      writeInt(bytes.size());
+      bytes.writeTo(this);
+    }
+  }
+
+  private static class DataObjectInput extends DataInputStream implements ObjectInput {
+
+    DataObjectInput(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public Object readObject() throws ClassNotFoundException, IOException {
+      byte[] bytes = new byte[readInt()];
+      readFully(bytes);
+      ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      try {
+        return input.readObject();
+      } finally {
+        input.close();
+      }
+    }
+  }
+
   private static class SerializationWrapperCodec<T> implements ValueCodec<T> {
     @Override
     public Object encode(T input) {
@@ -65,17 +270,16 @@ public class ValueCodecFactory {
         ObjectOutputStream oos = new ObjectOutputStream(baos);
         try {
           oos.writeObject(input);
-        } catch(IOException e) {
-          throw new RuntimeException("Object cannot be serialized", e);
         } finally {
           oos.close();
         }
       } catch(IOException e) {
-        // ignore
+        throw new RuntimeException("Object cannot be serialized", e);
       }
       return new ValueWrapper(input.hashCode(), baos.toByteArray());
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public T decode(Object input) {
       if (input == null) {
@@ -93,9 +297,8 @@ public class ValueCodecFactory {
           ois.close();
         }
       } catch(IOException e) {
-        // ignore
+        throw new RuntimeException("Object cannot be deserialized", e);
       }
-      throw new AssertionError("Cannot reach here!");
     }
   }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Buffers the writes of a clustered map client, keyed and valued by their encoded forms, and hands them to a
+ * {@link Writer} in batches.
+ * <p>
+ * Batches are written one at a time and in order, so that a write to a key is never overtaken by an older one.
+ */
+class WriteBehindBuffer {
+
+  /**
+   * Returned by {@link #lookup(Object)} for keys without buffered write.
+   */
+  static final Object MISSING = new Object();
+
+  private static final Object REMOVED = new Object();
+
+  interface Writer {
+    /**
+     * @throws PartialWriteException if only part of the writes failed, any other exception meaning they all failed
+     */
+    void write(Map<Object, Object> puts, Set<Object> removals);
+  }
+
+  /**
+   * Thrown by a {@link Writer} that failed to write some keys of a batch, the other keys being written.
+   */
+  static class PartialWriteException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Set<Object> failedKeys;
+
+    PartialWriteException(Set<Object> failedKeys, RuntimeException cause) {
+      super(cause.getMessage(), cause);
+      this.failedKeys = failedKeys;
+    }
+
+    Set<Object> getFailedKeys() {
+      return failedKeys;
+    }
+
+    @Override
+    public synchronized RuntimeException getCause() {
+      return (RuntimeException) super.getCause();
+    }
+  }
+
+  private final Writer writer;
+  private final int batchSize;
+  private final int maxPending;
+  private final Timer timer;
+  private final Object flushLock = new Object();
+
+  // Guarded by this
+  private Map<Object, Object> pending = new LinkedHashMap<Object, Object>();
+  private Map<Object, Object> inFlight = Collections.emptyMap();
+  private boolean flushScheduled;
+  private RuntimeException failure;
+
+  WriteBehindBuffer(Writer writer, int batchSize, int maxPending, long maxDelayMillis) {
+    this.writer = writer;
+    this.batchSize = batchSize;
+    this.maxPending = maxPending;
+    this.timer = new Timer("clustered-map-write-behind", true);
+    this.timer.schedule(new FlushTask(), maxDelayMillis, maxDelayMillis);
+  }
+
+  void put(Object key, Object value) {
+    if (value == null) {
+      throw new NullPointerException("Value cannot be null");
+    }
+    buffer(key, value);
+  }
+
+  void remove(Object key) {
+    buffer(key, REMOVED);
+  }
+
+  private void buffer(Object key, Object value) {
+    boolean mustFlush;
+    synchronized (this) {
+      throwFailure();
+      pending.put(key, value);
+      mustFlush = pending.size() >= maxPending;
+      if (!mustFlush && pending.size() >= batchSize && !flushScheduled) {
+        flushScheduled = true;
+        timer.schedule(new FlushTask(), 0);
+      }
+    }
+    if (mustFlush) {
+      flush();
+    }
+  }
+
+  /**
+   * @return the buffered value of {@code key}, {@code null} if its removal is buffered or {@link #MISSING} if no write
+   * to it is buffered
+   */
+  synchronized Object lookup(Object key) {
+    Object value = pending.get(key);
+    if (value == null) {
+      value = inFlight.get(key);
+    }
+    if (value == null) {
+      return MISSING;
+    } else {
+      return value == REMOVED ? null : value;
+    }
+  }
+
+  void flush() {
+    synchronized (flushLock) {
+      Map<Object, Object> batch;
+      synchronized (this) {
+        throwFailure();
+        flushScheduled = false;
+        if (pending.isEmpty()) {
+          return;
+        }
+        batch = pending;
+        pending = new LinkedHashMap<Object, Object>();
+        inFlight = batch;
+      }
+      try {
+        write(batch);
+      } catch (PartialWriteException e) {
+        requeue(batch, e.getFailedKeys());
+        throw e.getCause();
+      } catch (RuntimeException e) {
+        requeue(batch, batch.keySet());
+        throw e;
+      } finally {
+        synchronized (this) {
+          inFlight = Collections.emptyMap();
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps the failed writes of a batch, unless overwritten since. The writes that succeeded are not requeued, as
+   * writing them again later could overwrite newer writes of other clients.
+   */
+  private synchronized void requeue(Map<Object, Object> batch, Set<Object> failedKeys) {
+    Map<Object, Object> requeued = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<Object, Object> write : batch.entrySet()) {
+      if (failedKeys.contains(write.getKey())) {
+        requeued.put(write.getKey(), write.getValue());
+      }
+    }
+    requeued.putAll(pending);
+    pending = requeued;
+  }
+
+  void close() {
+    timer.cancel();
+    flush();
+  }
+
+  private void write(Map<Object, Object> batch) {
+    Map<Object, Object> puts = new HashMap<Object, Object>();
+    Set<Object> removals = new HashSet<Object>();
+    for (Map.Entry<Object, Object> write : batch.entrySet()) {
+      if (write.getValue() == REMOVED) {
+        removals.add(write.getKey());
+      } else {
+        puts.put(write.getKey(), write.getValue());
+      }
+    }
+    writer.write(puts, removals);
+  }
+
+  private void throwFailure() {
+    if (failure != null) {
+      RuntimeException e = failure;
+      failure = null;
+      throw e;
+    }
+  }
+
+  private class FlushTask extends TimerTask {
+    @Override
+    public void run() {
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        synchronized (WriteBehindBuffer.this) {
+          failure = e;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+/**
+ * Names of the server-side functions available to every clustered map.
+ * <p>
+ * These functions operate on the stored representation of values, so they only apply to maps whose value type is
+ * stored as-is (boxed primitives and {@code String}).
+ */
+public final class BuiltinFunctions {
+
+  /**
+   * Adds the numeric argument to the current value, an absent value counting as zero.
+   */
+  public static final String INCREMENT = "increment";
+
+  /**
+   * Appends the string argument to the current value, an absent value counting as the empty string.
+   */
+  public static final String APPEND = "append";
+
+  /**
+   * Keeps the greatest of the current value and the argument.
+   */
+  public static final String MAX = "max";
+
+  private BuiltinFunctions() {
+  }
+}
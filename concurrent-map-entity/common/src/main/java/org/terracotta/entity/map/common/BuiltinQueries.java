@@ -0,0 +1,51 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+/**
+ * Names of the server-side queries available to every clustered map.
+ * <p>
+ * Like {@link BuiltinFunctions}, these queries operate on the stored representation of keys and values, so they
+ * only apply to types stored as-is (boxed primitives and {@code String}).
+ *
+ * @see ConcurrentClusteredMap#query(String, Object, int)
+ */
+public final class BuiltinQueries {
+
+  /**
+   * Matches every entry, projecting it to its value.
+   */
+  public static final String ALL = "all";
+
+  /**
+   * Matches the entries whose value equals the argument, projecting them to their value.
+   */
+  public static final String VALUE_EQUALS = "valueEquals";
+
+  /**
+   * Matches the entries whose value lies between the two elements of the {@code Object[]} argument, lower bound
+   * inclusive and upper bound exclusive, projecting them to their value.
+   */
+  public static final String VALUE_RANGE = "valueRange";
+
+  /**
+   * Matches the entries whose {@code String} key starts with the argument, projecting them to their value.
+   */
+  public static final String KEY_PREFIX = "keyPrefix";
+
+  private BuiltinQueries() {
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+/**
+ * A change to a clustered map, in stored form.
+ */
+public final class ChangeEvent {
+
+  public enum Type {
+    PUT,
+    REMOVE,
+    CLEAR
+  }
+
+  private final Type type;
+  private final Object key;
+  private final Object value;
+
+  public ChangeEvent(Type type, Object key, Object value) {
+    this.type = type;
+    this.key = key;
+    this.value = value;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public Object getKey() {
+    return key;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+}
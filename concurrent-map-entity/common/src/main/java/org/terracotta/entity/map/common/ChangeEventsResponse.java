@@ -0,0 +1,83 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sent by the server, outside of any invocation, to the clients subscribed to changes.
+ * <p>
+ * Batches sent to a client are numbered consecutively from {@code 0}, so that the client can detect lost batches.
+ */
+public class ChangeEventsResponse implements MapResponse {
+  private final long sequence;
+  private final boolean resync;
+  private final List<ChangeEvent> events;
+
+  public ChangeEventsResponse(long sequence, boolean resync, List<ChangeEvent> events) {
+    this.sequence = sequence;
+    this.resync = resync;
+    this.events = events;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return {@code true} if events were dropped before this batch
+   */
+  public boolean isResync() {
+    return resync;
+  }
+
+  public List<ChangeEvent> getEvents() {
+    return events;
+  }
+
+  @Override
+  public Type responseType() {
+    return Type.CHANGE_EVENTS;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeLong(sequence);
+    output.writeBoolean(resync);
+    output.writeInt(events.size());
+    for (ChangeEvent event : events) {
+      output.writeByte(event.getType().ordinal());
+      PrimitiveCodec.writeTo(output, event.getKey());
+      PrimitiveCodec.writeTo(output, event.getValue());
+    }
+  }
+
+  static ChangeEventsResponse readFrom(DataInput input) throws IOException {
+    long sequence = input.readLong();
+    boolean resync = input.readBoolean();
+    int count = input.readInt();
+    List<ChangeEvent> events = new ArrayList<ChangeEvent>(count);
+    for (int i = 0; i < count; i++) {
+      ChangeEvent.Type type = ChangeEvent.Type.values()[input.readByte()];
+      events.add(new ChangeEvent(type, PrimitiveCodec.readFrom(input), PrimitiveCodec.readFrom(input)));
+    }
+    return new ChangeEventsResponse(sequence, resync, events);
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+/**
+ * Notified of the changes made to a clustered map by all clients, including expiry and eviction.
+ * <p>
+ * Changes are delivered in batches, on a thread of the client connection that must not be blocked. Within a batch
+ * only the last change to each key is reported.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @see ConcurrentClusteredMap#addChangeListener(ChangeListener, long, java.util.concurrent.TimeUnit)
+ */
+public interface ChangeListener<K, V> {
+
+  void onPut(K key, V value);
+
+  void onRemove(K key);
+
+  void onClear();
+
+  /**
+   * Invoked when changes may have been lost, for instance on fail-over or when this client could not keep up, in
+   * which case the listener must re-read the state it depends on.
+   */
+  void onResync();
+}
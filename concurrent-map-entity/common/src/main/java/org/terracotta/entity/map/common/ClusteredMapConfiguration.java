@@ -0,0 +1,228 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side configuration of a clustered map, supplied when the map entity is created.
+ * <p>
+ * Instances are immutable, each {@code withXxx} method returning a modified copy.
+ */
+public final class ClusteredMapConfiguration {
+
+  private static final ClusteredMapConfiguration DEFAULT = new ClusteredMapConfiguration(null, 0, 0, 0, EvictionPolicy.LRU, false);
+
+  private final String persistenceName;
+  private final long snapshotIntervalMillis;
+  private final long maxEntries;
+  private final long maxBytes;
+  private final EvictionPolicy evictionPolicy;
+  private final boolean sorted;
+
+  private ClusteredMapConfiguration(String persistenceName, long snapshotIntervalMillis, long maxEntries, long maxBytes, EvictionPolicy evictionPolicy, boolean sorted) {
+    this.persistenceName = persistenceName;
+    this.snapshotIntervalMillis = snapshotIntervalMillis;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.evictionPolicy = evictionPolicy;
+    this.sorted = sorted;
+  }
+
+  /**
+   * @return the configuration of a plain, in-memory map
+   */
+  public static ClusteredMapConfiguration defaultConfiguration() {
+    return DEFAULT;
+  }
+
+  /**
+   * Makes the map survive server restarts by persisting it to the server local disk.
+   * <p>
+   * The map is written as a snapshot every {@code snapshotInterval}, mutations in between being appended to a log.
+   *
+   * @param name the name of the on-disk store, unique amongst the persistent maps of a server
+   * @param snapshotInterval the interval between two snapshots
+   * @param unit the unit of {@code snapshotInterval}
+   * @return a persistent copy of this configuration
+   */
+  public ClusteredMapConfiguration withPersistence(String name, long snapshotInterval, TimeUnit unit) {
+    if (name == null || name.length() == 0) {
+      throw new IllegalArgumentException("Persistence name cannot be empty");
+    }
+    long snapshotIntervalMillis = unit.toMillis(snapshotInterval);
+    if (snapshotIntervalMillis <= 0) {
+      throw new IllegalArgumentException("Snapshot interval must be at least a millisecond");
+    }
+    return new ClusteredMapConfiguration(name, snapshotIntervalMillis, maxEntries, maxBytes, evictionPolicy, sorted);
+  }
+
+  /**
+   * Bounds the number of entries of the map, entries being evicted according to the eviction policy beyond it.
+   * <p>
+   * The bound applies to the whole map, and a put that exceeds it evicts as many entries as needed to return within
+   * it. Victims are chosen among the entries of the same map segment as the entry put whenever possible, so the policy
+   * is only approximated over the whole map.
+   *
+   * @param maxEntries the maximum number of entries
+   * @return a bounded copy of this configuration
+   * @see #withEvictionPolicy(EvictionPolicy)
+   */
+  public ClusteredMapConfiguration withMaxEntries(long maxEntries) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("Maximum entry count must be positive");
+    }
+    return new ClusteredMapConfiguration(persistenceName, snapshotIntervalMillis, maxEntries, maxBytes, evictionPolicy, sorted);
+  }
+
+  /**
+   * Bounds the estimated size in bytes of the keys and values of the map, entries being evicted according to the
+   * eviction policy beyond it.
+   *
+   * @param maxBytes the maximum size in bytes
+   * @return a bounded copy of this configuration
+   * @see #withMaxEntries(long)
+   */
+  public ClusteredMapConfiguration withMaxBytes(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Maximum size must be positive");
+    }
+    return new ClusteredMapConfiguration(persistenceName, snapshotIntervalMillis, maxEntries, maxBytes, evictionPolicy, sorted);
+  }
+
+  /**
+   * Sets how entries are chosen for eviction, {@link EvictionPolicy#LRU} by default.
+   *
+   * @param evictionPolicy the eviction policy
+   * @return a copy of this configuration using {@code evictionPolicy}
+   */
+  public ClusteredMapConfiguration withEvictionPolicy(EvictionPolicy evictionPolicy) {
+    if (evictionPolicy == null) {
+      throw new NullPointerException("Eviction policy cannot be null");
+    }
+    return new ClusteredMapConfiguration(persistenceName, snapshotIntervalMillis, maxEntries, maxBytes, evictionPolicy, sorted);
+  }
+
+  /**
+   * Keeps the keys of the map sorted, enabling ordered iteration and range scans.
+   * <p>
+   * Keys stored as-is (boxed primitives and {@code String}) are sorted in their natural order, while keys stored as
+   * bytes, such as {@code byte[]} keys or keys encoded by a {@link java.io.Serializable} fallback, are sorted by
+   * unsigned lexicographic order of their encoded form.
+   *
+   * @return a sorted copy of this configuration
+   */
+  public ClusteredMapConfiguration withSortedKeys() {
+    return new ClusteredMapConfiguration(persistenceName, snapshotIntervalMillis, maxEntries, maxBytes, evictionPolicy, true);
+  }
+
+  public boolean isSorted() {
+    return sorted;
+  }
+
+  public boolean isPersistent() {
+    return persistenceName != null;
+  }
+
+  public String getPersistenceName() {
+    return persistenceName;
+  }
+
+  public long getSnapshotIntervalMillis() {
+    return snapshotIntervalMillis;
+  }
+
+  public boolean isCapacityBounded() {
+    return maxEntries > 0 || maxBytes > 0;
+  }
+
+  /**
+   * @return the maximum number of entries, or {@code 0} if unbounded
+   */
+  public long getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * @return the maximum estimated size in bytes, or {@code 0} if unbounded
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public EvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  public byte[] encode() {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(bytes);
+      output.writeBoolean(isPersistent());
+      if (isPersistent()) {
+        output.writeUTF(persistenceName);
+        output.writeLong(snapshotIntervalMillis);
+      }
+      output.writeLong(maxEntries);
+      output.writeLong(maxBytes);
+      output.writeByte(evictionPolicy.ordinal());
+      output.writeBoolean(sorted);
+      output.close();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Decodes a configuration, an empty or {@code null} array standing for the default configuration.
+   *
+   * @param bytes the encoded configuration
+   * @return the decoded configuration
+   */
+  public static ClusteredMapConfiguration decode(byte[] bytes) {
+    if (bytes == null || bytes.length == 0) {
+      return DEFAULT;
+    }
+    try {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+      ClusteredMapConfiguration configuration = DEFAULT;
+      if (input.readBoolean()) {
+        configuration = configuration.withPersistence(input.readUTF(), input.readLong(), TimeUnit.MILLISECONDS);
+      }
+      long maxEntries = input.readLong();
+      if (maxEntries > 0) {
+        configuration = configuration.withMaxEntries(maxEntries);
+      }
+      long maxBytes = input.readLong();
+      if (maxBytes > 0) {
+        configuration = configuration.withMaxBytes(maxBytes);
+      }
+      configuration = configuration.withEvictionPolicy(EvictionPolicy.values()[input.readByte()]);
+      if (input.readBoolean()) {
+        configuration = configuration.withSortedKeys();
+      }
+      return configuration;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid clustered map configuration", e);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class ComputeIfAbsentOperation implements KeyedOperation {
+  private final Object key;
+  private final String function;
+  private final Object argument;
+
+  public ComputeIfAbsentOperation(Object key, String function, Object argument) {
+    this.key = key;
+    this.function = function;
+    this.argument = argument;
+  }
+
+  public Object getKey() {
+    return key;
+  }
+
+  public String getFunction() {
+    return function;
+  }
+
+  public Object getArgument() {
+    return argument;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.COMPUTE_IF_ABSENT;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, key);
+    output.writeUTF(function);
+    PrimitiveCodec.writeTo(output, argument);
+  }
+
+  static ComputeIfAbsentOperation readFrom(DataInput dataInput) throws IOException {
+    return new ComputeIfAbsentOperation(PrimitiveCodec.readFrom(dataInput), dataInput.readUTF(), PrimitiveCodec.readFrom(dataInput));
+  }
+}
@@ -17,10 +17,13 @@ package org.terracotta.entity.map.common;
 
 import org.terracotta.connection.entity.Entity;
 
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 public interface ConcurrentClusteredMap<K, V> extends ConcurrentMap<K, V>, Entity {
-  long VERSION = 1;
+  long VERSION = 2;
 
   /**
    * Records the key and value classes to enable optimizations.
@@ -29,4 +32,181 @@ public interface ConcurrentClusteredMap<K, V> extends ConcurrentMap<K, V>, Entit
    * @param valueClass the value class
    */
   void setTypes(Class<K> keyClass, Class<V> valueClass);
+
+  /**
+   * Atomically replaces the value mapped to {@code key} with the result of the named server-side function.
+   * <p>
+   * The function is given the current value, or {@code null} if absent, and the argument. A {@code null} result
+   * removes the mapping.
+   *
+   * @param key the key
+   * @param function the name of the server-side function
+   * @param argument the function argument
+   * @return the new value, or {@code null} if none
+   * @see BuiltinFunctions
+   */
+  V compute(K key, String function, Object argument);
+
+  /**
+   * Atomically maps {@code key} to {@code value} if absent, or otherwise to the result of the named server-side
+   * function applied to the current value and {@code value}.
+   * <p>
+   * A {@code null} function result removes the mapping. Unlike {@code ConcurrentMap.merge}, which takes
+   * a local function, the function here runs on the server.
+   *
+   * @param key the key
+   * @param value the value to merge
+   * @param function the name of the server-side function
+   * @return the new value, or {@code null} if none
+   * @see BuiltinFunctions
+   */
+  V mergeWith(K key, V value, String function);
+
+  /**
+   * Atomically maps {@code key} to the result of the named server-side function if it is absent.
+   * <p>
+   * The function is given a {@code null} current value and the argument. A {@code null} result leaves the key
+   * unmapped.
+   *
+   * @param key the key
+   * @param function the name of the server-side function
+   * @param argument the function argument
+   * @return the current (existing or computed) value, or {@code null} if none
+   * @see BuiltinFunctions
+   */
+  V computeIfAbsent(K key, String function, Object argument);
+
+  /**
+   * Maps {@code key} to {@code value} for the given time, after which the server removes the entry.
+   * <p>
+   * Expiry is performed by the server with a resolution of about a hundred milliseconds. Any later write to the key
+   * that does not itself specify a time to live makes the entry permanent.
+   *
+   * @param key the key
+   * @param value the value
+   * @param timeToLive the time the entry lives for
+   * @param unit the unit of {@code timeToLive}
+   * @return the previous value, or {@code null} if none
+   */
+  V put(K key, V value, long timeToLive, TimeUnit unit);
+
+  /**
+   * Maps {@code key} to {@code value} for the given time if it is absent.
+   *
+   * @param key the key
+   * @param value the value
+   * @param timeToLive the time the entry lives for
+   * @param unit the unit of {@code timeToLive}
+   * @return the existing value, or {@code null} if the value was put
+   * @see #put(Object, Object, long, TimeUnit)
+   */
+  V putIfAbsent(K key, V value, long timeToLive, TimeUnit unit);
+
+  /**
+   * Registers a listener notified of the keys the server evicts from this map.
+   * <p>
+   * Only capacity-bounded maps evict entries. The first registration subscribes this client to evictions, the
+   * subscription lasting until the map is closed.
+   *
+   * @param listener the listener
+   * @see ClusteredMapConfiguration#withMaxEntries(long)
+   */
+  void addEvictionListener(EvictionListener<K> listener);
+
+  void removeEvictionListener(EvictionListener<K> listener);
+
+  /**
+   * Registers a listener notified of the changes made to this map.
+   * <p>
+   * The first registration subscribes this client to changes, which the server then sends in batches accumulated
+   * over {@code batchWindow}, the subscription lasting until the map is closed. Later registrations share the batch
+   * window of the first one.
+   *
+   * @param listener the listener
+   * @param batchWindow the time during which changes are accumulated before being sent
+   * @param unit the unit of {@code batchWindow}
+   */
+  void addChangeListener(ChangeListener<K, V> listener, long batchWindow, TimeUnit unit);
+
+  void removeChangeListener(ChangeListener<K, V> listener);
+
+  /**
+   * Runs the named server-side query over the entries of this map, returning the projections of the matching entries.
+   * <p>
+   * Results are fetched lazily, {@code pageSize} at a time. The iteration is weakly consistent: it reflects the map at
+   * some point at or since the fetch of each page, and may miss or repeat entries mutated concurrently. Projections
+   * are returned as computed by the server, so should be of types stored as-is.
+   *
+   * @param query the name of the server-side query
+   * @param argument the query argument
+   * @param pageSize the maximum number of results per page
+   * @return an iterator over the projections of the matching entries
+   * @see BuiltinQueries
+   */
+  Iterator<Object> query(String query, Object argument, int pageSize);
+
+  /**
+   * Runs the named server-side query over the entries of this map, returning the keys of the matching entries.
+   *
+   * @param query the name of the server-side query
+   * @param argument the query argument
+   * @param pageSize the maximum number of results per page
+   * @return an iterator over the keys of the matching entries
+   * @see #query(String, Object, int)
+   */
+  Iterator<K> queryKeys(String query, Object argument, int pageSize);
+
+  /**
+   * @return the lowest key of this sorted map, or {@code null} if empty
+   * @throws IllegalStateException if this map is not sorted
+   * @see ClusteredMapConfiguration#withSortedKeys()
+   */
+  K firstKey();
+
+  /**
+   * @return the highest key of this sorted map, or {@code null} if empty
+   * @throws IllegalStateException if this map is not sorted
+   * @see ClusteredMapConfiguration#withSortedKeys()
+   */
+  K lastKey();
+
+  /**
+   * Iterates over the entries of this sorted map whose key is within {@code [fromKey, toKey)}, in key order.
+   * <p>
+   * Entries are fetched lazily, {@code pageSize} at a time, each page resuming after the last key of the previous
+   * one. The iteration is weakly consistent.
+   *
+   * @param fromKey the inclusive lower bound, or {@code null} for none
+   * @param toKey the exclusive upper bound, or {@code null} for none
+   * @param pageSize the maximum number of entries per page
+   * @return an iterator over the entries of the range
+   * @throws IllegalStateException if this map is not sorted
+   * @see ClusteredMapConfiguration#withSortedKeys()
+   */
+  Iterator<Map.Entry<K, V>> range(K fromKey, K toKey, int pageSize);
+
+  /**
+   * Switches this map to write-behind: {@code put}, {@code putAll} and {@code remove} are buffered locally and sent
+   * to the server in batches, only the last write to a key being sent.
+   * <p>
+   * Buffered writes return {@code null} instead of the previous value. Reads of a single key see the buffered writes
+   * of this client, while any other operation first flushes the buffer. A batch is sent whenever {@code batchSize}
+   * writes are buffered or {@code maxDelay} has elapsed, writers flushing the buffer themselves once it holds
+   * {@code maxPending} writes. A batch is sent as one operation per segment of the map, so that it only waits for, and
+   * delays, the operations on the segments it writes.
+   *
+   * @param batchSize the number of buffered writes triggering a background flush
+   * @param maxPending the maximum number of buffered writes
+   * @param maxDelay the maximum time a write stays buffered
+   * @param unit the unit of {@code maxDelay}
+   * @see #flush()
+   */
+  void enableWriteBehind(int batchSize, int maxPending, long maxDelay, TimeUnit unit);
+
+  /**
+   * Sends the buffered writes to the server, returning once they are applied.
+   * <p>
+   * Also rethrows the failure of a background flush, if any, in which case the failed writes are kept buffered.
+   */
+  void flush();
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reports an operation the server rejected without modifying the map, such as a call to an unknown function.
+ */
+public class ErrorResponse implements MapResponse {
+  private final String message;
+
+  public ErrorResponse(String message) {
+    this.message = message;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  @Override
+  public Type responseType() {
+    return Type.ERROR;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeUTF(message);
+  }
+
+  static ErrorResponse readFrom(DataInput input) throws IOException {
+    return new ErrorResponse(input.readUTF());
+  }
+}
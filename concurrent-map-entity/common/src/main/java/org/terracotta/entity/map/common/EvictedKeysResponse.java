@@ -0,0 +1,51 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Sent by the server, outside of any invocation, to the clients subscribed to evictions.
+ */
+public class EvictedKeysResponse implements MapResponse {
+  private final Collection<Object> keys;
+
+  public EvictedKeysResponse(Collection<Object> keys) {
+    this.keys = keys;
+  }
+
+  public Collection<Object> getKeys() {
+    return keys;
+  }
+
+  @Override
+  public Type responseType() {
+    return Type.EVICTED_KEYS;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, this.keys);
+  }
+
+  @SuppressWarnings("unchecked")
+  static EvictedKeysResponse readFrom(DataInput input) throws IOException {
+    return new EvictedKeysResponse((Collection<Object>) PrimitiveCodec.readFrom(input));
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+/**
+ * Notified of the keys evicted from a capacity-bounded clustered map, typically to invalidate a near cache.
+ *
+ * @param <K> the key type
+ * @see ConcurrentClusteredMap#addEvictionListener(EvictionListener)
+ */
+public interface EvictionListener<K> {
+
+  /**
+   * Invoked after the server evicted the entry mapped to {@code key}.
+   * <p>
+   * Notifications are delivered asynchronously, on a thread of the client connection that must not be blocked.
+   *
+   * @param key the evicted key
+   */
+  void onEviction(K key);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+/**
+ * How a capacity-bounded clustered map chooses the entries to evict.
+ * <p>
+ * All policies are approximations maintained per map segment, so that eviction never requires a lock on the whole
+ * map.
+ *
+ * @see ClusteredMapConfiguration#withEvictionPolicy(EvictionPolicy)
+ */
+public enum EvictionPolicy {
+
+  /**
+   * Evicts the least recently used of a random sample of entries.
+   */
+  LRU,
+
+  /**
+   * Evicts the least frequently used of a random sample of entries, access counts decaying over time.
+   */
+  LFU,
+
+  /**
+   * Evicts the first entry not accessed since the last sweep of a clock hand over the entries.
+   */
+  CLOCK
+}
@@ -62,7 +62,40 @@ public interface MapOperation extends EntityMessage {
     PUT_IF_ABSENT,
     PUT_IF_PRESENT,
     CONDITIONAL_REMOVE,
-    CONDITIONAL_REPLACE;
+    CONDITIONAL_REPLACE,
+    COMPUTE,
+    MERGE,
+    COMPUTE_IF_ABSENT,
+    PUT_WITH_TTL,
+    PUT_IF_ABSENT_WITH_TTL,
+    SUBSCRIBE_EVICTIONS {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    WRITE_ENTRIES,
+    QUERY {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    SUBSCRIBE_CHANGES {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    FIRST_KEY {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    LAST_KEY {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    RANGE {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    // Sent by the active server to itself.
+    SET_EXPIRATION,
+    REMOVE_ENTRIES;
 
     public boolean replicate() {
       return true;
@@ -32,6 +32,13 @@ public interface MapResponse extends EntityResponse {
     KEY_SET,
     VALUE_COLLECTION,
     ENTRY_SET,
+    QUERY_RESULTS,
+    RANGE,
+    // Server initiated notifications.
+    EVICTED_KEYS,
+    CHANGE_EVENTS,
+    // Operations rejected by the server.
+    ERROR,
   }
 
   Type responseType();
@@ -58,6 +58,34 @@ class OperationCodec {
         return ConditionalRemoveOperation.readFrom(input);
       case CONDITIONAL_REPLACE:
         return ConditionalReplaceOperation.readFrom(input);
+      case COMPUTE:
+        return ComputeOperation.readFrom(input);
+      case MERGE:
+        return MergeOperation.readFrom(input);
+      case COMPUTE_IF_ABSENT:
+        return ComputeIfAbsentOperation.readFrom(input);
+      case PUT_WITH_TTL:
+        return PutWithTtlOperation.readFrom(input);
+      case PUT_IF_ABSENT_WITH_TTL:
+        return PutIfAbsentWithTtlOperation.readFrom(input);
+      case SUBSCRIBE_EVICTIONS:
+        return SubscribeEvictionsOperation.readFrom(input);
+      case WRITE_ENTRIES:
+        return WriteEntriesOperation.readFrom(input);
+      case QUERY:
+        return QueryOperation.readFrom(input);
+      case SUBSCRIBE_CHANGES:
+        return SubscribeChangesOperation.readFrom(input);
+      case FIRST_KEY:
+        return FirstKeyOperation.readFrom(input);
+      case LAST_KEY:
+        return LastKeyOperation.readFrom(input);
+      case RANGE:
+        return RangeOperation.readFrom(input);
+      case SET_EXPIRATION:
+        return SetExpirationOperation.readFrom(input);
+      case REMOVE_ENTRIES:
+        return RemoveEntriesOperation.readFrom(input);
       default:
         throw new IllegalArgumentException("Unknown map operation type " + type);
     }
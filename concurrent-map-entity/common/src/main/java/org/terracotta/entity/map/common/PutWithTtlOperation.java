@@ -0,0 +1,60 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class PutWithTtlOperation implements KeyedOperation {
+  private final Object key;
+  private final Object value;
+  private final long timeToLiveMillis;
+
+  public PutWithTtlOperation(Object key, Object value, long timeToLiveMillis) {
+    this.key = key;
+    this.value = value;
+    this.timeToLiveMillis = timeToLiveMillis;
+  }
+
+  public Object getKey() {
+    return key;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  public long getTimeToLiveMillis() {
+    return timeToLiveMillis;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.PUT_WITH_TTL;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, key);
+    PrimitiveCodec.writeTo(output, value);
+    output.writeLong(timeToLiveMillis);
+  }
+
+  static PutWithTtlOperation readFrom(DataInput dataInput) throws IOException {
+    return new PutWithTtlOperation(PrimitiveCodec.readFrom(dataInput), PrimitiveCodec.readFrom(dataInput), dataInput.readLong());
+  }
+}
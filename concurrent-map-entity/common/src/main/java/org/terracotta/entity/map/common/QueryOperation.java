@@ -0,0 +1,106 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Requests a page of the results of a server-side query, resuming from the cursor the previous page ended at: the
+ * server-side cursor identifier, along with the segment and key it stands at should the server no longer know it.
+ */
+public class QueryOperation implements MapOperation {
+
+  /**
+   * The cursor of the first page.
+   */
+  public static final long NO_CURSOR = 0L;
+
+  private final String query;
+  private final Object argument;
+  private final boolean keysOnly;
+  private final int segment;
+  private final Object lastKey;
+  private final int pageSize;
+  private final long cursor;
+
+  /**
+   * @param segment the segment the page starts in
+   * @param lastKey the key of {@code segment} the page starts after, or {@code null} to start at its beginning
+   * @param cursor the server-side cursor the page resumes, or {@link #NO_CURSOR}
+   */
+  public QueryOperation(String query, Object argument, boolean keysOnly, int segment, Object lastKey, int pageSize, long cursor) {
+    this.query = query;
+    this.argument = argument;
+    this.keysOnly = keysOnly;
+    this.segment = segment;
+    this.lastKey = lastKey;
+    this.pageSize = pageSize;
+    this.cursor = cursor;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  public Object getArgument() {
+    return argument;
+  }
+
+  /**
+   * @return {@code true} if the keys of the matching entries are requested instead of their projections
+   */
+  public boolean isKeysOnly() {
+    return keysOnly;
+  }
+
+  public int getSegment() {
+    return segment;
+  }
+
+  public Object getLastKey() {
+    return lastKey;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public long getCursor() {
+    return cursor;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.QUERY;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeUTF(query);
+    PrimitiveCodec.writeTo(output, argument);
+    output.writeBoolean(keysOnly);
+    output.writeInt(segment);
+    PrimitiveCodec.writeTo(output, lastKey);
+    output.writeInt(pageSize);
+    output.writeLong(cursor);
+  }
+
+  static QueryOperation readFrom(DataInput input) throws IOException {
+    return new QueryOperation(input.readUTF(), PrimitiveCodec.readFrom(input), input.readBoolean(), input.readInt(), PrimitiveCodec.readFrom(input), input.readInt(), input.readLong());
+  }
+}
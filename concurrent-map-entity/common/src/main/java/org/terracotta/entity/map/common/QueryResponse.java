@@ -0,0 +1,89 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A page of query results, along with the cursor the next page resumes from: the server-side cursor identifier, and
+ * the segment and the key of that segment the page ended at.
+ */
+public class QueryResponse implements MapResponse {
+
+  /**
+   * The next segment of the last page.
+   */
+  public static final int END = -1;
+
+  private final List<Object> results;
+  private final int nextSegment;
+  private final Object lastKey;
+  private final long cursor;
+
+  public QueryResponse(List<Object> results, int nextSegment, Object lastKey, long cursor) {
+    this.results = results;
+    this.nextSegment = nextSegment;
+    this.lastKey = lastKey;
+    this.cursor = cursor;
+  }
+
+  public List<Object> getResults() {
+    return results;
+  }
+
+  public int getNextSegment() {
+    return nextSegment;
+  }
+
+  /**
+   * @return the key the next page starts after, in {@link #getNextSegment()}
+   */
+  public Object getLastKey() {
+    return lastKey;
+  }
+
+  /**
+   * @return the server-side cursor the next page resumes
+   */
+  public long getCursor() {
+    return cursor;
+  }
+
+  public boolean isLast() {
+    return nextSegment == END;
+  }
+
+  @Override
+  public Type responseType() {
+    return Type.QUERY_RESULTS;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, results);
+    output.writeInt(nextSegment);
+    PrimitiveCodec.writeTo(output, lastKey);
+    output.writeLong(cursor);
+  }
+
+  @SuppressWarnings("unchecked")
+  static QueryResponse readFrom(DataInput input) throws IOException {
+    return new QueryResponse((List<Object>) PrimitiveCodec.readFrom(input), input.readInt(), PrimitiveCodec.readFrom(input), input.readLong());
+  }
+}
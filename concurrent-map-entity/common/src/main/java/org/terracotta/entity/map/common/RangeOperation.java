@@ -0,0 +1,76 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Requests a page of the entries of a sorted map within a key range, in key order.
+ */
+public class RangeOperation implements MapOperation {
+  private final Object fromKey;
+  private final boolean fromInclusive;
+  private final Object toKey;
+  private final int pageSize;
+
+  /**
+   * @param fromKey the lower bound of the range, or {@code null} if unbounded
+   * @param fromInclusive whether {@code fromKey} is part of the range
+   * @param toKey the exclusive upper bound of the range, or {@code null} if unbounded
+   * @param pageSize the maximum number of entries returned
+   */
+  public RangeOperation(Object fromKey, boolean fromInclusive, Object toKey, int pageSize) {
+    this.fromKey = fromKey;
+    this.fromInclusive = fromInclusive;
+    this.toKey = toKey;
+    this.pageSize = pageSize;
+  }
+
+  public Object getFromKey() {
+    return fromKey;
+  }
+
+  public boolean isFromInclusive() {
+    return fromInclusive;
+  }
+
+  public Object getToKey() {
+    return toKey;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.RANGE;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, fromKey);
+    output.writeBoolean(fromInclusive);
+    PrimitiveCodec.writeTo(output, toKey);
+    output.writeInt(pageSize);
+  }
+
+  static RangeOperation readFrom(DataInput input) throws IOException {
+    return new RangeOperation(PrimitiveCodec.readFrom(input), input.readBoolean(), PrimitiveCodec.readFrom(input), input.readInt());
+  }
+}
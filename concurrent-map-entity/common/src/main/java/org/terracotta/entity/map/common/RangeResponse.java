@@ -0,0 +1,68 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A page of the entries of a sorted map, in key order.
+ */
+public class RangeResponse implements MapResponse {
+  private final List<Object> keys;
+  private final List<Object> values;
+  private final boolean last;
+
+  public RangeResponse(List<Object> keys, List<Object> values, boolean last) {
+    this.keys = keys;
+    this.values = values;
+    this.last = last;
+  }
+
+  public List<Object> getKeys() {
+    return keys;
+  }
+
+  public List<Object> getValues() {
+    return values;
+  }
+
+  /**
+   * @return {@code true} if no entry of the range follows this page
+   */
+  public boolean isLast() {
+    return last;
+  }
+
+  @Override
+  public Type responseType() {
+    return Type.RANGE;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, keys);
+    PrimitiveCodec.writeTo(output, values);
+    output.writeBoolean(last);
+  }
+
+  @SuppressWarnings("unchecked")
+  static RangeResponse readFrom(DataInput input) throws IOException {
+    return new RangeResponse((List<Object>) PrimitiveCodec.readFrom(input), (List<Object>) PrimitiveCodec.readFrom(input), input.readBoolean());
+  }
+}
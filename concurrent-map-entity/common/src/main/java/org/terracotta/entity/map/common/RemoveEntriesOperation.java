@@ -0,0 +1,74 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Removes entries of a single map segment, each only if it still holds the given value.
+ * <p>
+ * Never sent by clients: the active server sends it to itself to remove expired or evicted entries, so that the
+ * removals are ordered with the other mutations of the segment and replicated to the passive servers.
+ */
+public class RemoveEntriesOperation implements MapOperation {
+  private final List<Object> keys;
+  private final List<Object> values;
+  private final boolean evicted;
+
+  public RemoveEntriesOperation(List<Object> keys, List<Object> values, boolean evicted) {
+    if (keys.isEmpty() || keys.size() != values.size()) {
+      throw new IllegalArgumentException("Expected as many values as keys, and at least one: " + keys.size() + ", " + values.size());
+    }
+    this.keys = keys;
+    this.values = values;
+    this.evicted = evicted;
+  }
+
+  public List<Object> getKeys() {
+    return keys;
+  }
+
+  public List<Object> getValues() {
+    return values;
+  }
+
+  /**
+   * @return {@code true} if the entries are evicted, {@code false} if they expired
+   */
+  public boolean isEvicted() {
+    return evicted;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.REMOVE_ENTRIES;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, keys);
+    PrimitiveCodec.writeTo(output, values);
+    output.writeBoolean(evicted);
+  }
+
+  @SuppressWarnings("unchecked")
+  static RemoveEntriesOperation readFrom(DataInput input) throws IOException {
+    return new RemoveEntriesOperation((List<Object>) PrimitiveCodec.readFrom(input), (List<Object>) PrimitiveCodec.readFrom(input), input.readBoolean());
+  }
+}
@@ -42,6 +42,16 @@ class ResponseCodec {
         return ValueCollectionResponse.readFrom(input);
       case ENTRY_SET:
         return EntrySetResponse.readFrom(input);
+      case RANGE:
+        return RangeResponse.readFrom(input);
+      case QUERY_RESULTS:
+        return QueryResponse.readFrom(input);
+      case EVICTED_KEYS:
+        return EvictedKeysResponse.readFrom(input);
+      case CHANGE_EVENTS:
+        return ChangeEventsResponse.readFrom(input);
+      case ERROR:
+        return ErrorResponse.readFrom(input);
       default:
         throw new IllegalArgumentException("Unknown map response type " + type);
     }
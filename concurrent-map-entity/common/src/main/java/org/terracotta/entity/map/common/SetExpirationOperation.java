@@ -0,0 +1,69 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Sets the expiration time of an entry, provided it still holds the given value.
+ * <p>
+ * Never sent by clients: the active server sends it to itself after a put with a time to live, so that the passive
+ * servers record the exact expiration time the active computed.
+ */
+public class SetExpirationOperation implements KeyedOperation {
+  private final Object key;
+  private final Object value;
+  private final long expirationTime;
+
+  public SetExpirationOperation(Object key, Object value, long expirationTime) {
+    this.key = key;
+    this.value = value;
+    this.expirationTime = expirationTime;
+  }
+
+  public Object getKey() {
+    return key;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  /**
+   * @return the time in milliseconds since the epoch at which the entry expires
+   */
+  public long getExpirationTime() {
+    return expirationTime;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.SET_EXPIRATION;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, key);
+    PrimitiveCodec.writeTo(output, value);
+    output.writeLong(expirationTime);
+  }
+
+  static SetExpirationOperation readFrom(DataInput input) throws IOException {
+    return new SetExpirationOperation(PrimitiveCodec.readFrom(input), PrimitiveCodec.readFrom(input), input.readLong());
+  }
+}
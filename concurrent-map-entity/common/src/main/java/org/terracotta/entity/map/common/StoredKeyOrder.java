@@ -0,0 +1,58 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.util.Comparator;
+
+/**
+ * Total order on keys as stored by the server.
+ * <p>
+ * Keys of a same {@link Comparable} type are ordered naturally, keys wrapped in a {@link ValueWrapper} by unsigned
+ * lexicographic order of their encoded form, and keys of different types by type name, so that keys of a same type
+ * are always contiguous.
+ * <p>
+ * Sorted maps keep their keys in this order on the server, and clients merging keys of several maps have to compare
+ * their stored form in the same order.
+ */
+public enum StoredKeyOrder implements Comparator<Object> {
+  INSTANCE;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public int compare(Object a, Object b) {
+    Class<?> type = a.getClass();
+    if (type != b.getClass()) {
+      return type.getName().compareTo(b.getClass().getName());
+    } else if (a instanceof ValueWrapper) {
+      return compareUnsigned(((ValueWrapper) a).getValue(), ((ValueWrapper) b).getValue());
+    } else if (a instanceof Comparable) {
+      return ((Comparable<Object>) a).compareTo(b);
+    } else {
+      throw new ClassCastException("Key of type " + type.getName() + " cannot be sorted");
+    }
+  }
+
+  private static int compareUnsigned(byte[] a, byte[] b) {
+    int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      int result = (a[i] & 0xff) - (b[i] & 0xff);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return a.length - b.length;
+  }
+}
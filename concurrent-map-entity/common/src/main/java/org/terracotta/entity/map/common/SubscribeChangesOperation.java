@@ -0,0 +1,52 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Asks the server to send the changes made to the map to the invoking client, in batches.
+ */
+public class SubscribeChangesOperation implements MapOperation {
+  private final long batchWindowMillis;
+
+  public SubscribeChangesOperation(long batchWindowMillis) {
+    this.batchWindowMillis = batchWindowMillis;
+  }
+
+  /**
+   * @return the time during which changes are accumulated before being sent as a batch
+   */
+  public long getBatchWindowMillis() {
+    return batchWindowMillis;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.SUBSCRIBE_CHANGES;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeLong(batchWindowMillis);
+  }
+
+  static SubscribeChangesOperation readFrom(DataInput input) throws IOException {
+    return new SubscribeChangesOperation(input.readLong());
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Puts and removes entries of a single map segment, as clients writing behind flush their buffered writes.
+ * <p>
+ * As its entries belong to the same segment, it is only ordered with the other operations on that segment, while a
+ * {@link PutAllOperation} excludes all the operations on the map.
+ */
+public class WriteEntriesOperation implements MapOperation {
+
+  /**
+   * The number of segments of a map.
+   */
+  public static final int SEGMENT_COUNT = 16;
+
+  private final Map<Object, Object> puts;
+  private final Set<Object> removals;
+  private final int segment;
+
+  /**
+   * @param puts the entries to put
+   * @param removals the keys to remove
+   * @throws IllegalArgumentException if there is no entry, or the keys belong to several segments
+   */
+  public WriteEntriesOperation(Map<Object, Object> puts, Set<Object> removals) {
+    if (puts.isEmpty() && removals.isEmpty()) {
+      throw new IllegalArgumentException("Expected at least one entry");
+    }
+    this.puts = puts;
+    this.removals = removals;
+    this.segment = segmentIndex(puts.isEmpty() ? removals.iterator().next() : puts.keySet().iterator().next());
+    for (Object key : puts.keySet()) {
+      checkSegment(key);
+    }
+    for (Object key : removals) {
+      checkSegment(key);
+    }
+  }
+
+  private void checkSegment(Object key) {
+    if (segmentIndex(key) != segment) {
+      throw new IllegalArgumentException("Key " + key + " does not belong to segment " + segment);
+    }
+  }
+
+  /**
+   * Spreads the hash of the key, as the segment is chosen by its low bits.
+   *
+   * @param key the encoded key
+   * @return the index of the segment holding {@code key}
+   */
+  public static int segmentIndex(Object key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return h & (SEGMENT_COUNT - 1);
+  }
+
+  public Map<Object, Object> getPuts() {
+    return puts;
+  }
+
+  public Set<Object> getRemovals() {
+    return removals;
+  }
+
+  /**
+   * @return the index of the segment holding all the entries
+   */
+  public int getSegment() {
+    return segment;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.WRITE_ENTRIES;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, puts);
+    PrimitiveCodec.writeTo(output, removals);
+  }
+
+  @SuppressWarnings("unchecked")
+  static WriteEntriesOperation readFrom(DataInput input) throws IOException {
+    return new WriteEntriesOperation((Map<Object, Object>) PrimitiveCodec.readFrom(input), (Set<Object>) PrimitiveCodec.readFrom(input));
+  }
+}
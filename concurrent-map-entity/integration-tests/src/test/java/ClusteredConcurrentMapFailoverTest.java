@@ -0,0 +1,156 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terracotta.connection.Connection;
+import org.terracotta.connection.ConnectionFactory;
+import org.terracotta.connection.entity.EntityRef;
+import org.terracotta.entity.map.TerracottaClusteredMapClientService;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
+import org.terracotta.entity.map.common.ConcurrentClusteredMap;
+import org.terracotta.entity.map.server.TerracottaClusteredMapService;
+import org.terracotta.passthrough.PassthroughClusterControl;
+import org.terracotta.passthrough.PassthroughServer;
+import org.terracotta.passthrough.PassthroughTestHelpers;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that a passive, synchronized from the active then kept up to date by replication, takes over the map when
+ * the active fails.
+ */
+public class ClusteredConcurrentMapFailoverTest {
+
+  private static final String MAP_NAME = "my-map";
+  private static final String CLUSTER_URI = "passthrough://stripe-1:9510/" + MAP_NAME;
+
+  private PassthroughClusterControl clusterControl;
+  private Connection connection;
+
+  @Before
+  public void setUp() throws Exception {
+    clusterControl = PassthroughTestHelpers.createMultiServerStripe("stripe-1", 2, new PassthroughTestHelpers.ServerInitializer() {
+      @Override
+      public void registerServicesForServer(PassthroughServer passthroughServer) {
+        passthroughServer.registerClientEntityService(new TerracottaClusteredMapClientService());
+        passthroughServer.registerServerEntityService(new TerracottaClusteredMapService());
+      }
+    });
+    clusterControl.waitForActive();
+    // The passive is started once the map is filled, so that it gets synchronized
+    clusterControl.terminateOnePassive();
+    connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    connection.close();
+    clusterControl.tearDown();
+  }
+
+  @Test
+  public void testSynchronizedAndReplicatedEntriesSurviveFailover() throws Exception {
+    ConcurrentClusteredMap<Long, String> clusteredMap = createMap(ClusteredMapConfiguration.defaultConfiguration());
+    // Large enough for segments to be synchronized in several chunks
+    char[] chars = new char[8 * 1024];
+    Arrays.fill(chars, 'x');
+    String largeValue = new String(chars);
+    for (long i = 0; i < 2000; i++) {
+      clusteredMap.put(i, largeValue + i);
+    }
+
+    clusterControl.startOneServer();
+    clusterControl.waitForRunningPassivesInStandby();
+
+    for (long i = 0; i < 100; i++) {
+      clusteredMap.remove(i);
+      clusteredMap.put(i + 2000, "replicated" + i);
+    }
+
+    clusterControl.terminateActive();
+    clusterControl.waitForActive();
+
+    assertThat(clusteredMap.size(), is(2000));
+    for (long i = 0; i < 100; i++) {
+      assertThat(clusteredMap.get(i), nullValue());
+      assertThat(clusteredMap.get(i + 2000), is("replicated" + i));
+    }
+    for (long i = 100; i < 2000; i++) {
+      assertThat(clusteredMap.get(i), is(largeValue + i));
+    }
+  }
+
+  @Test
+  public void testEntriesKeepExpiringAfterFailover() throws Exception {
+    ConcurrentClusteredMap<Long, String> clusteredMap = createMap(ClusteredMapConfiguration.defaultConfiguration());
+    clusteredMap.put(1L, "One", 500, TimeUnit.MILLISECONDS);
+
+    clusterControl.startOneServer();
+    clusterControl.waitForRunningPassivesInStandby();
+    clusteredMap.put(2L, "Two", 500, TimeUnit.MILLISECONDS);
+    clusteredMap.put(3L, "Three", 1, TimeUnit.HOURS);
+
+    clusterControl.terminateActive();
+    clusterControl.waitForActive();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while ((clusteredMap.containsKey(1L) || clusteredMap.containsKey(2L)) && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(clusteredMap.get(1L), nullValue());
+    assertThat(clusteredMap.get(2L), nullValue());
+    assertThat(clusteredMap.get(3L), is("Three"));
+  }
+
+  @Test
+  public void testBoundedMapKeepsEvictingAfterFailover() throws Exception {
+    ConcurrentClusteredMap<Long, String> clusteredMap = createMap(ClusteredMapConfiguration.defaultConfiguration().withMaxEntries(160));
+    clusterControl.startOneServer();
+    clusterControl.waitForRunningPassivesInStandby();
+    for (long i = 0; i < 160; i++) {
+      clusteredMap.put(i, "value" + i);
+    }
+
+    clusterControl.terminateActive();
+    clusterControl.waitForActive();
+
+    for (long i = 160; i < 1000; i++) {
+      clusteredMap.put(i, "value" + i);
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (clusteredMap.size() > 160 && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(clusteredMap.size(), lessThanOrEqualTo(160));
+  }
+
+  private ConcurrentClusteredMap<Long, String> createMap(ClusteredMapConfiguration configuration) throws Exception {
+    EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, MAP_NAME);
+    entityRef.create(configuration);
+    ConcurrentClusteredMap<Long, String> clusteredMap = entityRef.fetchEntity();
+    clusteredMap.setTypes(Long.class, String.class);
+    return clusteredMap;
+  }
+}
@@ -19,8 +19,18 @@ import org.junit.Test;
 import org.terracotta.connection.Connection;
 import org.terracotta.connection.ConnectionFactory;
 import org.terracotta.connection.entity.EntityRef;
+import org.terracotta.entity.map.BinaryValueCodec;
+import org.terracotta.entity.map.ShardedClusteredMap;
+import org.terracotta.entity.map.TerracottaClusteredMap;
 import org.terracotta.entity.map.TerracottaClusteredMapClientService;
+import org.terracotta.entity.map.ValueCodecFactory;
+import org.terracotta.entity.map.common.BuiltinFunctions;
+import org.terracotta.entity.map.common.BuiltinQueries;
+import org.terracotta.entity.map.common.ChangeListener;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
 import org.terracotta.entity.map.common.ConcurrentClusteredMap;
+import org.terracotta.entity.map.common.EvictionListener;
+import org.terracotta.entity.map.common.EvictionPolicy;
 import org.terracotta.entity.map.server.TerracottaClusteredMapService;
 import org.terracotta.passthrough.PassthroughClusterControl;
 import org.terracotta.passthrough.PassthroughConnection;
@@ -30,12 +40,26 @@ import org.terracotta.passthrough.PassthroughTestHelpers;
 
 import java.io.Serializable;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * ClusteredConcurrentMapPassthroughTest
@@ -124,6 +148,319 @@ public class ClusteredConcurrentMapPassthroughTest {
     assertThat(clusteredMap.entrySet().size(), is(3));
   }
 
+  @Test
+  public void testServerSideFunctions() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "counter-map");
+    entityRef.create(null);
+    ConcurrentClusteredMap<String, Long> counters = entityRef.fetchEntity();
+    counters.setTypes(String.class, Long.class);
+
+    assertThat(counters.compute("hits", BuiltinFunctions.INCREMENT, 1L), is(1L));
+    assertThat(counters.compute("hits", BuiltinFunctions.INCREMENT, 41L), is(42L));
+    assertThat(counters.mergeWith("peak", 10L, BuiltinFunctions.MAX), is(10L));
+    assertThat(counters.mergeWith("peak", 5L, BuiltinFunctions.MAX), is(10L));
+    assertThat(counters.computeIfAbsent("hits", BuiltinFunctions.INCREMENT, 1L), is(42L));
+    assertThat(counters.computeIfAbsent("misses", BuiltinFunctions.INCREMENT, 3L), is(3L));
+    assertThat(counters.compute("errors", BuiltinFunctions.INCREMENT, 1), is(1L));
+    counters.close();
+
+    assertThat(clusteredMap.mergeWith(1L, "foo", BuiltinFunctions.APPEND), is("foo"));
+    assertThat(clusteredMap.mergeWith(1L, "bar", BuiltinFunctions.APPEND), is("foobar"));
+  }
+
+  @Test
+  public void testRejectedServerSideFunctions() throws Exception {
+    clusteredMap.put(1L, "foo");
+    try {
+      clusteredMap.compute(1L, "unknown", null);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      clusteredMap.compute(1L, BuiltinFunctions.APPEND, 42L);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      clusteredMap.query("unknown", null, 10).hasNext();
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertThat(clusteredMap.get(1L), is("foo"));
+  }
+
+  @Test
+  public void testChangeEvents() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, MAP_NAME);
+    ConcurrentClusteredMap<Long, String> observer = entityRef.fetchEntity();
+    observer.setTypes(Long.class, String.class);
+
+    final Map<Long, String> mirror = new ConcurrentHashMap<Long, String>();
+    observer.addChangeListener(new ChangeListener<Long, String>() {
+      @Override
+      public void onPut(Long key, String value) {
+        mirror.put(key, value);
+      }
+
+      @Override
+      public void onRemove(Long key) {
+        mirror.remove(key);
+      }
+
+      @Override
+      public void onClear() {
+        mirror.clear();
+      }
+
+      @Override
+      public void onResync() {
+        throw new AssertionError("No change should be lost");
+      }
+    }, 10, TimeUnit.MILLISECONDS);
+
+    clusteredMap.put(1L, "One");
+    clusteredMap.put(2L, "Two");
+    clusteredMap.put(1L, "One again");
+    clusteredMap.remove(2L);
+    clusteredMap.put(3L, "Three");
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!mirror.containsKey(3L) && System.nanoTime() < deadline) {
+      Thread.sleep(20);
+    }
+    assertThat(mirror.size(), is(2));
+    assertThat(mirror.get(1L), is("One again"));
+    observer.close();
+  }
+
+  @Test
+  public void testQueries() throws Exception {
+    for (long i = 0; i < 100; i++) {
+      clusteredMap.put(i, i % 10 == 0 ? "tens" : "other");
+    }
+
+    List<Long> keys = new ArrayList<Long>();
+    Iterator<Long> matching = clusteredMap.queryKeys(BuiltinQueries.VALUE_EQUALS, "tens", 3);
+    while (matching.hasNext()) {
+      keys.add(matching.next());
+    }
+    assertThat(keys, containsInAnyOrder(0L, 10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L));
+
+    List<Object> values = new ArrayList<Object>();
+    Iterator<Object> all = clusteredMap.query(BuiltinQueries.ALL, null, 7);
+    while (all.hasNext()) {
+      values.add(all.next());
+    }
+    assertThat(values, hasSize(100));
+  }
+
+  @Test
+  public void testEntriesExpire() throws Exception {
+    clusteredMap.put(1L, "One", 200, TimeUnit.MILLISECONDS);
+    clusteredMap.put(2L, "Two", 200, TimeUnit.MILLISECONDS);
+    clusteredMap.put(2L, "Two again");
+    assertThat(clusteredMap.putIfAbsent(3L, "Three", 1, TimeUnit.HOURS), nullValue());
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (clusteredMap.containsKey(1L) && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+
+    assertThat(clusteredMap.get(1L), nullValue());
+    assertThat(clusteredMap.get(2L), is("Two again"));
+    assertThat(clusteredMap.get(3L), is("Three"));
+  }
+
+  @Test
+  public void testBoundedMapEvicts() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "bounded-map");
+    entityRef.create(ClusteredMapConfiguration.defaultConfiguration().withMaxEntries(160).withEvictionPolicy(EvictionPolicy.LFU));
+    ConcurrentClusteredMap<Long, String> bounded = entityRef.fetchEntity();
+    bounded.setTypes(Long.class, String.class);
+
+    final Set<Long> evicted = ConcurrentHashMap.newKeySet();
+    bounded.addEvictionListener(new EvictionListener<Long>() {
+      @Override
+      public void onEviction(Long key) {
+        evicted.add(key);
+      }
+    });
+
+    for (long i = 0; i < 1000; i++) {
+      bounded.put(i, "value" + i);
+      bounded.get(0L);
+    }
+
+    // Victims are removed by operations the active sends itself after the puts
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (bounded.size() > 160 && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(bounded.size(), lessThanOrEqualTo(160));
+    assertThat(bounded.get(0L), is("value0"));
+
+    while (evicted.size() + bounded.size() < 1000 && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(evicted.size() + bounded.size(), is(1000));
+  }
+
+  @Test
+  public void testWithBinaryTypes() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "binary-map");
+    entityRef.create(null);
+    ConcurrentClusteredMap<byte[], UUID> map = entityRef.fetchEntity();
+    map.setTypes(byte[].class, UUID.class);
+
+    UUID uuid = UUID.randomUUID();
+    map.put(new byte[] { 1, 2, 3 }, uuid);
+
+    assertThat(map.get(new byte[] { 1, 2, 3 }), is(uuid));
+    assertThat(map.containsValue(uuid), is(true));
+    assertThat(map.get(new byte[] { 3, 2, 1 }), nullValue());
+    map.close();
+  }
+
+  @Test
+  public void testWriteBehind() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, MAP_NAME);
+    ConcurrentClusteredMap<Long, String> writer = entityRef.fetchEntity();
+    writer.setTypes(Long.class, String.class);
+    writer.enableWriteBehind(100, 1000, 1, TimeUnit.HOURS);
+
+    for (long i = 0; i < 50; i++) {
+      writer.put(i % 10, "value" + i);
+    }
+    writer.remove(9L);
+
+    assertThat(writer.get(0L), is("value40"));
+    assertThat(writer.containsKey(9L), is(false));
+    assertThat(clusteredMap.get(0L), nullValue());
+
+    writer.flush();
+
+    assertThat(clusteredMap.get(0L), is("value40"));
+    assertThat(clusteredMap.get(8L), is("value48"));
+    assertThat(clusteredMap.containsKey(9L), is(false));
+    assertThat(writer.size(), is(9));
+    writer.close();
+  }
+
+  @Test
+  public void testShardedMap() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    List<ConcurrentClusteredMap<Long, String>> shards = new ArrayList<ConcurrentClusteredMap<Long, String>>();
+    for (int i = 0; i < 3; i++) {
+      EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "shard-" + i);
+      entityRef.create(null);
+      ConcurrentClusteredMap<Long, String> shard = entityRef.fetchEntity();
+      shards.add(shard);
+    }
+    ConcurrentClusteredMap<Long, String> sharded = new ShardedClusteredMap<Long, String>(shards);
+    sharded.setTypes(Long.class, String.class);
+
+    for (long i = 0; i < 300; i++) {
+      sharded.put(i, "value" + i);
+    }
+
+    assertThat(sharded.size(), is(300));
+    assertThat(sharded.get(42L), is("value42"));
+    assertThat(sharded.keySet(), hasSize(300));
+    assertThat(sharded.containsValue("value299"), is(true));
+    assertThat(sharded.containsKey(42L), is(true));
+    assertThat(sharded.remove(299L), is("value299"));
+    sharded.put(299L, "value299");
+    // Keys of another type are absent
+    assertThat(sharded.get("42"), nullValue());
+    assertThat(sharded.containsKey(42), is(false));
+    assertThat(sharded.remove("42"), nullValue());
+    assertThat(sharded.remove(42, "value42"), is(false));
+    for (ConcurrentClusteredMap<Long, String> shard : shards) {
+      assertThat(shard.size(), greaterThan(50));
+    }
+
+    sharded.clear();
+    assertThat(sharded.isEmpty(), is(true));
+    sharded.close();
+  }
+
+  @Test
+  public void testNestedShardedMapFillsAllLeaves() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    List<ConcurrentClusteredMap<Long, String>> leaves = new ArrayList<ConcurrentClusteredMap<Long, String>>();
+    List<ConcurrentClusteredMap<Long, String>> inner = new ArrayList<ConcurrentClusteredMap<Long, String>>();
+    for (int i = 0; i < 4; i++) {
+      List<ConcurrentClusteredMap<Long, String>> shards = new ArrayList<ConcurrentClusteredMap<Long, String>>();
+      for (int j = 0; j < 4; j++) {
+        EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "nested-shard-" + i + "-" + j);
+        entityRef.create(null);
+        ConcurrentClusteredMap<Long, String> shard = entityRef.fetchEntity();
+        shards.add(shard);
+        leaves.add(shard);
+      }
+      inner.add(new ShardedClusteredMap<Long, String>(shards));
+    }
+    ConcurrentClusteredMap<Long, String> sharded = new ShardedClusteredMap<Long, String>(inner);
+    sharded.setTypes(Long.class, String.class);
+
+    for (long i = 0; i < 1600; i++) {
+      sharded.put(i, "value" + i);
+    }
+
+    assertThat(sharded.size(), is(1600));
+    assertThat(sharded.get(42L), is("value42"));
+    for (ConcurrentClusteredMap<Long, String> leaf : leaves) {
+      assertThat(leaf.size(), greaterThan(50));
+    }
+    sharded.close();
+  }
+
+  @Test
+  public void testSortedMap() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "sorted-map");
+    entityRef.create(ClusteredMapConfiguration.defaultConfiguration().withSortedKeys());
+    ConcurrentClusteredMap<Long, String> map = entityRef.fetchEntity();
+    map.setTypes(Long.class, String.class);
+
+    assertThat(map.firstKey(), nullValue());
+    for (long i = 999; i >= 0; i--) {
+      map.put(i * 2, "value" + i);
+    }
+
+    assertThat(map.firstKey(), is(0L));
+    assertThat(map.lastKey(), is(1998L));
+
+    List<Long> keys = new ArrayList<Long>();
+    Iterator<Map.Entry<Long, String>> range = map.range(101L, 301L, 7);
+    while (range.hasNext()) {
+      Map.Entry<Long, String> entry = range.next();
+      assertThat(entry.getValue(), is("value" + entry.getKey() / 2));
+      keys.add(entry.getKey());
+    }
+    assertThat(keys, hasSize(100));
+    assertThat(keys.get(0), is(102L));
+    assertThat(keys.get(99), is(300L));
+    for (int i = 1; i < keys.size(); i++) {
+      assertThat(keys.get(i), greaterThan(keys.get(i - 1)));
+    }
+
+    int count = 0;
+    for (Iterator<Map.Entry<Long, String>> all = map.range(null, null, 64); all.hasNext(); all.next()) {
+      count++;
+    }
+    assertThat(count, is(1000));
+    map.close();
+  }
+
   @Test
   public void testWithCustomType() throws Exception {
     Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
@@ -144,6 +481,46 @@ public class ClusteredConcurrentMapPassthroughTest {
     map.close();
   }
 
+  @Test
+  public void testWithRegisteredCodec() throws Exception {
+    ValueCodecFactory codecs = new ValueCodecFactory().registerCodec(Person.class, new BinaryValueCodec<Person>() {
+      @Override
+      protected byte[] toBytes(Person input) {
+        byte[] name = input.name.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + name.length).putInt(input.age).put(name).array();
+      }
+
+      @Override
+      protected Person fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int age = buffer.getInt();
+        return new Person(new String(bytes, 4, bytes.length - 4, StandardCharsets.UTF_8), age);
+      }
+    });
+
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "codec-map");
+    entityRef.create(null);
+    TerracottaClusteredMap<Long, Person> map = (TerracottaClusteredMap<Long, Person>) entityRef.fetchEntity();
+    map.setTypes(Long.class, Person.class, codecs);
+
+    map.put(33L, new Person("Iron Man", 33));
+    assertThat(map.get(33L).name, is("Iron Man"));
+    assertThat(map.get(33L).age, is(33));
+
+    // The codec is only registered with the factory given to the map above
+    TerracottaClusteredMap<Long, Person> otherMap = (TerracottaClusteredMap<Long, Person>) entityRef.fetchEntity();
+    otherMap.setTypes(Long.class, Person.class);
+    try {
+      otherMap.get(33L);
+      fail("Expected the default codec to fail decoding");
+    } catch (RuntimeException e) {
+      // expected
+    }
+    map.close();
+    otherMap.close();
+  }
+
   public static class Person implements Serializable  {
     final String name;
     final int age;
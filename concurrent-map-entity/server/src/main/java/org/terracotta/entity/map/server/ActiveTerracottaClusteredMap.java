@@ -15,191 +15,379 @@
  */
 package org.terracotta.entity.map.server;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.terracotta.entity.ActiveServerEntity;
+import org.terracotta.entity.ClientCommunicator;
 import org.terracotta.entity.ClientDescriptor;
 import org.terracotta.entity.ConcurrencyStrategy;
+import org.terracotta.entity.IEntityMessenger;
+import org.terracotta.entity.MessageCodecException;
 import org.terracotta.entity.PassiveSynchronizationChannel;
-import org.terracotta.entity.map.common.BooleanResponse;
-import org.terracotta.entity.map.common.ConditionalRemoveOperation;
-import org.terracotta.entity.map.common.ConditionalReplaceOperation;
-import org.terracotta.entity.map.common.ContainsKeyOperation;
-import org.terracotta.entity.map.common.ContainsValueOperation;
-import org.terracotta.entity.map.common.EntrySetResponse;
-import org.terracotta.entity.map.common.GetOperation;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
+import org.terracotta.entity.map.common.EvictedKeysResponse;
 import org.terracotta.entity.map.common.KeySetResponse;
+import org.terracotta.entity.map.common.KeyedOperation;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
-import org.terracotta.entity.map.common.MapValueResponse;
 import org.terracotta.entity.map.common.NullResponse;
-import org.terracotta.entity.map.common.PutAllOperation;
-import org.terracotta.entity.map.common.PutIfAbsentOperation;
-import org.terracotta.entity.map.common.PutIfPresentOperation;
-import org.terracotta.entity.map.common.PutOperation;
-import org.terracotta.entity.map.common.RemoveOperation;
-import org.terracotta.entity.map.common.SizeResponse;
-import org.terracotta.entity.map.common.ValueCollectionResponse;
-
-import java.util.AbstractMap;
+import org.terracotta.entity.map.common.RemoveEntriesOperation;
+import org.terracotta.entity.map.common.SetExpirationOperation;
+import org.terracotta.entity.map.common.SubscribeChangesOperation;
+import org.terracotta.entity.map.common.ValueWrapper;
+import org.terracotta.entity.map.common.WriteEntriesOperation;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+
+import static org.terracotta.entity.map.server.MapMutationListener.NO_EXPIRATION;
 
 
 public class ActiveTerracottaClusteredMap implements ActiveServerEntity<MapOperation, MapResponse>  {
 
-  private static final int CONCURRENCY_KEY = 42;
+  private static final Logger LOGGER = LoggerFactory.getLogger(ActiveTerracottaClusteredMap.class);
+
+  static final int SEGMENT_COUNT = WriteEntriesOperation.SEGMENT_COUNT;
+
+  /**
+   * Estimated size above which a passive synchronization chunk is shipped.
+   */
+  private static final int SYNC_CHUNK_SIZE = 1024 * 1024;
+
+  private final ClusteredMapStateHolder stateHolder;
+  private final boolean promoted;
+  private final SegmentedMap map;
+  private final MapOperationHandler handler;
+  private final MapPersistence persistence;
+  private final EntryExpiry expiry;
+  private final EntryEviction eviction;
+  private final ClientCommunicator communicator;
+  private final IEntityMessenger messenger;
+  private final ChangeEventPublisher changes;
+  private final Set<ClientDescriptor> evictionSubscribers = ConcurrentHashMap.newKeySet();
+  private final MapOperationStatistics statistics;
+  private final ClusteredMapManagement management;
+
+  ActiveTerracottaClusteredMap(MapFunctionRegistry functions, ClusteredMapConfiguration configuration, ClientCommunicator communicator,
+                               IEntityMessenger messenger, ClusteredMapStateHolder stateHolder, ClusteredMapManagement management) {
+    // On failover, carry on with the map the passive entity of this server kept replicated
+    MapState state = MapState.promoted(stateHolder);
+    this.promoted = state != null;
+    if (state == null) {
+      state = MapState.create(stateHolder, configuration);
+    }
+    this.stateHolder = stateHolder;
+    this.map = state.map();
+    this.statistics = new MapOperationStatistics(map);
+    this.management = management;
+    this.communicator = communicator;
+    this.messenger = messenger;
+    this.changes = new ChangeEventPublisher(communicator);
+    this.persistence = state.persistence();
+    this.expiry = state.expiry();
+    // Notified of all the changes, whatever their cause
+    MapMutationListener changeListener = persistence == null ? changes : MapMutationListener.compose(persistence, changes);
+    MapMutationListener listener = MapMutationListener.compose(MapMutationListener.compose(expiry, changeListener), new ExpirationReplicator());
+    if (configuration.isCapacityBounded()) {
+      this.eviction = new EntryEviction(map, configuration, this::evicted);
+      this.handler = new MapOperationHandler(map, functions, MapMutationListener.compose(listener, eviction));
+    } else {
+      this.eviction = null;
+      this.handler = new MapOperationHandler(map, functions, listener);
+    }
+  }
 
-  // TODO Given the way a passive becomes active - this does not work ...
-  private final ConcurrentMap<Object, Object> map = new ConcurrentHashMap<Object, Object>();
-  
   @Override
   public void connected(ClientDescriptor clientDescriptor) {
   }
 
+  /**
+   * Restores the subscriptions of the client, described by its reconnect data: a flag telling whether it subscribed
+   * to evictions, followed by the batch window of its change subscription, {@code 0} if none.
+   */
   @Override
   public void handleReconnect(ClientDescriptor clientDescriptor, byte[] extendedReconnectData) {
-    // Do nothing.
+    if (extendedReconnectData != null && extendedReconnectData.length > 0) {
+      ByteBuffer reconnectData = ByteBuffer.wrap(extendedReconnectData);
+      if (reconnectData.get() != 0) {
+        evictionSubscribers.add(clientDescriptor);
+      }
+      if (reconnectData.remaining() >= 8) {
+        long batchWindowMillis = reconnectData.getLong();
+        if (batchWindowMillis > 0) {
+          changes.subscribe(clientDescriptor, batchWindowMillis, true);
+        }
+      }
+    }
   }
 
   @Override
   public void disconnected(ClientDescriptor clientDescriptor) {
+    evictionSubscribers.remove(clientDescriptor);
+    changes.unsubscribe(clientDescriptor);
   }
 
   @Override
   public MapResponse invoke(ClientDescriptor clientDescriptor, MapOperation input) {
-    MapResponse response;
-    
+    MapOperation.Type type = input.operationType();
+    if (type == MapOperation.Type.SET_EXPIRATION || type == MapOperation.Type.REMOVE_ENTRIES) {
+      // Sent to self to replicate expirations and evictions, these would inflate the statistics of client operations
+      return execute(clientDescriptor, input);
+    }
+    long start = System.nanoTime();
+    statistics.begin(type);
+    MapOperationOutcome outcome = MapOperationOutcome.FAILURE;
+    try {
+      MapResponse response = execute(clientDescriptor, input);
+      outcome = MapOperationStatistics.outcome(type, response);
+      return response;
+    } finally {
+      statistics.end(type, outcome, System.nanoTime() - start);
+    }
+  }
+
+  private MapResponse execute(ClientDescriptor clientDescriptor, MapOperation input) {
     switch (input.operationType()) {
-      case PUT: {
-        PutOperation putOperation = (PutOperation) input;
-        Object key = putOperation.getKey();
-        Object old = map.get(key);
-        map.put(key, putOperation.getValue());
-        response = new MapValueResponse(old);
-        break;
-      }
-      case GET: {
-        Object key = ((GetOperation) input).getKey();
-        response = new MapValueResponse(map.get(key));
-        break;
-      }
-      case REMOVE: {
-        Object key = ((RemoveOperation) input).getKey();
-        response = new MapValueResponse(map.remove(key));
-        break;
-      }
-      case CONTAINS_KEY: {
-        Object key = ((ContainsKeyOperation) input).getKey();
-        response = new BooleanResponse(map.containsKey(key));
-        break;
-      }
-      case CONTAINS_VALUE: {
-        Object value = ((ContainsValueOperation) input).getValue();
-        response = new BooleanResponse(map.containsValue(value));
-        break;
-      }
-      case CLEAR: {
-        map.clear();
-        // There is no response from the clear.
-        response = new NullResponse();
-        break;
-      }
-      case PUT_ALL: {
-        @SuppressWarnings("unchecked")
-        Map<Object, Object> newValues = (Map<Object, Object>) ((PutAllOperation)input).getMap();
-        map.putAll(newValues);
-        // There is no response from a put all.
-        response = new NullResponse();
-        break;
-      }
-      case KEY_SET: {
-        Set<Object> keySet = new HashSet<Object>();
-        keySet.addAll(map.keySet());
-        response = new KeySetResponse(keySet);
-        break;
-      }
-      case VALUES: {
-        Collection<Object> values = new ArrayList<Object>();
-        values.addAll(map.values());
-        response = new ValueCollectionResponse(values);
-        break;
-      }
-      case ENTRY_SET: {
-        Set<Map.Entry<Object, Object>> entrySet = new HashSet<Map.Entry<Object, Object>>();
-        for (Map.Entry<Object, Object> entry : map.entrySet()) {
-          entrySet.add(new AbstractMap.SimpleEntry<Object, Object > (entry.getKey(), entry.getValue()));
+      case SUBSCRIBE_EVICTIONS:
+        evictionSubscribers.add(clientDescriptor);
+        return new NullResponse();
+      case SUBSCRIBE_CHANGES:
+        changes.subscribe(clientDescriptor, ((SubscribeChangesOperation) input).getBatchWindowMillis(), false);
+        return new NullResponse();
+      case SET_EXPIRATION:
+        // Only meant for the passives, the expiration time was set here by the put
+        return new NullResponse();
+      case REMOVE_ENTRIES: {
+        KeySetResponse removed = (KeySetResponse) handler.handle(input);
+        if (((RemoveEntriesOperation) input).isEvicted() && !removed.getKeySet().isEmpty()) {
+          notifyEvictions(new ArrayList<>(removed.getKeySet()));
         }
-        response = new EntrySetResponse(entrySet);
-        break;
+        return removed;
       }
-      case SIZE: {
-        response = new SizeResponse(map.size());
-        break;
-      }
-      case PUT_IF_ABSENT: {
-        PutIfAbsentOperation operation = (PutIfAbsentOperation) input;
-        response = new MapValueResponse(map.putIfAbsent(operation.getKey(), operation.getValue()));
-        break;
-      }
-      case PUT_IF_PRESENT: {
-        PutIfPresentOperation operation = (PutIfPresentOperation) input;
-        response = new MapValueResponse(map.replace(operation.getKey(), operation.getValue()));
-        break;
-      }
-      case CONDITIONAL_REMOVE: {
-        ConditionalRemoveOperation operation = (ConditionalRemoveOperation) input;
-        response = new BooleanResponse(map.remove(operation.getKey(), operation.getValue()));
-        break;
+      default:
+        return handler.handle(input);
+    }
+  }
+
+  private void evicted(List<Object> keys, List<Object> values) {
+    sendToSelf(new RemoveEntriesOperation(keys, values, true));
+  }
+
+  private void notifyEvictions(List<Object> keys) {
+    if (!evictionSubscribers.isEmpty()) {
+      EvictedKeysResponse response = new EvictedKeysResponse(keys);
+      for (ClientDescriptor subscriber : evictionSubscribers) {
+        try {
+          communicator.sendNoResponse(subscriber, response);
+        } catch (MessageCodecException e) {
+          LOGGER.warn("Failed to notify client {} of evictions", subscriber, e);
+        }
       }
-      case CONDITIONAL_REPLACE: {
-        ConditionalReplaceOperation operation = (ConditionalReplaceOperation) input;
-        response = new BooleanResponse(map.replace(operation.getKey(), operation.getOldValue(), operation.getNewValue()));
-        break;
+    }
+  }
+
+  private void expired(List<Object> keys, List<Object> values) {
+    sendToSelf(new RemoveEntriesOperation(keys, values, false));
+  }
+
+  /**
+   * Sends {@code operation} to this entity, so that it is ordered with the client operations and replicated to the
+   * passives.
+   */
+  private void sendToSelf(MapOperation operation) {
+    try {
+      messenger.messageSelf(operation);
+    } catch (MessageCodecException e) {
+      LOGGER.error("Failed to send {} operation to self", operation.operationType(), e);
+    }
+  }
+
+  /**
+   * Replicates the expiration time of the entries put with a time to live, each server otherwise computing its own
+   * from the time it executes the put.
+   */
+  private class ExpirationReplicator implements MapMutationListener {
+
+    @Override
+    public void onPut(Object key, Object value, long expirationTime) {
+      if (expirationTime != NO_EXPIRATION) {
+        sendToSelf(new SetExpirationOperation(key, value, expirationTime));
       }
-      default:
-        // Unknown message type.
-        throw new AssertionError("Unsupported message type: " + input.operationType());
     }
-    return response;
+
+    @Override
+    public void onRemove(Object key) {
+    }
+
+    @Override
+    public void onClear() {
+    }
   }
 
   @Override
   public void createNew() {
+    if (persistence != null) {
+      persistence.create(expiry);
+    }
+    expiry.start(this::expired);
+    management.mapCreated(statistics);
   }
 
+  /**
+   * Restores the map from disk when the server restarts, or takes over the map replicated to this server when it gets
+   * promoted from passive, along with its already running persistence.
+   */
   @Override
   public void loadExisting() {
+    if (!promoted && persistence != null) {
+      persistence.load(expiry);
+    }
+    if (eviction != null) {
+      for (Map.Entry<Object, Object> entry : map.entrySet()) {
+        eviction.onPut(entry.getKey(), entry.getValue(), MapMutationListener.NO_EXPIRATION);
+      }
+    }
+    expiry.start(this::expired);
+    management.mapCreated(statistics);
   }
 
   @Override
   public void destroy() {
+    management.mapDestroyed(statistics);
+    changes.close();
+    expiry.stop();
+    if (persistence != null) {
+      persistence.destroy();
+    }
     map.clear();
+    stateHolder.clear();
   }
 
+  /**
+   * Operations on a single key, or on entries of a single segment, are ordered per segment, operations mutating the
+   * whole map are exclusive and whole map reads run concurrently with everything else.
+   */
   public static class MapConcurrencyStrategy implements ConcurrencyStrategy<MapOperation> {
 
     @Override
     public int concurrencyKey(MapOperation operation) {
-      return CONCURRENCY_KEY;
+      if (operation instanceof KeyedOperation) {
+        return concurrencyKeyFor(SegmentedMap.segmentIndex(((KeyedOperation) operation).getKey(), SEGMENT_COUNT));
+      } else if (operation instanceof RemoveEntriesOperation) {
+        // All the entries belong to the same segment
+        return concurrencyKeyFor(SegmentedMap.segmentIndex(((RemoveEntriesOperation) operation).getKeys().get(0), SEGMENT_COUNT));
+      } else if (operation instanceof WriteEntriesOperation) {
+        return concurrencyKeyFor(((WriteEntriesOperation) operation).getSegment());
+      } else if (operation.operationType().replicate()) {
+        return MANAGEMENT_KEY;
+      } else {
+        return UNIVERSAL_KEY;
+      }
     }
 
     @Override
     public Set<Integer> getKeysForSynchronization() {
-      return Collections.singleton(CONCURRENCY_KEY);
+      Set<Integer> keys = new LinkedHashSet<>();
+      for (int i = 0; i < SEGMENT_COUNT; i++) {
+        keys.add(concurrencyKeyFor(i));
+      }
+      return keys;
     }
   }
 
+  static int concurrencyKeyFor(int segment) {
+    return segment + 1;
+  }
+
+  static int segmentFor(int concurrencyKey) {
+    int segment = concurrencyKey - 1;
+    if (segment < 0 || segment >= SEGMENT_COUNT) {
+      throw new IllegalArgumentException("Unexpected concurrency key " + concurrencyKey);
+    }
+    return segment;
+  }
+
+  /**
+   * Streams the segment owning {@code concurrencyKey} to the passive in chunks of bounded estimated size, so that
+   * neither server has to materialize the whole map at once.
+   */
   @Override
   public void synchronizeKeyToPassive(PassiveSynchronizationChannel<MapOperation> syncChannel, int concurrencyKey) {
-    if (concurrencyKey != CONCURRENCY_KEY) {
-      throw new IllegalArgumentException("concurrencyKey should only be " + CONCURRENCY_KEY);
+    Map<Object, Object> chunk = new HashMap<>();
+    Map<Object, Long> expirations = new HashMap<>();
+    long chunkSize = 0;
+    for (Map.Entry<Object, Object> entry : map.segment(segmentFor(concurrencyKey)).entrySet()) {
+      chunk.put(entry.getKey(), entry.getValue());
+      long expirationTime = expiry.expirationOf(entry.getKey());
+      if (expirationTime != MapMutationListener.NO_EXPIRATION) {
+        expirations.put(entry.getKey(), expirationTime);
+      }
+      chunkSize += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+      if (chunkSize >= SYNC_CHUNK_SIZE) {
+        syncChannel.synchronizeToPassive(new SyncOperation(chunk, expirations));
+        chunk = new HashMap<>();
+        expirations = new HashMap<>();
+        chunkSize = 0;
+      }
+    }
+    if (!chunk.isEmpty()) {
+      syncChannel.synchronizeToPassive(new SyncOperation(chunk, expirations));
+    }
+  }
+
+  /**
+   * Estimates the size of a stored key or value. Clients store boxed primitives and strings as-is and encode anything
+   * else to bytes, so that only objects produced by custom codecs get measured by their serialized form.
+   */
+  static long estimateSize(Object object) {
+    if (object == null) {
+      return 0;
+    } else if (object instanceof ValueWrapper) {
+      return ((ValueWrapper) object).getValue().length + 16;
+    } else if (object instanceof String) {
+      return ((String) object).length() * 2 + 16;
+    } else if (object instanceof byte[]) {
+      return ((byte[]) object).length + 16;
+    } else if (object instanceof Long || object instanceof Integer || object instanceof Double || object instanceof Float
+               || object instanceof Short || object instanceof Byte || object instanceof Character || object instanceof Boolean) {
+      return 16;
+    } else {
+      return serializedSize(object);
+    }
+  }
+
+  private static long serializedSize(Object object) {
+    ByteCountingOutputStream counter = new ByteCountingOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(counter)) {
+      output.writeObject(object);
+    } catch (IOException e) {
+      // Not serializable, so it cannot be synchronized either
+      return 16;
+    }
+    return counter.count;
+  }
+
+  private static final class ByteCountingOutputStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
     }
 
-    syncChannel.synchronizeToPassive(new SyncOperation(map));
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
   }
 }
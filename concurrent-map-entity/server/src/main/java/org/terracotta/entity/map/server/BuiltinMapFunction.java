@@ -0,0 +1,88 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.BuiltinFunctions;
+
+/**
+ * The {@link MapFunction}s available on every server.
+ */
+enum BuiltinMapFunction implements MapFunction {
+  INCREMENT(BuiltinFunctions.INCREMENT) {
+    @Override
+    public Object apply(Object current, Object argument) {
+      if (!(argument instanceof Number)) {
+        throw new IllegalArgumentException("Cannot increment by " + argument);
+      }
+      Number delta = (Number) argument;
+      if (current == null) {
+        return delta;
+      } else if (current instanceof Long) {
+        return (Long) current + delta.longValue();
+      } else if (current instanceof Integer) {
+        return (Integer) current + delta.intValue();
+      } else if (current instanceof Double) {
+        return (Double) current + delta.doubleValue();
+      } else if (current instanceof Float) {
+        return (Float) current + delta.floatValue();
+      } else {
+        throw new IllegalArgumentException("Cannot increment value of type " + current.getClass());
+      }
+    }
+  },
+  APPEND(BuiltinFunctions.APPEND) {
+    @Override
+    public Object apply(Object current, Object argument) {
+      if (!(argument instanceof String)) {
+        throw new IllegalArgumentException("Cannot append " + argument);
+      }
+      if (current == null) {
+        return argument;
+      } else if (current instanceof String) {
+        return ((String) current).concat((String) argument);
+      } else {
+        throw new IllegalArgumentException("Cannot append to value of type " + current.getClass());
+      }
+    }
+  },
+  MAX(BuiltinFunctions.MAX) {
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object apply(Object current, Object argument) {
+      if (argument == null) {
+        throw new IllegalArgumentException("Cannot compare to null");
+      }
+      if (current == null) {
+        return argument;
+      } else if (current instanceof Comparable && current.getClass() == argument.getClass()) {
+        return ((Comparable<Object>) current).compareTo(argument) >= 0 ? current : argument;
+      } else {
+        throw new IllegalArgumentException("Cannot compare value of type " + current.getClass() + " to " + argument.getClass());
+      }
+    }
+  };
+
+  private final String name;
+
+  BuiltinMapFunction(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+}
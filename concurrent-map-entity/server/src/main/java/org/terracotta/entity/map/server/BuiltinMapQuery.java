@@ -0,0 +1,86 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.BuiltinQueries;
+
+import java.util.Arrays;
+
+/**
+ * The {@link MapQuery}s available on every server.
+ */
+enum BuiltinMapQuery implements MapQuery {
+  ALL(BuiltinQueries.ALL) {
+    @Override
+    public Object apply(Object key, Object value, Object argument) {
+      return value;
+    }
+  },
+  VALUE_EQUALS(BuiltinQueries.VALUE_EQUALS) {
+    @Override
+    public Object apply(Object key, Object value, Object argument) {
+      return value.equals(argument) ? value : null;
+    }
+  },
+  VALUE_RANGE(BuiltinQueries.VALUE_RANGE) {
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object apply(Object key, Object value, Object argument) {
+      Object[] bounds = (Object[]) argument;
+      if (value instanceof Comparable && value.getClass() == bounds[0].getClass()) {
+        Comparable<Object> comparable = (Comparable<Object>) value;
+        return comparable.compareTo(bounds[0]) >= 0 && comparable.compareTo(bounds[1]) < 0 ? value : null;
+      } else {
+        return null;
+      }
+    }
+
+    @Override
+    public void checkArgument(Object argument) {
+      if (!(argument instanceof Object[]) || ((Object[]) argument).length != 2) {
+        throw new IllegalArgumentException("Query " + getName() + " needs an array of two bounds, not " + argument);
+      }
+      Object[] bounds = (Object[]) argument;
+      if (!(bounds[0] instanceof Comparable) || bounds[1] == null || bounds[0].getClass() != bounds[1].getClass()) {
+        throw new IllegalArgumentException("Query " + getName() + " needs comparable bounds of the same class, not " + Arrays.toString(bounds));
+      }
+    }
+  },
+  KEY_PREFIX(BuiltinQueries.KEY_PREFIX) {
+    @Override
+    public Object apply(Object key, Object value, Object argument) {
+      return key instanceof String && ((String) key).startsWith((String) argument) ? value : null;
+    }
+
+    @Override
+    public void checkArgument(Object argument) {
+      if (!(argument instanceof String)) {
+        throw new IllegalArgumentException("Query " + getName() + " needs a String prefix, not " + argument);
+      }
+    }
+  };
+
+  private final String name;
+
+  BuiltinMapQuery(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+}
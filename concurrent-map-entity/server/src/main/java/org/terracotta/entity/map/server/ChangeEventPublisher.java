@@ -0,0 +1,163 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.entity.ClientCommunicator;
+import org.terracotta.entity.ClientDescriptor;
+import org.terracotta.entity.MessageCodecException;
+import org.terracotta.entity.map.common.ChangeEvent;
+import org.terracotta.entity.map.common.ChangeEventsResponse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the changes made to a map to the subscribed clients, in numbered batches.
+ * <p>
+ * Changes are accumulated per client over the client batch window, only the last change to each key being kept.
+ * A client whose changes accumulate beyond {@link #MAX_PENDING_CHANGES} keys has them dropped, and is told to resync
+ * by the next batch. The batches of all maps are sent by a single shared thread.
+ */
+class ChangeEventPublisher implements MapMutationListener {
+
+  static final int MAX_PENDING_CHANGES = 64 * 1024;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChangeEventPublisher.class);
+
+  private static final ScheduledExecutorService PUBLISHER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "clustered-map-changes");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final ClientCommunicator communicator;
+  private final ConcurrentMap<ClientDescriptor, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+  ChangeEventPublisher(ClientCommunicator communicator) {
+    this.communicator = communicator;
+  }
+
+  /**
+   * @param client the subscribing client
+   * @param batchWindowMillis the time during which changes are accumulated before being sent
+   * @param resync {@code true} if the client may have missed changes, as when it reconnects after fail-over
+   */
+  void subscribe(ClientDescriptor client, long batchWindowMillis, boolean resync) {
+    Subscriber subscriber = new Subscriber(client, resync);
+    if (subscribers.putIfAbsent(client, subscriber) == null) {
+      subscriber.publishing = PUBLISHER.scheduleAtFixedRate(subscriber::publish, batchWindowMillis, batchWindowMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  void unsubscribe(ClientDescriptor client) {
+    Subscriber subscriber = subscribers.remove(client);
+    if (subscriber != null && subscriber.publishing != null) {
+      subscriber.publishing.cancel(false);
+    }
+  }
+
+  void close() {
+    for (ClientDescriptor client : subscribers.keySet()) {
+      unsubscribe(client);
+    }
+  }
+
+  @Override
+  public void onPut(Object key, Object value, long expirationTime) {
+    publish(new ChangeEvent(ChangeEvent.Type.PUT, key, value));
+  }
+
+  @Override
+  public void onRemove(Object key) {
+    publish(new ChangeEvent(ChangeEvent.Type.REMOVE, key, null));
+  }
+
+  @Override
+  public void onClear() {
+    for (Subscriber subscriber : subscribers.values()) {
+      synchronized (subscriber) {
+        subscriber.pending.clear();
+        subscriber.cleared = true;
+      }
+    }
+  }
+
+  private void publish(ChangeEvent event) {
+    for (Subscriber subscriber : subscribers.values()) {
+      synchronized (subscriber) {
+        subscriber.pending.put(event.getKey(), event);
+        if (subscriber.pending.size() > MAX_PENDING_CHANGES) {
+          subscriber.pending.clear();
+          subscriber.cleared = false;
+          subscriber.resync = true;
+        }
+      }
+    }
+  }
+
+  private final class Subscriber {
+    private final ClientDescriptor client;
+
+    // Guarded by this
+    private Map<Object, ChangeEvent> pending = new LinkedHashMap<>();
+    private boolean cleared;
+    private boolean resync;
+
+    // Only accessed by the publisher thread
+    private long sequence;
+
+    private volatile ScheduledFuture<?> publishing;
+
+    Subscriber(ClientDescriptor client, boolean resync) {
+      this.client = client;
+      this.resync = resync;
+    }
+
+    void publish() {
+      List<ChangeEvent> events;
+      boolean batchResync;
+      synchronized (this) {
+        if (pending.isEmpty() && !cleared && !resync) {
+          return;
+        }
+        events = new ArrayList<>(pending.size() + 1);
+        if (cleared) {
+          events.add(new ChangeEvent(ChangeEvent.Type.CLEAR, null, null));
+        }
+        events.addAll(pending.values());
+        batchResync = resync;
+        pending = new LinkedHashMap<>();
+        cleared = false;
+        resync = false;
+      }
+      try {
+        communicator.sendNoResponse(client, new ChangeEventsResponse(sequence++, batchResync, events));
+      } catch (MessageCodecException | RuntimeException e) {
+        LOGGER.warn("Failed to send changes to client {}", client, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.config.service.ExtendedConfigParser;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+
+/**
+ * Parses the {@code <clustered-map:persistence directory="..."/>} element of the server configuration into a
+ * {@link ClusteredMapPersistenceConfiguration}.
+ */
+public class ClusteredMapConfigurationParser implements ExtendedConfigParser {
+
+  private static final URL XML_SCHEMA = ClusteredMapConfigurationParser.class.getResource("/clustered-map.xsd");
+  private static final URI NAMESPACE = URI.create("http://www.terracotta.org/config/clustered-map");
+
+  @Override
+  public Source getXmlSchema() throws IOException {
+    return new StreamSource(XML_SCHEMA.openStream());
+  }
+
+  @Override
+  public URI getNamespace() {
+    return NAMESPACE;
+  }
+
+  @Override
+  public ClusteredMapPersistenceConfiguration parse(Element element, String source) {
+    try {
+      SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(getXmlSchema()).newValidator().validate(new DOMSource(element));
+    } catch (SAXException e) {
+      throw new IllegalArgumentException(e);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return new ClusteredMapPersistenceConfiguration(new File(element.getAttribute("directory")));
+  }
+}
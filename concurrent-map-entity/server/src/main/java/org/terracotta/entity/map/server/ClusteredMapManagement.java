@@ -0,0 +1,64 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.ServiceRegistry;
+import org.terracotta.management.registry.collect.StatisticConfiguration;
+import org.terracotta.management.service.monitoring.ActiveEntityMonitoringServiceConfiguration;
+import org.terracotta.management.service.monitoring.ConsumerManagementRegistry;
+import org.terracotta.management.service.monitoring.ConsumerManagementRegistryConfiguration;
+import org.terracotta.management.service.monitoring.EntityMonitoringService;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the statistics of an active map to the management registry, when the server provides monitoring.
+ */
+class ClusteredMapManagement {
+
+  static final int HISTORY_SIZE = 100;
+  static final long HISTORY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private final ConsumerManagementRegistry managementRegistry;
+
+  ClusteredMapManagement(ServiceRegistry serviceRegistry) {
+    EntityMonitoringService monitoringService = serviceRegistry.getService(new ActiveEntityMonitoringServiceConfiguration());
+    if (monitoringService == null) {
+      this.managementRegistry = null;
+    } else {
+      this.managementRegistry = Objects.requireNonNull(serviceRegistry.getService(new ConsumerManagementRegistryConfiguration(monitoringService)
+          .setStatisticConfiguration(new StatisticConfiguration()
+              .setAverageWindowDuration(1, TimeUnit.MINUTES)
+              .setHistorySize(HISTORY_SIZE)
+              .setHistoryInterval(HISTORY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+              .setTimeToDisable(5, TimeUnit.SECONDS))));
+      this.managementRegistry.addManagementProvider(new ClusteredMapStatisticsManagementProvider());
+    }
+  }
+
+  void mapCreated(MapOperationStatistics statistics) {
+    if (managementRegistry != null) {
+      managementRegistry.registerAndRefresh(new ClusteredMapBinding(statistics));
+    }
+  }
+
+  void mapDestroyed(MapOperationStatistics statistics) {
+    if (managementRegistry != null) {
+      managementRegistry.unregisterAndRefresh(new ClusteredMapBinding(statistics));
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.io.File;
+
+/**
+ * The server-wide persistence settings of clustered maps, read from the server configuration by
+ * {@link ClusteredMapConfigurationParser}.
+ */
+public final class ClusteredMapPersistenceConfiguration {
+
+  private final File directory;
+
+  public ClusteredMapPersistenceConfiguration(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return the directory holding the data of the persistent maps of the server, each in a sub-directory
+   */
+  public File getDirectory() {
+    return directory;
+  }
+}
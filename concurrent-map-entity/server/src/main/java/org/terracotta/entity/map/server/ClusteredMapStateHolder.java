@@ -0,0 +1,61 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import com.tc.classloader.CommonComponent;
+
+import java.io.File;
+
+/**
+ * Holds the state of a clustered map entity on a server for as long as the server runs, so that a passive entity
+ * promoted to active takes over the map it replicated instead of starting empty.
+ * <p>
+ * Entities get their own holder from the service registry, through a
+ * {@link org.terracotta.entity.BasicServiceConfiguration} of this type. The state is opaque to the holder, so that
+ * only this class is shared between the class loaders of the entity and of {@link ClusteredMapStateProvider}.
+ */
+@CommonComponent
+public final class ClusteredMapStateHolder {
+
+  private final File persistenceDirectory;
+  private volatile Object state;
+
+  public ClusteredMapStateHolder(File persistenceDirectory) {
+    this.persistenceDirectory = persistenceDirectory;
+  }
+
+  /**
+   * @return the directory of this server under which persistent maps keep their data
+   */
+  public File getPersistenceDirectory() {
+    return persistenceDirectory;
+  }
+
+  /**
+   * @return the state of the entity, or {@code null} if none was set since the server started or last synchronized
+   */
+  public Object get() {
+    return state;
+  }
+
+  public void set(Object state) {
+    this.state = state;
+  }
+
+  public void clear() {
+    this.state = null;
+  }
+}
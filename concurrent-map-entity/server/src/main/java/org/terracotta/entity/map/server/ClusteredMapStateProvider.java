@@ -0,0 +1,82 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import com.tc.classloader.BuiltinService;
+import org.terracotta.entity.PlatformConfiguration;
+import org.terracotta.entity.ServiceConfiguration;
+import org.terracotta.entity.ServiceProvider;
+import org.terracotta.entity.ServiceProviderConfiguration;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides each clustered map entity with its {@link ClusteredMapStateHolder}.
+ * <p>
+ * Holders are keyed by consumer ID, which an entity keeps when its passive instance is promoted to active.
+ */
+@BuiltinService
+public class ClusteredMapStateProvider implements ServiceProvider {
+
+  private final Map<Long, ClusteredMapStateHolder> holders = new ConcurrentHashMap<>();
+  private File persistenceDirectory;
+
+  /**
+   * Persistent maps keep their data in the directory given by the {@link ClusteredMapPersistenceConfiguration} of the
+   * server, or in {@code clustered-maps/<server name>} under the server working directory if it has none.
+   */
+  @Override
+  public boolean initialize(ServiceProviderConfiguration configuration, PlatformConfiguration platformConfiguration) {
+    Collection<ClusteredMapPersistenceConfiguration> persistence = platformConfiguration.getExtendedConfiguration(ClusteredMapPersistenceConfiguration.class);
+    if (persistence.size() > 1) {
+      throw new IllegalArgumentException("Only one clustered map persistence configuration can be given, got " + persistence.size());
+    } else if (persistence.isEmpty()) {
+      persistenceDirectory = new File("clustered-maps", platformConfiguration.getServerName());
+    } else {
+      persistenceDirectory = persistence.iterator().next().getDirectory();
+    }
+    return true;
+  }
+
+  @Override
+  public <T> T getService(long consumerID, ServiceConfiguration<T> configuration) {
+    Class<T> serviceType = configuration.getServiceType();
+    if (serviceType == ClusteredMapStateHolder.class) {
+      return serviceType.cast(holders.computeIfAbsent(consumerID, id -> new ClusteredMapStateHolder(persistenceDirectory)));
+    }
+    throw new IllegalStateException("Unable to provide service " + serviceType.getName() + " to consumerID: " + consumerID);
+  }
+
+  @Override
+  public Collection<Class<?>> getProvidedServiceTypes() {
+    return Collections.<Class<?>>singleton(ClusteredMapStateHolder.class);
+  }
+
+  /**
+   * Forgets the state of the entities this server held before becoming passive again, as they get synchronized from
+   * the active.
+   */
+  @Override
+  public void prepareForSynchronization() {
+    for (ClusteredMapStateHolder holder : holders.values()) {
+      holder.clear();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.context.extended.OperationStatisticDescriptor;
+import org.terracotta.context.extended.RegisteredStatistic;
+import org.terracotta.context.extended.StatisticsRegistry;
+import org.terracotta.entity.map.common.MapOperation;
+import org.terracotta.management.model.capabilities.descriptors.StatisticDescriptor;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.stats.Sample;
+import org.terracotta.management.model.stats.Statistic;
+import org.terracotta.management.model.stats.StatisticType;
+import org.terracotta.management.model.stats.history.AverageHistory;
+import org.terracotta.management.model.stats.history.DurationHistory;
+import org.terracotta.management.registry.action.Named;
+import org.terracotta.management.registry.action.RequiredContext;
+import org.terracotta.management.service.monitoring.registry.provider.AbstractExposedStatistics;
+import org.terracotta.management.service.monitoring.registry.provider.AbstractStatisticsManagementProvider;
+import org.terracotta.statistics.archive.Timestamped;
+import org.terracotta.statistics.extended.SampleType;
+import org.terracotta.statistics.extended.SampledStatistic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singleton;
+import static java.util.EnumSet.allOf;
+import static java.util.EnumSet.of;
+import static org.terracotta.context.extended.ValueStatisticDescriptor.descriptor;
+
+/**
+ * Exposes the count, rate and latency of each map operation, the hit ratio of keyed reads and the map size.
+ * <p>
+ * Operation statistics are named after the operation, e.g. {@code Map:PutIfAbsentCount} or
+ * {@code Map:GetLatencyMaximum}, latencies being in nanoseconds. Besides the sampled minimum, maximum and average,
+ * the latency percentiles of each history interval are read from the {@link LatencyHistogram} of the operation,
+ * e.g. {@code Map:GetLatencyP99}.
+ */
+@Named("ClusteredMapStatistics")
+@RequiredContext({@Named("consumerId"), @Named("type"), @Named("alias")})
+class ClusteredMapStatisticsManagementProvider extends AbstractStatisticsManagementProvider<ClusteredMapBinding> {
+
+  ClusteredMapStatisticsManagementProvider() {
+    super(ClusteredMapBinding.class);
+  }
+
+  @Override
+  protected AbstractExposedStatistics<ClusteredMapBinding> internalWrap(Context context, ClusteredMapBinding managedObject, StatisticsRegistry statisticsRegistry) {
+    return new ClusteredMapExposedStatistics(context, managedObject, statisticsRegistry);
+  }
+
+  private static class ClusteredMapExposedStatistics extends AbstractExposedStatistics<ClusteredMapBinding> {
+
+    private static final Map<String, SampleType> LATENCY_SUFFIXES = new LinkedHashMap<>();
+    private static final Map<String, Double> PERCENTILE_SUFFIXES = new LinkedHashMap<>();
+
+    static {
+      LATENCY_SUFFIXES.put("LatencyMinimum", SampleType.LATENCY_MIN);
+      LATENCY_SUFFIXES.put("LatencyMaximum", SampleType.LATENCY_MAX);
+      LATENCY_SUFFIXES.put("LatencyAverage", SampleType.LATENCY_AVG);
+      PERCENTILE_SUFFIXES.put("LatencyP50", 0.5);
+      PERCENTILE_SUFFIXES.put("LatencyP90", 0.9);
+      PERCENTILE_SUFFIXES.put("LatencyP99", 0.99);
+      PERCENTILE_SUFFIXES.put("LatencyP999", 0.999);
+    }
+
+    ClusteredMapExposedStatistics(Context context, ClusteredMapBinding binding, StatisticsRegistry statisticsRegistry) {
+      super(context, binding, statisticsRegistry);
+
+      for (MapOperation.Type type : MapOperation.Type.values()) {
+        statisticsRegistry.registerCompoundOperations(operationStatisticName(type),
+            OperationStatisticDescriptor.descriptor(MapOperationStatistics.statisticName(type), singleton(MapOperationStatistics.TAG), MapOperationOutcome.class), allOf(MapOperationOutcome.class));
+      }
+
+      EnumSet<MapOperationOutcome> hit = of(MapOperationOutcome.HIT);
+      EnumSet<MapOperationOutcome> miss = of(MapOperationOutcome.MISS);
+      OperationStatisticDescriptor<MapOperationOutcome> lookup = OperationStatisticDescriptor.descriptor(MapOperationStatistics.LOOKUP, singleton(MapOperationStatistics.TAG), MapOperationOutcome.class);
+
+      statisticsRegistry.registerCompoundOperations("Map:Hit", lookup, hit);
+      statisticsRegistry.registerCompoundOperations("Map:Miss", lookup, miss);
+      statisticsRegistry.registerRatios("Map:HitRatio", lookup, hit, of(MapOperationOutcome.HIT, MapOperationOutcome.MISS));
+      statisticsRegistry.registerRatios("Map:MissRatio", lookup, miss, of(MapOperationOutcome.HIT, MapOperationOutcome.MISS));
+
+      statisticsRegistry.registerSize("Map:Size", descriptor("size", singleton(MapOperationStatistics.TAG)));
+    }
+
+    @Override
+    public Context getContext() {
+      return super.getContext().with("type", "ClusteredMap");
+    }
+
+    @Override
+    public Statistic<?, ?> queryStatistic(String fullStatisticName, long since) {
+      for (Map.Entry<String, Double> suffix : PERCENTILE_SUFFIXES.entrySet()) {
+        if (fullStatisticName.endsWith(suffix.getKey())) {
+          MapOperation.Type type = operationType(fullStatisticName.substring(0, fullStatisticName.length() - suffix.getKey().length()));
+          if (type != null) {
+            return new DurationHistory(percentileSamples(getBinding().getValue().latency(type).history(since), suffix.getValue()), TimeUnit.NANOSECONDS);
+          }
+        }
+      }
+      StatisticsRegistry statisticsRegistry = getStatisticsRegistry();
+      if (statisticsRegistry != null) {
+        for (Map.Entry<String, SampleType> suffix : LATENCY_SUFFIXES.entrySet()) {
+          if (fullStatisticName.endsWith(suffix.getKey())) {
+            String statisticName = fullStatisticName.substring(0, fullStatisticName.length() - suffix.getKey().length());
+            SampledStatistic<? extends Number> statistic = statisticsRegistry.findSampledCompoundStatistic(statisticName, suffix.getValue());
+            if (statistic == null) {
+              break;
+            } else if (suffix.getValue() == SampleType.LATENCY_AVG) {
+              return new AverageHistory(averageSamples(statistic.history(since)), TimeUnit.NANOSECONDS);
+            } else {
+              return new DurationHistory(durationSamples(statistic.history(since)), TimeUnit.NANOSECONDS);
+            }
+          }
+        }
+      }
+      return super.queryStatistic(fullStatisticName, since);
+    }
+
+    @Override
+    public Collection<? extends StatisticDescriptor> getDescriptors() {
+      Set<StatisticDescriptor> descriptors = new HashSet<>(super.getDescriptors());
+      for (MapOperation.Type type : MapOperation.Type.values()) {
+        for (String suffix : PERCENTILE_SUFFIXES.keySet()) {
+          descriptors.add(new StatisticDescriptor(operationStatisticName(type) + suffix, StatisticType.DURATION_HISTORY));
+        }
+      }
+      StatisticsRegistry statisticsRegistry = getStatisticsRegistry();
+      if (statisticsRegistry != null) {
+        for (Map.Entry<String, RegisteredStatistic> entry : statisticsRegistry.getRegistrations().entrySet()) {
+          switch (entry.getValue().getType()) {
+            case COMPOUND:
+              descriptors.add(new StatisticDescriptor(entry.getKey() + "LatencyMinimum", StatisticType.DURATION_HISTORY));
+              descriptors.add(new StatisticDescriptor(entry.getKey() + "LatencyMaximum", StatisticType.DURATION_HISTORY));
+              descriptors.add(new StatisticDescriptor(entry.getKey() + "LatencyAverage", StatisticType.AVERAGE_HISTORY));
+              break;
+            default:
+              break;
+          }
+        }
+      }
+      return descriptors;
+    }
+
+    private static String operationStatisticName(MapOperation.Type type) {
+      String name = MapOperationStatistics.statisticName(type);
+      return "Map:" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static MapOperation.Type operationType(String operationStatisticName) {
+      for (MapOperation.Type type : MapOperation.Type.values()) {
+        if (operationStatisticName(type).equals(operationStatisticName)) {
+          return type;
+        }
+      }
+      return null;
+    }
+
+    private static List<Sample<Long>> durationSamples(List<? extends Timestamped<? extends Number>> history) {
+      List<Sample<Long>> samples = new ArrayList<>(history.size());
+      for (Timestamped<? extends Number> t : history) {
+        samples.add(new Sample<>(t.getTimestamp(), t.getSample() == null ? null : t.getSample().longValue()));
+      }
+      return samples;
+    }
+
+    private static List<Sample<Long>> percentileSamples(List<LatencyHistogram.Interval> history, double quantile) {
+      List<Sample<Long>> samples = new ArrayList<>(history.size());
+      for (LatencyHistogram.Interval interval : history) {
+        samples.add(new Sample<>(interval.end(), interval.valueAt(quantile)));
+      }
+      return samples;
+    }
+
+    private static List<Sample<Double>> averageSamples(List<? extends Timestamped<? extends Number>> history) {
+      List<Sample<Double>> samples = new ArrayList<>(history.size());
+      for (Timestamped<? extends Number> t : history) {
+        samples.add(new Sample<>(t.getTimestamp(), t.getSample() == null ? null : t.getSample().doubleValue()));
+      }
+      return samples;
+    }
+  }
+
+}
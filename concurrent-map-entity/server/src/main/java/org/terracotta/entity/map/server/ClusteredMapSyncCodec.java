@@ -22,7 +22,6 @@ import org.terracotta.entity.map.common.MapOperation;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -44,10 +43,17 @@ class ClusteredMapSyncCodec implements SyncMessageCodec<MapOperation> {
             ByteArrayOutputStream raw = new ByteArrayOutputStream();
             ObjectOutputStream out = new ObjectOutputStream(raw);
             Map<Object, Object> elements = operation.getObjectMap();
+            out.writeInt(elements.size());
             for (Map.Entry<Object, Object> next : elements.entrySet()) {
                 out.writeObject(next.getKey());
                 out.writeObject(next.getValue());
             }
+            Map<Object, Long> expirations = operation.getExpirations();
+            out.writeInt(expirations.size());
+            for (Map.Entry<Object, Long> next : expirations.entrySet()) {
+                out.writeObject(next.getKey());
+                out.writeLong(next.getValue());
+            }
             out.close();
             byte[] bytes = raw.toByteArray();
             return bytes;
@@ -61,28 +67,24 @@ class ClusteredMapSyncCodec implements SyncMessageCodec<MapOperation> {
         try {
             InputStream is = new ByteArrayInputStream(payload);
             ObjectInputStream dis = new ObjectInputStream(is);
-            Map<Object, Object> map = new HashMap<Object, Object>();
-            Object key = readKey(dis);
-            while (null != key) {
+            int size = dis.readInt();
+            Map<Object, Object> map = new HashMap<Object, Object>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+              Object key = dis.readObject();
               Object value = dis.readObject();
               map.put(key, value);
-              key = readKey(dis);
             }
-            return new SyncOperation(map);
+            int expiringSize = dis.readInt();
+            Map<Object, Long> expirations = new HashMap<Object, Long>(expiringSize * 4 / 3 + 1);
+            for (int i = 0; i < expiringSize; i++) {
+              Object key = dis.readObject();
+              expirations.put(key, dis.readLong());
+            }
+            return new SyncOperation(map, expirations);
         } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
+            throw new MessageCodecException("io error", ioe);
         } catch (ClassNotFoundException e) {
-          throw new RuntimeException(e);
-        }
-    }
-    
-    private Object readKey(ObjectInputStream objectInputStream) throws ClassNotFoundException, IOException {
-        Object key = null;
-        try {
-            key = objectInputStream.readObject();
-        } catch (EOFException e) {
-            // This means that we have reached the last key-value pair.
+            throw new MessageCodecException("class not found", e);
         }
-        return key;
     }
 }
@@ -0,0 +1,320 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
+import org.terracotta.entity.map.common.EvictionPolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps a {@link SegmentedMap} within its configured capacity by selecting entries to evict as new ones are put.
+ * <p>
+ * The entry count and size of the whole map are shared counters, checked against the configured capacity on every
+ * put. Each segment tracks the use of its own entries and picks its own victims: a put over capacity evicts from its
+ * own segment first, so that eviction mostly contends with operations on the same segment, and only turns to the
+ * other segments, one at a time, when its own has nothing left to evict.
+ * <p>
+ * Victims are not removed from the map here but handed to a listener: the active entity removes them through a
+ * replicated operation, so that all servers evict the same entries. Only the active, which sees the reads, tracks use.
+ */
+class EntryEviction implements MapMutationListener {
+
+  /**
+   * Number of entries sampled for each {@link EvictionPolicy#LRU} and {@link EvictionPolicy#LFU} eviction.
+   */
+  static final int SAMPLE_SIZE = 8;
+
+  private final SegmentedMap map;
+  private final BiConsumer<List<Object>, List<Object>> evictionListener;
+  private final Segment[] segments;
+  private final long maxEntries;
+  private final long maxBytes;
+  private final AtomicLong entryCount = new AtomicLong();
+  private final AtomicLong byteCount = new AtomicLong();
+
+  /**
+   * @param map the bounded map
+   * @param configuration the map configuration, defining its capacity and eviction policy
+   * @param evictionListener given the keys selected for eviction in a segment, and their current values
+   */
+  EntryEviction(SegmentedMap map, ClusteredMapConfiguration configuration, BiConsumer<List<Object>, List<Object>> evictionListener) {
+    this.map = map;
+    this.evictionListener = evictionListener;
+    this.segments = new Segment[map.segmentCount()];
+    this.maxEntries = configuration.getMaxEntries() > 0 ? configuration.getMaxEntries() : Long.MAX_VALUE;
+    this.maxBytes = configuration.getMaxBytes() > 0 ? configuration.getMaxBytes() : Long.MAX_VALUE;
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(configuration.getEvictionPolicy());
+    }
+  }
+
+  @Override
+  public void onPut(Object key, Object value, long expirationTime) {
+    int index = SegmentedMap.segmentIndex(key, segments.length);
+    Segment segment = segments[index];
+    List<Object> victims;
+    synchronized (segment) {
+      segment.put(key, ActiveTerracottaClusteredMap.estimateSize(key) + ActiveTerracottaClusteredMap.estimateSize(value));
+      victims = segment.evict(key);
+    }
+    evicted(index, victims);
+    for (int i = 1; i < segments.length && isOverCapacity(); i++) {
+      int other = (index + i) & (segments.length - 1);
+      synchronized (segments[other]) {
+        victims = segments[other].evict(null);
+      }
+      evicted(other, victims);
+    }
+  }
+
+  private boolean isOverCapacity() {
+    return entryCount.get() > maxEntries || byteCount.get() > maxBytes;
+  }
+
+  private void evicted(int index, List<Object> victims) {
+    if (victims != null) {
+      ConcurrentMap<Object, Object> mapSegment = map.segment(index);
+      List<Object> keys = new ArrayList<>(victims.size());
+      List<Object> values = new ArrayList<>(victims.size());
+      for (Object victim : victims) {
+        Object victimValue = mapSegment.get(victim);
+        if (victimValue != null) {
+          keys.add(victim);
+          values.add(victimValue);
+        }
+      }
+      if (!keys.isEmpty()) {
+        evictionListener.accept(keys, values);
+      }
+    }
+  }
+
+  @Override
+  public void onAccess(Object key) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      segment.touch(key);
+    }
+  }
+
+  @Override
+  public void onRemove(Object key) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      segment.remove(key);
+    }
+  }
+
+  @Override
+  public void onClear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  private Segment segmentFor(Object key) {
+    return segments[SegmentedMap.segmentIndex(key, segments.length)];
+  }
+
+  /**
+   * The entries of a segment, packed in arrays so that they can be sampled at random and swept by a clock hand.
+   * <p>
+   * The meaning of an entry rank depends on the policy: the logical time of its last access for LRU, its decaying
+   * access count for LFU and its reference bit for CLOCK. The entry of lowest rank is evicted first.
+   */
+  private final class Segment {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long MAX_FREQUENCY = 1 << 16;
+
+    private final EvictionPolicy policy;
+    private final Map<Object, Integer> slots = new HashMap<>();
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private long[] ranks = new long[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private int count;
+    private long bytes;
+    private long clock;
+    private long accessesSinceAging;
+    private int hand;
+
+    Segment(EvictionPolicy policy) {
+      this.policy = policy;
+    }
+
+    void put(Object key, long size) {
+      Integer existing = slots.get(key);
+      int slot;
+      if (existing == null) {
+        if (count == keys.length) {
+          keys = Arrays.copyOf(keys, count * 2);
+          ranks = Arrays.copyOf(ranks, count * 2);
+          sizes = Arrays.copyOf(sizes, count * 2);
+        }
+        slot = count++;
+        keys[slot] = key;
+        ranks[slot] = 0;
+        sizes[slot] = 0;
+        slots.put(key, slot);
+        entryCount.incrementAndGet();
+        // A new entry only earns its CLOCK reference bit once read, otherwise a wave of new entries makes the hand
+        // sweep, and clear, the whole segment
+        if (policy != EvictionPolicy.CLOCK) {
+          touchSlot(slot);
+        }
+      } else {
+        slot = existing;
+        touchSlot(slot);
+      }
+      bytes += size - sizes[slot];
+      byteCount.addAndGet(size - sizes[slot]);
+      sizes[slot] = size;
+    }
+
+    void touch(Object key) {
+      Integer slot = slots.get(key);
+      if (slot != null) {
+        touchSlot(slot);
+      }
+    }
+
+    private void touchSlot(int slot) {
+      switch (policy) {
+        case LRU:
+          ranks[slot] = ++clock;
+          break;
+        case LFU:
+          if (ranks[slot] < MAX_FREQUENCY) {
+            ranks[slot]++;
+          }
+          if (++accessesSinceAging >= 16L * Math.max(count, 64)) {
+            // Halve all counts so that entries popular in the past eventually become evictable
+            for (int i = 0; i < count; i++) {
+              ranks[i] >>>= 1;
+            }
+            accessesSinceAging = 0;
+          }
+          break;
+        case CLOCK:
+          ranks[slot] = 1;
+          break;
+        default:
+          throw new AssertionError("Unsupported eviction policy: " + policy);
+      }
+    }
+
+    void remove(Object key) {
+      Integer removed = slots.remove(key);
+      if (removed != null) {
+        int slot = removed;
+        bytes -= sizes[slot];
+        entryCount.decrementAndGet();
+        byteCount.addAndGet(-sizes[slot]);
+        int last = --count;
+        if (slot != last) {
+          keys[slot] = keys[last];
+          ranks[slot] = ranks[last];
+          sizes[slot] = sizes[last];
+          slots.put(keys[slot], slot);
+        }
+        keys[last] = null;
+      }
+    }
+
+    void clear() {
+      entryCount.addAndGet(-count);
+      byteCount.addAndGet(-bytes);
+      slots.clear();
+      Arrays.fill(keys, 0, count, null);
+      count = 0;
+      bytes = 0;
+      hand = 0;
+    }
+
+    /**
+     * Selects and stops tracking entries of this segment until the map is back within capacity.
+     *
+     * @param excluded a key that must not be evicted, the one just put, or {@code null}
+     * @return the keys to evict, or {@code null} if none
+     */
+    List<Object> evict(Object excluded) {
+      List<Object> victims = null;
+      while (isOverCapacity()) {
+        Object victim = selectVictim(excluded);
+        if (victim == null) {
+          break;
+        }
+        remove(victim);
+        if (victims == null) {
+          victims = new ArrayList<>();
+        }
+        victims.add(victim);
+      }
+      return victims;
+    }
+
+    /**
+     * @param excluded a key that must not be evicted, the one just put, or {@code null}
+     * @return the key to evict, or {@code null} if there is none but {@code excluded}
+     */
+    private Object selectVictim(Object excluded) {
+      if (count == 0 || (count == 1 && keys[0].equals(excluded))) {
+        return null;
+      } else if (policy == EvictionPolicy.CLOCK) {
+        // At most two full sweeps: the first one may only be clearing reference bits
+        for (int i = 0; i <= 2 * count; i++) {
+          if (hand >= count) {
+            hand = 0;
+          }
+          int slot = hand++;
+          if (keys[slot].equals(excluded)) {
+            continue;
+          } else if (ranks[slot] == 0) {
+            return keys[slot];
+          } else {
+            ranks[slot] = 0;
+          }
+        }
+        return null;
+      } else {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int victim = -1;
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+          int slot = random.nextInt(count);
+          if (!keys[slot].equals(excluded) && (victim < 0 || ranks[slot] < ranks[victim])) {
+            victim = slot;
+          }
+        }
+        if (victim < 0) {
+          // Only sampled the excluded key, which can only happen in a tiny segment
+          victim = keys[0].equals(excluded) ? 1 : 0;
+        }
+        return keys[victim];
+      }
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the expiration time of the entries of a {@link SegmentedMap} and reports the entries whose time has passed.
+ * <p>
+ * Every segment has its own {@link TimerWheel}, so that scheduling only contends with mutations of the same segment.
+ * The wheels of all maps are advanced by a single shared thread, which does not remove the expired entries itself: it
+ * hands them to an {@link ExpiredEntries} callback, so that the active entity removes them through a replicated
+ * operation, ordered with the other mutations of their segment. Passive entities only track expiration times, which
+ * they keep when promoted.
+ */
+class EntryExpiry implements MapMutationListener {
+
+  private static final long TICK_MILLIS = 128;
+
+  private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "clustered-map-expiry");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Segment[] segments;
+
+  private ScheduledFuture<?> ticking;
+
+  EntryExpiry(int segmentCount) {
+    this.segments = new Segment[segmentCount];
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(now);
+    }
+  }
+
+  /**
+   * Starts reporting expired entries to {@code expired}.
+   */
+  synchronized void start(ExpiredEntries expired) {
+    if (ticking == null) {
+      ticking = TICKER.scheduleWithFixedDelay(() -> expire(System.currentTimeMillis(), expired), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  synchronized void stop() {
+    if (ticking != null) {
+      ticking.cancel(false);
+      ticking = null;
+    }
+  }
+
+  /**
+   * @return the expiration time of the entry mapped to {@code key}, or {@link #NO_EXPIRATION} if it never expires
+   */
+  long expirationOf(Object key) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      TimerWheel.Timer<ExpiringEntry> timer = segment.timers.get(key);
+      return timer == null ? NO_EXPIRATION : timer.getDeadline();
+    }
+  }
+
+  @Override
+  public void onPut(Object key, Object value, long expirationTime) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      TimerWheel.Timer<ExpiringEntry> timer;
+      if (expirationTime == NO_EXPIRATION) {
+        timer = segment.timers.remove(key);
+      } else {
+        timer = segment.timers.put(key, segment.wheel.schedule(new ExpiringEntry(key, value), expirationTime));
+      }
+      if (timer != null) {
+        segment.wheel.cancel(timer);
+      }
+    }
+  }
+
+  @Override
+  public void onExpirationSet(Object key, Object value, long expirationTime) {
+    onPut(key, value, expirationTime);
+  }
+
+  @Override
+  public void onRemove(Object key) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      TimerWheel.Timer<ExpiringEntry> timer = segment.timers.remove(key);
+      if (timer != null) {
+        segment.wheel.cancel(timer);
+      }
+    }
+  }
+
+  @Override
+  public void onClear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        for (TimerWheel.Timer<ExpiringEntry> timer : segment.timers.values()) {
+          segment.wheel.cancel(timer);
+        }
+        segment.timers.clear();
+      }
+    }
+  }
+
+  /**
+   * Reports the entries whose expiration time is before {@code now}, each segment separately, and stops tracking them.
+   */
+  void expire(long now, ExpiredEntries expired) {
+    for (Segment segment : segments) {
+      List<Object> keys = new ArrayList<>();
+      List<Object> values = new ArrayList<>();
+      synchronized (segment) {
+        segment.wheel.advance(now, entry -> {
+          segment.timers.remove(entry.key);
+          keys.add(entry.key);
+          values.add(entry.value);
+        });
+      }
+      if (!keys.isEmpty()) {
+        expired.expired(keys, values);
+      }
+    }
+  }
+
+  private Segment segmentFor(Object key) {
+    return segments[SegmentedMap.segmentIndex(key, segments.length)];
+  }
+
+  /**
+   * Receives the expired entries of a segment, which are still in the map unless they were removed or written again
+   * since their expiration time was set.
+   */
+  interface ExpiredEntries {
+
+    /**
+     * @param keys the expired keys, all of the same segment
+     * @param values the values the keys were mapped to when their expiration time was set
+     */
+    void expired(List<Object> keys, List<Object> values);
+  }
+
+  private static final class Segment {
+    private final TimerWheel<ExpiringEntry> wheel;
+    private final Map<Object, TimerWheel.Timer<ExpiringEntry>> timers = new HashMap<>();
+
+    Segment(long now) {
+      this.wheel = new TimerWheel<>(now);
+    }
+  }
+
+  private static final class ExpiringEntry {
+    private final Object key;
+    private final Object value;
+
+    ExpiringEntry(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+}
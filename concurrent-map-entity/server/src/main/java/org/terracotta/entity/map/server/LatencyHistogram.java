@@ -0,0 +1,225 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds, since its creation and per history interval.
+ * <p>
+ * Values below 8 have a bucket each. Above, every power of two is split in 8 linear buckets, so that the upper bound
+ * of a bucket is within 12.5% of the values it holds, and the whole range of {@code long} fits in under 500 buckets.
+ * <p>
+ * When an interval ends, the latencies recorded during it are kept, as the difference between the counts at its end
+ * and at its start, in a history of the last intervals. Intervals are only closed when a latency is recorded or the
+ * history is read, so a latency recorded concurrently with the end of an interval may be counted in the next one.
+ */
+class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final long intervalMillis;
+  private final int historySize;
+  private final LongSupplier clock;
+  // guarded by this
+  private final Deque<Interval> history = new ArrayDeque<>();
+  private final long[] intervalStart = new long[BUCKETS];
+  private volatile long intervalEnd;
+
+  LatencyHistogram() {
+    this(ClusteredMapManagement.HISTORY_INTERVAL_MILLIS, ClusteredMapManagement.HISTORY_SIZE);
+  }
+
+  LatencyHistogram(long intervalMillis, int historySize) {
+    this(intervalMillis, historySize, System::currentTimeMillis);
+  }
+
+  LatencyHistogram(long intervalMillis, int historySize, LongSupplier clock) {
+    if (intervalMillis <= 0 || historySize <= 0) {
+      throw new IllegalArgumentException("Invalid history: " + historySize + " intervals of " + intervalMillis + "ms");
+    }
+    this.intervalMillis = intervalMillis;
+    this.historySize = historySize;
+    this.clock = clock;
+    this.intervalEnd = clock.getAsLong() + intervalMillis;
+  }
+
+  void record(long nanos) {
+    closeIntervals();
+    counts.incrementAndGet(index(Math.max(nanos, 0)));
+  }
+
+  long count() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @param quantile the quantile, between 0 and 1
+   * @return the highest value of the bucket holding the {@code quantile} of the recorded latencies, or {@code null}
+   * when none was recorded
+   */
+  Long valueAt(double quantile) {
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return new Interval(0, snapshot).valueAt(quantile);
+  }
+
+  /**
+   * @param since the earliest end of the intervals to return, in milliseconds since the epoch
+   * @return the intervals ended since {@code since}, oldest first
+   */
+  List<Interval> history(long since) {
+    closeIntervals();
+    List<Interval> intervals = new ArrayList<>();
+    synchronized (this) {
+      for (Interval interval : history) {
+        if (interval.end >= since) {
+          intervals.add(interval);
+        }
+      }
+    }
+    return intervals;
+  }
+
+  private void closeIntervals() {
+    long now = clock.getAsLong();
+    if (now >= intervalEnd) {
+      closeIntervals(now);
+    }
+  }
+
+  private synchronized void closeIntervals(long now) {
+    long end = intervalEnd;
+    if (now < end) {
+      return;
+    }
+    // Latencies are recorded after closing the intervals ended, so all those since the last close fall in the first
+    long[] recorded = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = counts.get(i);
+      recorded[i] = count - intervalStart[i];
+      intervalStart[i] = count;
+    }
+    add(new Interval(end, recorded));
+    long idle = (now - end) / intervalMillis;
+    for (long i = Math.max(1, idle - historySize + 1); i <= idle; i++) {
+      add(new Interval(end + i * intervalMillis, new long[0]));
+    }
+    intervalEnd = end + (idle + 1) * intervalMillis;
+  }
+
+  private void add(Interval interval) {
+    if (history.size() == historySize) {
+      history.removeFirst();
+    }
+    history.addLast(interval);
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long lowestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  static long highestValue(int index) {
+    return index == BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(index + 1) - 1;
+  }
+
+  /**
+   * The latencies recorded during a history interval, as the counts of the non-empty buckets.
+   */
+  static final class Interval {
+    private final long end;
+    private final int[] buckets;
+    private final long[] counts;
+    private final long total;
+
+    Interval(long end, long[] counts) {
+      int size = 0;
+      for (long count : counts) {
+        if (count > 0) {
+          size++;
+        }
+      }
+      this.end = end;
+      this.buckets = new int[size];
+      this.counts = new long[size];
+      long total = 0;
+      for (int i = 0, j = 0; i < counts.length; i++) {
+        if (counts[i] > 0) {
+          this.buckets[j] = i;
+          this.counts[j++] = counts[i];
+          total += counts[i];
+        }
+      }
+      this.total = total;
+    }
+
+    /**
+     * @return the end of this interval, in milliseconds since the epoch
+     */
+    long end() {
+      return end;
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return the highest value of the bucket holding the {@code quantile} of the latencies recorded during this
+     * interval, or {@code null} when none was recorded
+     */
+    Long valueAt(double quantile) {
+      if (quantile < 0 || quantile > 1) {
+        throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+      } else if (total == 0) {
+        return null;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * total));
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestValue(buckets[i]);
+        }
+      }
+      return highestValue(buckets[buckets.length - 1]);
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+/**
+ * A named function that can be applied atomically to a clustered map entry on the server.
+ * <p>
+ * Implementations are discovered through {@link java.util.ServiceLoader} and must be stateless, as a single instance
+ * is shared by all map entities.
+ */
+public interface MapFunction {
+
+  /**
+   * @return the name clients use to refer to this function
+   */
+  String getName();
+
+  /**
+   * Computes the new value of an entry.
+   *
+   * @param current the current value, or {@code null} if absent
+   * @param argument the argument supplied by the client
+   * @return the new value, or {@code null} to remove the entry
+   * @throws IllegalArgumentException if the argument or current value is not of a supported type, the entry then
+   *                                  being left unchanged and the error reported to the client
+   */
+  Object apply(Object current, Object argument);
+}
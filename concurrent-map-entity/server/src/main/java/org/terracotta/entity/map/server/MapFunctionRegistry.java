@@ -0,0 +1,70 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Resolves {@link MapFunction}s and {@link MapQuery}s by name.
+ */
+class MapFunctionRegistry {
+
+  private final Map<String, MapFunction> functions = new HashMap<>();
+  private final Map<String, MapQuery> queries = new HashMap<>();
+
+  MapFunctionRegistry(ClassLoader classLoader) {
+    for (MapFunction function : BuiltinMapFunction.values()) {
+      register(function);
+    }
+    for (MapFunction function : ServiceLoader.load(MapFunction.class, classLoader)) {
+      register(function);
+    }
+    for (MapQuery query : BuiltinMapQuery.values()) {
+      register(query);
+    }
+    for (MapQuery query : ServiceLoader.load(MapQuery.class, classLoader)) {
+      register(query);
+    }
+  }
+
+  private void register(MapQuery query) {
+    if (queries.put(query.getName(), query) != null) {
+      throw new IllegalStateException("Duplicate map query " + query.getName());
+    }
+  }
+
+  private void register(MapFunction function) {
+    if (functions.put(function.getName(), function) != null) {
+      throw new IllegalStateException("Duplicate map function " + function.getName());
+    }
+  }
+
+  /**
+   * @return the named function, or {@code null} if unknown
+   */
+  MapFunction get(String name) {
+    return functions.get(name);
+  }
+
+  /**
+   * @return the named query, or {@code null} if unknown
+   */
+  MapQuery getQuery(String name) {
+    return queries.get(name);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+/**
+ * Notified of the effect of every mutation applied by a {@link MapOperationHandler}.
+ * <p>
+ * Notifications for a given key are delivered in mutation order, on the thread that applied the mutation. Reads of
+ * a single key are also reported, through {@link #onAccess(Object)}.
+ */
+interface MapMutationListener {
+
+  /**
+   * The expiration time of entries that never expire.
+   */
+  long NO_EXPIRATION = 0;
+
+  MapMutationListener NONE = new MapMutationListener() {
+    @Override
+    public void onPut(Object key, Object value, long expirationTime) {
+    }
+
+    @Override
+    public void onRemove(Object key) {
+    }
+
+    @Override
+    public void onClear() {
+    }
+  };
+
+  /**
+   * @param key the key
+   * @param value the new value
+   * @param expirationTime the time in milliseconds since the epoch at which the entry expires, or
+   *                       {@link #NO_EXPIRATION}
+   */
+  void onPut(Object key, Object value, long expirationTime);
+
+  void onRemove(Object key);
+
+  void onClear();
+
+  default void onAccess(Object key) {
+  }
+
+  /**
+   * The expiration time of an entry was set without changing its value.
+   *
+   * @param key the key
+   * @param value the current value
+   * @param expirationTime the time in milliseconds since the epoch at which the entry expires
+   */
+  default void onExpirationSet(Object key, Object value, long expirationTime) {
+  }
+
+  static MapMutationListener compose(MapMutationListener first, MapMutationListener second) {
+    return new MapMutationListener() {
+      @Override
+      public void onPut(Object key, Object value, long expirationTime) {
+        first.onPut(key, value, expirationTime);
+        second.onPut(key, value, expirationTime);
+      }
+
+      @Override
+      public void onRemove(Object key) {
+        first.onRemove(key);
+        second.onRemove(key);
+      }
+
+      @Override
+      public void onClear() {
+        first.onClear();
+        second.onClear();
+      }
+
+      @Override
+      public void onAccess(Object key) {
+        first.onAccess(key);
+        second.onAccess(key);
+      }
+
+      @Override
+      public void onExpirationSet(Object key, Object value, long expirationTime) {
+        first.onExpirationSet(key, value, expirationTime);
+        second.onExpirationSet(key, value, expirationTime);
+      }
+    };
+  }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.BooleanResponse;
+import org.terracotta.entity.map.common.ComputeIfAbsentOperation;
+import org.terracotta.entity.map.common.ComputeOperation;
+import org.terracotta.entity.map.common.ConditionalRemoveOperation;
+import org.terracotta.entity.map.common.ConditionalReplaceOperation;
+import org.terracotta.entity.map.common.ContainsKeyOperation;
+import org.terracotta.entity.map.common.ContainsValueOperation;
+import org.terracotta.entity.map.common.EntrySetResponse;
+import org.terracotta.entity.map.common.ErrorResponse;
+import org.terracotta.entity.map.common.GetOperation;
+import org.terracotta.entity.map.common.KeySetResponse;
+import org.terracotta.entity.map.common.MapOperation;
+import org.terracotta.entity.map.common.MapResponse;
+import org.terracotta.entity.map.common.MapValueResponse;
+import org.terracotta.entity.map.common.MergeOperation;
+import org.terracotta.entity.map.common.NullResponse;
+import org.terracotta.entity.map.common.PutAllOperation;
+import org.terracotta.entity.map.common.PutIfAbsentOperation;
+import org.terracotta.entity.map.common.PutIfAbsentWithTtlOperation;
+import org.terracotta.entity.map.common.PutIfPresentOperation;
+import org.terracotta.entity.map.common.PutOperation;
+import org.terracotta.entity.map.common.PutWithTtlOperation;
+import org.terracotta.entity.map.common.QueryOperation;
+import org.terracotta.entity.map.common.RangeOperation;
+import org.terracotta.entity.map.common.RangeResponse;
+import org.terracotta.entity.map.common.RemoveEntriesOperation;
+import org.terracotta.entity.map.common.RemoveOperation;
+import org.terracotta.entity.map.common.SetExpirationOperation;
+import org.terracotta.entity.map.common.SizeResponse;
+import org.terracotta.entity.map.common.ValueCollectionResponse;
+import org.terracotta.entity.map.common.WriteEntriesOperation;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.terracotta.entity.map.server.MapMutationListener.NO_EXPIRATION;
+
+/**
+ * Applies {@link MapOperation}s to the server-side map.
+ * <p>
+ * Shared by the active entity, which executes client operations, and the passive entity, which executes the
+ * replicated mutations.
+ */
+class MapOperationHandler {
+
+  private final SegmentedMap map;
+  private final MapFunctionRegistry functions;
+  private final MapMutationListener listener;
+  private final MapQueryExecutor queries;
+
+  MapOperationHandler(SegmentedMap map, MapFunctionRegistry functions) {
+    this(map, functions, MapMutationListener.NONE);
+  }
+
+  MapOperationHandler(SegmentedMap map, MapFunctionRegistry functions, MapMutationListener listener) {
+    this.map = map;
+    this.functions = functions;
+    this.listener = listener;
+    this.queries = new MapQueryExecutor(map);
+  }
+
+  MapResponse handle(MapOperation input) {
+    MapResponse response;
+
+    switch (input.operationType()) {
+      case PUT: {
+        PutOperation putOperation = (PutOperation) input;
+        response = new MapValueResponse(map.put(putOperation.getKey(), putOperation.getValue()));
+        listener.onPut(putOperation.getKey(), putOperation.getValue(), NO_EXPIRATION);
+        break;
+      }
+      case GET: {
+        Object key = ((GetOperation) input).getKey();
+        Object value = map.get(key);
+        if (value != null) {
+          listener.onAccess(key);
+        }
+        response = new MapValueResponse(value);
+        break;
+      }
+      case REMOVE: {
+        Object key = ((RemoveOperation) input).getKey();
+        Object removed = map.remove(key);
+        if (removed != null) {
+          listener.onRemove(key);
+        }
+        response = new MapValueResponse(removed);
+        break;
+      }
+      case CONTAINS_KEY: {
+        Object key = ((ContainsKeyOperation) input).getKey();
+        response = new BooleanResponse(map.containsKey(key));
+        break;
+      }
+      case CONTAINS_VALUE: {
+        Object value = ((ContainsValueOperation) input).getValue();
+        response = new BooleanResponse(map.containsValue(value));
+        break;
+      }
+      case CLEAR: {
+        map.clear();
+        listener.onClear();
+        // There is no response from the clear.
+        response = new NullResponse();
+        break;
+      }
+      case PUT_ALL: {
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> newValues = (Map<Object, Object>) ((PutAllOperation)input).getMap();
+        map.putAll(newValues);
+        for (Map.Entry<Object, Object> entry : newValues.entrySet()) {
+          listener.onPut(entry.getKey(), entry.getValue(), NO_EXPIRATION);
+        }
+        // There is no response from a put all.
+        response = new NullResponse();
+        break;
+      }
+      case WRITE_ENTRIES: {
+        WriteEntriesOperation operation = (WriteEntriesOperation) input;
+        map.putAll(operation.getPuts());
+        for (Map.Entry<Object, Object> entry : operation.getPuts().entrySet()) {
+          listener.onPut(entry.getKey(), entry.getValue(), NO_EXPIRATION);
+        }
+        for (Object key : operation.getRemovals()) {
+          if (map.remove(key) != null) {
+            listener.onRemove(key);
+          }
+        }
+        // There is no response from buffered writes.
+        response = new NullResponse();
+        break;
+      }
+      case KEY_SET: {
+        Set<Object> keySet = new HashSet<Object>();
+        keySet.addAll(map.keySet());
+        response = new KeySetResponse(keySet);
+        break;
+      }
+      case VALUES: {
+        Collection<Object> values = new ArrayList<Object>();
+        values.addAll(map.values());
+        response = new ValueCollectionResponse(values);
+        break;
+      }
+      case ENTRY_SET: {
+        Set<Map.Entry<Object, Object>> entrySet = new HashSet<Map.Entry<Object, Object>>();
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+          entrySet.add(new AbstractMap.SimpleEntry<Object, Object > (entry.getKey(), entry.getValue()));
+        }
+        response = new EntrySetResponse(entrySet);
+        break;
+      }
+      case SIZE: {
+        response = new SizeResponse(map.size());
+        break;
+      }
+      case PUT_IF_ABSENT: {
+        PutIfAbsentOperation operation = (PutIfAbsentOperation) input;
+        Object existing = map.putIfAbsent(operation.getKey(), operation.getValue());
+        if (existing == null) {
+          listener.onPut(operation.getKey(), operation.getValue(), NO_EXPIRATION);
+        }
+        response = new MapValueResponse(existing);
+        break;
+      }
+      case PUT_IF_PRESENT: {
+        PutIfPresentOperation operation = (PutIfPresentOperation) input;
+        Object replaced = map.replace(operation.getKey(), operation.getValue());
+        if (replaced != null) {
+          listener.onPut(operation.getKey(), operation.getValue(), NO_EXPIRATION);
+        }
+        response = new MapValueResponse(replaced);
+        break;
+      }
+      case CONDITIONAL_REMOVE: {
+        ConditionalRemoveOperation operation = (ConditionalRemoveOperation) input;
+        boolean removed = map.remove(operation.getKey(), operation.getValue());
+        if (removed) {
+          listener.onRemove(operation.getKey());
+        }
+        response = new BooleanResponse(removed);
+        break;
+      }
+      case CONDITIONAL_REPLACE: {
+        ConditionalReplaceOperation operation = (ConditionalReplaceOperation) input;
+        boolean replaced = map.replace(operation.getKey(), operation.getOldValue(), operation.getNewValue());
+        if (replaced) {
+          listener.onPut(operation.getKey(), operation.getNewValue(), NO_EXPIRATION);
+        }
+        response = new BooleanResponse(replaced);
+        break;
+      }
+      case COMPUTE: {
+        ComputeOperation operation = (ComputeOperation) input;
+        MapFunction function = functions.get(operation.getFunction());
+        if (function == null) {
+          response = new ErrorResponse("Unknown map function " + operation.getFunction());
+          break;
+        }
+        Object argument = operation.getArgument();
+        boolean[] present = new boolean[1];
+        Object value;
+        try {
+          value = map.compute(operation.getKey(), (k, current) -> {
+            present[0] = current != null;
+            return function.apply(current, argument);
+          });
+        } catch (RuntimeException e) {
+          response = functionFailed(function, e);
+          break;
+        }
+        notifyComputed(operation.getKey(), value, present[0]);
+        response = new MapValueResponse(value);
+        break;
+      }
+      case MERGE: {
+        MergeOperation operation = (MergeOperation) input;
+        MapFunction function = functions.get(operation.getFunction());
+        if (function == null) {
+          response = new ErrorResponse("Unknown map function " + operation.getFunction());
+          break;
+        }
+        boolean[] present = new boolean[1];
+        Object value;
+        try {
+          value = map.merge(operation.getKey(), operation.getValue(), (current, given) -> {
+            present[0] = true;
+            return function.apply(current, given);
+          });
+        } catch (RuntimeException e) {
+          response = functionFailed(function, e);
+          break;
+        }
+        notifyComputed(operation.getKey(), value, present[0]);
+        response = new MapValueResponse(value);
+        break;
+      }
+      case COMPUTE_IF_ABSENT: {
+        ComputeIfAbsentOperation operation = (ComputeIfAbsentOperation) input;
+        MapFunction function = functions.get(operation.getFunction());
+        if (function == null) {
+          response = new ErrorResponse("Unknown map function " + operation.getFunction());
+          break;
+        }
+        Object argument = operation.getArgument();
+        boolean[] computed = new boolean[1];
+        Object value;
+        try {
+          value = map.computeIfAbsent(operation.getKey(), k -> {
+            computed[0] = true;
+            return function.apply(null, argument);
+          });
+        } catch (RuntimeException e) {
+          response = functionFailed(function, e);
+          break;
+        }
+        if (computed[0] && value != null) {
+          listener.onPut(operation.getKey(), value, NO_EXPIRATION);
+        }
+        response = new MapValueResponse(value);
+        break;
+      }
+      case PUT_WITH_TTL: {
+        PutWithTtlOperation operation = (PutWithTtlOperation) input;
+        response = new MapValueResponse(map.put(operation.getKey(), operation.getValue()));
+        listener.onPut(operation.getKey(), operation.getValue(), expirationTime(operation.getTimeToLiveMillis()));
+        break;
+      }
+      case PUT_IF_ABSENT_WITH_TTL: {
+        PutIfAbsentWithTtlOperation operation = (PutIfAbsentWithTtlOperation) input;
+        Object existing = map.putIfAbsent(operation.getKey(), operation.getValue());
+        if (existing == null) {
+          listener.onPut(operation.getKey(), operation.getValue(), expirationTime(operation.getTimeToLiveMillis()));
+        }
+        response = new MapValueResponse(existing);
+        break;
+      }
+      case QUERY: {
+        QueryOperation operation = (QueryOperation) input;
+        MapQuery query = functions.getQuery(operation.getQuery());
+        if (query == null) {
+          response = new ErrorResponse("Unknown map query " + operation.getQuery());
+        } else {
+          try {
+            response = queries.execute(query, operation);
+          } catch (RuntimeException e) {
+            response = new ErrorResponse("Map query " + query.getName() + " failed: " + e.getMessage());
+          }
+        }
+        break;
+      }
+      case FIRST_KEY: {
+        response = new MapValueResponse(sortedMap().firstKey());
+        break;
+      }
+      case LAST_KEY: {
+        response = new MapValueResponse(sortedMap().lastKey());
+        break;
+      }
+      case RANGE: {
+        RangeOperation operation = (RangeOperation) input;
+        List<Object> keys = new ArrayList<Object>();
+        List<Object> values = new ArrayList<Object>();
+        boolean more = sortedMap().range(operation.getFromKey(), operation.isFromInclusive(), operation.getToKey(), operation.getPageSize(), (key, value) -> {
+          keys.add(key);
+          values.add(value);
+        });
+        response = new RangeResponse(keys, values, !more);
+        break;
+      }
+      case SET_EXPIRATION: {
+        SetExpirationOperation operation = (SetExpirationOperation) input;
+        Object current = map.get(operation.getKey());
+        if (current != null && current.equals(operation.getValue())) {
+          listener.onExpirationSet(operation.getKey(), current, operation.getExpirationTime());
+        }
+        response = new NullResponse();
+        break;
+      }
+      case REMOVE_ENTRIES: {
+        RemoveEntriesOperation operation = (RemoveEntriesOperation) input;
+        List<Object> keys = operation.getKeys();
+        List<Object> values = operation.getValues();
+        Set<Object> removed = new HashSet<Object>();
+        for (int i = 0; i < keys.size(); i++) {
+          if (map.remove(keys.get(i), values.get(i))) {
+            listener.onRemove(keys.get(i));
+            removed.add(keys.get(i));
+          }
+        }
+        // The keys actually removed, those written since being selected being kept
+        response = new KeySetResponse(removed);
+        break;
+      }
+      default:
+        // Unknown message type.
+        throw new AssertionError("Unsupported message type: " + input.operationType());
+    }
+    return response;
+  }
+
+  private SegmentedMap sortedMap() {
+    if (!map.isSorted()) {
+      throw new IllegalStateException("Map is not sorted, see ClusteredMapConfiguration.withSortedKeys()");
+    }
+    return map;
+  }
+
+  private void notifyComputed(Object key, Object value, boolean wasPresent) {
+    if (value != null) {
+      listener.onPut(key, value, NO_EXPIRATION);
+    } else if (wasPresent) {
+      listener.onRemove(key);
+    }
+  }
+
+  /**
+   * Reports a function that threw, the map being left unchanged by the failed computation on every server.
+   */
+  private static MapResponse functionFailed(MapFunction function, RuntimeException e) {
+    return new ErrorResponse("Map function " + function.getName() + " failed: " + e.getMessage());
+  }
+
+  /**
+   * On a passive, this is only a provisional expiration time, replaced by the one the active computed when it
+   * replicates it.
+   */
+  private static long expirationTime(long timeToLiveMillis) {
+    return System.currentTimeMillis() + timeToLiveMillis;
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+/**
+ * Outcome of a map operation, as observed by {@link MapOperationStatistics}.
+ */
+enum MapOperationOutcome {
+  /**
+   * A keyed read found its key.
+   */
+  HIT,
+  /**
+   * A keyed read did not find its key.
+   */
+  MISS,
+  /**
+   * Any other operation completed.
+   */
+  SUCCESS,
+  /**
+   * The operation failed with an exception, or was rejected with an error response.
+   */
+  FAILURE
+}
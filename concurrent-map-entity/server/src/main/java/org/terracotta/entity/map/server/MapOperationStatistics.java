@@ -0,0 +1,129 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.BooleanResponse;
+import org.terracotta.entity.map.common.ErrorResponse;
+import org.terracotta.entity.map.common.MapOperation;
+import org.terracotta.entity.map.common.MapResponse;
+import org.terracotta.entity.map.common.MapValueResponse;
+import org.terracotta.statistics.StatisticsManager;
+import org.terracotta.statistics.observer.OperationObserver;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.terracotta.statistics.StatisticBuilder.operation;
+
+/**
+ * Observes the operations executed by an active map, one operation statistic per {@link MapOperation.Type}.
+ * <p>
+ * The keyed reads, that is {@code get} (and so {@code getOrDefault}), {@code containsKey} and {@code putIfAbsent},
+ * are also observed together by the {@code lookup} statistic, ending as {@link MapOperationOutcome#HIT} or
+ * {@link MapOperationOutcome#MISS}, from which the hit ratio of the map is computed. The latencies of each operation
+ * type are recorded in a {@link LatencyHistogram}. The operations the active sends to itself to replicate expirations
+ * and evictions are not observed.
+ * <p>
+ * This is the object exposed to the management registry by {@link ClusteredMapStatisticsManagementProvider}, the
+ * statistics being found in the context tree below it.
+ */
+class MapOperationStatistics {
+
+  static final String TAG = "ClusteredMap";
+  static final String LOOKUP = "lookup";
+
+  private final Map<MapOperation.Type, OperationObserver<MapOperationOutcome>> observers = new EnumMap<>(MapOperation.Type.class);
+  private final Map<MapOperation.Type, LatencyHistogram> latencies = new EnumMap<>(MapOperation.Type.class);
+  private final OperationObserver<MapOperationOutcome> lookups;
+
+  MapOperationStatistics(Map<Object, Object> map) {
+    for (MapOperation.Type type : MapOperation.Type.values()) {
+      observers.put(type, operation(MapOperationOutcome.class).named(statisticName(type)).of(this).tag(TAG).build());
+      latencies.put(type, new LatencyHistogram());
+    }
+    lookups = operation(MapOperationOutcome.class).named(LOOKUP).of(this).tag(TAG).build();
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("discriminator", TAG);
+    StatisticsManager.createPassThroughStatistic(
+        this,
+        "size",
+        new HashSet<>(Arrays.asList(TAG)),
+        properties,
+        map::size);
+  }
+
+  /**
+   * @return the name of the operation statistic of {@code type}, e.g. {@code putIfAbsent} for {@code PUT_IF_ABSENT}
+   */
+  static String statisticName(MapOperation.Type type) {
+    StringBuilder name = new StringBuilder();
+    for (String word : type.name().toLowerCase().split("_")) {
+      name.append(name.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+    }
+    return name.toString();
+  }
+
+  void begin(MapOperation.Type type) {
+    observers.get(type).begin();
+    if (isLookup(type)) {
+      lookups.begin();
+    }
+  }
+
+  void end(MapOperation.Type type, MapOperationOutcome outcome, long latencyNanos) {
+    observers.get(type).end(outcome);
+    if (isLookup(type)) {
+      lookups.end(outcome);
+    }
+    latencies.get(type).record(latencyNanos);
+  }
+
+  LatencyHistogram latency(MapOperation.Type type) {
+    return latencies.get(type);
+  }
+
+  static boolean isLookup(MapOperation.Type type) {
+    switch (type) {
+      case GET:
+      case CONTAINS_KEY:
+      case PUT_IF_ABSENT:
+      case PUT_IF_ABSENT_WITH_TTL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static MapOperationOutcome outcome(MapOperation.Type type, MapResponse response) {
+    if (response instanceof ErrorResponse) {
+      return MapOperationOutcome.FAILURE;
+    }
+    switch (type) {
+      case GET:
+      case PUT_IF_ABSENT:
+      case PUT_IF_ABSENT_WITH_TTL:
+        // putIfAbsent returns the value already present, if any
+        return ((MapValueResponse) response).getValue() == null ? MapOperationOutcome.MISS : MapOperationOutcome.HIT;
+      case CONTAINS_KEY:
+        return ((BooleanResponse) response).isTrue() ? MapOperationOutcome.HIT : MapOperationOutcome.MISS;
+      default:
+        return MapOperationOutcome.SUCCESS;
+    }
+  }
+}
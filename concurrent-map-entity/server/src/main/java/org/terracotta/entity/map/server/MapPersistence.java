@@ -0,0 +1,231 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Persists a {@link SegmentedMap} to local disk so that it survives server restarts.
+ * <p>
+ * Each segment is persisted independently (see {@link SegmentPersistence}), which lets a restart load all segments in
+ * parallel. Snapshots are taken at the configured interval.
+ * <p>
+ * Mutations are logged as they are applied, but only forced to disk every second, independently of the client
+ * acknowledging them: a server crash loses the mutations of up to the last second from its disk. Passives persist the
+ * replicated mutations too, so an acknowledged mutation is only lost if every server of the stripe crashes within that
+ * window. The log is flushed one last time when the server shuts down.
+ * <p>
+ * The data of the map named {@code name} lives under {@code <directory>/name}, where {@code directory} is the
+ * persistence directory of the server (see {@link ClusteredMapStateProvider}).
+ */
+class MapPersistence implements MapMutationListener {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MapPersistence.class);
+  private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+  private final SegmentedMap map;
+  private final File directory;
+  private final long snapshotIntervalMillis;
+  private final SegmentPersistence[] segments;
+
+  private EntryExpiry expiry;
+  private ScheduledExecutorService executor;
+  private Thread shutdownHook;
+
+  MapPersistence(SegmentedMap map, File serverDirectory, ClusteredMapConfiguration configuration) {
+    this.map = map;
+    this.directory = new File(serverDirectory, configuration.getPersistenceName());
+    this.snapshotIntervalMillis = configuration.getSnapshotIntervalMillis();
+    this.segments = new SegmentPersistence[map.segmentCount()];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new SegmentPersistence(directory, i);
+    }
+  }
+
+  /**
+   * Starts persisting the map from scratch, discarding any data left on disk.
+   */
+  void create(EntryExpiry expiry) {
+    this.expiry = expiry;
+    try {
+      ensureDirectory();
+      for (SegmentPersistence segment : segments) {
+        segment.create();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not create persistent map in " + directory, e);
+    }
+    start();
+  }
+
+  void load(EntryExpiry expiry) {
+    this.expiry = expiry;
+    long start = System.nanoTime();
+    try {
+      ensureDirectory();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not load persistent map from " + directory, e);
+    }
+    IntStream.range(0, segments.length).parallel().forEach(i -> {
+      try {
+        ConcurrentMap<Object, Object> segment = map.segment(i);
+        for (Map.Entry<Object, Long> expiration : segments[i].load(segment).entrySet()) {
+          expiry.onPut(expiration.getKey(), segment.get(expiration.getKey()), expiration.getValue());
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not load persistent map from " + directory, e);
+      }
+    });
+    LOGGER.info("Loaded {} entries from {} in {} ms", map.size(), directory, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    start();
+  }
+
+  void destroy() {
+    stop();
+    try {
+      for (SegmentPersistence segment : segments) {
+        segment.delete();
+      }
+      if (!directory.delete()) {
+        LOGGER.warn("Could not delete {}", directory);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not delete persistent map in " + directory, e);
+    }
+  }
+
+  /**
+   * Stops persisting the map, flushing the mutations logged so far to disk.
+   */
+  void close() {
+    stop();
+    for (SegmentPersistence segment : segments) {
+      try {
+        segment.close();
+      } catch (IOException e) {
+        LOGGER.error("Could not close mutation log in {}", directory, e);
+      }
+    }
+  }
+
+  @Override
+  public void onPut(Object key, Object value, long expirationTime) {
+    try {
+      segmentFor(key).put(key, value, expirationTime);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not log mutation to " + directory, e);
+    }
+  }
+
+  @Override
+  public void onExpirationSet(Object key, Object value, long expirationTime) {
+    onPut(key, value, expirationTime);
+  }
+
+  @Override
+  public void onRemove(Object key) {
+    try {
+      segmentFor(key).remove(key);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not log mutation to " + directory, e);
+    }
+  }
+
+  @Override
+  public void onClear() {
+    try {
+      for (SegmentPersistence segment : segments) {
+        segment.clear();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not log mutation to " + directory, e);
+    }
+  }
+
+  private SegmentPersistence segmentFor(Object key) {
+    return segments[SegmentedMap.segmentIndex(key, segments.length)];
+  }
+
+  private void ensureDirectory() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+  }
+
+  private void start() {
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "clustered-map-persistence-" + directory.getName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(this::snapshot, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    shutdownHook = new Thread(this::close, "clustered-map-persistence-shutdown-" + directory.getName());
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  private synchronized void stop() {
+    if (shutdownHook != null) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // Already shutting down, possibly from this hook
+      }
+      shutdownHook = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      executor = null;
+    }
+  }
+
+  private void flush() {
+    for (SegmentPersistence segment : segments) {
+      try {
+        segment.flush();
+      } catch (IOException e) {
+        LOGGER.error("Could not flush mutation log in {}", directory, e);
+      }
+    }
+  }
+
+  private void snapshot() {
+    for (int i = 0; i < segments.length; i++) {
+      try {
+        segments[i].snapshot(map.segment(i), expiry::expirationOf);
+      } catch (IOException e) {
+        LOGGER.error("Could not snapshot segment {} in {}", i, directory, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+/**
+ * A named predicate and projection that clients can run over the entries of a clustered map on the server.
+ * <p>
+ * Implementations are discovered through {@link java.util.ServiceLoader} and must be stateless and thread-safe, as
+ * a single instance is shared by all map entities.
+ */
+public interface MapQuery {
+
+  /**
+   * @return the name clients use to refer to this query
+   */
+  String getName();
+
+  /**
+   * Evaluates an entry.
+   *
+   * @param key the stored key
+   * @param value the stored value
+   * @param argument the argument supplied by the client
+   * @return the projection of the entry returned to the client, or {@code null} if the entry does not match
+   */
+  Object apply(Object key, Object value, Object argument);
+
+  /**
+   * Checks the argument supplied by the client, before the query is applied to any entry.
+   *
+   * @param argument the argument supplied by the client
+   * @throws IllegalArgumentException if the query cannot be applied with this argument
+   */
+  default void checkArgument(Object argument) {
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.QueryOperation;
+import org.terracotta.entity.map.common.QueryResponse;
+import org.terracotta.entity.map.common.StoredKeyOrder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Computes pages of {@link MapQuery} results.
+ * <p>
+ * Segments are consumed one after the other, each in a stable order: key order for sorted maps, key hash order
+ * otherwise. The query is applied to the segments a page may need in parallel, on the fork/join common pool, each
+ * segment buffering up to a page of matches. Matches left over once the page is full are kept for the next pages.
+ * <p>
+ * The progress of a query is kept in a cursor, which the next page resumes from in time proportional to the page:
+ * sorted segments are walked lazily, hash ordered segments are sorted by key hash once, when first reached. Results
+ * reflect entries as they were when their segment was scanned. Cursors unused for {@link #CURSOR_TIMEOUT_MILLIS} are
+ * dropped. Every page also ends with its segment and last key, from which an unknown cursor (expired, or created on
+ * the server this one failed over from) is rebuilt, so that concurrent mutations neither shift nor repeat results.
+ */
+class MapQueryExecutor {
+
+  static final long CURSOR_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * Orders keys by hash code, keys of equal hash codes by {@link StoredKeyOrder}.
+   */
+  private static final Comparator<Object> HASH_ORDER = (a, b) -> {
+    int result = Integer.compare(a.hashCode(), b.hashCode());
+    return result == 0 ? StoredKeyOrder.INSTANCE.compare(a, b) : result;
+  };
+
+  private final SegmentedMap map;
+  private final long cursorTimeoutNanos;
+  private final ConcurrentMap<Long, QueryCursor> cursors = new ConcurrentHashMap<>();
+
+  MapQueryExecutor(SegmentedMap map) {
+    this(map, CURSOR_TIMEOUT_MILLIS);
+  }
+
+  MapQueryExecutor(SegmentedMap map, long cursorTimeoutMillis) {
+    this.map = map;
+    this.cursorTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(cursorTimeoutMillis);
+  }
+
+  /**
+   * @throws IllegalArgumentException if the page or the argument of the query are invalid
+   * @throws RuntimeException if the query fails on an entry
+   */
+  QueryResponse execute(MapQuery query, QueryOperation operation) {
+    int segment = operation.getSegment();
+    int pageSize = operation.getPageSize();
+    if (segment < 0 || segment >= map.segmentCount() || pageSize <= 0) {
+      throw new IllegalArgumentException("Invalid query page: segment " + segment + ", size " + pageSize);
+    }
+    query.checkArgument(operation.getArgument());
+
+    long now = System.nanoTime();
+    cursors.values().removeIf(cursor -> now - cursor.lastUsed > cursorTimeoutNanos);
+
+    QueryCursor cursor = cursors.get(operation.getCursor());
+    if (cursor == null || !cursor.resumes(query, operation)) {
+      cursor = open(query, operation);
+    }
+    try {
+      return cursor.page(pageSize, now);
+    } catch (RuntimeException e) {
+      // The scans may have stopped halfway through an entry: the cursor cannot be resumed
+      cursors.remove(cursor.id, cursor);
+      throw e;
+    }
+  }
+
+  /**
+   * @return the number of open cursors
+   */
+  int openCursors() {
+    return cursors.size();
+  }
+
+  private QueryCursor open(MapQuery query, QueryOperation operation) {
+    while (true) {
+      long id = ThreadLocalRandom.current().nextLong();
+      if (id != QueryOperation.NO_CURSOR) {
+        QueryCursor cursor = new QueryCursor(id, query, operation);
+        if (cursors.putIfAbsent(id, cursor) == null) {
+          return cursor;
+        }
+      }
+    }
+  }
+
+  /**
+   * The progress of a query: the segment it is in, the last key it returned and the scans of the segments it reached.
+   */
+  private final class QueryCursor {
+    private final long id;
+    private final MapQuery query;
+    private final Object argument;
+    private final boolean keysOnly;
+    private final SegmentScan[] scans = new SegmentScan[map.segmentCount()];
+    private int segment;
+    private Object lastKey;
+    private volatile long lastUsed;
+
+    QueryCursor(long id, MapQuery query, QueryOperation operation) {
+      this.id = id;
+      this.query = query;
+      this.argument = operation.getArgument();
+      this.keysOnly = operation.isKeysOnly();
+      this.segment = operation.getSegment();
+      this.lastKey = operation.getLastKey();
+      this.lastUsed = System.nanoTime();
+    }
+
+    synchronized boolean resumes(MapQuery query, QueryOperation operation) {
+      return this.query == query && keysOnly == operation.isKeysOnly() && Objects.equals(argument, operation.getArgument())
+          && segment == operation.getSegment() && Objects.equals(lastKey, operation.getLastKey());
+    }
+
+    synchronized QueryResponse page(int pageSize, long now) {
+      lastUsed = now;
+      List<Object> results = new ArrayList<>(pageSize);
+      int window = ForkJoinPool.getCommonPoolParallelism() + 1;
+      while (segment < scans.length) {
+        int needed = pageSize - results.size();
+        IntStream.range(segment, Math.min(scans.length, segment + window)).parallel().forEach(s -> scan(s).fill(needed));
+        for (int end = Math.min(scans.length, segment + window); segment < end; segment++) {
+          Deque<Match> matches = scans[segment].matches;
+          while (results.size() < pageSize && !matches.isEmpty()) {
+            Match match = matches.poll();
+            results.add(match.result);
+            lastKey = match.key;
+          }
+          if (results.size() == pageSize) {
+            return new QueryResponse(results, segment, lastKey, id);
+          }
+          // The segment could not fill the page: it is exhausted
+          scans[segment] = null;
+          lastKey = null;
+        }
+      }
+      cursors.remove(id, this);
+      return new QueryResponse(results, QueryResponse.END, null, QueryOperation.NO_CURSOR);
+    }
+
+    private SegmentScan scan(int index) {
+      SegmentScan scan = scans[index];
+      if (scan == null) {
+        Object after = index == segment ? lastKey : null;
+        scan = new SegmentScan(map.segment(index), map.isSorted() ? sortedKeys(index, after) : hashedKeys(index, after));
+        scans[index] = scan;
+      }
+      return scan;
+    }
+
+    private Iterator<Object> sortedKeys(int index, Object after) {
+      ConcurrentNavigableMap<Object, Object> entries = (ConcurrentNavigableMap<Object, Object>) map.segment(index);
+      if (after != null) {
+        entries = entries.tailMap(after, false);
+      }
+      return entries.keySet().iterator();
+    }
+
+    private Iterator<Object> hashedKeys(int index, Object after) {
+      Object[] keys = map.segment(index).keySet().toArray();
+      Arrays.sort(keys, HASH_ORDER);
+      int from = 0;
+      if (after != null) {
+        int position = Arrays.binarySearch(keys, after, HASH_ORDER);
+        from = position >= 0 ? position + 1 : -position - 1;
+      }
+      return Arrays.asList(keys).subList(from, keys.length).iterator();
+    }
+
+    /**
+     * The keys of a segment the query was not yet applied to, and the matches not yet returned.
+     */
+    private final class SegmentScan {
+      private final ConcurrentMap<Object, Object> entries;
+      private final Iterator<Object> keys;
+      private final Deque<Match> matches = new ArrayDeque<>();
+
+      SegmentScan(ConcurrentMap<Object, Object> entries, Iterator<Object> keys) {
+        this.entries = entries;
+        this.keys = keys;
+      }
+
+      /**
+       * Applies the query to the next keys until {@code limit} matches are buffered or the segment is exhausted.
+       */
+      void fill(int limit) {
+        while (matches.size() < limit && keys.hasNext()) {
+          Object key = keys.next();
+          Object value = entries.get(key);
+          if (value != null) {
+            Object projection = query.apply(key, value, argument);
+            if (projection != null) {
+              matches.add(new Match(key, keysOnly ? key : projection));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static final class Match {
+    private final Object key;
+    private final Object result;
+
+    Match(Object key, Object result) {
+      this.key = key;
+      this.result = result;
+    }
+  }
+}
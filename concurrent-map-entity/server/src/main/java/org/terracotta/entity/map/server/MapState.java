@@ -0,0 +1,72 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
+
+import java.io.File;
+
+/**
+ * The replicated data of a clustered map and its persistence, which outlive the passive entity holding them when its
+ * server gets promoted.
+ * <p>
+ * The passive publishes them in its {@link ClusteredMapStateHolder}, where the active created on promotion picks them up
+ * instead of starting from an empty map.
+ */
+final class MapState {
+
+  private final SegmentedMap map;
+  private final EntryExpiry expiry;
+  private final MapPersistence persistence;
+
+  private MapState(ClusteredMapConfiguration configuration, File persistenceDirectory) {
+    this.map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, configuration.isSorted());
+    this.expiry = new EntryExpiry(ActiveTerracottaClusteredMap.SEGMENT_COUNT);
+    this.persistence = configuration.isPersistent() ? new MapPersistence(map, persistenceDirectory, configuration) : null;
+  }
+
+  /**
+   * @return a new, empty state published in {@code holder}
+   */
+  static MapState create(ClusteredMapStateHolder holder, ClusteredMapConfiguration configuration) {
+    MapState state = new MapState(configuration, holder.getPersistenceDirectory());
+    holder.set(state);
+    return state;
+  }
+
+  /**
+   * @return the state left in {@code holder} by the passive entity of this server, or {@code null} if there is none
+   */
+  static MapState promoted(ClusteredMapStateHolder holder) {
+    Object state = holder.get();
+    return state instanceof MapState ? (MapState) state : null;
+  }
+
+  SegmentedMap map() {
+    return map;
+  }
+
+  EntryExpiry expiry() {
+    return expiry;
+  }
+
+  /**
+   * @return the persistence of the map, or {@code null} if it is not persistent
+   */
+  MapPersistence persistence() {
+    return persistence;
+  }
+}
@@ -15,54 +15,91 @@
  */
 package org.terracotta.entity.map.server;
 
-import org.omg.CORBA.Object;
 import org.terracotta.entity.PassiveServerEntity;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
 
 /**
  * PassiveTerracottaClusteredMap
  */
 class PassiveTerracottaClusteredMap implements PassiveServerEntity<MapOperation, MapResponse> {
 
-  private final ConcurrentMap<Object, Object> map = new ConcurrentHashMap<Object, Object>();
+  private final ClusteredMapStateHolder stateHolder;
+  private final SegmentedMap map;
+  private final EntryExpiry expiry;
+  private final MapPersistence persistence;
+  private final MapMutationListener listener;
+  private final MapOperationHandler handler;
+
+  /**
+   * A passive neither evicts nor expires entries on its own: it applies the removals the active replicates, so that
+   * both hold the same entries. Expiration times are only tracked, for when the passive gets promoted.
+   * <p>
+   * Persistent maps are persisted on the passive as well, so that its disk is up to date when it gets promoted or
+   * restarted. The map is published in {@code stateHolder}, for the active entity to take it over on promotion.
+   */
+  PassiveTerracottaClusteredMap(MapFunctionRegistry functions, ClusteredMapConfiguration configuration, ClusteredMapStateHolder stateHolder) {
+    MapState state = MapState.create(stateHolder, configuration);
+    this.stateHolder = stateHolder;
+    this.map = state.map();
+    this.expiry = state.expiry();
+    this.persistence = state.persistence();
+    this.listener = persistence == null ? expiry : MapMutationListener.compose(expiry, persistence);
+    this.handler = new MapOperationHandler(map, functions, listener);
+  }
 
   @Override
   public void invoke(MapOperation message) {
-    // do assign received map to instance map
-    // or append content if message is an operation
+    if (message.operationType() == MapOperation.Type.SYNC_OP) {
+      SyncOperation syncOperation = (SyncOperation) message;
+      Map<Object, Long> expirations = syncOperation.getExpirations();
+      for (Map.Entry<Object, Object> entry : syncOperation.getObjectMap().entrySet()) {
+        map.put(entry.getKey(), entry.getValue());
+        Long expirationTime = expirations.get(entry.getKey());
+        listener.onPut(entry.getKey(), entry.getValue(), expirationTime == null ? MapMutationListener.NO_EXPIRATION : expirationTime);
+      }
+    } else {
+      handler.handle(message);
+    }
   }
 
   @Override
   public void startSyncEntity() {
-    throw new UnsupportedOperationException("TODO Implement me!");
   }
 
   @Override
   public void endSyncEntity() {
-    throw new UnsupportedOperationException("TODO Implement me!");
   }
 
   @Override
   public void startSyncConcurrencyKey(int concurrencyKey) {
-    throw new UnsupportedOperationException("TODO Implement me!");
+    for (Object key : map.segment(ActiveTerracottaClusteredMap.segmentFor(concurrencyKey)).keySet()) {
+      listener.onRemove(key);
+    }
+    map.segment(ActiveTerracottaClusteredMap.segmentFor(concurrencyKey)).clear();
   }
 
   @Override
   public void endSyncConcurrencyKey(int concurrencyKey) {
-    throw new UnsupportedOperationException("TODO Implement me!");
   }
 
   @Override
   public void createNew() {
-    throw new UnsupportedOperationException("TODO Implement me!");
+    if (persistence != null) {
+      // Whatever this server persisted before is superseded by the synchronization from the active
+      persistence.create(expiry);
+    }
   }
 
   @Override
   public void destroy() {
-    throw new UnsupportedOperationException("TODO Implement me!");
+    if (persistence != null) {
+      persistence.destroy();
+    }
+    map.clear();
+    stateHolder.clear();
   }
 }
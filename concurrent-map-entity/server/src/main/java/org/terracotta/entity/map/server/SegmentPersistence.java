@@ -0,0 +1,314 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.terracotta.entity.map.server.MapMutationListener.NO_EXPIRATION;
+
+/**
+ * The on-disk image of one {@link SegmentedMap} segment: a snapshot plus the log of the mutations applied since the
+ * snapshot started.
+ * <p>
+ * Logs are numbered by generation. Taking a snapshot first switches mutations to a new log generation, then writes
+ * the segment content, so replaying the logs from the snapshot generation onwards over the snapshot content always
+ * restores the latest state.
+ */
+class SegmentPersistence {
+
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+  private static final byte CLEAR = 3;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String LOG_SUFFIX = ".log";
+
+  private final File directory;
+  private final String prefix;
+  private final LogBuffer pending = new LogBuffer();
+  private final DataOutputStream pendingOutput = new DataOutputStream(pending);
+
+  private FileChannel log;
+  private long generation;
+
+  SegmentPersistence(File directory, int segment) {
+    this.directory = directory;
+    this.prefix = "segment-" + segment;
+  }
+
+  synchronized void create() throws IOException {
+    for (File file : files()) {
+      Files.delete(file.toPath());
+    }
+    generation = 0;
+    log = openLog(generation);
+  }
+
+  /**
+   * Restores the segment content into {@code segment} and resumes logging in a new generation.
+   *
+   * @return the expiration times of the restored entries that expire
+   */
+  synchronized Map<Object, Long> load(Map<Object, Object> segment) throws IOException {
+    Map<Object, Long> expirations = new HashMap<>();
+    long snapshotGeneration = 0;
+    File snapshot = snapshotFile();
+    if (snapshot.exists()) {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot.toPath()), BUFFER_SIZE));
+      try {
+        snapshotGeneration = input.readLong();
+        while (input.readBoolean()) {
+          Object key = StoredObjectCodec.read(input);
+          segment.put(key, StoredObjectCodec.read(input));
+          long expirationTime = input.readLong();
+          if (expirationTime != NO_EXPIRATION) {
+            expirations.put(key, expirationTime);
+          }
+        }
+      } finally {
+        input.close();
+      }
+    }
+
+    long lastGeneration = snapshotGeneration;
+    for (long logGeneration : logGenerations()) {
+      if (logGeneration >= snapshotGeneration) {
+        replay(logFile(logGeneration), segment, expirations);
+        lastGeneration = Math.max(lastGeneration, logGeneration);
+      }
+    }
+    deleteLogsBefore(snapshotGeneration);
+
+    generation = lastGeneration + 1;
+    log = openLog(generation);
+    return expirations;
+  }
+
+  synchronized void put(Object key, Object value, long expirationTime) throws IOException {
+    pendingOutput.writeByte(PUT);
+    StoredObjectCodec.write(pendingOutput, key);
+    StoredObjectCodec.write(pendingOutput, value);
+    pendingOutput.writeLong(expirationTime);
+    flushIfFull();
+  }
+
+  synchronized void remove(Object key) throws IOException {
+    pendingOutput.writeByte(REMOVE);
+    StoredObjectCodec.write(pendingOutput, key);
+    flushIfFull();
+  }
+
+  synchronized void clear() throws IOException {
+    pendingOutput.writeByte(CLEAR);
+    flushIfFull();
+  }
+
+  /**
+   * Writes the buffered mutations to the log and forces them to disk.
+   */
+  synchronized void flush() throws IOException {
+    writePending();
+    log.force(false);
+  }
+
+  /**
+   * Writes a snapshot of {@code segment}, then discards the logs it supersedes.
+   * <p>
+   * Mutations can proceed concurrently with the snapshot write.
+   *
+   * @param segment the segment content
+   * @param expirations gives the expiration time of a key
+   */
+  void snapshot(Map<Object, Object> segment, ToLongFunction<Object> expirations) throws IOException {
+    long snapshotGeneration;
+    synchronized (this) {
+      flush();
+      log.close();
+      snapshotGeneration = ++generation;
+      log = openLog(snapshotGeneration);
+    }
+
+    File temporary = new File(directory, prefix + ".snapshot.tmp");
+    FileChannel channel = FileChannel.open(temporary.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+      output.writeLong(snapshotGeneration);
+      for (Map.Entry<Object, Object> entry : segment.entrySet()) {
+        output.writeBoolean(true);
+        StoredObjectCodec.write(output, entry.getKey());
+        StoredObjectCodec.write(output, entry.getValue());
+        output.writeLong(expirations.applyAsLong(entry.getKey()));
+      }
+      output.writeBoolean(false);
+      output.flush();
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+    Files.move(temporary.toPath(), snapshotFile().toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    deleteLogsBefore(snapshotGeneration);
+  }
+
+  /**
+   * Flushes the buffered mutations and closes the log, after which mutations fail.
+   */
+  synchronized void close() throws IOException {
+    if (log != null) {
+      flush();
+      log.close();
+      log = null;
+    }
+  }
+
+  synchronized void delete() throws IOException {
+    if (log != null) {
+      log.close();
+      log = null;
+    }
+    pending.reset();
+    for (File file : files()) {
+      Files.delete(file.toPath());
+    }
+  }
+
+  private void flushIfFull() throws IOException {
+    if (pending.size() >= BUFFER_SIZE) {
+      writePending();
+    }
+  }
+
+  private void writePending() throws IOException {
+    if (log == null) {
+      throw new IOException("The mutation log of " + prefix + " is closed");
+    }
+    ByteBuffer buffer = pending.asByteBuffer();
+    while (buffer.hasRemaining()) {
+      log.write(buffer);
+    }
+    pending.reset();
+  }
+
+  private static void replay(File logFile, Map<Object, Object> segment, Map<Object, Long> expirations) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile.toPath()), BUFFER_SIZE));
+    try {
+      while (true) {
+        int type = input.read();
+        if (type < 0) {
+          return;
+        }
+        switch (type) {
+          case PUT: {
+            Object key = StoredObjectCodec.read(input);
+            segment.put(key, StoredObjectCodec.read(input));
+            long expirationTime = input.readLong();
+            if (expirationTime == NO_EXPIRATION) {
+              expirations.remove(key);
+            } else {
+              expirations.put(key, expirationTime);
+            }
+            break;
+          }
+          case REMOVE: {
+            Object key = StoredObjectCodec.read(input);
+            segment.remove(key);
+            expirations.remove(key);
+            break;
+          }
+          case CLEAR:
+            segment.clear();
+            expirations.clear();
+            break;
+          default:
+            throw new IOException("Corrupted log " + logFile + ": unknown record type " + type);
+        }
+      }
+    } catch (EOFException e) {
+      // The server stopped while writing the last record, which is lost along with any mutation acknowledged after
+      // the last flush of the log (see MapPersistence)
+    } finally {
+      input.close();
+    }
+  }
+
+  private FileChannel openLog(long logGeneration) throws IOException {
+    return FileChannel.open(logFile(logGeneration).toPath(), CREATE, WRITE, APPEND);
+  }
+
+  private void deleteLogsBefore(long logGeneration) throws IOException {
+    for (long existing : logGenerations()) {
+      if (existing < logGeneration) {
+        Files.deleteIfExists(logFile(existing).toPath());
+      }
+    }
+  }
+
+  private SortedSet<Long> logGenerations() {
+    SortedSet<Long> generations = new TreeSet<>();
+    for (File file : files()) {
+      String name = file.getName();
+      if (name.endsWith(LOG_SUFFIX)) {
+        generations.add(Long.parseLong(name.substring(prefix.length() + 1, name.length() - LOG_SUFFIX.length())));
+      }
+    }
+    return generations;
+  }
+
+  private File[] files() {
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix + "."));
+    return files == null ? new File[0] : files;
+  }
+
+  private File logFile(long logGeneration) {
+    return new File(directory, prefix + "." + logGeneration + LOG_SUFFIX);
+  }
+
+  private File snapshotFile() {
+    return new File(directory, prefix + ".snapshot");
+  }
+
+  private static class LogBuffer extends ByteArrayOutputStream {
+
+    LogBuffer() {
+      super(BUFFER_SIZE);
+    }
+
+    ByteBuffer asByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
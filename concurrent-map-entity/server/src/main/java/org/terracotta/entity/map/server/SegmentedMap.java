@@ -0,0 +1,320 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.StoredKeyOrder;
+import org.terracotta.entity.map.common.WriteEntriesOperation;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A {@link ConcurrentMap} split in a fixed number of independent segments.
+ * <p>
+ * Keys are assigned to segments by hash, so that work that naturally applies to the whole map (passive
+ * synchronization, snapshots, scans) can be divided and run per segment.
+ * <p>
+ * A sorted map keeps each segment sorted by {@link StoredKeyOrder}, ordered scans merging the segments.
+ */
+class SegmentedMap extends AbstractMap<Object, Object> implements ConcurrentMap<Object, Object> {
+
+  private final ConcurrentMap<Object, Object>[] segments;
+  private final boolean sorted;
+
+  SegmentedMap(int segmentCount) {
+    this(segmentCount, false);
+  }
+
+  @SuppressWarnings("unchecked")
+  SegmentedMap(int segmentCount, boolean sorted) {
+    if (Integer.bitCount(segmentCount) != 1) {
+      throw new IllegalArgumentException("Segment count must be a power of two: " + segmentCount);
+    }
+    this.segments = new ConcurrentMap[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = sorted ? new ConcurrentSkipListMap<>(StoredKeyOrder.INSTANCE) : new ConcurrentHashMap<>();
+    }
+    this.sorted = sorted;
+  }
+
+  /**
+   * Spreads the hash of the key like {@link WriteEntriesOperation#segmentIndex(Object)}, by which clients group their
+   * writes per segment.
+   */
+  static int segmentIndex(Object key, int segmentCount) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return h & (segmentCount - 1);
+  }
+
+  int segmentCount() {
+    return segments.length;
+  }
+
+  ConcurrentMap<Object, Object> segment(int index) {
+    return segments[index];
+  }
+
+  boolean isSorted() {
+    return sorted;
+  }
+
+  /**
+   * @return the lowest key of this sorted map, or {@code null} if empty
+   */
+  Object firstKey() {
+    Object first = null;
+    for (ConcurrentMap<Object, Object> segment : segments) {
+      Entry<Object, Object> entry = navigable(segment).firstEntry();
+      if (entry != null && (first == null || StoredKeyOrder.INSTANCE.compare(entry.getKey(), first) < 0)) {
+        first = entry.getKey();
+      }
+    }
+    return first;
+  }
+
+  /**
+   * @return the highest key of this sorted map, or {@code null} if empty
+   */
+  Object lastKey() {
+    Object last = null;
+    for (ConcurrentMap<Object, Object> segment : segments) {
+      Entry<Object, Object> entry = navigable(segment).lastEntry();
+      if (entry != null && (last == null || StoredKeyOrder.INSTANCE.compare(entry.getKey(), last) > 0)) {
+        last = entry.getKey();
+      }
+    }
+    return last;
+  }
+
+  /**
+   * Passes the entries of this sorted map within a key range to {@code action}, in key order.
+   *
+   * @param from the lower bound, or {@code null} for none
+   * @param fromInclusive whether {@code from} is part of the range
+   * @param to the exclusive upper bound, or {@code null} for none
+   * @param limit the maximum number of entries passed
+   * @param action the action applied to each entry
+   * @return {@code true} if entries of the range remain after the last one passed
+   */
+  boolean range(Object from, boolean fromInclusive, Object to, int limit, BiConsumer<Object, Object> action) {
+    PriorityQueue<PeekingIterator> heads = new PriorityQueue<>(segments.length,
+        (a, b) -> StoredKeyOrder.INSTANCE.compare(a.head.getKey(), b.head.getKey()));
+    for (ConcurrentMap<Object, Object> segment : segments) {
+      ConcurrentNavigableMap<Object, Object> view = navigable(segment);
+      if (from != null) {
+        view = view.tailMap(from, fromInclusive);
+      }
+      if (to != null) {
+        view = view.headMap(to, false);
+      }
+      PeekingIterator iterator = new PeekingIterator(view.entrySet().iterator());
+      if (iterator.advance()) {
+        heads.add(iterator);
+      }
+    }
+    for (int i = 0; i < limit && !heads.isEmpty(); i++) {
+      PeekingIterator iterator = heads.poll();
+      action.accept(iterator.head.getKey(), iterator.head.getValue());
+      if (iterator.advance()) {
+        heads.add(iterator);
+      }
+    }
+    return !heads.isEmpty();
+  }
+
+  private ConcurrentNavigableMap<Object, Object> navigable(ConcurrentMap<Object, Object> segment) {
+    if (!sorted) {
+      throw new IllegalStateException("Map is not sorted");
+    }
+    return (ConcurrentNavigableMap<Object, Object>) segment;
+  }
+
+  private static final class PeekingIterator {
+    private final Iterator<Entry<Object, Object>> delegate;
+    private Entry<Object, Object> head;
+
+    PeekingIterator(Iterator<Entry<Object, Object>> delegate) {
+      this.delegate = delegate;
+    }
+
+    boolean advance() {
+      head = delegate.hasNext() ? delegate.next() : null;
+      return head != null;
+    }
+  }
+
+  private ConcurrentMap<Object, Object> segmentFor(Object key) {
+    return segments[segmentIndex(key, segments.length)];
+  }
+
+  @Override
+  public Object get(Object key) {
+    return segmentFor(key).get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return segmentFor(key).containsKey(key);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    for (ConcurrentMap<Object, Object> segment : segments) {
+      if (segment.containsValue(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Object put(Object key, Object value) {
+    return segmentFor(key).put(key, value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return segmentFor(key).remove(key);
+  }
+
+  @Override
+  public Object putIfAbsent(Object key, Object value) {
+    return segmentFor(key).putIfAbsent(key, value);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    return segmentFor(key).remove(key, value);
+  }
+
+  @Override
+  public boolean replace(Object key, Object oldValue, Object newValue) {
+    return segmentFor(key).replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public Object replace(Object key, Object value) {
+    return segmentFor(key).replace(key, value);
+  }
+
+  @Override
+  public Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    return segmentFor(key).compute(key, remappingFunction);
+  }
+
+  @Override
+  public Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+    return segmentFor(key).computeIfAbsent(key, mappingFunction);
+  }
+
+  @Override
+  public Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    return segmentFor(key).computeIfPresent(key, remappingFunction);
+  }
+
+  @Override
+  public Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    return segmentFor(key).merge(key, value, remappingFunction);
+  }
+
+  @Override
+  public int size() {
+    long size = 0;
+    for (ConcurrentMap<Object, Object> segment : segments) {
+      size += segment.size();
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (ConcurrentMap<Object, Object> segment : segments) {
+      if (!segment.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    for (ConcurrentMap<Object, Object> segment : segments) {
+      segment.clear();
+    }
+  }
+
+  @Override
+  public Set<Entry<Object, Object>> entrySet() {
+    return new AbstractSet<Entry<Object, Object>>() {
+      @Override
+      public Iterator<Entry<Object, Object>> iterator() {
+        return new Iterator<Entry<Object, Object>>() {
+          private int index = 0;
+          private Iterator<Entry<Object, Object>> current = segments[0].entrySet().iterator();
+          private Iterator<Entry<Object, Object>> last;
+
+          @Override
+          public boolean hasNext() {
+            while (!current.hasNext()) {
+              if (index >= segments.length - 1) {
+                // Stays on the last, exhausted, iterator
+                return false;
+              }
+              current = segments[++index].entrySet().iterator();
+            }
+            return true;
+          }
+
+          @Override
+          public Entry<Object, Object> next() {
+            if (hasNext()) {
+              last = current;
+              return current.next();
+            } else {
+              throw new NoSuchElementException();
+            }
+          }
+
+          @Override
+          public void remove() {
+            if (last == null) {
+              throw new IllegalStateException();
+            }
+            last.remove();
+            last = null;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return SegmentedMap.this.size();
+      }
+    };
+  }
+}
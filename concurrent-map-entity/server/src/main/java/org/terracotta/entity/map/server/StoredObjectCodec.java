@@ -0,0 +1,120 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.ValueWrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of the keys and values held by the server-side map.
+ * <p>
+ * The representations clients store directly (wrapped serialized values, strings and boxed numbers) get a dedicated
+ * encoding, anything else falls back to Java serialization.
+ */
+final class StoredObjectCodec {
+
+  private static final byte NULL = 0;
+  private static final byte WRAPPER = 1;
+  private static final byte STRING = 2;
+  private static final byte LONG = 3;
+  private static final byte INTEGER = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte SERIALIZED = 6;
+
+  private StoredObjectCodec() {
+  }
+
+  static void write(DataOutput output, Object object) throws IOException {
+    if (object == null) {
+      output.writeByte(NULL);
+    } else if (object instanceof ValueWrapper) {
+      ValueWrapper wrapper = (ValueWrapper) object;
+      output.writeByte(WRAPPER);
+      output.writeInt(wrapper.hashCode());
+      output.writeInt(wrapper.getValue().length);
+      output.write(wrapper.getValue());
+    } else if (object instanceof String) {
+      byte[] bytes = ((String) object).getBytes(StandardCharsets.UTF_8);
+      output.writeByte(STRING);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    } else if (object instanceof Long) {
+      output.writeByte(LONG);
+      output.writeLong((Long) object);
+    } else if (object instanceof Integer) {
+      output.writeByte(INTEGER);
+      output.writeInt((Integer) object);
+    } else if (object instanceof Double) {
+      output.writeByte(DOUBLE);
+      output.writeDouble((Double) object);
+    } else {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream objectOutput = new ObjectOutputStream(bytes);
+      objectOutput.writeObject(object);
+      objectOutput.close();
+      output.writeByte(SERIALIZED);
+      output.writeInt(bytes.size());
+      output.write(bytes.toByteArray());
+    }
+  }
+
+  static Object read(DataInput input) throws IOException {
+    byte type = input.readByte();
+    switch (type) {
+      case NULL:
+        return null;
+      case WRAPPER: {
+        int hashCode = input.readInt();
+        byte[] value = new byte[input.readInt()];
+        input.readFully(value);
+        return new ValueWrapper(hashCode, value);
+      }
+      case STRING: {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      }
+      case LONG:
+        return input.readLong();
+      case INTEGER:
+        return input.readInt();
+      case DOUBLE:
+        return input.readDouble();
+      case SERIALIZED: {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+          return objectInput.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new IOException(e);
+        } finally {
+          objectInput.close();
+        }
+      }
+      default:
+        throw new IOException("Unknown stored object type " + type);
+    }
+  }
+}
@@ -24,9 +24,11 @@ import java.util.Map;
 
 class SyncOperation implements MapOperation {
   private final Map<Object, Object> objects;
+  private final Map<Object, Long> expirations;
 
-  public SyncOperation(Map<Object, Object> objects) {
+  public SyncOperation(Map<Object, Object> objects, Map<Object, Long> expirations) {
     this.objects = objects;
+    this.expirations = expirations;
   }
 
   @Override
@@ -42,4 +44,11 @@ class SyncOperation implements MapOperation {
   public Map<Object, Object> getObjectMap() {
     return objects;
   }
+
+  /**
+   * @return the expiration times of the entries that expire
+   */
+  public Map<Object, Long> getExpirations() {
+    return expirations;
+  }
 }
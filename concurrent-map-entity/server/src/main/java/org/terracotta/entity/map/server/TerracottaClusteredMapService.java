@@ -16,13 +16,17 @@
 package org.terracotta.entity.map.server;
 
 import org.terracotta.entity.ActiveServerEntity;
+import org.terracotta.entity.BasicServiceConfiguration;
+import org.terracotta.entity.ClientCommunicator;
 import org.terracotta.entity.ConcurrencyStrategy;
 import org.terracotta.entity.EntityServerService;
+import org.terracotta.entity.IEntityMessenger;
 import org.terracotta.entity.MessageCodec;
 import org.terracotta.entity.PassiveServerEntity;
 import org.terracotta.entity.ServiceRegistry;
 import org.terracotta.entity.SyncMessageCodec;
 import org.terracotta.entity.map.common.ClusteredMapCodec;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
 import org.terracotta.entity.map.common.ConcurrentClusteredMap;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
@@ -31,6 +35,9 @@ import org.terracotta.entity.map.common.MapResponse;
  * TerracottaClusteredMapService
  */
 public class TerracottaClusteredMapService implements EntityServerService<MapOperation, MapResponse> {
+
+  private final MapFunctionRegistry functions = new MapFunctionRegistry(TerracottaClusteredMapService.class.getClassLoader());
+
   @Override
   public long getVersion() {
     return ConcurrentClusteredMap.VERSION;
@@ -43,12 +50,17 @@ public class TerracottaClusteredMapService implements EntityServerService<MapOpe
 
   @Override
   public ActiveServerEntity<MapOperation, MapResponse> createActiveEntity(ServiceRegistry registry, byte[] configuration) {
-    return new ActiveTerracottaClusteredMap();
+    ClientCommunicator communicator = registry.getService(new BasicServiceConfiguration<>(ClientCommunicator.class));
+    IEntityMessenger messenger = registry.getService(new BasicServiceConfiguration<>(IEntityMessenger.class));
+    ClusteredMapStateHolder stateHolder = registry.getService(new BasicServiceConfiguration<>(ClusteredMapStateHolder.class));
+    return new ActiveTerracottaClusteredMap(functions, ClusteredMapConfiguration.decode(configuration), communicator, messenger, stateHolder,
+        new ClusteredMapManagement(registry));
   }
 
   @Override
   public PassiveServerEntity<MapOperation, MapResponse> createPassiveEntity(ServiceRegistry registry, byte[] configuration) {
-    return new PassiveTerracottaClusteredMap();
+    ClusteredMapStateHolder stateHolder = registry.getService(new BasicServiceConfiguration<>(ClusteredMapStateHolder.class));
+    return new PassiveTerracottaClusteredMap(functions, ClusteredMapConfiguration.decode(configuration), stateHolder);
   }
 
   @Override
@@ -0,0 +1,171 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel, scheduling and cancelling timers in constant time.
+ * <p>
+ * Each level is a ring of buckets covering a power of two milliseconds: 128ms buckets on the first level, then 8s,
+ * 9min and 9h buckets, with a last single bucket for anything further away. Advancing the wheel expires the timers of
+ * the buckets it goes past on the first level, and cascades the timers of the higher levels down to finer buckets.
+ * Timers therefore fire at most one bucket span, about 128ms, after their deadline. Timers scheduled with a deadline
+ * that already passed go in the current bucket, so that they fire on the next advance.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <T> the payload type
+ */
+class TimerWheel<T> {
+
+  private static final int[] BUCKETS = {64, 64, 64, 16, 1};
+  private static final int[] SHIFTS = {7, 13, 19, 25, 29};
+
+  private final Timer<T>[][] wheel;
+  private long time;
+  private int size;
+
+  @SuppressWarnings("unchecked")
+  TimerWheel(long time) {
+    this.time = time;
+    this.wheel = new Timer[BUCKETS.length][];
+    for (int i = 0; i < BUCKETS.length; i++) {
+      wheel[i] = new Timer[BUCKETS[i]];
+      for (int j = 0; j < BUCKETS[i]; j++) {
+        wheel[i][j] = new Timer<>(null, 0);
+      }
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  Timer<T> schedule(T payload, long deadline) {
+    Timer<T> timer = new Timer<>(payload, deadline);
+    findBucket(deadline).link(timer);
+    size++;
+    return timer;
+  }
+
+  void cancel(Timer<T> timer) {
+    if (timer.isLinked()) {
+      timer.unlink();
+      size--;
+    }
+  }
+
+  /**
+   * Moves the wheel forward to {@code now}, handing the payload of every timer whose deadline passed to
+   * {@code expired}.
+   */
+  void advance(long now, Consumer<? super T> expired) {
+    long previous = time;
+    time = now;
+    if (size == 0) {
+      return;
+    }
+    for (int level = 0; level < SHIFTS.length; level++) {
+      long previousTicks = previous >>> SHIFTS[level];
+      long currentTicks = now >>> SHIFTS[level];
+      if (currentTicks <= previousTicks) {
+        break;
+      }
+      expire(level, previousTicks, currentTicks - previousTicks, expired);
+    }
+  }
+
+  private void expire(int level, long previousTicks, long delta, Consumer<? super T> expired) {
+    Timer<T>[] buckets = wheel[level];
+    int mask = buckets.length - 1;
+    int steps = (int) Math.min(delta + 1, buckets.length);
+    int start = (int) (previousTicks & mask);
+    for (int i = start; i < start + steps; i++) {
+      Timer<T> sentinel = buckets[i & mask];
+      Timer<T> timer = sentinel.next;
+      sentinel.next = sentinel.previous = sentinel;
+      while (timer != sentinel) {
+        Timer<T> next = timer.next;
+        timer.next = timer.previous = null;
+        if (timer.deadline <= time) {
+          size--;
+          expired.accept(timer.payload);
+        } else {
+          findBucket(timer.deadline).link(timer);
+        }
+        timer = next;
+      }
+    }
+  }
+
+  private Timer<T> findBucket(long deadline) {
+    // The bucket of a passed deadline may have been gone past already, and would only be expired a whole ring later
+    long due = Math.max(deadline, time);
+    long duration = due - time;
+    int last = wheel.length - 1;
+    for (int level = 0; level < last; level++) {
+      if (duration < (1L << SHIFTS[level + 1])) {
+        long ticks = due >>> SHIFTS[level];
+        return wheel[level][(int) (ticks & (wheel[level].length - 1))];
+      }
+    }
+    return wheel[last][0];
+  }
+
+  /**
+   * A scheduled timer, linked in its bucket's circular list whose head is a payload-less sentinel.
+   */
+  static final class Timer<T> {
+
+    private final T payload;
+    private final long deadline;
+    private Timer<T> previous;
+    private Timer<T> next;
+
+    private Timer(T payload, long deadline) {
+      this.payload = payload;
+      this.deadline = deadline;
+      this.previous = this;
+      this.next = this;
+    }
+
+    T getPayload() {
+      return payload;
+    }
+
+    long getDeadline() {
+      return deadline;
+    }
+
+    private boolean isLinked() {
+      return next != null;
+    }
+
+    private void link(Timer<T> timer) {
+      timer.previous = previous;
+      timer.next = this;
+      previous.next = timer;
+      previous = timer;
+    }
+
+    private void unlink() {
+      previous.next = next;
+      next.previous = previous;
+      previous = next = null;
+    }
+  }
+}
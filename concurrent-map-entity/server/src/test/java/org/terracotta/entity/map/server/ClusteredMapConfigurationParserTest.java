@@ -0,0 +1,54 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ClusteredMapConfigurationParserTest {
+
+  private final ClusteredMapConfigurationParser parser = new ClusteredMapConfigurationParser();
+
+  @Test
+  public void testValidParse() throws Exception {
+    ClusteredMapPersistenceConfiguration configuration = parser.parse(parse("/configs/persistence.xml").getDocumentElement(), "persistence.xml");
+
+    assertThat(configuration.getDirectory(), is(new File("data/maps")));
+  }
+
+  @Test
+  public void testMissingDirectory() throws Exception {
+    try {
+      parser.parse(parse("/configs/no-directory.xml").getDocumentElement(), "no-directory.xml");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  private Document parse(String resource) throws Exception {
+    DocumentBuilderFactory domBuilderFactory = DocumentBuilderFactory.newInstance();
+    domBuilderFactory.setNamespaceAware(true);
+    return domBuilderFactory.newDocumentBuilder().parse(getClass().getResourceAsStream(resource));
+  }
+}
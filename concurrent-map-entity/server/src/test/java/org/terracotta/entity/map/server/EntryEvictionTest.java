@@ -0,0 +1,143 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
+import org.terracotta.entity.map.common.EvictionPolicy;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.entity.map.server.MapMutationListener.NO_EXPIRATION;
+
+public class EntryEvictionTest {
+
+  private final SegmentedMap map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT);
+
+  private EntryEviction eviction(ClusteredMapConfiguration configuration) {
+    // Removes the victims right away, as the active does through a replicated operation
+    return new EntryEviction(map, configuration, (keys, values) -> {
+      for (Object key : keys) {
+        map.remove(key);
+      }
+    });
+  }
+
+  private void put(EntryEviction eviction, Object key, Object value) {
+    map.put(key, value);
+    eviction.onPut(key, value, NO_EXPIRATION);
+  }
+
+  @Test
+  public void testEntryCountNeverExceedsTheBound() {
+    for (EvictionPolicy policy : EvictionPolicy.values()) {
+      for (long maxEntries : new long[] {1, 17, 100}) {
+        map.clear();
+        EntryEviction eviction = eviction(ClusteredMapConfiguration.defaultConfiguration().withMaxEntries(maxEntries).withEvictionPolicy(policy));
+        for (long i = 0; i < 500; i++) {
+          put(eviction, i, i);
+          assertThat(policy + " " + maxEntries, map.size() <= maxEntries, is(true));
+          assertThat(map.containsKey(i), is(true));
+        }
+        assertThat(policy + " " + maxEntries, (long) map.size(), is(maxEntries));
+      }
+    }
+  }
+
+  @Test
+  public void testSizeNeverExceedsTheBound() {
+    // Every entry is estimated at 32 bytes
+    EntryEviction eviction = eviction(ClusteredMapConfiguration.defaultConfiguration().withMaxBytes(1000));
+    for (long i = 0; i < 500; i++) {
+      put(eviction, i, i);
+      assertThat(map.size() * 32 <= 1000, is(true));
+    }
+    assertThat(map.size(), is(31));
+  }
+
+  @Test
+  public void testOverwritesDoNotEvict() {
+    EntryEviction eviction = eviction(ClusteredMapConfiguration.defaultConfiguration().withMaxEntries(10));
+    for (long i = 0; i < 10; i++) {
+      put(eviction, i, i);
+    }
+    for (long i = 0; i < 10; i++) {
+      put(eviction, i, i + 1);
+    }
+    assertThat(map.size(), is(10));
+  }
+
+  @Test
+  public void testRemovalsFreeCapacity() {
+    EntryEviction eviction = eviction(ClusteredMapConfiguration.defaultConfiguration().withMaxEntries(10));
+    for (long i = 0; i < 10; i++) {
+      put(eviction, i, i);
+    }
+    map.remove(0L);
+    eviction.onRemove(0L);
+    put(eviction, 10L, 10L);
+    assertThat(map.size(), is(10));
+  }
+
+  @Test
+  public void testLruEvictsLeastRecentlyUsedEntries() {
+    assertFavoursAccessedEntries(EvictionPolicy.LRU, 1);
+  }
+
+  @Test
+  public void testLfuEvictsLeastFrequentlyUsedEntries() {
+    assertFavoursAccessedEntries(EvictionPolicy.LFU, 3);
+  }
+
+  @Test
+  public void testClockEvictsUnreferencedEntries() {
+    assertFavoursAccessedEntries(EvictionPolicy.CLOCK, 1);
+  }
+
+  /**
+   * Fills the map, reads half of its entries, then puts as many new entries: the entries read must mostly survive.
+   * Sampling makes the LRU and LFU policies approximate, hence the margin.
+   */
+  private void assertFavoursAccessedEntries(EvictionPolicy policy, int accesses) {
+    EntryEviction eviction = eviction(ClusteredMapConfiguration.defaultConfiguration().withMaxEntries(1000).withEvictionPolicy(policy));
+    for (long i = 0; i < 1000; i++) {
+      put(eviction, i, i);
+    }
+    for (int access = 0; access < accesses; access++) {
+      for (long i = 0; i < 500; i++) {
+        eviction.onAccess(i);
+      }
+    }
+    for (long i = 1000; i < 1500; i++) {
+      put(eviction, i, i);
+    }
+
+    int accessedSurvivors = 0;
+    int otherSurvivors = 0;
+    for (long i = 0; i < 1000; i++) {
+      if (map.containsKey(i)) {
+        if (i < 500) {
+          accessedSurvivors++;
+        } else {
+          otherSurvivors++;
+        }
+      }
+    }
+    assertThat(map.size(), is(1000));
+    assertThat(policy + ": " + accessedSurvivors + " accessed and " + otherSurvivors + " other survivors",
+        accessedSurvivors > 2 * otherSurvivors, is(true));
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.entity.map.server.MapMutationListener.NO_EXPIRATION;
+
+public class EntryExpiryTest {
+
+  private final EntryExpiry expiry = new EntryExpiry(ActiveTerracottaClusteredMap.SEGMENT_COUNT);
+  private final List<Object> expiredKeys = new ArrayList<>();
+  private final List<Object> expiredValues = new ArrayList<>();
+
+  private void expire(long now) {
+    expiry.expire(now, (keys, values) -> {
+      expiredKeys.addAll(keys);
+      expiredValues.addAll(values);
+    });
+  }
+
+  @Test
+  public void testExpiredEntriesAreReportedWithTheirValue() {
+    long now = System.currentTimeMillis();
+    expiry.onPut("a", "one", now + 1000);
+    expiry.onPut("b", "two", now + 60_000);
+    assertThat(expiry.expirationOf("a"), is(now + 1000));
+
+    expire(now + 2000);
+    assertThat(expiredKeys, is(Collections.<Object>singletonList("a")));
+    assertThat(expiredValues, is(Collections.<Object>singletonList("one")));
+    assertThat(expiry.expirationOf("a"), is(NO_EXPIRATION));
+    assertThat(expiry.expirationOf("b"), is(now + 60_000));
+  }
+
+  @Test
+  public void testOverwrittenEntryUsesItsNewExpiration() {
+    long now = System.currentTimeMillis();
+    expiry.onPut("a", "one", now + 1000);
+    expiry.onPut("a", "two", NO_EXPIRATION);
+    expiry.onPut("b", "one", now + 1000);
+    expiry.onPut("b", "two", now + 5000);
+
+    expire(now + 2000);
+    assertThat(expiredKeys.isEmpty(), is(true));
+    expire(now + 6000);
+    assertThat(expiredKeys, is(Collections.<Object>singletonList("b")));
+    assertThat(expiredValues, is(Collections.<Object>singletonList("two")));
+  }
+
+  @Test
+  public void testReplicatedExpirationReplacesTheProvisionalOne() {
+    long now = System.currentTimeMillis();
+    expiry.onPut("a", "one", now + 1000);
+    expiry.onExpirationSet("a", "one", now + 3000);
+    assertThat(expiry.expirationOf("a"), is(now + 3000));
+
+    expire(now + 2000);
+    assertThat(expiredKeys.isEmpty(), is(true));
+    expire(now + 4000);
+    assertThat(expiredKeys, is(Collections.<Object>singletonList("a")));
+  }
+
+  @Test
+  public void testRemovedAndClearedEntriesDoNotExpire() {
+    long now = System.currentTimeMillis();
+    expiry.onPut("a", "one", now + 1000);
+    expiry.onPut("b", "two", now + 1000);
+    expiry.onRemove("a");
+    assertThat(expiry.expirationOf("a"), is(NO_EXPIRATION));
+    expire(now + 2000);
+    assertThat(expiredKeys, is(Collections.<Object>singletonList("b")));
+
+    expiry.onPut("c", "three", now + 3000);
+    expiry.onClear();
+    expire(now + 4000);
+    assertThat(expiredKeys, is(Collections.<Object>singletonList("b")));
+  }
+
+  @Test
+  public void testEntriesAreReportedPerSegment() {
+    long now = System.currentTimeMillis();
+    List<Object> keys = Arrays.<Object>asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17);
+    for (Object key : keys) {
+      expiry.onPut(key, "value", now + 1000);
+    }
+    List<List<Object>> batches = new ArrayList<>();
+    expiry.expire(now + 2000, (expired, values) -> batches.add(expired));
+
+    int count = 0;
+    for (List<Object> batch : batches) {
+      int segment = SegmentedMap.segmentIndex(batch.get(0), ActiveTerracottaClusteredMap.SEGMENT_COUNT);
+      for (Object key : batch) {
+        assertThat(SegmentedMap.segmentIndex(key, ActiveTerracottaClusteredMap.SEGMENT_COUNT), is(segment));
+      }
+      count += batch.size();
+    }
+    assertThat(count, is(keys.size()));
+  }
+}
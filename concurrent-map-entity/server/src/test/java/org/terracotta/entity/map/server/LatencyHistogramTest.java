@@ -0,0 +1,128 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsCoverAllValuesContiguously() {
+    for (int index = 0; index < LatencyHistogram.index(Long.MAX_VALUE); index++) {
+      assertThat(LatencyHistogram.index(LatencyHistogram.lowestValue(index)), is(index));
+      assertThat(LatencyHistogram.index(LatencyHistogram.highestValue(index)), is(index));
+      assertThat(LatencyHistogram.lowestValue(index + 1), is(LatencyHistogram.highestValue(index) + 1));
+    }
+    assertThat(LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)), is(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testBucketsAreWithinAnEighthOfTheirValues() {
+    for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+      long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+      assertTrue(value + " in bucket up to " + highest, highest - value <= value / 8);
+    }
+  }
+
+  @Test
+  public void testEmptyHistogramHasNoPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.count(), is(0L));
+    assertThat(histogram.valueAt(0.99), nullValue());
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 990; i++) {
+      histogram.record(1_000);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(1_000_000);
+    }
+
+    assertThat(histogram.count(), is(1000L));
+    assertThat(histogram.valueAt(0.5), is(LatencyHistogram.highestValue(LatencyHistogram.index(1_000))));
+    assertThat(histogram.valueAt(0.99), is(LatencyHistogram.highestValue(LatencyHistogram.index(1_000))));
+    assertThat(histogram.valueAt(0.999), is(LatencyHistogram.highestValue(LatencyHistogram.index(1_000_000))));
+    assertThat(histogram.valueAt(1), is(LatencyHistogram.highestValue(LatencyHistogram.index(1_000_000))));
+  }
+
+  @Test
+  public void testNegativeLatenciesCountAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertThat(histogram.valueAt(1), is(0L));
+  }
+
+  @Test
+  public void testHistoryHoldsTheLatenciesOfEachInterval() {
+    AtomicLong clock = new AtomicLong(10_000);
+    LatencyHistogram histogram = new LatencyHistogram(1000, 100, clock::get);
+    histogram.record(1_000_000);
+    clock.set(11_000);
+    histogram.record(1_000);
+    histogram.record(1_000);
+    clock.set(12_500);
+
+    List<LatencyHistogram.Interval> history = histogram.history(0);
+    assertThat(history.size(), is(2));
+    assertThat(history.get(0).end(), is(11_000L));
+    assertThat(history.get(0).valueAt(0.5), is(LatencyHistogram.highestValue(LatencyHistogram.index(1_000_000))));
+    assertThat(history.get(1).end(), is(12_000L));
+    assertThat(history.get(1).valueAt(1), is(LatencyHistogram.highestValue(LatencyHistogram.index(1_000))));
+    assertThat(histogram.valueAt(1), is(LatencyHistogram.highestValue(LatencyHistogram.index(1_000_000))));
+
+    assertThat(histogram.history(12_000).size(), is(1));
+    assertThat(histogram.history(12_001).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testIdleIntervalsHaveNoPercentilesAndHistoryIsBounded() {
+    AtomicLong clock = new AtomicLong(0);
+    LatencyHistogram histogram = new LatencyHistogram(1000, 10, clock::get);
+    histogram.record(1_000);
+    clock.set(1_000_000);
+
+    List<LatencyHistogram.Interval> history = histogram.history(0);
+    assertThat(history.size(), is(10));
+    assertThat(history.get(0).end(), is(991_000L));
+    assertThat(history.get(9).end(), is(1_000_000L));
+    for (LatencyHistogram.Interval interval : history) {
+      assertThat(interval.valueAt(0.99), nullValue());
+    }
+
+    histogram.record(2_000);
+    clock.set(1_001_000);
+    history = histogram.history(0);
+    assertThat(history.size(), is(10));
+    assertThat(history.get(9).end(), is(1_001_000L));
+    assertThat(history.get(9).valueAt(0.5), is(LatencyHistogram.highestValue(LatencyHistogram.index(2_000))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testQuantileMustBeAFraction() {
+    new LatencyHistogram().valueAt(99);
+  }
+}
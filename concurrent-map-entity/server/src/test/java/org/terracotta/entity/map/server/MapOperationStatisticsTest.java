@@ -0,0 +1,82 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+import org.terracotta.entity.map.common.BooleanResponse;
+import org.terracotta.entity.map.common.ErrorResponse;
+import org.terracotta.entity.map.common.MapOperation;
+import org.terracotta.entity.map.common.MapValueResponse;
+import org.terracotta.entity.map.common.NullResponse;
+
+import java.util.HashMap;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class MapOperationStatisticsTest {
+
+  @Test
+  public void testKeyedReadsEndAsHitOrMiss() {
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.GET, new MapValueResponse("value")), is(MapOperationOutcome.HIT));
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.GET, new MapValueResponse(null)), is(MapOperationOutcome.MISS));
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.CONTAINS_KEY, new BooleanResponse(true)), is(MapOperationOutcome.HIT));
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.CONTAINS_KEY, new BooleanResponse(false)), is(MapOperationOutcome.MISS));
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.PUT_IF_ABSENT, new MapValueResponse("existing")), is(MapOperationOutcome.HIT));
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.PUT_IF_ABSENT_WITH_TTL, new MapValueResponse(null)), is(MapOperationOutcome.MISS));
+  }
+
+  @Test
+  public void testOtherOperationsEndAsSuccess() {
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.PUT, new MapValueResponse(null)), is(MapOperationOutcome.SUCCESS));
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.CLEAR, new NullResponse()), is(MapOperationOutcome.SUCCESS));
+  }
+
+  @Test
+  public void testErrorResponsesEndAsFailure() {
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.QUERY, new ErrorResponse("Unknown map query")), is(MapOperationOutcome.FAILURE));
+    assertThat(MapOperationStatistics.outcome(MapOperation.Type.COMPUTE, new ErrorResponse("Unknown map function")), is(MapOperationOutcome.FAILURE));
+  }
+
+  @Test
+  public void testOnlyKeyedReadsAreLookups() {
+    assertThat(MapOperationStatistics.isLookup(MapOperation.Type.GET), is(true));
+    assertThat(MapOperationStatistics.isLookup(MapOperation.Type.CONTAINS_KEY), is(true));
+    assertThat(MapOperationStatistics.isLookup(MapOperation.Type.PUT_IF_ABSENT), is(true));
+    assertThat(MapOperationStatistics.isLookup(MapOperation.Type.PUT), is(false));
+    assertThat(MapOperationStatistics.isLookup(MapOperation.Type.CONTAINS_VALUE), is(false));
+  }
+
+  @Test
+  public void testLatenciesAreRecordedPerOperation() {
+    MapOperationStatistics statistics = new MapOperationStatistics(new HashMap<>());
+    statistics.begin(MapOperation.Type.GET);
+    statistics.end(MapOperation.Type.GET, MapOperationOutcome.HIT, 2_000);
+    statistics.begin(MapOperation.Type.PUT);
+    statistics.end(MapOperation.Type.PUT, MapOperationOutcome.SUCCESS, 50_000);
+
+    assertThat(statistics.latency(MapOperation.Type.GET).count(), is(1L));
+    assertThat(statistics.latency(MapOperation.Type.PUT).count(), is(1L));
+    assertThat(statistics.latency(MapOperation.Type.REMOVE).count(), is(0L));
+    assertThat(statistics.latency(MapOperation.Type.PUT).valueAt(1) >= 50_000L, is(true));
+  }
+
+  @Test
+  public void testStatisticNames() {
+    assertThat(MapOperationStatistics.statisticName(MapOperation.Type.GET), is("get"));
+    assertThat(MapOperationStatistics.statisticName(MapOperation.Type.PUT_IF_ABSENT_WITH_TTL), is("putIfAbsentWithTtl"));
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terracotta.entity.map.common.ClusteredMapConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.terracotta.entity.map.server.MapMutationListener.NO_EXPIRATION;
+
+public class MapPersistenceTest {
+
+  private static final ClusteredMapConfiguration CONFIGURATION = ClusteredMapConfiguration.defaultConfiguration().withPersistence("map", 1, TimeUnit.HOURS);
+
+  private File directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("map-persistence").toFile();
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.walk(directory.toPath())) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Test
+  public void testCloseFlushesLoggedMutations() {
+    SegmentedMap map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT);
+    MapPersistence persistence = new MapPersistence(map, directory, CONFIGURATION);
+    persistence.create(new EntryExpiry(ActiveTerracottaClusteredMap.SEGMENT_COUNT));
+    map.put("a", "one");
+    persistence.onPut("a", "one", NO_EXPIRATION);
+    persistence.close();
+
+    SegmentedMap loaded = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT);
+    MapPersistence reloaded = new MapPersistence(loaded, directory, CONFIGURATION);
+    reloaded.load(new EntryExpiry(ActiveTerracottaClusteredMap.SEGMENT_COUNT));
+    reloaded.close();
+    assertThat(loaded.get("a"), is("one"));
+  }
+
+  @Test
+  public void testSubMillisecondSnapshotIntervalIsRejected() {
+    try {
+      ClusteredMapConfiguration.defaultConfiguration().withPersistence("map", 999, TimeUnit.MICROSECONDS);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    assertThat(ClusteredMapConfiguration.defaultConfiguration().withPersistence("map", 1000, TimeUnit.MICROSECONDS).getSnapshotIntervalMillis(), is(1L));
+  }
+}
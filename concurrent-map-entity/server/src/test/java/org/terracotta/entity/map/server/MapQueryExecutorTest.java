@@ -0,0 +1,232 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+import org.terracotta.entity.map.common.QueryOperation;
+import org.terracotta.entity.map.common.QueryResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MapQueryExecutorTest {
+
+  /**
+   * Matches the even keys, projecting them to their value.
+   */
+  private static final MapQuery EVEN_KEYS = new MapQuery() {
+    @Override
+    public String getName() {
+      return "even";
+    }
+
+    @Override
+    public Object apply(Object key, Object value, Object argument) {
+      return ((Long) key) % 2 == 0 ? value : null;
+    }
+  };
+
+  @Test
+  public void testPagesCoverAllMatchesOnceInHashedMap() {
+    testPagesCoverAllMatchesOnce(new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, false));
+  }
+
+  @Test
+  public void testPagesCoverAllMatchesOnceInSortedMap() {
+    testPagesCoverAllMatchesOnce(new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, true));
+  }
+
+  private void testPagesCoverAllMatchesOnce(SegmentedMap map) {
+    for (long i = 0; i < 1000; i++) {
+      map.put(i, "value" + i);
+    }
+    MapQueryExecutor executor = new MapQueryExecutor(map);
+
+    List<Object> results = new ArrayList<>();
+    QueryResponse response = null;
+    do {
+      response = executor.execute(EVEN_KEYS, nextPage(response, false, 7));
+      assertThat(response.getResults().size() == 7 || response.isLast(), is(true));
+      results.addAll(response.getResults());
+    } while (!response.isLast());
+
+    assertThat(results.size(), is(500));
+    assertThat(new HashSet<>(results).size(), is(500));
+  }
+
+  @Test
+  public void testRemovalsBetweenPagesNeitherSkipNorRepeatResults() {
+    SegmentedMap map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, false);
+    for (long i = 0; i < 1000; i++) {
+      map.put(i, "value" + i);
+    }
+    MapQueryExecutor executor = new MapQueryExecutor(map);
+
+    Set<Object> keys = new HashSet<>();
+    QueryResponse response = null;
+    int pages = 0;
+    do {
+      response = executor.execute(EVEN_KEYS, nextPage(response, true, 10));
+      for (Object key : response.getResults()) {
+        assertThat(keys.add(key), is(true));
+      }
+      // Removes entries already returned, which would shift positions within the segment
+      if (pages++ % 2 == 0) {
+        for (Object key : response.getResults()) {
+          map.remove(key);
+        }
+      }
+    } while (!response.isLast());
+
+    assertThat(keys.size(), is(500));
+  }
+
+  @Test
+  public void testUnknownCursorResumesFromLastKey() {
+    testUnknownCursorResumesFromLastKey(new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, false));
+    testUnknownCursorResumesFromLastKey(new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, true));
+  }
+
+  private void testUnknownCursorResumesFromLastKey(SegmentedMap map) {
+    for (long i = 0; i < 1000; i++) {
+      map.put(i, "value" + i);
+    }
+
+    Set<Object> keys = new HashSet<>();
+    QueryResponse response = null;
+    do {
+      // A new executor per page knows none of the cursors, as after a failover
+      response = new MapQueryExecutor(map).execute(EVEN_KEYS, nextPage(response, true, 30));
+      for (Object key : response.getResults()) {
+        assertThat(keys.add(key), is(true));
+      }
+    } while (!response.isLast());
+
+    assertThat(keys.size(), is(500));
+  }
+
+  @Test
+  public void testCursorsAreClosedAtTheEndOrWhenUnused() throws Exception {
+    SegmentedMap map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, false);
+    for (long i = 0; i < 100; i++) {
+      map.put(i, "value" + i);
+    }
+    MapQueryExecutor executor = new MapQueryExecutor(map, 10);
+
+    QueryResponse response = null;
+    do {
+      response = executor.execute(EVEN_KEYS, nextPage(response, true, 10));
+    } while (!response.isLast());
+    assertThat(executor.openCursors(), is(0));
+
+    executor.execute(EVEN_KEYS, nextPage(null, true, 10));
+    assertThat(executor.openCursors(), is(1));
+    Thread.sleep(50);
+    executor.execute(EVEN_KEYS, nextPage(null, true, 10));
+    assertThat(executor.openCursors(), is(1));
+  }
+
+  @Test
+  public void testKeysOnly() {
+    SegmentedMap map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, true);
+    map.put(1L, "one");
+    map.put(2L, "two");
+
+    QueryResponse response = new MapQueryExecutor(map).execute(EVEN_KEYS, nextPage(null, true, 10));
+    assertThat(response.getResults(), is(Collections.<Object>singletonList(2L)));
+    assertThat(response.isLast(), is(true));
+  }
+
+  @Test
+  public void testInvalidPagesAndArgumentsAreRejected() {
+    SegmentedMap map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, false);
+    map.put("key", 1L);
+    MapQueryExecutor executor = new MapQueryExecutor(map);
+
+    assertRejected(executor, BuiltinMapQuery.ALL, new QueryOperation(BuiltinMapQuery.ALL.getName(), null, false, 0, null, 0, QueryOperation.NO_CURSOR));
+    assertRejected(executor, BuiltinMapQuery.ALL, new QueryOperation(BuiltinMapQuery.ALL.getName(), null, false, -1, null, 10, QueryOperation.NO_CURSOR));
+    assertRejected(executor, BuiltinMapQuery.VALUE_RANGE, firstPage(BuiltinMapQuery.VALUE_RANGE, 0L));
+    assertRejected(executor, BuiltinMapQuery.VALUE_RANGE, firstPage(BuiltinMapQuery.VALUE_RANGE, new Object[] {0L}));
+    assertRejected(executor, BuiltinMapQuery.VALUE_RANGE, firstPage(BuiltinMapQuery.VALUE_RANGE, new Object[] {null, 2L}));
+    assertRejected(executor, BuiltinMapQuery.VALUE_RANGE, firstPage(BuiltinMapQuery.VALUE_RANGE, new Object[] {0L, null}));
+    assertRejected(executor, BuiltinMapQuery.VALUE_RANGE, firstPage(BuiltinMapQuery.VALUE_RANGE, new Object[] {0L, "2"}));
+    assertRejected(executor, BuiltinMapQuery.KEY_PREFIX, firstPage(BuiltinMapQuery.KEY_PREFIX, 1L));
+    assertThat(executor.openCursors(), is(0));
+
+    assertThat(executor.execute(BuiltinMapQuery.VALUE_RANGE, firstPage(BuiltinMapQuery.VALUE_RANGE, new Object[] {0L, 2L})).getResults(),
+        is(Collections.<Object>singletonList(1L)));
+    assertThat(executor.execute(BuiltinMapQuery.KEY_PREFIX, firstPage(BuiltinMapQuery.KEY_PREFIX, "k")).getResults(),
+        is(Collections.<Object>singletonList(1L)));
+  }
+
+  @Test
+  public void testFailingQueryDropsItsCursor() {
+    SegmentedMap map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT, false);
+    for (long i = 0; i < 100; i++) {
+      map.put(i, "value" + i);
+    }
+    MapQueryExecutor executor = new MapQueryExecutor(map);
+    MapQuery failing = new MapQuery() {
+      @Override
+      public String getName() {
+        return "failing";
+      }
+
+      @Override
+      public Object apply(Object key, Object value, Object argument) {
+        if (key.equals(42L)) {
+          throw new IllegalStateException("failed on " + key);
+        }
+        return value;
+      }
+    };
+
+    try {
+      executor.execute(failing, firstPage(failing, null));
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      //expected
+    }
+    assertThat(executor.openCursors(), is(0));
+  }
+
+  private static void assertRejected(MapQueryExecutor executor, MapQuery query, QueryOperation operation) {
+    try {
+      executor.execute(query, operation);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  private static QueryOperation firstPage(MapQuery query, Object argument) {
+    return new QueryOperation(query.getName(), argument, false, 0, null, 1000, QueryOperation.NO_CURSOR);
+  }
+
+  private static QueryOperation nextPage(QueryResponse previous, boolean keysOnly, int pageSize) {
+    int segment = previous == null ? 0 : previous.getNextSegment();
+    Object lastKey = previous == null ? null : previous.getLastKey();
+    long cursor = previous == null ? QueryOperation.NO_CURSOR : previous.getCursor();
+    return new QueryOperation(EVEN_KEYS.getName(), null, keysOnly, segment, lastKey, pageSize, cursor);
+  }
+}
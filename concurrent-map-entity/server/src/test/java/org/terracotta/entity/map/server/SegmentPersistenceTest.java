@@ -0,0 +1,178 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.entity.map.server.MapMutationListener.NO_EXPIRATION;
+
+public class SegmentPersistenceTest {
+
+  private File directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("segment-persistence").toFile();
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.walk(directory.toPath())) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Test
+  public void testLoggedMutationsAreReplayed() throws IOException {
+    SegmentPersistence persistence = new SegmentPersistence(directory, 0);
+    persistence.create();
+    persistence.put("a", "one", 1000L);
+    persistence.put("b", 2L, NO_EXPIRATION);
+    persistence.put("c", 3, 2000L);
+    persistence.remove("b");
+    persistence.put("c", 3.0, NO_EXPIRATION);
+    persistence.close();
+
+    Map<Object, Object> segment = new HashMap<>();
+    Map<Object, Long> expirations = new SegmentPersistence(directory, 0).load(segment);
+
+    Map<Object, Object> expected = new HashMap<>();
+    expected.put("a", "one");
+    expected.put("c", 3.0);
+    assertThat(segment, is(expected));
+    assertThat(expirations, is(singletonExpiration("a", 1000L)));
+  }
+
+  @Test
+  public void testClearIsReplayed() throws IOException {
+    SegmentPersistence persistence = new SegmentPersistence(directory, 0);
+    persistence.create();
+    persistence.put("a", "one", 1000L);
+    persistence.clear();
+    persistence.put("b", "two", NO_EXPIRATION);
+    persistence.close();
+
+    Map<Object, Object> segment = new HashMap<>();
+    Map<Object, Long> expirations = new SegmentPersistence(directory, 0).load(segment);
+
+    assertThat(segment, is(singletonEntry("b", "two")));
+    assertThat(expirations.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testSnapshotSupersedesEarlierLogs() throws IOException {
+    SegmentPersistence persistence = new SegmentPersistence(directory, 0);
+    persistence.create();
+    Map<Object, Object> content = new HashMap<>();
+    content.put("a", "one");
+    content.put("b", "two");
+    for (Map.Entry<Object, Object> entry : content.entrySet()) {
+      persistence.put(entry.getKey(), entry.getValue(), NO_EXPIRATION);
+    }
+    persistence.snapshot(content, key -> key.equals("b") ? 5000L : NO_EXPIRATION);
+    persistence.remove("a");
+    persistence.put("c", "three", NO_EXPIRATION);
+    persistence.close();
+
+    assertThat(new File(directory, "segment-0.snapshot").exists(), is(true));
+    assertThat(new File(directory, "segment-0.0.log").exists(), is(false));
+
+    Map<Object, Object> segment = new HashMap<>();
+    Map<Object, Long> expirations = new SegmentPersistence(directory, 0).load(segment);
+
+    Map<Object, Object> expected = new HashMap<>();
+    expected.put("b", "two");
+    expected.put("c", "three");
+    assertThat(segment, is(expected));
+    assertThat(expirations, is(singletonExpiration("b", 5000L)));
+  }
+
+  @Test
+  public void testLoadResumesLoggingAfterTheReplayedLogs() throws IOException {
+    SegmentPersistence persistence = new SegmentPersistence(directory, 0);
+    persistence.create();
+    persistence.put("a", "one", NO_EXPIRATION);
+    persistence.close();
+
+    SegmentPersistence reloaded = new SegmentPersistence(directory, 0);
+    reloaded.load(new HashMap<>());
+    reloaded.remove("a");
+    reloaded.put("b", "two", NO_EXPIRATION);
+    reloaded.close();
+
+    Map<Object, Object> segment = new HashMap<>();
+    new SegmentPersistence(directory, 0).load(segment);
+    assertThat(segment, is(singletonEntry("b", "two")));
+  }
+
+  @Test
+  public void testPartiallyWrittenRecordIsIgnored() throws IOException {
+    SegmentPersistence persistence = new SegmentPersistence(directory, 0);
+    persistence.create();
+    persistence.put("a", "one", NO_EXPIRATION);
+    persistence.close();
+    // A put record cut short after the type of its key
+    Files.write(new File(directory, "segment-0.0.log").toPath(), new byte[] {1, 2}, APPEND);
+
+    Map<Object, Object> segment = new HashMap<>();
+    new SegmentPersistence(directory, 0).load(segment);
+    assertThat(segment, is(singletonEntry("a", "one")));
+  }
+
+  @Test
+  public void testCreateDiscardsExistingData() throws IOException {
+    SegmentPersistence persistence = new SegmentPersistence(directory, 0);
+    persistence.create();
+    persistence.put("a", "one", NO_EXPIRATION);
+    persistence.snapshot(singletonEntry("a", "one"), key -> NO_EXPIRATION);
+    persistence.put("b", "two", NO_EXPIRATION);
+    persistence.close();
+
+    SegmentPersistence recreated = new SegmentPersistence(directory, 0);
+    recreated.create();
+    recreated.close();
+
+    Map<Object, Object> segment = new HashMap<>();
+    new SegmentPersistence(directory, 0).load(segment);
+    assertThat(segment.isEmpty(), is(true));
+  }
+
+  private static Map<Object, Object> singletonEntry(Object key, Object value) {
+    Map<Object, Object> map = new HashMap<>();
+    map.put(key, value);
+    return map;
+  }
+
+  private static Map<Object, Long> singletonExpiration(Object key, long expirationTime) {
+    Map<Object, Long> map = new HashMap<>();
+    map.put(key, expirationTime);
+    return map;
+  }
+}
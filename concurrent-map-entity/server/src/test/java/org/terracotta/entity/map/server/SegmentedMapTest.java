@@ -0,0 +1,73 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SegmentedMapTest {
+
+  @Test
+  public void testEntryIteratorHonoursTheIteratorContract() {
+    SegmentedMap map = new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT);
+    for (long i = 0; i < 100; i++) {
+      map.put(i, "value" + i);
+    }
+
+    Set<Object> keys = new HashSet<>();
+    Iterator<Map.Entry<Object, Object>> iterator = map.entrySet().iterator();
+    while (iterator.hasNext()) {
+      keys.add(iterator.next().getKey());
+    }
+    assertThat(keys.size(), is(100));
+    assertExhausted(iterator);
+
+    iterator.remove();
+    assertThat(map.size(), is(99));
+    try {
+      iterator.remove();
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testEmptyMapIteratorIsExhausted() {
+    assertExhausted(new SegmentedMap(ActiveTerracottaClusteredMap.SEGMENT_COUNT).entrySet().iterator());
+  }
+
+  private static void assertExhausted(Iterator<?> iterator) {
+    assertThat(iterator.hasNext(), is(false));
+    assertThat(iterator.hasNext(), is(false));
+    try {
+      iterator.next();
+      fail("Expected NoSuchElementException");
+    } catch (NoSuchElementException e) {
+      //expected
+    }
+    assertThat(iterator.hasNext(), is(false));
+  }
+}
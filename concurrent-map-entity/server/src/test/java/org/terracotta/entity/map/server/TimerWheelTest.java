@@ -0,0 +1,109 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class TimerWheelTest {
+
+  private static final long START = 1_000_000L;
+
+  @Test
+  public void testTimerFiresOnceItsDeadlinePassed() {
+    TimerWheel<String> wheel = new TimerWheel<>(START);
+    wheel.schedule("a", START + 1000);
+    List<String> expired = new ArrayList<>();
+
+    wheel.advance(START + 500, expired::add);
+    assertThat(expired.isEmpty(), is(true));
+
+    wheel.advance(START + 1000 + 128, expired::add);
+    assertThat(expired, is(Collections.singletonList("a")));
+    assertThat(wheel.size(), is(0));
+  }
+
+  @Test
+  public void testCancelledTimerDoesNotFire() {
+    TimerWheel<String> wheel = new TimerWheel<>(START);
+    TimerWheel.Timer<String> timer = wheel.schedule("a", START + 1000);
+    wheel.schedule("b", START + 1000);
+    wheel.cancel(timer);
+    assertThat(wheel.size(), is(1));
+    List<String> expired = new ArrayList<>();
+
+    wheel.advance(START + 2000, expired::add);
+    assertThat(expired, is(Collections.singletonList("b")));
+  }
+
+  @Test
+  public void testDistantTimersCascadeDownToTheirDeadline() {
+    TimerWheel<String> wheel = new TimerWheel<>(START);
+    long hour = 60 * 60 * 1000L;
+    wheel.schedule("minute", START + 60 * 1000L);
+    wheel.schedule("day", START + 24 * hour);
+    List<String> expired = new ArrayList<>();
+
+    wheel.advance(START + 59 * 1000L, expired::add);
+    assertThat(expired.isEmpty(), is(true));
+    wheel.advance(START + 61 * 1000L, expired::add);
+    assertThat(expired, is(Collections.singletonList("minute")));
+    wheel.advance(START + 23 * hour, expired::add);
+    assertThat(expired.size(), is(1));
+    wheel.advance(START + 24 * hour + 1000, expired::add);
+    assertThat(expired, is(Arrays.asList("minute", "day")));
+  }
+
+  @Test
+  public void testTimersFireWithinATickOfTheirDeadline() {
+    TimerWheel<Long> wheel = new TimerWheel<>(START);
+    long[] deadlines = {START + 10, START + 5000, START + 60_000, START + 3_600_000, START + 20_000_000};
+    for (long deadline : deadlines) {
+      wheel.schedule(deadline, deadline);
+    }
+    List<Long> lateness = new ArrayList<>();
+    long[] now = new long[1];
+    for (now[0] = START; wheel.size() > 0; now[0] += 50) {
+      wheel.advance(now[0], deadline -> {
+        assertThat(now[0] >= deadline, is(true));
+        lateness.add(now[0] - deadline);
+      });
+    }
+    assertThat(lateness.size(), is(deadlines.length));
+    for (long late : lateness) {
+      assertThat("fired " + late + "ms late", late <= 128 + 50, is(true));
+    }
+  }
+
+  @Test
+  public void testPassedDeadlineFiresOnNextAdvance() {
+    TimerWheel<String> wheel = new TimerWheel<>(START);
+    wheel.advance(START + 5000, s -> { });
+    // Deadline in a first level bucket the wheel already went past, e.g. loaded from persistence
+    wheel.schedule("late", START + 100);
+    List<String> expired = new ArrayList<>();
+
+    wheel.advance(START + 5000 + 128, expired::add);
+    assertThat(expired, is(Arrays.asList("late")));
+  }
+}
@@ -27,10 +27,13 @@ import org.terracotta.management.sequence.BoundaryFlakeSequenceGenerator;
 import org.terracotta.management.sequence.NodeIdSource;
 import org.terracotta.management.sequence.TimeSource;
 import org.terracotta.management.service.monitoring.registry.OffHeapResourceBinding;
+import org.terracotta.management.service.monitoring.registry.OffHeapResourceCallManagementProvider;
 import org.terracotta.management.service.monitoring.registry.OffHeapResourceSettingsManagementProvider;
 import org.terracotta.management.service.monitoring.registry.OffHeapResourceStatisticsManagementProvider;
 import org.terracotta.monitoring.IMonitoringProducer;
 import org.terracotta.monitoring.IStripeMonitoring;
+import org.terracotta.offheapresource.OccupancyListener;
+import org.terracotta.offheapresource.OffHeapResource;
 import org.terracotta.offheapresource.OffHeapResourceIdentifier;
 import org.terracotta.offheapresource.OffHeapResources;
 
@@ -39,6 +42,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Mathieu Carbou
@@ -62,11 +67,19 @@ public class MonitoringServiceProvider implements ServiceProvider, Closeable {
   private final Map<Long, DefaultClientMonitoringService> clientMonitoringServices = new ConcurrentHashMap<>();
   private final Map<Long, DefaultConsumerManagementRegistry> consumerManagementRegistries = new ConcurrentHashMap<>();
   private final Map<Long, AbstractEntityMonitoringService> entityMonitoringServices = new ConcurrentHashMap<>();
+  private final Map<OffHeapResource, OccupancyListener> occupancyListeners = new ConcurrentHashMap<>();
 
   private final TimeSource timeSource = TimeSource.BEST;
   private final DefaultSharedManagementRegistry sharedManagementRegistry = new DefaultSharedManagementRegistry(consumerManagementRegistries);
   private final BoundaryFlakeSequenceGenerator sequenceGenerator = new BoundaryFlakeSequenceGenerator(timeSource, NodeIdSource.BEST);
   private final StatisticsServiceFactory statisticsServiceFactory = new StatisticsServiceFactory(sharedManagementRegistry, timeSource);
+  private final ExecutorService occupancyNotifier = Executors.newSingleThreadExecutor(r -> {
+    Thread t = Executors.defaultThreadFactory().newThread(r);
+    t.setDaemon(true);
+    t.setName("OffHeapResourceOccupancyNotifier");
+    t.setUncaughtExceptionHandler((thread, err) -> LOGGER.error("UncaughtException in thread " + thread.getName() + ": " + err.getMessage(), err));
+    return t;
+  });
 
   private PlatformConfiguration platformConfiguration;
   private DefaultEventService eventService;
@@ -104,11 +117,31 @@ public class MonitoringServiceProvider implements ServiceProvider, Closeable {
         onEntityDestroyed(consumerId);
       }
     });
+
+    // notify when offheap resources fill up, if the offheap service is there
+    Collection<OffHeapResources> offHeapResources = platformConfiguration.getExtendedConfiguration(OffHeapResources.class);
+    if (offHeapResources != null) {
+      for (OffHeapResources resources : offHeapResources) {
+        for (OffHeapResourceIdentifier identifier : resources.getAllIdentifiers()) {
+          OffHeapResource offHeapResource = resources.getOffHeapResource(identifier);
+          // crossings are notified on the reserving thread: hand them off, in order, to the notification thread
+          OccupancyListener listener = (threshold, upward, reserved) -> {
+            long capacity = offHeapResource.capacity();
+            occupancyNotifier.execute(() -> topologyService.offHeapResourceThresholdCrossed(identifier.getName(), threshold, upward, reserved, capacity));
+          };
+          offHeapResource.addOccupancyListener(listener);
+          occupancyListeners.put(offHeapResource, listener);
+        }
+      }
+    }
     return true;
   }
 
   @Override
   public void close() {
+    occupancyListeners.forEach(OffHeapResource::removeOccupancyListener);
+    occupancyListeners.clear();
+    this.occupancyNotifier.shutdown();
     this.statisticsServiceFactory.close();
     this.eventService.close();
   }
@@ -247,6 +280,7 @@ public class MonitoringServiceProvider implements ServiceProvider, Closeable {
     if (!offHeapResources.isEmpty()) {
       consumerManagementRegistry.addManagementProvider(new OffHeapResourceSettingsManagementProvider());
       consumerManagementRegistry.addManagementProvider(new OffHeapResourceStatisticsManagementProvider());
+      consumerManagementRegistry.addManagementProvider(new OffHeapResourceCallManagementProvider());
       for (OffHeapResources offHeapResource : offHeapResources) {
         for (OffHeapResourceIdentifier identifier : offHeapResource.getAllIdentifiers()) {
           LOGGER.trace("[{}] addServerManagementProviders(OffHeapResource:{})", consumerId, identifier.getName());
@@ -54,6 +54,8 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.terracotta.management.service.monitoring.TopologyService.Notification.CLIENT_CONNECTED;
 import static org.terracotta.management.service.monitoring.TopologyService.Notification.CLIENT_DISCONNECTED;
+import static org.terracotta.management.service.monitoring.TopologyService.Notification.OFFHEAP_RESOURCE_THRESHOLD_CLEARED;
+import static org.terracotta.management.service.monitoring.TopologyService.Notification.OFFHEAP_RESOURCE_THRESHOLD_REACHED;
 import static org.terracotta.management.service.monitoring.TopologyService.Notification.SERVER_ENTITY_CREATED;
 import static org.terracotta.management.service.monitoring.TopologyService.Notification.SERVER_ENTITY_DESTROYED;
 import static org.terracotta.management.service.monitoring.TopologyService.Notification.SERVER_ENTITY_FAILOVER_COMPLETED;
@@ -314,6 +316,21 @@ class TopologyService implements PlatformListener {
     eventService.fireNotification(new ContextualNotification(server.getContext(), SERVER_STATE_CHANGED.name(), attrs));
   }
 
+  synchronized void offHeapResourceThresholdCrossed(String resourceName, int threshold, boolean upward, long reserved, long capacity) {
+    LOGGER.trace("[0] offHeapResourceThresholdCrossed({}, {}, {})", resourceName, threshold, upward);
+
+    stripe.getServerByName(platformConfiguration.getServerName()).ifPresent(server -> {
+      Map<String, String> attrs = new HashMap<>();
+      attrs.put("threshold", String.valueOf(threshold));
+      attrs.put("reserved", String.valueOf(reserved));
+      attrs.put("capacity", String.valueOf(capacity));
+
+      Context context = server.getContext().with("type", "OffHeapResource").with("alias", resourceName);
+      Notification notification = upward ? OFFHEAP_RESOURCE_THRESHOLD_REACHED : OFFHEAP_RESOURCE_THRESHOLD_CLEARED;
+      eventService.fireNotification(new ContextualNotification(context, notification.name(), attrs));
+    });
+  }
+
   synchronized void setEntityManagementRegistry(long consumerId, String serverName, ManagementRegistry newRegistry) {
     stripe.getServerByName(serverName)
         .flatMap(server -> server.getServerEntity(consumerId))
@@ -458,6 +475,9 @@ class TopologyService implements PlatformListener {
     SERVER_JOINED,
     SERVER_LEFT,
     SERVER_STATE_CHANGED,
+
+    OFFHEAP_RESOURCE_THRESHOLD_REACHED,
+    OFFHEAP_RESOURCE_THRESHOLD_CLEARED,
   }
 
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.management.service.monitoring.registry;
+
+import org.terracotta.management.model.capabilities.descriptors.Descriptor;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.registry.action.AbstractActionManagementProvider;
+import org.terracotta.management.registry.action.Exposed;
+import org.terracotta.management.registry.action.ExposedObject;
+import org.terracotta.management.registry.action.Named;
+import org.terracotta.management.registry.action.RequiredContext;
+import org.terracotta.management.service.monitoring.EntityMonitoringService;
+import org.terracotta.management.service.monitoring.StatisticsService;
+import org.terracotta.management.service.monitoring.registry.provider.MonitoringServiceAware;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+
+@Named("OffHeapResourceCalls")
+@RequiredContext({@Named("consumerId"), @Named("type"), @Named("alias")})
+public class OffHeapResourceCallManagementProvider extends AbstractActionManagementProvider<OffHeapResourceBinding> implements MonitoringServiceAware {
+
+  private EntityMonitoringService monitoringService;
+
+  public OffHeapResourceCallManagementProvider() {
+    super(OffHeapResourceBinding.class);
+  }
+
+  @Override
+  public void setMonitoringService(EntityMonitoringService monitoringService) {
+    this.monitoringService = Objects.requireNonNull(monitoringService);
+  }
+
+  @Override
+  public void setStatisticsService(StatisticsService statisticsService) {
+    // we do not care about this service
+  }
+
+  @Override
+  protected ExposedObject<OffHeapResourceBinding> wrap(OffHeapResourceBinding managedObject) {
+    Context context = Context.create("consumerId", String.valueOf(monitoringService.getConsumerId()))
+        .with("type", "OffHeapResource")
+        .with("alias", managedObject.getAlias());
+    return new ExposedOffHeapResource(managedObject, context);
+  }
+
+  public static class ExposedOffHeapResource implements ExposedObject<OffHeapResourceBinding> {
+
+    private final OffHeapResourceBinding binding;
+    private final Context context;
+
+    ExposedOffHeapResource(OffHeapResourceBinding binding, Context context) {
+      this.binding = binding;
+      this.context = context;
+    }
+
+    /**
+     * Grows or shrinks the resource, see {@link org.terracotta.offheapresource.OffHeapResource#setCapacity(long, boolean)}.
+     */
+    @Exposed
+    public boolean setCapacity(@Named("size") long size, @Named("drain") boolean drain) {
+      return binding.getValue().setCapacity(size, drain);
+    }
+
+    @Override
+    public OffHeapResourceBinding getTarget() {
+      return binding;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+      return binding.getValue().getClass().getClassLoader();
+    }
+
+    @Override
+    public Context getContext() {
+      return context;
+    }
+
+    @Override
+    public Collection<? extends Descriptor> getDescriptors() {
+      return Collections.emptyList();
+    }
+  }
+}
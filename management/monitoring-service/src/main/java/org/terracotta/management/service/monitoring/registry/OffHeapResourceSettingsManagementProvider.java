@@ -25,6 +25,8 @@ import org.terracotta.management.service.monitoring.registry.provider.AliasBindi
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 @Named("OffHeapResourceSettings")
 @RequiredContext({@Named("consumerId"), @Named("type"), @Named("alias")})
@@ -61,9 +63,14 @@ public class OffHeapResourceSettingsManagementProvider extends AliasBindingManag
 
     @Override
     public Collection<? extends Settings> getDescriptors() {
+      Settings consumers = new Settings();
+      for (Map.Entry<String, Long> usage : new TreeMap<>(getBinding().getValue().getSubPoolUsage()).entrySet()) {
+        consumers.set(usage.getKey(), usage.getValue());
+      }
       return Collections.singleton(new Settings(getContext())
         .set("capacity", getBinding().getValue().capacity())
         .set("availableAtTime", getBinding().getValue().available())
+        .set("consumers", consumers)
       );
     }
   }
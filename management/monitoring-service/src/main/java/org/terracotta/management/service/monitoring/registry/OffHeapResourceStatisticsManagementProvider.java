@@ -15,17 +15,22 @@
  */
 package org.terracotta.management.service.monitoring.registry;
 
+import org.terracotta.context.extended.OperationStatisticDescriptor;
 import org.terracotta.context.extended.StatisticsRegistry;
 import org.terracotta.management.model.context.Context;
 import org.terracotta.management.registry.action.Named;
 import org.terracotta.management.registry.action.RequiredContext;
 import org.terracotta.management.service.monitoring.registry.provider.AbstractExposedStatistics;
 import org.terracotta.management.service.monitoring.registry.provider.AbstractStatisticsManagementProvider;
+import org.terracotta.offheapresource.OffHeapResourceOperationOutcomes.ReleaseOutcome;
+import org.terracotta.offheapresource.OffHeapResourceOperationOutcomes.ReserveOutcome;
 
 import java.util.HashSet;
 import java.util.Set;
 
 import static java.util.Arrays.asList;
+import static java.util.EnumSet.allOf;
+import static java.util.EnumSet.of;
 import static org.terracotta.context.extended.ValueStatisticDescriptor.descriptor;
 
 @Named("OffHeapResourceStatistics")
@@ -46,7 +51,15 @@ public class OffHeapResourceStatisticsManagementProvider extends AbstractStatist
     OffHeapResourceBindingExposedStatistics(Context context, OffHeapResourceBinding binding, StatisticsRegistry statisticsRegistry) {
       super(context, binding, statisticsRegistry);
 
+      OperationStatisticDescriptor<ReserveOutcome> reserve = OperationStatisticDescriptor.descriptor("reserve", tags("OffHeapResource"), ReserveOutcome.class);
+      OperationStatisticDescriptor<ReleaseOutcome> release = OperationStatisticDescriptor.descriptor("release", tags("OffHeapResource"), ReleaseOutcome.class);
+
       statisticsRegistry.registerSize("AllocatedMemory", descriptor("allocatedMemory", tags("tier", "OffHeapResource")));
+      statisticsRegistry.registerSize("HighWaterMark", descriptor("highWaterMark", tags("tier", "OffHeapResource")));
+      statisticsRegistry.registerCompoundOperations("OffHeapResource:Reservation", reserve, of(ReserveOutcome.SUCCESS));
+      statisticsRegistry.registerCompoundOperations("OffHeapResource:FailedReservation", reserve, of(ReserveOutcome.FAILURE));
+      statisticsRegistry.registerRatios("OffHeapResource:FailedReservationRatio", reserve, of(ReserveOutcome.FAILURE), allOf(ReserveOutcome.class));
+      statisticsRegistry.registerCompoundOperations("OffHeapResource:Release", release, allOf(ReleaseOutcome.class));
     }
 
     @Override
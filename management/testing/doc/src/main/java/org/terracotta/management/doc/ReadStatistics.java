@@ -84,7 +84,10 @@ public class ReadStatistics {
         "Store:TableCapacity"
     )).waitForReturn();
     tmsAgentService.updateCollectedStatistics(context, "OffHeapResourceStatistics", asList(
-        "OffHeapResource:AllocatedMemory"
+        "OffHeapResource:AllocatedMemory",
+        "OffHeapResource:HighWaterMark",
+        "OffHeapResource:ReservationRate",
+        "OffHeapResource:FailedReservationCount"
     )).waitForReturn();
 
     // trigger stats computation on client-side
@@ -69,7 +69,8 @@ public class ServerCacheManagementTest extends AbstractTest {
         .flatMap(ServerEntity::getManagementRegistry)
         .get();
 
-    assertThat(registry.getCapabilities().size(), equalTo(3));
+    assertThat(registry.getCapabilities().size(), equalTo(4));
+    assertThat(registry.getCapability("OffHeapResourceCalls"), is(notNullValue()));
     assertThat(registry.getCapability("OffHeapResourceSettings"), is(notNullValue()));
     assertThat(registry.getCapability("OffHeapResourceStatistics"), is(notNullValue()));
     assertThat(registry.getCapability("StatisticCollectorCapability"), is(notNullValue()));
@@ -111,6 +112,23 @@ public class ServerCacheManagementTest extends AbstractTest {
     assertThat(tmsAgentService.call(context, "ServerCacheCalls", "size", int.class).waitForReturn(), is(0));
   }
 
+  @Test
+  public void can_resize_offheap_resource_on_server() throws Exception {
+    ServerEntity serverEntity = tmsAgentService.readTopology()
+        .activeServerEntityStream()
+        .filter(e -> e.getType().equals(TmsAgentConfig.ENTITY_TYPE))
+        .findFirst()
+        .get();
+
+    Context context = serverEntity.getContext().with("type", "OffHeapResource").with("alias", "primary-resource");
+
+    // grow
+    assertThat(tmsAgentService.call(context, "OffHeapResourceCalls", "setCapacity", boolean.class, new Parameter(64 * 1024 * 1024L, "long"), new Parameter(false, "boolean")).waitForReturn(), is(true));
+
+    // shrink back
+    assertThat(tmsAgentService.call(context, "OffHeapResourceCalls", "setCapacity", boolean.class, new Parameter(32 * 1024 * 1024L, "long"), new Parameter(false, "boolean")).waitForReturn(), is(true));
+  }
+
   @Test
   public void can_receive_server_statistics() throws Exception {
     System.out.println("Please be patient... Test can take about 15s...");
@@ -0,0 +1,111 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Frees the memory of direct and mapped buffers without waiting for them to be garbage collected.
+ * <p>
+ * This relies on JDK internals: {@code Unsafe.invokeCleaner} on Java 9 and later, the buffer {@code Cleaner} on Java 8.
+ * Where neither is accessible, buffers are left to the garbage collector.
+ */
+final class DirectBuffers {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectBuffers.class);
+
+  private static final Consumer<ByteBuffer> CLEANER = cleaner();
+
+  private DirectBuffers() {
+  }
+
+  /**
+   * Frees the memory of a buffer, which must not be accessed afterwards.
+   * <p>
+   * Heap buffers, and views of direct buffers such as slices, are left to the garbage collector.
+   *
+   * @param buffer the buffer to free
+   */
+  static void free(ByteBuffer buffer) {
+    if (buffer.isDirect()) {
+      try {
+        CLEANER.accept(buffer);
+      } catch (RuntimeException e) {
+        LOGGER.debug("Failed to free {}, leaving it to the garbage collector", buffer, e);
+      }
+    }
+  }
+
+  private static Consumer<ByteBuffer> cleaner() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      return buffer -> invoke(invokeCleaner, unsafe, buffer);
+    } catch (NoSuchMethodException e) {
+      return java8Cleaner();
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return unavailable(e);
+    }
+  }
+
+  private static Consumer<ByteBuffer> java8Cleaner() {
+    try {
+      Method cleanerOf = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      return buffer -> {
+        // Views of another buffer have no cleaner
+        Object cleaner = invoke(cleanerOf, buffer);
+        if (cleaner != null) {
+          invoke(clean, cleaner);
+        }
+      };
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return unavailable(e);
+    }
+  }
+
+  private static Consumer<ByteBuffer> unavailable(Exception cause) {
+    LOGGER.info("Direct buffers cannot be freed explicitly on this JVM, they will be freed by the garbage collector", cause);
+    return buffer -> { };
+  }
+
+  private static Object invoke(Method method, Object target, Object... arguments) {
+    try {
+      return method.invoke(target, arguments);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new IllegalStateException(cause);
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.SPARSE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A page source slicing pages out of regions, each mapped from its own file in a directory.
+ * <p>
+ * A region holds pages of a single size, and is {@value #REGION_SIZE} bytes large unless its pages are larger, so
+ * that a resource far larger than the physical memory needs few mappings, well below the operating system limit on
+ * the number of mappings of a process. Freed pages are reused by later pages of the same size, and a region is
+ * unmapped once all of its pages are freed.
+ * <p>
+ * The file of a region is deleted as soon as it is mapped, so that the operating system reclaims its space once the
+ * region is unmapped, and no file outlives the server. Mapped pages are paged in and out by the operating system,
+ * which lets a resource backed by them exceed the physical memory.
+ */
+class MappedPageSource implements PageSource {
+
+  static final int REGION_SIZE = 64 * 1024 * 1024;
+
+  private final Path directory;
+  private final Map<Integer, Deque<Region>> regionsWithFreePages = new HashMap<>();
+  private final Map<ByteBuffer, Region> pages = new IdentityHashMap<>();
+  private int regionCount;
+
+  MappedPageSource(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws UncheckedIOException if the region file cannot be created or mapped
+   */
+  @Override
+  public synchronized ByteBuffer apply(int size) throws UncheckedIOException {
+    Deque<Region> regions = regionsWithFreePages.computeIfAbsent(size, s -> new ArrayDeque<>());
+    Region region = regions.peek();
+    if (region == null) {
+      region = new Region(map(Math.max(size, REGION_SIZE)), size);
+      regions.push(region);
+      regionCount++;
+    }
+    ByteBuffer page = region.take();
+    if (region.isFull()) {
+      regions.pop();
+    }
+    pages.put(page, region);
+    return page;
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException if the page was not created by this source, or was already freed
+   */
+  @Override
+  public synchronized void free(ByteBuffer page) throws IllegalArgumentException {
+    Region region = pages.remove(page);
+    if (region == null) {
+      throw new IllegalArgumentException("Not a page of this source: " + page);
+    }
+    boolean wasFull = region.isFull();
+    region.give(page);
+    Deque<Region> regions = regionsWithFreePages.get(region.pageSize);
+    if (region.isEmpty()) {
+      if (!wasFull) {
+        regions.remove(region);
+      }
+      regionCount--;
+      DirectBuffers.free(region.buffer);
+    } else if (wasFull) {
+      regions.push(region);
+    }
+  }
+
+  /**
+   * @return the number of regions currently mapped
+   */
+  synchronized int regionCount() {
+    return regionCount;
+  }
+
+  private ByteBuffer map(int size) throws UncheckedIOException {
+    try {
+      Path file = Files.createTempFile(directory, "region-", ".map");
+      FileChannel channel;
+      try {
+        channel = FileChannel.open(file, READ, WRITE, SPARSE, DELETE_ON_CLOSE);
+      } catch (IOException e) {
+        Files.deleteIfExists(file);
+        throw e;
+      }
+      try {
+        return channel.map(READ_WRITE, 0, size);
+      } finally {
+        channel.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to map a region of " + size + " bytes in " + directory, e);
+    }
+  }
+
+  /**
+   * A mapped region, sliced into pages of a single size as they are needed.
+   */
+  private static final class Region {
+    private final ByteBuffer buffer;
+    private final int pageSize;
+    private final Deque<ByteBuffer> freePages = new ArrayDeque<>();
+    private int sliced;
+    private int allocated;
+
+    Region(ByteBuffer buffer, int pageSize) {
+      this.buffer = buffer;
+      this.pageSize = pageSize;
+    }
+
+    ByteBuffer take() {
+      allocated++;
+      ByteBuffer page = freePages.poll();
+      if (page != null) {
+        page.clear();
+      } else {
+        ByteBuffer view = buffer.duplicate();
+        view.position(sliced * pageSize).limit((sliced + 1) * pageSize);
+        page = view.slice();
+        sliced++;
+      }
+      return page;
+    }
+
+    void give(ByteBuffer page) {
+      allocated--;
+      freePages.push(page);
+    }
+
+    boolean isFull() {
+      return allocated == buffer.capacity() / pageSize;
+    }
+
+    boolean isEmpty() {
+      return allocated == 0;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import com.tc.classloader.CommonComponent;
+
+/**
+ * Listens to the occupancy of an {@link OffHeapResource} crossing the thresholds configured for it.
+ */
+@CommonComponent
+public interface OccupancyListener {
+
+  /**
+   * Called when the occupancy crosses a threshold, on the thread whose reservation or release caused it.
+   * <p>
+   * Crossings of a resource are notified one at a time and in order, while holding a lock of the resource that
+   * reservations and releases crossing a threshold wait on. Listeners should therefore return quickly, handing the
+   * crossing off to another thread if they need to do any real work.
+   * <p>
+   * A threshold is crossed upward when the reserved size reaches it, and downward when the reserved size falls
+   * {@value OccupancyThresholds#HYSTERESIS} percentage points below it, so that a resource hovering around a
+   * threshold does not notify repeatedly.
+   *
+   * @param threshold the crossed threshold, as a percentage of the resource capacity
+   * @param upward {@code true} if the occupancy rose above the threshold, {@code false} if it fell back below
+   * @param reserved the reserved size of the resource when the threshold was crossed
+   */
+  void onThresholdCrossed(int threshold, boolean upward, long reserved);
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * The occupancy thresholds of an {@link OffHeapResource}, notifying {@link OccupancyListener}s as they are crossed.
+ * <p>
+ * The thresholds currently exceeded are tracked as a level, the number of exceeded thresholds. Reservations only
+ * compare the reserved size to the threshold above the current level, and releases to the one below it, so that
+ * detection costs a volatile read while no threshold is crossed. Once a crossing is seen, the level is moved and the
+ * listeners notified under a lock, so that racing reservations and releases deliver their crossings in the order the
+ * level moved. Listeners are therefore expected to hand crossings off rather than act on them inline.
+ * <p>
+ * The sizes at which thresholds are crossed are derived from the resource capacity, and are recomputed when it is
+ * resized.
+ */
+class OccupancyThresholds {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OccupancyThresholds.class);
+
+  /**
+   * How far, in percentage points, the occupancy must fall below a threshold before crossing it downward.
+   */
+  static final int HYSTERESIS = 5;
+
+  private final int[] thresholds;
+  private volatile Boundaries boundaries;
+  private volatile int level;
+  private final List<OccupancyListener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * @param capacity the resource capacity
+   * @param thresholds the thresholds, as percentages of the capacity
+   * @throws IllegalArgumentException if a threshold is not between 1 and 100
+   */
+  OccupancyThresholds(long capacity, int... thresholds) throws IllegalArgumentException {
+    this.thresholds = Arrays.stream(thresholds).sorted().distinct().toArray();
+    for (int threshold : this.thresholds) {
+      if (threshold < 1 || threshold > 100) {
+        throw new IllegalArgumentException("Occupancy threshold must be a percentage between 1 and 100: " + threshold);
+      }
+    }
+    this.boundaries = new Boundaries(capacity, this.thresholds);
+  }
+
+  void addListener(OccupancyListener listener) {
+    listeners.add(listener);
+  }
+
+  void removeListener(OccupancyListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Checks the thresholds after a reservation.
+   *
+   * @param reserved the reserved size once the reservation was made
+   * @param reservedSize supplies the current reserved size, only called if a threshold is crossed
+   */
+  void reserved(long reserved, LongSupplier reservedSize) {
+    int current = level;
+    if (current < thresholds.length && reserved >= boundaries.upward[current]) {
+      settle(reservedSize);
+    }
+  }
+
+  /**
+   * Checks the thresholds after a release.
+   *
+   * @param reserved the reserved size once the release was made
+   * @param reservedSize supplies the current reserved size, only called if a threshold is crossed
+   */
+  void released(long reserved, LongSupplier reservedSize) {
+    int current = level;
+    if (current > 0 && reserved < boundaries.downward[current - 1]) {
+      settle(reservedSize);
+    }
+  }
+
+  /**
+   * Recomputes the thresholds for a new capacity, and notifies the thresholds crossed as a result.
+   *
+   * @param capacity the resource new capacity
+   * @param reservedSize supplies the reserved size once the resource was resized
+   */
+  void resized(long capacity, LongSupplier reservedSize) {
+    boundaries = new Boundaries(capacity, thresholds);
+    settle(reservedSize);
+  }
+
+  /**
+   * Moves the level to match the current reserved size, notifying each threshold crossed on the way.
+   * <p>
+   * The reserved size is read again under the lock, so that a crossing seen by a racing reservation or release that
+   * has since been undone is not delivered, and the last notified crossing always reflects the current occupancy.
+   */
+  private synchronized void settle(LongSupplier reservedSize) {
+    long size = reservedSize.getAsLong();
+    Boundaries current = boundaries;
+    while (level < thresholds.length && size >= current.upward[level]) {
+      notify(thresholds[level++], true, size);
+    }
+    while (level > 0 && size < current.downward[level - 1]) {
+      notify(thresholds[--level], false, size);
+    }
+  }
+
+  private void notify(int threshold, boolean upward, long reserved) {
+    for (OccupancyListener listener : listeners) {
+      try {
+        listener.onThresholdCrossed(threshold, upward, reserved);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Occupancy listener {} failed", listener, e);
+      }
+    }
+  }
+
+  /**
+   * The reserved sizes at which the thresholds are crossed, for a given capacity.
+   */
+  private static final class Boundaries {
+
+    private final long[] upward;
+    private final long[] downward;
+
+    Boundaries(long capacity, int[] thresholds) {
+      this.upward = new long[thresholds.length];
+      this.downward = new long[thresholds.length];
+      for (int i = 0; i < thresholds.length; i++) {
+        upward[i] = fraction(capacity, thresholds[i]);
+        downward[i] = fraction(capacity, Math.max(0, thresholds[i] - HYSTERESIS));
+      }
+    }
+
+    private static long fraction(long capacity, int percent) {
+      return capacity / 100 * percent + capacity % 100 * percent / 100;
+    }
+  }
+}
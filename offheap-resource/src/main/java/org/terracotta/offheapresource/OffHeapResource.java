@@ -17,12 +17,21 @@ package org.terracotta.offheapresource;
 
 import com.tc.classloader.CommonComponent;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Represents an offheap resource, providing a reservation system that can be
  * used to control the combined memory usage of participating consumers.
  * <p>
  * Reservation and release calls perform no allocations, and therefore rely on
  * the cooperation of callers to achieve control over the 'real' resource usage.
+ * <p>
+ * Only the basic reservation methods must be implemented. The default
+ * implementations of the others, for resources that do not support them, either
+ * throw {@code UnsupportedOperationException} or report no pools.
  */
 @CommonComponent
 public interface OffHeapResource {
@@ -40,6 +49,42 @@ public interface OffHeapResource {
    */
   boolean reserve(long size) throws IllegalArgumentException;
 
+  /**
+   * Reserves the given amount of this resource, waiting up to the given time for it to become available.
+   * <p>
+   * Waiting reservations are served in arrival order as capacity is released, see {@link #reserveAsync(long)}.
+   *
+   * @param size reservation size
+   * @param timeout the maximum time to wait
+   * @param unit the unit of {@code timeout}
+   * @return {@code true} if the reservation succeeded, {@code false} if it timed out or exceeds the resource
+   * capacity
+   * @throws IllegalArgumentException if the reservation size is negative
+   * @throws InterruptedException if the thread is interrupted while waiting, in which case nothing is reserved
+   * @throws UnsupportedOperationException if this resource does not support it
+   */
+  default boolean reserve(long size, long timeout, TimeUnit unit) throws IllegalArgumentException, InterruptedException {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Reserves the given amount of this resource once it becomes available.
+   * <p>
+   * Waiting reservations are served in arrival order as capacity is released: a waiting reservation is not
+   * served before those that started waiting earlier. Non-waiting {@link #reserve(long)} calls are not ordered
+   * with waiting ones, and may succeed while others wait.
+   * <p>
+   * Cancelling the returned future withdraws a reservation that was not served yet.
+   *
+   * @param size reservation size
+   * @return a future completed once the reservation succeeded
+   * @throws IllegalArgumentException if the reservation size is negative, or exceeds the resource capacity
+   * @throws UnsupportedOperationException if this resource does not support it
+   */
+  default CompletableFuture<Void> reserveAsync(long size) throws IllegalArgumentException {
+    throw new UnsupportedOperationException();
+  }
+
   /**
    * Releases the given amount of resource back to this pool.
    *
@@ -56,7 +101,110 @@ public interface OffHeapResource {
   long available();
 
   /**
-   * @return the resource initial capacity
+   * @return the resource current capacity
    */
   long capacity();
+
+  /**
+   * Changes the capacity of this resource.
+   * <p>
+   * Growing the resource always succeeds, and serves the reservations waiting for capacity. Shrinking it only
+   * succeeds if the size currently reserved fits in the new capacity, unless {@code drain} is set: the capacity is
+   * then lowered right away, and no reservation succeeds until enough is released for the reserved size to fall
+   * below it. Waiting reservations that exceed the new capacity fail.
+   * <p>
+   * For a pool carved out of a resource, the capacity is the pool maximum, which cannot be lowered below the pool
+   * minimum.
+   *
+   * @param size the new capacity
+   * @param drain whether to shrink below the size currently reserved, draining the resource to the new capacity
+   * @return {@code true} if the capacity was changed
+   * @throws IllegalArgumentException if the size is negative, or below the minimum of a pool
+   * @throws UnsupportedOperationException if this resource does not support it
+   */
+  default boolean setCapacity(long size, boolean drain) throws IllegalArgumentException {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Returns the allocator of direct memory pages charged against this resource, shared by all its consumers.
+   *
+   * @return the page allocator of this resource
+   * @throws UnsupportedOperationException if this resource does not support it
+   */
+  default PageAllocator getPageAllocator() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Creates a pool carved out of this resource for the named consumer.
+   * <p>
+   * The pool is guaranteed its {@code minimum}, which is reserved from this resource on creation and cannot be
+   * used by any other consumer. Beyond that, it borrows the capacity of this resource that is idle, in competition
+   * with this resource other consumers, up to its {@code maximum}. Borrowed capacity is returned to this resource
+   * as soon as it is released from the pool.
+   * <p>
+   * The pool is itself an {@code OffHeapResource}, whose {@link #capacity()} is its maximum.
+   *
+   * @param name the consumer name
+   * @param minimum the guaranteed pool size
+   * @param maximum the maximum pool size
+   * @return the created pool, or {@code null} if the minimum could not be reserved from this resource
+   * @throws IllegalArgumentException if the bounds are invalid, or a pool with that name already exists
+   * @throws UnsupportedOperationException if this resource does not support it
+   */
+  default OffHeapResource createSubPool(String name, long minimum, long maximum) throws IllegalArgumentException {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Returns the pool created for the named consumer.
+   *
+   * @param name the consumer name
+   * @return the pool, or {@code null} if none exists
+   */
+  default OffHeapResource getSubPool(String name) {
+    return null;
+  }
+
+  /**
+   * Destroys the pool created for the named consumer, and all the pools carved out of it.
+   * <p>
+   * Everything the pool holds is released back to this resource, and further reservations against it fail.
+   *
+   * @param name the consumer name
+   * @return {@code true} if a pool was destroyed
+   */
+  default boolean destroySubPool(String name) {
+    return false;
+  }
+
+  /**
+   * Returns the size currently reserved from each pool carved out of this resource.
+   *
+   * @return the reserved sizes, by consumer name
+   */
+  default Map<String, Long> getSubPoolUsage() {
+    return Collections.emptyMap();
+  }
+
+  /**
+   * Adds a listener notified as the occupancy of this resource crosses its configured thresholds.
+   *
+   * @param listener the listener to add
+   * @throws UnsupportedOperationException if this resource has no thresholds, as pools carved out of a resource
+   */
+  default void addOccupancyListener(OccupancyListener listener) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Removes a listener added with {@link #addOccupancyListener(OccupancyListener)}.
+   *
+   * @param listener the listener to remove
+   * @throws UnsupportedOperationException if this resource has no thresholds, as pools carved out of a resource
+   */
+  default void removeOccupancyListener(OccupancyListener listener) {
+    throw new UnsupportedOperationException();
+  }
 }
@@ -15,15 +15,27 @@
  */
 package org.terracotta.offheapresource;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 /**
  * An implementation of {@link OffHeapResource}.
+ * <p>
+ * The remaining capacity is a single {@link ReservationCounter}, which goes negative when the resource is drained
+ * below the size reserved from it.
  */
 class OffHeapResourceImpl implements OffHeapResource {
 
-  private final AtomicLong remaining;
-  private final long capacity;
+  private final ReservationCounter counter;
+  private final PooledPageAllocator pageAllocator;
+  private final SubPools subPools;
+  private final ReservationQueue reservations;
+  private final ReservationStatistics statistics;
+  private final OccupancyThresholds thresholds;
+  private final LongSupplier reservedSize = () -> capacity() - available();
 
   /**
    * Creates a resource of the given initial size.
@@ -32,11 +44,39 @@ class OffHeapResourceImpl implements OffHeapResource {
    * @throws IllegalArgumentException if the size is negative
    */
   OffHeapResourceImpl(long size) throws IllegalArgumentException {
+    this(size, ByteBuffer::allocateDirect);
+  }
+
+  /**
+   * Creates a resource of the given initial size, whose pages are created by the given page source.
+   *
+   * @param size size of the resource
+   * @param pageSource the source of the pages allocated from this resource
+   * @throws IllegalArgumentException if the size is negative
+   */
+  OffHeapResourceImpl(long size, PageSource pageSource) throws IllegalArgumentException {
+    this(size, pageSource, new int[0]);
+  }
+
+  /**
+   * Creates a resource of the given initial size, whose pages are created by the given page source, and whose
+   * occupancy is checked against the given thresholds.
+   *
+   * @param size size of the resource
+   * @param pageSource the source of the pages allocated from this resource
+   * @param thresholds the occupancy thresholds, as percentages of the size
+   * @throws IllegalArgumentException if the size is negative, or a threshold is not between 1 and 100
+   */
+  OffHeapResourceImpl(long size, PageSource pageSource, int... thresholds) throws IllegalArgumentException {
     if (size < 0) {
       throw new IllegalArgumentException("Resource size cannot be negative");
     } else {
-      this.capacity = size;
-      this.remaining = new AtomicLong(size);
+      this.counter = new ReservationCounter(size);
+      this.pageAllocator = new PooledPageAllocator(this, pageSource);
+      this.subPools = new SubPools(this, pageSource);
+      this.reservations = new ReservationQueue(this);
+      this.statistics = new ReservationStatistics(this);
+      this.thresholds = new OccupancyThresholds(size, thresholds);
     }
   }
 
@@ -48,16 +88,25 @@ class OffHeapResourceImpl implements OffHeapResource {
   public boolean reserve(long size) throws IllegalArgumentException {
     if (size < 0) {
       throw new IllegalArgumentException("Reservation size cannot be negative");
+    } else if (tryReserve(size) || (pageAllocator.trim(size - available()) && tryReserve(size))) {
+      return true;
     } else {
-      for (long current = remaining.get(); current >= size; current = remaining.get()) {
-        if (remaining.compareAndSet(current, current - size)) {
-          return true;
-        }
-      }
+      statistics.reservationFailed();
       return false;
     }
   }
 
+  private boolean tryReserve(long size) {
+    long reserved = counter.reserve(size);
+    if (reserved < 0) {
+      return false;
+    } else {
+      statistics.reserved(reserved);
+      thresholds.reserved(reserved, reservedSize);
+      return true;
+    }
+  }
+
   /**
    * {@inheritDoc}
    * @throws IllegalArgumentException {@inheritDoc}
@@ -67,20 +116,109 @@ class OffHeapResourceImpl implements OffHeapResource {
     if (size < 0) {
       throw new IllegalArgumentException("Released size cannot be negative");
     } else {
-      remaining.addAndGet(size);
+      counter.release(size);
+      statistics.released();
+      thresholds.released(counter.capacity() - counter.available(), reservedSize);
+      reservations.signal();
+      subPools.signal();
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   * @throws InterruptedException {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(long size, long timeout, TimeUnit unit) throws IllegalArgumentException, InterruptedException {
+    return reservations.reserve(size, timeout, unit);
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public CompletableFuture<Void> reserveAsync(long size) throws IllegalArgumentException {
+    return reservations.reserveAsync(size);
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public long available() {
-    return remaining.get();
+    return counter.available();
+  }
+
+  @Override
+  public PageAllocator getPageAllocator() {
+    return pageAllocator;
   }
 
   @Override
   public long capacity() {
-    return capacity;
+    return counter.capacity();
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public synchronized boolean setCapacity(long size, boolean drain) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Resource size cannot be negative");
+    }
+    boolean growing = size > counter.capacity();
+    if (!counter.setCapacity(size, drain)
+        && !(pageAllocator.trim(counter.capacity() - size - counter.available()) && counter.setCapacity(size, false))) {
+      return false;
+    }
+    thresholds.resized(size, reservedSize);
+    if (growing) {
+      reservations.signal();
+      subPools.signal();
+    } else {
+      reservations.shrunk();
+    }
+    return true;
+  }
+
+  /**
+   * @return {@code true} if the size reserved from this resource exceeds its capacity, as it is being drained
+   */
+  boolean isDraining() {
+    return counter.isDraining();
+  }
+
+  @Override
+  public OffHeapResource createSubPool(String name, long minimum, long maximum) throws IllegalArgumentException {
+    return subPools.create(name, minimum, maximum);
+  }
+
+  @Override
+  public OffHeapResource getSubPool(String name) {
+    return subPools.get(name);
+  }
+
+  @Override
+  public boolean destroySubPool(String name) {
+    return subPools.destroy(name);
+  }
+
+  @Override
+  public Map<String, Long> getSubPoolUsage() {
+    return subPools.usage();
+  }
+
+  @Override
+  public void addOccupancyListener(OccupancyListener listener) {
+    thresholds.addListener(listener);
+  }
+
+  @Override
+  public void removeOccupancyListener(OccupancyListener listener) {
+    thresholds.removeListener(listener);
   }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import com.tc.classloader.CommonComponent;
+
+/**
+ * The outcomes of the operations observed on an {@link OffHeapResource}.
+ */
+@CommonComponent
+public interface OffHeapResourceOperationOutcomes {
+
+  /**
+   * The outcomes of a reservation.
+   */
+  enum ReserveOutcome implements OffHeapResourceOperationOutcomes {
+    SUCCESS,
+    FAILURE
+  }
+
+  /**
+   * The outcomes of a release.
+   */
+  enum ReleaseOutcome implements OffHeapResourceOperationOutcomes {
+    SUCCESS
+  }
+}
@@ -19,10 +19,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.offheapresource.config.MemoryUnit;
 import org.terracotta.offheapresource.config.OffheapResourcesType;
+import org.terracotta.offheapresource.config.ReservationMode;
 import org.terracotta.offheapresource.config.ResourceType;
 import org.terracotta.statistics.StatisticsManager;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,6 +36,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A provider of {@link OffHeapResource} instances.
@@ -42,6 +49,7 @@ import java.util.concurrent.Callable;
 public class OffHeapResourcesProvider implements OffHeapResources {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapResourcesProvider.class);
+  private static final int PRETOUCH_PAGE_SIZE = 1024 * 1024;
           
   private final Map<OffHeapResourceIdentifier, OffHeapResource> resources = new HashMap<>();
 
@@ -49,11 +57,25 @@ public class OffHeapResourcesProvider implements OffHeapResources {
     if (resources.isEmpty()) {
       long totalSize = 0;
       for (ResourceType r : configuration.getResource()) {
+        if (r.isPretouch() && r.getDirectory() != null) {
+          // Pre-touching would write a quarter of a resource meant to exceed the physical memory to disk at startup
+          throw new IllegalArgumentException("Offheap resource " + r.getName() + " is memory-mapped, and cannot be pre-touched");
+        }
         long size = longValueExact(convert(r.getValue(), r.getUnit()));
-        totalSize += size;
-        OffHeapResourceImpl offHeapResource = new OffHeapResourceImpl(size);
+        PageSource pageSource;
+        if (r.getDirectory() == null) {
+          totalSize += size;
+          pageSource = ByteBuffer::allocateDirect;
+        } else {
+          pageSource = new MappedPageSource(mappedDirectory(r));
+        }
+        int[] thresholds = r.getThresholds().stream().mapToInt(Integer::intValue).toArray();
+        OffHeapResource offHeapResource = r.getReservation() == ReservationMode.STRIPED ? new StripedOffHeapResource(size, pageSource, thresholds) : new OffHeapResourceImpl(size, pageSource, thresholds);
         OffHeapResourceIdentifier identifier = OffHeapResourceIdentifier.identifier(r.getName());
         resources.put(identifier, offHeapResource);
+        if (r.isPretouch()) {
+          pretouch(identifier, offHeapResource);
+        }
 
         Map<String, Object> properties = new HashMap<>();
         properties.put("discriminator", "OffHeapResource");
@@ -83,6 +105,22 @@ public class OffHeapResourcesProvider implements OffHeapResources {
     return resources.get(identifier);
   }
 
+  private static void pretouch(OffHeapResourceIdentifier identifier, OffHeapResource resource) {
+    long start = System.nanoTime();
+    long pretouched = resource.getPageAllocator().pretouch(PRETOUCH_PAGE_SIZE);
+    LOGGER.info("Pre-touched {} bytes of offheap resource {} in {} ms", pretouched, identifier.getName(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  private static Path mappedDirectory(ResourceType resource) {
+    Path directory = Paths.get(resource.getDirectory());
+    try {
+      return Files.createDirectories(directory);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Cannot use " + directory + " to back offheap resource " + resource.getName(), e);
+    }
+  }
+
    static BigInteger convert(BigInteger value, MemoryUnit unit) {
     switch (unit) {
       case B: return value.shiftLeft(0);
@@ -0,0 +1,95 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import com.tc.classloader.CommonComponent;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates direct memory in pages whose size is a power of two, charging them against an {@link OffHeapResource}.
+ * <p>
+ * Freed pages are kept for reuse by later allocations of the same size, and are still charged against the
+ * resource while they are. Pooled pages are given back to the resource when it runs short.
+ */
+@CommonComponent
+public interface PageAllocator {
+
+  /**
+   * The smallest page size.
+   */
+  int MINIMUM_PAGE_SIZE = 4 * 1024;
+
+  /**
+   * The largest page size.
+   */
+  int MAXIMUM_PAGE_SIZE = 1 << 30;
+
+  /**
+   * Allocates a page of at least the given size.
+   * <p>
+   * The page capacity is {@code size} rounded up to a power of two, and at least {@link #MINIMUM_PAGE_SIZE}. Its
+   * limit is set to {@code size}. The pages of resources backed by files are {@link java.nio.MappedByteBuffer}s.
+   *
+   * @param size the requested size
+   * @return a direct buffer, or {@code null} if the resource cannot accommodate the page
+   * @throws IllegalArgumentException if the size is negative or above {@link #MAXIMUM_PAGE_SIZE}
+   * @throws java.io.UncheckedIOException if the resource is backed by files, and the page could not be mapped
+   */
+  ByteBuffer allocate(int size) throws IllegalArgumentException;
+
+  /**
+   * Frees a page returned by {@link #allocate(int)}, which must no longer be used by the caller.
+   *
+   * @param page the page to free
+   * @throws IllegalArgumentException if the buffer is not a page currently allocated by this allocator, such as a page
+   *         that was already freed
+   */
+  void free(ByteBuffer page) throws IllegalArgumentException;
+
+  /**
+   * @return the total size of the pages currently allocated
+   */
+  long allocatedBytes();
+
+  /**
+   * @return the total size of the freed pages kept for reuse
+   */
+  long pooledBytes();
+
+  /**
+   * Returns the fraction of the memory charged by this allocator that is not allocated, being kept in free pages.
+   *
+   * @return a fragmentation ratio, between {@code 0} and {@code 1}
+   */
+  double fragmentation();
+
+  /**
+   * Fills the free pages kept for reuse with pages of the given size, so that later allocations of that size do not
+   * pay for creating them, nor for the page faults on their first access.
+   * <p>
+   * Pages are created and written to in parallel, until the free pages reach their limit or the resource cannot
+   * accommodate more. This is meant to be called once, before the resource is used. The created pages stay reserved
+   * against the resource, which gives them back as soon as a reservation needs their capacity, freeing their memory
+   * first where the JVM allows it. Only the users of this allocator benefit from the created pages: memory reserved
+   * directly against the resource is allocated by its consumers, in place of the pages given back.
+   *
+   * @param size the size of the pages to create
+   * @return the total size of the pages created
+   * @throws IllegalArgumentException if the size is negative or above {@link #MAXIMUM_PAGE_SIZE}
+   */
+  long pretouch(int size) throws IllegalArgumentException;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+
+/**
+ * Creates the pages of a resource, and frees them once they are given back to the resource.
+ */
+@FunctionalInterface
+interface PageSource extends IntFunction<ByteBuffer> {
+
+  /**
+   * Frees a page created by this source, which must not be accessed afterwards.
+   * <p>
+   * The default frees the memory of the buffer, see {@link DirectBuffers#free(ByteBuffer)}.
+   *
+   * @param page the page to free
+   */
+  default void free(ByteBuffer page) {
+    DirectBuffers.free(page);
+  }
+}
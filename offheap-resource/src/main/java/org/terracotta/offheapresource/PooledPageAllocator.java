@@ -0,0 +1,205 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static java.lang.Integer.numberOfLeadingZeros;
+import static java.lang.Integer.numberOfTrailingZeros;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A {@link PageAllocator} recycling freed pages through a lock-free free list per page size.
+ * <p>
+ * New pages are created by a page source, which by default allocates direct buffers. The pages currently allocated
+ * are tracked by identity, so that freeing a buffer that is not one of them, or freeing a page twice, is rejected
+ * instead of giving back capacity that was never reserved or pooling the same page twice.
+ * <p>
+ * At most a quarter of the resource capacity is kept in free pages, beyond which freed pages are given back to the
+ * resource right away. Free pages stay reserved against the resource, so the resource {@link #trim(long) trims} them
+ * whenever a reservation would otherwise fail, and they never hold capacity another consumer needs. The memory of the
+ * pages given back is {@link PageSource#free(ByteBuffer) freed} before their capacity is released, so that the
+ * consumers reserving it next do not add their own memory to memory still waiting to be garbage collected.
+ */
+class PooledPageAllocator implements PageAllocator {
+
+  private static final int MINIMUM_SIZE_CLASS = numberOfTrailingZeros(MINIMUM_PAGE_SIZE);
+
+  private final OffHeapResource resource;
+  private final PageSource pageSource;
+  private final Queue<ByteBuffer>[] freePages;
+  private final Set<Page> allocatedPages = ConcurrentHashMap.newKeySet();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private final AtomicLong pooledBytes = new AtomicLong();
+
+  PooledPageAllocator(OffHeapResource resource) {
+    this(resource, ByteBuffer::allocateDirect);
+  }
+
+  @SuppressWarnings("unchecked")
+  PooledPageAllocator(OffHeapResource resource, PageSource pageSource) {
+    this.resource = resource;
+    this.pageSource = pageSource;
+    this.freePages = new Queue[numberOfTrailingZeros(MAXIMUM_PAGE_SIZE) - MINIMUM_SIZE_CLASS + 1];
+    for (int i = 0; i < freePages.length; i++) {
+      freePages[i] = new ConcurrentLinkedQueue<>();
+    }
+  }
+
+  @Override
+  public ByteBuffer allocate(int size) throws IllegalArgumentException {
+    if (size < 0 || size > MAXIMUM_PAGE_SIZE) {
+      throw new IllegalArgumentException("Page size must be between 0 and " + MAXIMUM_PAGE_SIZE + ": " + size);
+    }
+    int sizeClass = sizeClass(size);
+    int pageSize = 1 << (sizeClass + MINIMUM_SIZE_CLASS);
+    ByteBuffer page = freePages[sizeClass].poll();
+    if (page != null) {
+      pooledBytes.addAndGet(-pageSize);
+      page.clear();
+    } else if (resource.reserve(pageSize) || (trim(pageSize) && resource.reserve(pageSize))) {
+      try {
+        page = pageSource.apply(pageSize);
+      } catch (RuntimeException e) {
+        resource.release(pageSize);
+        throw e;
+      }
+    } else {
+      return null;
+    }
+    allocatedPages.add(new Page(page));
+    allocatedBytes.addAndGet(pageSize);
+    page.limit(size);
+    return page;
+  }
+
+  @Override
+  public void free(ByteBuffer page) throws IllegalArgumentException {
+    if (!allocatedPages.remove(new Page(page))) {
+      throw new IllegalArgumentException("Not an allocated page of this allocator: " + page);
+    }
+    int pageSize = page.capacity();
+    allocatedBytes.addAndGet(-pageSize);
+    if (pooledBytes.addAndGet(pageSize) <= resource.capacity() / 4) {
+      freePages[sizeClass(pageSize)].offer(page);
+    } else {
+      pooledBytes.addAndGet(-pageSize);
+      pageSource.free(page);
+      resource.release(pageSize);
+    }
+  }
+
+  @Override
+  public long allocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  @Override
+  public long pooledBytes() {
+    return pooledBytes.get();
+  }
+
+  @Override
+  public double fragmentation() {
+    long pooled = pooledBytes.get();
+    long charged = pooled + allocatedBytes.get();
+    return charged == 0 ? 0.0 : (double) pooled / charged;
+  }
+
+  @Override
+  public long pretouch(int size) throws IllegalArgumentException {
+    if (size < 0 || size > MAXIMUM_PAGE_SIZE) {
+      throw new IllegalArgumentException("Page size must be between 0 and " + MAXIMUM_PAGE_SIZE + ": " + size);
+    }
+    int pageSize = 1 << (sizeClass(size) + MINIMUM_SIZE_CLASS);
+    long count = Math.max(0, resource.capacity() / 4 - pooledBytes.get()) / pageSize;
+    List<ByteBuffer> pages = LongStream.range(0, count).parallel()
+      .mapToObj(i -> allocate(pageSize))
+      .filter(Objects::nonNull)
+      .map(PooledPageAllocator::touch)
+      .collect(toList());
+    pages.forEach(this::free);
+    return (long) pages.size() * pageSize;
+  }
+
+  /**
+   * Writes to every operating system page of the given page, so that they are all faulted in.
+   */
+  private static ByteBuffer touch(ByteBuffer page) {
+    for (int i = 0; i < page.capacity(); i += MINIMUM_PAGE_SIZE) {
+      page.put(i, (byte) 0);
+    }
+    return page;
+  }
+
+  /**
+   * Gives free pages back to the resource, largest first, until at least {@code needed} bytes were given back.
+   * <p>
+   * Called by the resource when a reservation fails for lack of capacity, and when its capacity is lowered.
+   *
+   * @return {@code true} if any page was given back
+   */
+  boolean trim(long needed) {
+    long trimmed = 0;
+    for (int i = freePages.length - 1; i >= 0 && trimmed < needed; i--) {
+      for (ByteBuffer page; trimmed < needed && (page = freePages[i].poll()) != null; ) {
+        int pageSize = page.capacity();
+        pooledBytes.addAndGet(-pageSize);
+        pageSource.free(page);
+        resource.release(pageSize);
+        trimmed += pageSize;
+      }
+    }
+    return trimmed > 0;
+  }
+
+  /**
+   * Identifies a page by reference, as buffers compare equal by content.
+   */
+  private static final class Page {
+    private final ByteBuffer buffer;
+
+    Page(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Page && ((Page) obj).buffer == buffer;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(buffer);
+    }
+  }
+
+  private static int sizeClass(int size) {
+    if (size <= MINIMUM_PAGE_SIZE) {
+      return 0;
+    } else {
+      return 32 - numberOfLeadingZeros(size - 1) - MINIMUM_SIZE_CLASS;
+    }
+  }
+}
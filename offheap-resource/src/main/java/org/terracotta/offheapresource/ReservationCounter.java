@@ -0,0 +1,89 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The capacity of a resource and the part of it that remains unreserved, updated by compare-and-set.
+ * <p>
+ * The remaining capacity goes negative when the capacity is drained below the size reserved. This is only the
+ * accounting shared by the {@link OffHeapResource} implementations, which add statistics, thresholds and waiting
+ * reservations on top of it.
+ */
+class ReservationCounter {
+
+  private final AtomicLong remaining;
+  private volatile long capacity;
+
+  ReservationCounter(long capacity) {
+    this.capacity = capacity;
+    this.remaining = new AtomicLong(capacity);
+  }
+
+  /**
+   * @param size the size to reserve
+   * @return the reserved size once the reservation was made, or {@code -1} if the remaining capacity is too small
+   */
+  long reserve(long size) {
+    for (long current = remaining.get(); current >= size; current = remaining.get()) {
+      if (remaining.compareAndSet(current, current - size)) {
+        return capacity - current + size;
+      }
+    }
+    return -1;
+  }
+
+  void release(long size) {
+    remaining.addAndGet(size);
+  }
+
+  /**
+   * @return the remaining capacity, or {@code 0} while drained below the size reserved
+   */
+  long available() {
+    return Math.max(0, remaining.get());
+  }
+
+  long capacity() {
+    return capacity;
+  }
+
+  /**
+   * Changes the capacity, which must not be changed concurrently.
+   *
+   * @param size the new capacity
+   * @param drain whether to shrink below the size reserved, rather than fail
+   * @return {@code true} if the capacity was changed, {@code false} if shrinking would drop below the size reserved
+   */
+  boolean setCapacity(long size, boolean drain) {
+    long delta = size - capacity;
+    if (delta >= 0 || drain) {
+      remaining.addAndGet(delta);
+    } else if (reserve(-delta) < 0) {
+      return false;
+    }
+    capacity = size;
+    return true;
+  }
+
+  /**
+   * @return {@code true} if the size reserved exceeds the capacity, as it is being drained
+   */
+  boolean isDraining() {
+    return remaining.get() < 0;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The reservations waiting for capacity on an {@link OffHeapResource}, served in arrival order.
+ * <p>
+ * The resource {@link #signal() signals} the queue whenever it frees capacity. The queue is then drained by a
+ * single thread at a time: the head waiter is served if its reservation succeeds, otherwise no later waiter is, so
+ * that a large reservation is not starved by smaller ones arriving after it. Signals received while draining,
+ * including those raised by the draining thread itself, cause the queue to be drained again.
+ */
+class ReservationQueue {
+
+  private final OffHeapResource resource;
+  private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger signals = new AtomicInteger();
+
+  ReservationQueue(OffHeapResource resource) {
+    this.resource = resource;
+  }
+
+  boolean reserve(long size, long timeout, TimeUnit unit) throws IllegalArgumentException, InterruptedException {
+    if (size > resource.capacity()) {
+      return resource.reserve(size);
+    }
+    CompletableFuture<Void> reservation = reserveAsync(size);
+    try {
+      reservation.get(timeout, unit);
+      return true;
+    } catch (TimeoutException | InterruptedException e) {
+      if (reservation.cancel(false)) {
+        waiters.removeIf(waiter -> waiter.reservation == reservation);
+        if (e instanceof InterruptedException) {
+          throw (InterruptedException) e;
+        } else {
+          return false;
+        }
+      } else {
+        // served concurrently
+        if (e instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        return !reservation.isCompletedExceptionally();
+      }
+    } catch (ExecutionException e) {
+      return false;
+    }
+  }
+
+  CompletableFuture<Void> reserveAsync(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Reservation size cannot be negative");
+    } else if (size > resource.capacity()) {
+      throw new IllegalArgumentException("Reservation size " + size + " exceeds the resource capacity " + resource.capacity());
+    } else if (waiters.isEmpty() && resource.reserve(size)) {
+      return CompletableFuture.completedFuture(null);
+    } else {
+      Waiter waiter = new Waiter(size);
+      waiters.add(waiter);
+      signal();
+      return waiter.reservation;
+    }
+  }
+
+  /**
+   * Serves the waiting reservations that the resource capacity now allows.
+   */
+  void signal() {
+    if (waiters.isEmpty() || signals.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      for (Waiter waiter; (waiter = waiters.peek()) != null; ) {
+        if (waiter.reservation.isDone()) {
+          waiters.poll();
+        } else if (resource.reserve(waiter.size)) {
+          waiters.poll();
+          if (!waiter.reservation.complete(null)) {
+            resource.release(waiter.size);
+          }
+        } else {
+          break;
+        }
+      }
+      missed = signals.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  /**
+   * Fails the waiting reservations that exceed the resource capacity, after it shrunk.
+   */
+  void shrunk() {
+    long capacity = resource.capacity();
+    waiters.removeIf(waiter -> waiter.size > capacity && waiter.reservation.completeExceptionally(
+      new IllegalArgumentException("Reservation size " + waiter.size + " exceeds the resource capacity " + capacity)));
+  }
+
+  /**
+   * Fails all the waiting reservations.
+   *
+   * @param cause the failure cause
+   */
+  void fail(Throwable cause) {
+    for (Waiter waiter; (waiter = waiters.poll()) != null; ) {
+      waiter.reservation.completeExceptionally(cause);
+    }
+  }
+
+  private static final class Waiter {
+
+    private final long size;
+    private final CompletableFuture<Void> reservation = new CompletableFuture<>();
+
+    Waiter(long size) {
+      this.size = size;
+    }
+  }
+}
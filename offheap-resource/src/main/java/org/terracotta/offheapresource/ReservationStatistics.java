@@ -0,0 +1,84 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import org.terracotta.offheapresource.OffHeapResourceOperationOutcomes.ReleaseOutcome;
+import org.terracotta.offheapresource.OffHeapResourceOperationOutcomes.ReserveOutcome;
+import org.terracotta.statistics.StatisticsManager;
+import org.terracotta.statistics.observer.OperationObserver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.terracotta.statistics.StatisticBuilder.operation;
+
+/**
+ * The statistics of the reservations made against an {@link OffHeapResource}: reservation and release outcomes,
+ * observed as {@code reserve} and {@code release} operations, and the {@code highWaterMark} of the reserved size.
+ * <p>
+ * The high-water mark is only written when exceeded, so that reservations below it do not contend on it.
+ */
+class ReservationStatistics {
+
+  private static final String TAG = "OffHeapResource";
+
+  private final OperationObserver<ReserveOutcome> reserveObserver;
+  private final OperationObserver<ReleaseOutcome> releaseObserver;
+  private final AtomicLong highWaterMark = new AtomicLong();
+
+  ReservationStatistics(OffHeapResource resource) {
+    this.reserveObserver = operation(ReserveOutcome.class).named("reserve").of(resource).tag(TAG).build();
+    this.releaseObserver = operation(ReleaseOutcome.class).named("release").of(resource).tag(TAG).build();
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("discriminator", TAG);
+    StatisticsManager.createPassThroughStatistic(
+        resource,
+        "highWaterMark",
+        new HashSet<>(Arrays.asList(TAG, "tier")),
+        properties,
+        (Callable<Number>) highWaterMark::get);
+  }
+
+  /**
+   * Records a successful reservation.
+   *
+   * @param reserved the size reserved from the resource once the reservation was made
+   */
+  void reserved(long reserved) {
+    reserveObserver.begin();
+    reserveObserver.end(ReserveOutcome.SUCCESS);
+    for (long current = highWaterMark.get(); reserved > current; current = highWaterMark.get()) {
+      if (highWaterMark.compareAndSet(current, reserved)) {
+        break;
+      }
+    }
+  }
+
+  void reservationFailed() {
+    reserveObserver.begin();
+    reserveObserver.end(ReserveOutcome.FAILURE);
+  }
+
+  void released() {
+    releaseObserver.begin();
+    releaseObserver.end(ReleaseOutcome.SUCCESS);
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@link OffHeapResource} that lets concurrent threads reserve without contending on a single counter.
+ * <p>
+ * Each thread is assigned a stripe, which holds capacity reserved in chunks from a shared
+ * {@link ReservationCounter}. Reservations up to the chunk size are satisfied from the stripe of the calling
+ * thread, which is refilled from the shared counter when exhausted, while larger ones go to the shared counter
+ * directly. Released capacity returns to the stripe of the releasing thread, which gives back to the shared
+ * counter whatever it holds beyond two chunks.
+ * <p>
+ * When the shared counter cannot satisfy a reservation, the capacity held by all the stripes is returned to it
+ * before failing, so a reservation does not fail while unreserved capacity remains idle in stripes.
+ * {@link #available()} accounts for the capacity held by the stripes, and may only be off, transiently, by the
+ * capacity moving between a stripe and the shared counter at the time of the call.
+ * <p>
+ * Shrinking the resource first returns the capacity held by the stripes to the shared counter. While the resource
+ * is drained below the size reserved from it, released capacity goes to the shared counter directly.
+ */
+class StripedOffHeapResource implements OffHeapResource {
+
+  private static final long MINIMUM_CHUNK_SIZE = 4 * 1024;
+  private static final long MAXIMUM_CHUNK_SIZE = 1024 * 1024;
+
+  private final ReservationCounter shared;
+  private final Stripe[] stripes;
+  private final long chunkSize;
+  private final PooledPageAllocator pageAllocator;
+  private final SubPools subPools;
+  private final ReservationQueue reservations;
+  private final ReservationStatistics statistics;
+  private final OccupancyThresholds thresholds;
+  private final LongSupplier reservedSize = () -> capacity() - available();
+  private volatile boolean draining;
+
+  /**
+   * Creates a resource of the given initial size, striped according to the number of processors.
+   *
+   * @param size size of the resource
+   * @throws IllegalArgumentException if the size is negative
+   */
+  StripedOffHeapResource(long size) throws IllegalArgumentException {
+    this(size, ByteBuffer::allocateDirect);
+  }
+
+  /**
+   * Creates a resource of the given initial size, striped according to the number of processors, whose pages are
+   * created by the given page source.
+   *
+   * @param size size of the resource
+   * @param pageSource the source of the pages allocated from this resource
+   * @throws IllegalArgumentException if the size is negative
+   */
+  StripedOffHeapResource(long size, PageSource pageSource) throws IllegalArgumentException {
+    this(size, pageSource, new int[0]);
+  }
+
+  /**
+   * Creates a resource of the given initial size, striped according to the number of processors, whose pages are
+   * created by the given page source, and whose occupancy is checked against the given thresholds.
+   *
+   * @param size size of the resource
+   * @param pageSource the source of the pages allocated from this resource
+   * @param thresholds the occupancy thresholds, as percentages of the size
+   * @throws IllegalArgumentException if the size is negative, or a threshold is not between 1 and 100
+   */
+  StripedOffHeapResource(long size, PageSource pageSource, int... thresholds) throws IllegalArgumentException {
+    this(size, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2, pageSource, thresholds);
+  }
+
+  StripedOffHeapResource(long size, int stripeCount) throws IllegalArgumentException {
+    this(size, stripeCount, ByteBuffer::allocateDirect);
+  }
+
+  StripedOffHeapResource(long size, int stripeCount, PageSource pageSource, int... thresholds) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Resource size cannot be negative");
+    } else if (Integer.bitCount(stripeCount) != 1) {
+      throw new IllegalArgumentException("Stripe count must be a power of two: " + stripeCount);
+    }
+    this.shared = new ReservationCounter(size);
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+    // At most 1/32nd of the resource idles in stripes
+    this.chunkSize = Math.max(MINIMUM_CHUNK_SIZE, Math.min(MAXIMUM_CHUNK_SIZE, size / (stripeCount * 64)));
+    this.pageAllocator = new PooledPageAllocator(this, pageSource);
+    this.subPools = new SubPools(this, pageSource);
+    this.reservations = new ReservationQueue(this);
+    this.statistics = new ReservationStatistics(this);
+    this.thresholds = new OccupancyThresholds(size, thresholds);
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Reservation size cannot be negative");
+    } else if (tryReserve(size) || (trim(size) && tryReserve(size))) {
+      // counts the capacity idling in stripes as reserved, which keeps this cheap, and is within the threshold
+      // hysteresis as at most 1/32nd of the resource idles in stripes
+      long reserved = shared.capacity() - shared.available();
+      statistics.reserved(reserved);
+      thresholds.reserved(reserved, reservedSize);
+      return true;
+    } else {
+      statistics.reservationFailed();
+      return false;
+    }
+  }
+
+  private boolean tryReserve(long size) {
+    if (size > chunkSize) {
+      return reserveShared(size);
+    } else {
+      Stripe stripe = stripe();
+      for (long current = stripe.get(); current >= size; current = stripe.get()) {
+        if (stripe.compareAndSet(current, current - size)) {
+          return true;
+        }
+      }
+      if (shared.reserve(chunkSize) >= 0) {
+        stripe.addAndGet(chunkSize - size);
+        return true;
+      } else {
+        return reserveShared(size);
+      }
+    }
+  }
+
+  private boolean reserveShared(long size) {
+    return shared.reserve(size) >= 0 || (drainStripes() && shared.reserve(size) >= 0);
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public void release(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Released size cannot be negative");
+    } else {
+      statistics.released();
+      if (draining) {
+        shared.release(size);
+        draining = shared.isDraining();
+      } else {
+        Stripe stripe = stripe();
+        long current = stripe.addAndGet(size);
+        while (current > 2 * chunkSize) {
+          if (stripe.compareAndSet(current, chunkSize)) {
+            shared.release(current - chunkSize);
+            break;
+          }
+          current = stripe.get();
+        }
+      }
+      // as for reservations, only the shared counter and the stripe of this thread are read, which counts the
+      // capacity idling in other stripes as reserved: the exact reserved size is only summed once a crossing is seen
+      thresholds.released(shared.capacity() - shared.available() - stripe().get(), reservedSize);
+      reservations.signal();
+      subPools.signal();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   * @throws InterruptedException {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(long size, long timeout, TimeUnit unit) throws IllegalArgumentException, InterruptedException {
+    return reservations.reserve(size, timeout, unit);
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public CompletableFuture<Void> reserveAsync(long size) throws IllegalArgumentException {
+    return reservations.reserveAsync(size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long available() {
+    long available = shared.available();
+    for (Stripe stripe : stripes) {
+      available += stripe.get();
+    }
+    return available;
+  }
+
+  @Override
+  public PageAllocator getPageAllocator() {
+    return pageAllocator;
+  }
+
+  @Override
+  public long capacity() {
+    return shared.capacity();
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public synchronized boolean setCapacity(long size, boolean drain) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Resource size cannot be negative");
+    }
+    boolean shrinking = size < shared.capacity();
+    if (shrinking) {
+      drainStripes();
+    }
+    if (shared.setCapacity(size, drain) || (trim(shared.capacity() - size - shared.available()) && shared.setCapacity(size, false))) {
+      draining = shared.isDraining();
+      if (shrinking) {
+        drainStripes();
+        reservations.shrunk();
+      } else {
+        reservations.signal();
+        subPools.signal();
+      }
+      thresholds.resized(size, reservedSize);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  @Override
+  public OffHeapResource createSubPool(String name, long minimum, long maximum) throws IllegalArgumentException {
+    return subPools.create(name, minimum, maximum);
+  }
+
+  @Override
+  public OffHeapResource getSubPool(String name) {
+    return subPools.get(name);
+  }
+
+  @Override
+  public boolean destroySubPool(String name) {
+    return subPools.destroy(name);
+  }
+
+  @Override
+  public Map<String, Long> getSubPoolUsage() {
+    return subPools.usage();
+  }
+
+  @Override
+  public void addOccupancyListener(OccupancyListener listener) {
+    thresholds.addListener(listener);
+  }
+
+  @Override
+  public void removeOccupancyListener(OccupancyListener listener) {
+    thresholds.removeListener(listener);
+  }
+
+  /**
+   * Returns the capacity held by all stripes to the shared counter.
+   *
+   * @return {@code true} if any capacity was returned
+   */
+  private boolean drainStripes() {
+    long drained = 0;
+    for (Stripe stripe : stripes) {
+      drained += stripe.getAndSet(0);
+    }
+    if (drained > 0) {
+      shared.release(drained);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Gives free pages back to this resource, and returns the capacity they held to the shared counter.
+   *
+   * @return {@code true} if any page was given back
+   */
+  private boolean trim(long size) {
+    if (pageAllocator.trim(size)) {
+      drainStripes();
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  private Stripe stripe() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+  }
+
+  /**
+   * The capacity held by a stripe, padded so that stripes do not share cache lines.
+   */
+  @SuppressWarnings("unused")
+  private static final class Stripe extends AtomicLong {
+    private static final long serialVersionUID = 1L;
+
+    private long p1, p2, p3, p4, p5, p6, p7;
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link OffHeapResource} carved out of a parent resource, with a guaranteed minimum and a maximum size.
+ * <p>
+ * The guaranteed minimum is reserved from the parent when the pool is created, so that it cannot be taken by any
+ * other consumer of the parent. Reservations beyond it borrow the idle capacity of the parent, shared with the
+ * sibling pools, and are given back to the parent as soon as they are released.
+ * <p>
+ * Reservations within the guaranteed minimum only update the pool usage, those beyond it reserve the borrowed part
+ * from the parent before publishing the new usage, and give it back if that fails.
+ * <p>
+ * The capacity of the pool is its maximum, which can be changed. A reservation racing with the maximum being
+ * lowered may still be granted against the former maximum. Pools have no occupancy thresholds, and reject occupancy
+ * listeners.
+ */
+class SubPool implements OffHeapResource {
+
+  private static final long DESTROYED = -1;
+
+  private final OffHeapResource parent;
+  private final long minimum;
+  private volatile long maximum;
+  private final AtomicLong used = new AtomicLong();
+  private final SubPools subPools;
+  private final ReservationQueue reservations;
+  private final ReservationStatistics statistics;
+  private final PooledPageAllocator pageAllocator;
+
+  SubPool(OffHeapResource parent, long minimum, long maximum, PageSource pageSource) {
+    this.parent = parent;
+    this.minimum = minimum;
+    this.maximum = maximum;
+    this.subPools = new SubPools(this, pageSource);
+    this.reservations = new ReservationQueue(this);
+    this.statistics = new ReservationStatistics(this);
+    this.pageAllocator = new PooledPageAllocator(this, pageSource);
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Reservation size cannot be negative");
+    } else if (tryReserve(size) || (pageAllocator.trim(size) && tryReserve(size))) {
+      return true;
+    } else {
+      statistics.reservationFailed();
+      return false;
+    }
+  }
+
+  private boolean tryReserve(long size) {
+    while (true) {
+      long current = used.get();
+      if (current == DESTROYED || current + size > maximum) {
+        return false;
+      }
+      long borrowed = borrowed(current + size) - borrowed(current);
+      if (borrowed > 0 && !parent.reserve(borrowed)) {
+        return false;
+      }
+      if (used.compareAndSet(current, current + size)) {
+        statistics.reserved(current + size);
+        return true;
+      } else if (borrowed > 0) {
+        parent.release(borrowed);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public void release(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Released size cannot be negative");
+    }
+    while (true) {
+      long current = used.get();
+      if (current == DESTROYED) {
+        return;
+      }
+      long next = current - size;
+      if (next < 0) {
+        throw new IllegalArgumentException("Released size exceeds the pool usage: " + size + " > " + current);
+      }
+      if (used.compareAndSet(current, next)) {
+        statistics.released();
+        long returned = borrowed(current) - borrowed(next);
+        if (returned > 0) {
+          parent.release(returned);
+        }
+        signal();
+        return;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   * @throws InterruptedException {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(long size, long timeout, TimeUnit unit) throws IllegalArgumentException, InterruptedException {
+    return reservations.reserve(size, timeout, unit);
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public CompletableFuture<Void> reserveAsync(long size) throws IllegalArgumentException {
+    if (used.get() == DESTROYED) {
+      CompletableFuture<Void> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new IllegalStateException("Pool destroyed"));
+      return failed;
+    }
+    return reservations.reserveAsync(size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long available() {
+    long current = used.get();
+    if (current == DESTROYED) {
+      return 0;
+    } else {
+      long guaranteed = Math.max(0, minimum - current);
+      return guaranteed + Math.max(0, Math.min(parent.available(), maximum - Math.max(current, minimum)));
+    }
+  }
+
+  @Override
+  public long capacity() {
+    return maximum;
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public synchronized boolean setCapacity(long size, boolean drain) throws IllegalArgumentException {
+    if (size < minimum) {
+      throw new IllegalArgumentException("Pool maximum " + size + " cannot be below its minimum " + minimum);
+    } else if (size < maximum && !drain && used.get() > size) {
+      return false;
+    } else {
+      boolean growing = size > maximum;
+      maximum = size;
+      if (growing) {
+        signal();
+      } else {
+        reservations.shrunk();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * @return the size currently reserved from this pool
+   */
+  long reserved() {
+    return Math.max(0, used.get());
+  }
+
+  @Override
+  public PageAllocator getPageAllocator() {
+    return pageAllocator;
+  }
+
+  @Override
+  public OffHeapResource createSubPool(String name, long minimum, long maximum) throws IllegalArgumentException {
+    return subPools.create(name, minimum, maximum);
+  }
+
+  @Override
+  public OffHeapResource getSubPool(String name) {
+    return subPools.get(name);
+  }
+
+  @Override
+  public boolean destroySubPool(String name) {
+    return subPools.destroy(name);
+  }
+
+  @Override
+  public Map<String, Long> getSubPoolUsage() {
+    return subPools.usage();
+  }
+
+  /**
+   * Serves the reservations waiting on this pool, and on the pools carved out of it.
+   */
+  void signal() {
+    reservations.signal();
+    subPools.signal();
+  }
+
+  /**
+   * Gives everything this pool holds back to its parent, after which all reservations against it fail.
+   */
+  void destroy() {
+    subPools.destroyAll();
+    long current = used.getAndSet(DESTROYED);
+    if (current != DESTROYED) {
+      reservations.fail(new IllegalStateException("Pool destroyed"));
+      parent.release(Math.max(current, minimum));
+    }
+  }
+
+  private long borrowed(long usage) {
+    return Math.max(0, usage - minimum);
+  }
+}
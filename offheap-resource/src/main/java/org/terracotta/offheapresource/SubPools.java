@@ -0,0 +1,93 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link SubPool}s carved out of an {@link OffHeapResource}, by consumer name.
+ */
+class SubPools {
+
+  private final OffHeapResource parent;
+  private final PageSource pageSource;
+  private final ConcurrentMap<String, SubPool> pools = new ConcurrentHashMap<>();
+
+  SubPools(OffHeapResource parent, PageSource pageSource) {
+    this.parent = parent;
+    this.pageSource = pageSource;
+  }
+
+  SubPool create(String name, long minimum, long maximum) throws IllegalArgumentException {
+    if (minimum < 0 || maximum < minimum) {
+      throw new IllegalArgumentException("Invalid pool bounds: minimum " + minimum + ", maximum " + maximum);
+    } else if (maximum > parent.capacity()) {
+      throw new IllegalArgumentException("Pool maximum " + maximum + " exceeds the resource capacity " + parent.capacity());
+    }
+    SubPool pool = new SubPool(parent, minimum, maximum, pageSource);
+    if (pools.putIfAbsent(name, pool) != null) {
+      throw new IllegalArgumentException("A pool named " + name + " already exists");
+    } else if (parent.reserve(minimum)) {
+      return pool;
+    } else {
+      pools.remove(name, pool);
+      return null;
+    }
+  }
+
+  SubPool get(String name) {
+    return pools.get(name);
+  }
+
+  boolean destroy(String name) {
+    SubPool pool = pools.remove(name);
+    if (pool == null) {
+      return false;
+    } else {
+      pool.destroy();
+      return true;
+    }
+  }
+
+  /**
+   * Serves the reservations waiting on the pools, as capacity was released to their parent.
+   */
+  void signal() {
+    if (!pools.isEmpty()) {
+      for (SubPool pool : pools.values()) {
+        pool.signal();
+      }
+    }
+  }
+
+  Map<String, Long> usage() {
+    Map<String, Long> usage = new HashMap<>();
+    for (Map.Entry<String, SubPool> pool : pools.entrySet()) {
+      usage.put(pool.getKey(), pool.getValue().reserved());
+    }
+    return Collections.unmodifiableMap(usage);
+  }
+
+  void destroyAll() {
+    for (String name : pools.keySet()) {
+      destroy(name);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedPageSourceTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPagesAreMappedWithoutLeavingFiles() throws Exception {
+    File directory = folder.newFolder();
+    MappedPageSource source = new MappedPageSource(directory.toPath());
+    ByteBuffer page = source.apply(64 * 1024);
+    assertThat(page.capacity(), is(64 * 1024));
+    page.putLong(32 * 1024, 42L);
+    assertThat(page.getLong(32 * 1024), is(42L));
+    assertThat(directory.list().length, is(0));
+  }
+
+  @Test
+  public void testPagesShareFewMappings() throws Exception {
+    // More pages than the default limit of 65530 mappings of a Linux process
+    int count = 65537;
+    MappedPageSource source = new MappedPageSource(folder.newFolder().toPath());
+    List<ByteBuffer> pages = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      pages.add(source.apply(4096));
+    }
+    assertThat(source.regionCount(), is((int) (((long) count * 4096 + MappedPageSource.REGION_SIZE - 1) / MappedPageSource.REGION_SIZE)));
+
+    ByteBuffer first = pages.get(0);
+    ByteBuffer last = pages.get(count - 1);
+    first.putLong(0, 1L);
+    last.putLong(0, 2L);
+    assertThat(first.getLong(0), is(1L));
+    assertThat(last.capacity(), is(4096));
+
+    pages.forEach(source::free);
+    assertThat(source.regionCount(), is(0));
+  }
+
+  @Test
+  public void testFreedPagesAreReused() throws Exception {
+    MappedPageSource source = new MappedPageSource(folder.newFolder().toPath());
+    ByteBuffer kept = source.apply(4096);
+    ByteBuffer page = source.apply(4096);
+    page.position(100);
+    source.free(page);
+    ByteBuffer reused = source.apply(4096);
+    assertThat(reused, sameInstance(page));
+    assertThat(reused.position(), is(0));
+    assertThat(reused, not(sameInstance(kept)));
+    assertThat(source.regionCount(), is(1));
+    try {
+      source.free(ByteBuffer.allocateDirect(4096));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testLargePagesGetTheirOwnRegion() throws Exception {
+    MappedPageSource source = new MappedPageSource(folder.newFolder().toPath());
+    ByteBuffer page = source.apply(2 * MappedPageSource.REGION_SIZE);
+    assertThat(page.capacity(), is(2 * MappedPageSource.REGION_SIZE));
+    source.apply(4096);
+    assertThat(source.regionCount(), is(2));
+    source.free(page);
+    assertThat(source.regionCount(), is(1));
+  }
+
+  @Test
+  public void testMissingDirectoryFails() throws Exception {
+    File directory = new File(folder.getRoot(), "missing");
+    try {
+      new MappedPageSource(directory.toPath()).apply(4096);
+      fail("Expected UncheckedIOException");
+    } catch (UncheckedIOException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testResourceAllocatesMappedPages() throws Exception {
+    OffHeapResource ohr = new OffHeapResourceImpl(1024 * 1024, new MappedPageSource(folder.newFolder().toPath()));
+    ByteBuffer page = ohr.getPageAllocator().allocate(10000);
+    assertThat(page.capacity(), is(16 * 1024));
+    assertThat(ohr.available(), is(1024L * 1024 - 16 * 1024));
+  }
+
+  @Test
+  public void testFailedMappingReleasesReservation() {
+    File directory = new File(folder.getRoot(), "missing");
+    OffHeapResource ohr = new OffHeapResourceImpl(1024 * 1024, new MappedPageSource(directory.toPath()));
+    try {
+      ohr.getPageAllocator().allocate(10000);
+      fail("Expected UncheckedIOException");
+    } catch (UncheckedIOException e) {
+      //expected
+    }
+    assertThat(ohr.available(), is(1024L * 1024));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class OccupancyThresholdsTest {
+
+  @Test
+  public void testInvalidThresholdsFail() {
+    try {
+      new OccupancyThresholds(100, 75, 101);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testThresholdsAreCrossedUpward() {
+    OffHeapResource ohr = new OffHeapResourceImpl(1000, ByteBuffer::allocateDirect, 95, 75, 90);
+    List<String> crossings = record(ohr);
+    ohr.reserve(740);
+    assertThat(crossings.isEmpty(), is(true));
+    ohr.reserve(10);
+    assertThat(crossings, is(asList("75+")));
+    ohr.reserve(200);
+    assertThat(crossings, is(asList("75+", "90+", "95+")));
+  }
+
+  @Test
+  public void testThresholdsAreCrossedDownwardWithHysteresis() {
+    OffHeapResource ohr = new OffHeapResourceImpl(1000, ByteBuffer::allocateDirect, 75, 90);
+    List<String> crossings = record(ohr);
+    ohr.reserve(900);
+    ohr.release(160);
+    assertThat(crossings, is(asList("75+", "90+", "90-")));
+    ohr.reserve(10);
+    ohr.release(10);
+    ohr.reserve(10);
+    assertThat(crossings, is(asList("75+", "90+", "90-")));
+    ohr.release(60);
+    assertThat(crossings, is(asList("75+", "90+", "90-", "75-")));
+  }
+
+  @Test
+  public void testStripedResourceThresholds() {
+    OffHeapResource ohr = new StripedOffHeapResource(64 * 1024 * 1024, 4, ByteBuffer::allocateDirect, 50);
+    List<String> crossings = record(ohr);
+    ohr.reserve(24 * 1024 * 1024);
+    ohr.reserve(1024);
+    assertThat(crossings.isEmpty(), is(true));
+    ohr.reserve(16 * 1024 * 1024);
+    assertThat(crossings, is(asList("50+")));
+    ohr.release(16 * 1024 * 1024);
+    assertThat(crossings, is(asList("50+", "50-")));
+  }
+
+  @Test
+  public void testRemovedListenerIsNotNotified() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100, ByteBuffer::allocateDirect, 50);
+    List<String> crossings = new ArrayList<>();
+    OccupancyListener listener = (threshold, upward, reserved) -> crossings.add(threshold + (upward ? "+" : "-"));
+    ohr.addOccupancyListener(listener);
+    ohr.removeOccupancyListener(listener);
+    ohr.reserve(60);
+    assertThat(crossings.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testRacingCrossingsEndOnTheCurrentOccupancy() throws Exception {
+    OffHeapResource ohr = new OffHeapResourceImpl(1000, ByteBuffer::allocateDirect, 50);
+    List<String> crossings = Collections.synchronizedList(new ArrayList<>());
+    ohr.addOccupancyListener((threshold, upward, reserved) -> crossings.add(threshold + (upward ? "+" : "-")));
+    ohr.reserve(400);
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < 10000; j++) {
+          if (ohr.reserve(200)) {
+            ohr.release(200);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 0; i < crossings.size(); i++) {
+      assertThat(crossings.get(i), is(i % 2 == 0 ? "50+" : "50-"));
+    }
+    assertThat(crossings.size() % 2, is(0));
+  }
+
+  private static List<String> record(OffHeapResource ohr) {
+    List<String> crossings = new ArrayList<>();
+    ohr.addOccupancyListener((threshold, upward, reserved) -> crossings.add(threshold + (upward ? "+" : "-")));
+    return crossings;
+  }
+}
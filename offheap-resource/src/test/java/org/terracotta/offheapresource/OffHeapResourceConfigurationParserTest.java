@@ -16,6 +16,8 @@
 package org.terracotta.offheapresource;
 
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.validation.SchemaFactory;
@@ -24,6 +26,7 @@ import org.terracotta.offheapresource.config.MemoryUnit;
 import org.w3c.dom.Document;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import org.junit.Assert;
 import static org.junit.Assert.assertThat;
 import static org.terracotta.offheapresource.OffHeapResourceIdentifier.identifier;
@@ -50,6 +53,10 @@ public class OffHeapResourceConfigurationParserTest {
 
     assertThat(config.getOffHeapResource(identifier("primary")).available(), is(longValueExact(convert(BigInteger.valueOf(128L), MemoryUnit.GB))));
     assertThat(config.getOffHeapResource(identifier("secondary")).available(), is(longValueExact(convert(BigInteger.valueOf(1024L), MemoryUnit.MB))));
+    assertThat(config.getOffHeapResource(identifier("primary")), instanceOf(OffHeapResourceImpl.class));
+    assertThat(config.getOffHeapResource(identifier("secondary")), instanceOf(StripedOffHeapResource.class));
+    assertThat(config.getOffHeapResource(identifier("tertiary")).capacity(), is(longValueExact(convert(BigInteger.valueOf(2L), MemoryUnit.TB))));
+    assertThat(Files.isDirectory(Paths.get("target/mapped-resources")), is(true));
   }
 
   @Test
@@ -15,6 +15,9 @@
  */
 package org.terracotta.offheapresource;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -88,4 +91,122 @@ public class OffHeapResourceTest {
       //expected
     }
   }
+
+  @Test
+  public void testGrowingIncreasesAvailable() {
+    OffHeapResource ohr = new OffHeapResourceImpl(20);
+    ohr.reserve(20);
+    assertThat(ohr.setCapacity(30, false), is(true));
+    assertThat(ohr.capacity(), is(30L));
+    assertThat(ohr.available(), is(10L));
+  }
+
+  @Test
+  public void testShrinkingBelowReservedFails() {
+    OffHeapResource ohr = new OffHeapResourceImpl(20);
+    ohr.reserve(15);
+    assertThat(ohr.setCapacity(10, false), is(false));
+    assertThat(ohr.capacity(), is(20L));
+    assertThat(ohr.setCapacity(15, false), is(true));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testDrainingShrinksBelowReserved() {
+    OffHeapResource ohr = new OffHeapResourceImpl(20);
+    ohr.reserve(15);
+    assertThat(ohr.setCapacity(10, true), is(true));
+    assertThat(ohr.capacity(), is(10L));
+    assertThat(ohr.available(), is(0L));
+    ohr.release(5);
+    assertThat(ohr.reserve(1), is(false));
+    ohr.release(5);
+    assertThat(ohr.available(), is(5L));
+  }
+
+  @Test
+  public void testNegativeCapacityFails() {
+    OffHeapResource ohr = new OffHeapResourceImpl(20);
+    try {
+      ohr.setCapacity(-1, false);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testShrinkingTrimsPooledPages() {
+    OffHeapResource ohr = new OffHeapResourceImpl(64 * 1024);
+    ohr.getPageAllocator().free(ohr.getPageAllocator().allocate(16 * 1024));
+    assertThat(ohr.available(), is(48L * 1024));
+    assertThat(ohr.setCapacity(8 * 1024, false), is(true));
+    assertThat(ohr.available(), is(8L * 1024));
+    assertThat(ohr.getPageAllocator().pooledBytes(), is(0L));
+  }
+
+  @Test
+  public void testShrinkingFailsWaitersExceedingCapacity() {
+    OffHeapResource ohr = new OffHeapResourceImpl(20);
+    ohr.reserve(10);
+    CompletableFuture<Void> large = ohr.reserveAsync(15);
+    CompletableFuture<Void> small = ohr.reserveAsync(10);
+    ohr.setCapacity(12, true);
+    assertThat(large.isCompletedExceptionally(), is(true));
+    assertThat(small.isDone(), is(false));
+    ohr.release(10);
+    assertThat(small.isDone(), is(true));
+  }
+
+  @Test
+  public void testResourcesImplementingOnlyTheReservationMethodsGetDefaults() throws Exception {
+    OffHeapResource ohr = new OffHeapResource() {
+      @Override
+      public boolean reserve(long size) {
+        return false;
+      }
+
+      @Override
+      public void release(long size) {
+      }
+
+      @Override
+      public long available() {
+        return 0;
+      }
+
+      @Override
+      public long capacity() {
+        return 0;
+      }
+    };
+
+    assertThat(ohr.getSubPool("consumer"), is((OffHeapResource) null));
+    assertThat(ohr.destroySubPool("consumer"), is(false));
+    assertThat(ohr.getSubPoolUsage().isEmpty(), is(true));
+    try {
+      ohr.addOccupancyListener(null);
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      //expected
+    }
+    try {
+      ohr.removeOccupancyListener(null);
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      //expected
+    }
+    try {
+      ohr.reserve(1, 1, TimeUnit.SECONDS);
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      //expected
+    }
+    try {
+      ohr.createSubPool("consumer", 0, 1);
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      //expected
+    }
+  }
 }
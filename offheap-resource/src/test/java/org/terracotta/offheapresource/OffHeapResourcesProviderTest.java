@@ -16,6 +16,7 @@
 package org.terracotta.offheapresource;
 
 import org.junit.Test;
+import org.terracotta.context.TreeNode;
 import org.terracotta.offheapresource.config.MemoryUnit;
 import org.terracotta.offheapresource.config.OffheapResourcesType;
 import org.terracotta.offheapresource.config.ResourceType;
@@ -51,9 +52,23 @@ public class OffHeapResourcesProviderTest {
     OffHeapResource offHeapResource = provider.getOffHeapResource(OffHeapResourceIdentifier.identifier("foo"));
     assertThat(offHeapResource.available(), equalTo(2L * 1024 * 1024));
 
-    assertThat(StatisticsManager.nodeFor(offHeapResource).getChildren().size(), equalTo(1));
-    ValueStatistic valueStatistic = (ValueStatistic) StatisticsManager.nodeFor(offHeapResource).getChildren().iterator().next().getContext().attributes().get("this");
-    assertThat(valueStatistic.value(), equalTo(0L));
+    assertThat(StatisticsManager.nodeFor(offHeapResource).getChildren().size(), equalTo(4));
+    assertThat(statistic(offHeapResource, "allocatedMemory").value(), equalTo(0L));
+    assertThat(statistic(offHeapResource, "highWaterMark").value(), equalTo(0L));
+
+    offHeapResource.reserve(1024);
+    offHeapResource.release(1024);
+    assertThat(statistic(offHeapResource, "allocatedMemory").value(), equalTo(0L));
+    assertThat(statistic(offHeapResource, "highWaterMark").value(), equalTo(1024L));
+  }
+
+  private static ValueStatistic statistic(OffHeapResource offHeapResource, String name) {
+    for (TreeNode child : StatisticsManager.nodeFor(offHeapResource).getChildren()) {
+      if (name.equals(child.getContext().attributes().get("name"))) {
+        return (ValueStatistic) child.getContext().attributes().get("this");
+      }
+    }
+    throw new AssertionError("No statistic named " + name);
   }
 
   @Test
@@ -118,4 +133,43 @@ public class OffHeapResourcesProviderTest {
 
     OffHeapResourcesProvider provider = new OffHeapResourcesProvider(configuration);
   }
+
+  @Test
+  public void testPretouchedResource() {
+    ResourceType resourceConfig = mock(ResourceType.class);
+    when(resourceConfig.getName()).thenReturn("foo");
+    when(resourceConfig.getUnit()).thenReturn(MemoryUnit.MB);
+    when(resourceConfig.getValue()).thenReturn(BigInteger.valueOf(8));
+    when(resourceConfig.isPretouch()).thenReturn(true);
+
+    OffheapResourcesType configuration = mock(OffheapResourcesType.class);
+    when(configuration.getResource()).thenReturn(singletonList(resourceConfig));
+
+    OffHeapResourcesProvider provider = new OffHeapResourcesProvider(configuration);
+
+    OffHeapResource offHeapResource = provider.getOffHeapResource(OffHeapResourceIdentifier.identifier("foo"));
+    assertThat(offHeapResource.getPageAllocator().pooledBytes(), is(2L * 1024 * 1024));
+    assertThat(offHeapResource.getPageAllocator().allocate(1024 * 1024), notNullValue());
+    assertThat(offHeapResource.available(), is(6L * 1024 * 1024));
+  }
+
+  @Test
+  public void testMappedResourceCannotBePretouched() {
+    ResourceType resourceConfig = mock(ResourceType.class);
+    when(resourceConfig.getName()).thenReturn("foo");
+    when(resourceConfig.getUnit()).thenReturn(MemoryUnit.MB);
+    when(resourceConfig.getValue()).thenReturn(BigInteger.valueOf(8));
+    when(resourceConfig.getDirectory()).thenReturn("target/mapped-resources");
+    when(resourceConfig.isPretouch()).thenReturn(true);
+
+    OffheapResourcesType configuration = mock(OffheapResourcesType.class);
+    when(configuration.getResource()).thenReturn(singletonList(resourceConfig));
+
+    try {
+      new OffHeapResourcesProvider(configuration);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
 }
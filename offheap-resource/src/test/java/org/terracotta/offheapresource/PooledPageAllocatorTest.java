@@ -0,0 +1,235 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class PooledPageAllocatorTest {
+
+  @Test
+  public void testPageSizeIsRoundedToPowerOfTwo() {
+    OffHeapResource ohr = new OffHeapResourceImpl(1024 * 1024);
+    PageAllocator allocator = new PooledPageAllocator(ohr);
+    ByteBuffer small = allocator.allocate(10);
+    assertThat(small.isDirect(), is(true));
+    assertThat(small.capacity(), is(PageAllocator.MINIMUM_PAGE_SIZE));
+    assertThat(small.limit(), is(10));
+    ByteBuffer large = allocator.allocate(40000);
+    assertThat(large.capacity(), is(64 * 1024));
+    assertThat(allocator.allocate(64 * 1024).capacity(), is(64 * 1024));
+    assertThat(ohr.available(), is(1024L * 1024 - 4 * 1024 - 2 * 64 * 1024));
+    assertThat(allocator.allocatedBytes(), is(4L * 1024 + 2 * 64 * 1024));
+  }
+
+  @Test
+  public void testInvalidSizesFail() {
+    PageAllocator allocator = new PooledPageAllocator(new OffHeapResourceImpl(1024));
+    try {
+      allocator.allocate(-1);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      allocator.free(ByteBuffer.allocate(4096));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testForeignOrDoubleFreeFails() {
+    OffHeapResource ohr = new OffHeapResourceImpl(1024 * 1024);
+    PageAllocator allocator = new PooledPageAllocator(ohr);
+    try {
+      allocator.free(ByteBuffer.allocateDirect(4096));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    ByteBuffer page = allocator.allocate(4096);
+    allocator.free(page);
+    try {
+      allocator.free(page);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    assertThat(allocator.pooledBytes(), is(4L * 1024));
+    assertThat(ohr.available(), is(1024L * 1024 - 4 * 1024));
+    assertThat(allocator.allocate(4096), sameInstance(page));
+    assertThat(allocator.allocate(4096), not(sameInstance(page)));
+  }
+
+  @Test
+  public void testAllocationFailsWhenResourceIsExhausted() {
+    OffHeapResource ohr = new OffHeapResourceImpl(8 * 1024);
+    PageAllocator allocator = new PooledPageAllocator(ohr);
+    assertThat(allocator.allocate(8 * 1024).capacity(), is(8 * 1024));
+    assertThat(allocator.allocate(1), nullValue());
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testFreedPagesAreRecycled() {
+    OffHeapResource ohr = new OffHeapResourceImpl(1024 * 1024);
+    PageAllocator allocator = new PooledPageAllocator(ohr);
+    ByteBuffer page = allocator.allocate(5000);
+    page.putInt(0, 42).position(16);
+    allocator.free(page);
+    assertThat(allocator.allocatedBytes(), is(0L));
+    assertThat(allocator.pooledBytes(), is(8L * 1024));
+    assertThat(allocator.fragmentation(), is(1.0));
+    assertThat(ohr.available(), is(1024L * 1024 - 8 * 1024));
+
+    ByteBuffer recycled = allocator.allocate(6000);
+    assertThat(recycled, sameInstance(page));
+    assertThat(recycled.position(), is(0));
+    assertThat(recycled.limit(), is(6000));
+    assertThat(allocator.pooledBytes(), is(0L));
+    assertThat(allocator.fragmentation(), is(0.0));
+  }
+
+  @Test
+  public void testPoolIsBoundedByQuarterOfCapacity() {
+    OffHeapResource ohr = new OffHeapResourceImpl(64 * 1024);
+    PageAllocator allocator = new PooledPageAllocator(ohr);
+    ByteBuffer first = allocator.allocate(16 * 1024);
+    ByteBuffer second = allocator.allocate(16 * 1024);
+    allocator.free(first);
+    allocator.free(second);
+    assertThat(allocator.pooledBytes(), is(16L * 1024));
+    assertThat(ohr.available(), is(48L * 1024));
+  }
+
+  @Test
+  public void testPooledPagesAreReleasedUnderPressure() {
+    OffHeapResource ohr = new OffHeapResourceImpl(32 * 1024);
+    PageAllocator allocator = new PooledPageAllocator(ohr);
+    ByteBuffer first = allocator.allocate(4 * 1024);
+    ByteBuffer second = allocator.allocate(4 * 1024);
+    allocator.allocate(4 * 1024);
+    allocator.allocate(16 * 1024);
+    allocator.free(first);
+    allocator.free(second);
+    assertThat(ohr.available(), is(4L * 1024));
+    assertThat(allocator.pooledBytes(), is(8L * 1024));
+
+    assertThat(allocator.allocate(16 * 1024), nullValue());
+    assertThat(allocator.pooledBytes(), is(0L));
+    assertThat(ohr.available(), is(12L * 1024));
+    assertThat(allocator.allocate(8 * 1024).capacity(), is(8 * 1024));
+    assertThat(allocator.allocatedBytes(), is(28L * 1024));
+  }
+
+  @Test
+  public void testStripedResourceSharesOneAllocator() {
+    OffHeapResource ohr = new StripedOffHeapResource(1024 * 1024, 4);
+    assertThat(ohr.getPageAllocator(), sameInstance(ohr.getPageAllocator()));
+    ByteBuffer page = ohr.getPageAllocator().allocate(100);
+    assertThat(ohr.available(), is(1024L * 1024 - 4 * 1024));
+    ohr.getPageAllocator().free(page);
+    assertThat(ohr.available(), is(1024L * 1024 - 4 * 1024));
+  }
+
+  @Test
+  public void testPretouchFillsPool() {
+    OffHeapResource ohr = new OffHeapResourceImpl(1024 * 1024);
+    PageAllocator allocator = new PooledPageAllocator(ohr);
+    assertThat(allocator.pretouch(60 * 1024), is(256L * 1024));
+    assertThat(allocator.pooledBytes(), is(256L * 1024));
+    assertThat(allocator.allocatedBytes(), is(0L));
+    assertThat(ohr.available(), is(768L * 1024));
+    assertThat(allocator.pretouch(64 * 1024), is(0L));
+    allocator.allocate(64 * 1024);
+    assertThat(allocator.pooledBytes(), is(192L * 1024));
+    assertThat(ohr.available(), is(768L * 1024));
+  }
+
+  @Test
+  public void testPretouchedPagesAreGivenBackToReservations() {
+    OffHeapResource ohr = new OffHeapResourceImpl(1024 * 1024);
+    PageAllocator allocator = ohr.getPageAllocator();
+    assertThat(allocator.pretouch(64 * 1024), is(256L * 1024));
+    assertThat(ohr.available(), is(768L * 1024));
+
+    assertThat(ohr.reserve(1024 * 1024), is(true));
+    assertThat(allocator.pooledBytes(), is(0L));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testPagesGivenBackToReservationsAreFreed() {
+    BufferPoolMXBean directPool = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+        .filter(pool -> pool.getName().equals("direct")).findFirst().get();
+    OffHeapResource ohr = new OffHeapResourceImpl(16 * 1024 * 1024);
+    PageAllocator allocator = ohr.getPageAllocator();
+    assertThat(allocator.pretouch(1024 * 1024), is(4L * 1024 * 1024));
+    long pretouched = directPool.getMemoryUsed();
+
+    assertThat(ohr.reserve(16 * 1024 * 1024), is(true));
+    assertThat(directPool.getMemoryUsed() <= pretouched - 4 * 1024 * 1024, is(true));
+  }
+
+  @Test
+  public void testFreedPagesAreGivenBackToReservations() {
+    OffHeapResource ohr = new OffHeapResourceImpl(64 * 1024);
+    PageAllocator allocator = ohr.getPageAllocator();
+    allocator.free(allocator.allocate(8 * 1024));
+    allocator.free(allocator.allocate(4 * 1024));
+    assertThat(allocator.pooledBytes(), is(12L * 1024));
+
+    assertThat(ohr.reserve(56 * 1024), is(true));
+    assertThat(allocator.pooledBytes(), is(4L * 1024));
+    assertThat(ohr.reserve(8 * 1024), is(true));
+    assertThat(allocator.pooledBytes(), is(0L));
+    assertThat(ohr.reserve(1), is(false));
+  }
+
+  @Test
+  public void testStripedResourceGivesPooledPagesBackToReservations() {
+    OffHeapResource ohr = new StripedOffHeapResource(1024 * 1024, 4);
+    PageAllocator allocator = ohr.getPageAllocator();
+    assertThat(allocator.pretouch(64 * 1024), is(256L * 1024));
+
+    assertThat(ohr.reserve(1024 * 1024), is(true));
+    assertThat(allocator.pooledBytes(), is(0L));
+  }
+
+  @Test
+  public void testSubPoolGivesPooledPagesBackToReservations() {
+    OffHeapResource ohr = new OffHeapResourceImpl(1024 * 1024);
+    OffHeapResource pool = ohr.createSubPool("consumer", 0, 256 * 1024);
+    PageAllocator allocator = pool.getPageAllocator();
+    allocator.free(allocator.allocate(64 * 1024));
+    assertThat(allocator.pooledBytes(), is(64L * 1024));
+
+    assertThat(pool.reserve(256 * 1024), is(true));
+    assertThat(allocator.pooledBytes(), is(0L));
+    assertThat(ohr.available(), is(768L * 1024));
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class ReservationQueueTest {
+
+  @Test
+  public void testAvailableCapacityIsReservedImmediately() {
+    OffHeapResource ohr = new OffHeapResourceImpl(20);
+    assertThat(ohr.reserveAsync(10).isDone(), is(true));
+    assertThat(ohr.available(), is(10L));
+  }
+
+  @Test
+  public void testOversizedReservationsFail() throws InterruptedException {
+    OffHeapResource ohr = new OffHeapResourceImpl(20);
+    assertThat(ohr.reserve(30, 1, TimeUnit.SECONDS), is(false));
+    try {
+      ohr.reserveAsync(30);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      ohr.reserveAsync(-1);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testWaitersAreServedInArrivalOrder() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    ohr.reserve(100);
+    CompletableFuture<Void> large = ohr.reserveAsync(60);
+    CompletableFuture<Void> small = ohr.reserveAsync(10);
+    ohr.release(50);
+    assertThat(large.isDone(), is(false));
+    assertThat(small.isDone(), is(false));
+    ohr.release(20);
+    assertThat(large.isDone(), is(true));
+    assertThat(small.isDone(), is(true));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testCancelledReservationIsWithdrawn() {
+    OffHeapResource ohr = new OffHeapResourceImpl(10);
+    ohr.reserve(10);
+    ohr.reserveAsync(5).cancel(false);
+    CompletableFuture<Void> next = ohr.reserveAsync(5);
+    ohr.release(5);
+    assertThat(next.isDone(), is(true));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testTimedReservationTimesOut() throws InterruptedException {
+    OffHeapResource ohr = new OffHeapResourceImpl(10);
+    ohr.reserve(10);
+    assertThat(ohr.reserve(5, 10, TimeUnit.MILLISECONDS), is(false));
+    ohr.release(5);
+    assertThat(ohr.available(), is(5L));
+  }
+
+  @Test
+  public void testTimedReservationIsServedOnRelease() throws InterruptedException {
+    OffHeapResource ohr = new OffHeapResourceImpl(10);
+    ohr.reserve(10);
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      ohr.release(5);
+    });
+    releaser.start();
+    assertThat(ohr.reserve(5, 10, TimeUnit.SECONDS), is(true));
+    releaser.join();
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testStripedResourceServesWaiters() {
+    OffHeapResource ohr = new StripedOffHeapResource(64 * 1024, 4);
+    ohr.reserve(64 * 1024);
+    CompletableFuture<Void> waiter = ohr.reserveAsync(32 * 1024);
+    ohr.release(32 * 1024);
+    assertThat(waiter.isDone(), is(true));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testSubPoolWaitersAreServedOnSiblingRelease() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource first = ohr.createSubPool("first", 0, 100);
+    OffHeapResource second = ohr.createSubPool("second", 0, 100);
+    first.reserve(100);
+    CompletableFuture<Void> waiter = second.reserveAsync(40);
+    first.release(40);
+    assertThat(waiter.isDone(), is(true));
+  }
+
+  @Test
+  public void testSubPoolWaitersFailOnDestroy() throws InterruptedException {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource pool = ohr.createSubPool("pool", 0, 100);
+    ohr.reserve(100);
+    CompletableFuture<Void> waiter = pool.reserveAsync(10);
+    ohr.destroySubPool("pool");
+    try {
+      waiter.get();
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    }
+  }
+}
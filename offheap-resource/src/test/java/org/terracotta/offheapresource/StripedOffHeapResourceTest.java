@@ -0,0 +1,186 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class StripedOffHeapResourceTest {
+
+  @Test
+  public void testNegativeResourceSize() {
+    try {
+      new StripedOffHeapResource(-1);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected;
+    }
+  }
+
+  @Test
+  public void testNonPowerOfTwoStripeCount() {
+    try {
+      new StripedOffHeapResource(20, 3);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected;
+    }
+  }
+
+  @Test
+  public void testZeroSizeResourceIsUseless() {
+    OffHeapResource ohr = new StripedOffHeapResource(0);
+    assertThat(ohr.reserve(1), is(false));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testAllocationReducesSize() {
+    OffHeapResource ohr = new StripedOffHeapResource(1024 * 1024);
+    assertThat(ohr.capacity(), is(1024L * 1024));
+    assertThat(ohr.reserve(10), is(true));
+    assertThat(ohr.available(), is(1024L * 1024 - 10));
+    assertThat(ohr.capacity(), is(1024L * 1024));
+  }
+
+  @Test
+  public void testNegativeAllocationFails() {
+    OffHeapResource ohr = new StripedOffHeapResource(20);
+    try {
+      ohr.reserve(-1);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testSmallResourceCanBeFullyReserved() {
+    OffHeapResource ohr = new StripedOffHeapResource(20);
+    for (int i = 0; i < 20; i++) {
+      assertThat(ohr.reserve(1), is(true));
+    }
+    assertThat(ohr.reserve(1), is(false));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testFreeIncreasesSize() {
+    OffHeapResource ohr = new StripedOffHeapResource(20);
+    ohr.reserve(20);
+    assertThat(ohr.available(), is(0L));
+    ohr.release(10);
+    assertThat(ohr.available(), is(10L));
+  }
+
+  @Test
+  public void testNegativeFreeFails() {
+    OffHeapResource ohr = new StripedOffHeapResource(20);
+    ohr.reserve(10);
+    try {
+      ohr.release(-10);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testCapacityHeldByOtherStripesIsReclaimed() throws Exception {
+    long size = 64 * 1024;
+    OffHeapResource ohr = new StripedOffHeapResource(size, 4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      // Leave capacity idling in the stripes of other threads
+      List<Future<Boolean>> reservations = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        reservations.add(executor.submit(() -> ohr.reserve(1)));
+      }
+      for (Future<Boolean> reservation : reservations) {
+        assertThat(reservation.get(), is(true));
+      }
+      assertThat(ohr.available(), is(size - 4));
+      assertThat(ohr.reserve(size - 4), is(true));
+      assertThat(ohr.available(), is(0L));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testConcurrentReservationsAreAccounted() throws Exception {
+    long size = 1024 * 1024;
+    OffHeapResource ohr = new StripedOffHeapResource(size, 4);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Long>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit((Callable<Long>) () -> {
+          long reserved = 0;
+          for (int j = 0; j < 100000; j++) {
+            if (ohr.reserve(64)) {
+              reserved += 64;
+            }
+            if (reserved > 0 && j % 3 == 0) {
+              ohr.release(64);
+              reserved -= 64;
+            }
+          }
+          return reserved;
+        }));
+      }
+      long reserved = 0;
+      for (Future<Long> result : results) {
+        reserved += result.get();
+      }
+      assertThat(ohr.available(), is(size - reserved));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testShrinkingReclaimsCapacityHeldByStripes() {
+    OffHeapResource ohr = new StripedOffHeapResource(1024 * 1024, 4);
+    ohr.reserve(1024);
+    ohr.release(1024);
+    assertThat(ohr.setCapacity(1024, false), is(true));
+    assertThat(ohr.available(), is(1024L));
+  }
+
+  @Test
+  public void testDrainingBypassesStripes() {
+    OffHeapResource ohr = new StripedOffHeapResource(1024 * 1024, 4);
+    ohr.reserve(512 * 1024);
+    assertThat(ohr.setCapacity(256 * 1024, true), is(true));
+    ohr.release(1024);
+    assertThat(ohr.reserve(1024), is(false));
+    ohr.release(384 * 1024);
+    assertThat(ohr.available(), is(128L * 1024 + 1024));
+    assertThat(ohr.setCapacity(1024 * 1024, false), is(true));
+    assertThat(ohr.available(), is(896L * 1024 + 1024));
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class SubPoolTest {
+
+  @Test
+  public void testMinimumIsReservedOnCreation() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource pool = ohr.createSubPool("a", 30, 60);
+    assertThat(ohr.available(), is(70L));
+    assertThat(pool.capacity(), is(60L));
+    assertThat(pool.available(), is(60L));
+    assertThat(ohr.getSubPool("a"), sameInstance(pool));
+    assertThat(ohr.getSubPool("b"), nullValue());
+  }
+
+  @Test
+  public void testCreationFailsWhenMinimumIsUnavailable() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    ohr.createSubPool("a", 80, 100);
+    assertThat(ohr.createSubPool("b", 30, 100), nullValue());
+    assertThat(ohr.getSubPool("b"), nullValue());
+    assertThat(ohr.available(), is(20L));
+  }
+
+  @Test
+  public void testInvalidPoolsFail() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    ohr.createSubPool("a", 10, 20);
+    try {
+      ohr.createSubPool("a", 10, 20);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      ohr.createSubPool("b", 20, 10);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      ohr.createSubPool("c", 0, 200);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testReservationsWithinMinimumDoNotTouchParent() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource pool = ohr.createSubPool("a", 30, 60);
+    assertThat(pool.reserve(30), is(true));
+    assertThat(ohr.available(), is(70L));
+    pool.release(30);
+    assertThat(ohr.available(), is(70L));
+  }
+
+  @Test
+  public void testPoolBorrowsIdleCapacityUpToMaximum() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource pool = ohr.createSubPool("a", 30, 60);
+    assertThat(pool.reserve(50), is(true));
+    assertThat(ohr.available(), is(50L));
+    assertThat(pool.reserve(20), is(false));
+    assertThat(pool.reserve(10), is(true));
+    assertThat(pool.available(), is(0L));
+    pool.release(40);
+    assertThat(ohr.available(), is(70L));
+    assertThat(pool.available(), is(40L));
+  }
+
+  @Test
+  public void testGreedySiblingCannotTakeGuaranteedMinimum() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource greedy = ohr.createSubPool("greedy", 0, 100);
+    OffHeapResource modest = ohr.createSubPool("modest", 40, 40);
+    assertThat(greedy.reserve(70), is(false));
+    assertThat(greedy.reserve(60), is(true));
+    assertThat(greedy.available(), is(0L));
+    assertThat(modest.reserve(40), is(true));
+  }
+
+  @Test
+  public void testReleasedBorrowedCapacityIsReclaimedBySiblings() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource first = ohr.createSubPool("first", 20, 100);
+    OffHeapResource second = ohr.createSubPool("second", 20, 100);
+    assertThat(first.reserve(80), is(true));
+    assertThat(second.reserve(30), is(false));
+    first.release(60);
+    assertThat(second.reserve(80), is(true));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testReleasingMoreThanUsedFails() {
+    OffHeapResource pool = new OffHeapResourceImpl(100).createSubPool("a", 10, 20);
+    pool.reserve(5);
+    try {
+      pool.release(6);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testDestroyReturnsEverythingToParent() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource pool = ohr.createSubPool("a", 30, 100);
+    OffHeapResource nested = pool.createSubPool("b", 10, 50);
+    assertThat(nested.reserve(20), is(true));
+    assertThat(pool.reserve(40), is(true));
+    assertThat(ohr.available(), is(40L));
+    assertThat(ohr.destroySubPool("a"), is(true));
+    assertThat(ohr.destroySubPool("a"), is(false));
+    assertThat(ohr.available(), is(100L));
+    assertThat(pool.reserve(1), is(false));
+    assertThat(nested.reserve(1), is(false));
+    assertThat(pool.available(), is(0L));
+  }
+
+  @Test
+  public void testUsageIsReportedPerConsumer() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource first = ohr.createSubPool("first", 20, 100);
+    ohr.createSubPool("second", 20, 100);
+    first.reserve(30);
+    assertThat(ohr.getSubPoolUsage().get("first"), is(30L));
+    assertThat(ohr.getSubPoolUsage().get("second"), is(0L));
+    ohr.destroySubPool("first");
+    assertThat(ohr.getSubPoolUsage().containsKey("first"), is(false));
+  }
+
+  @Test
+  public void testStripedResourcePools() {
+    OffHeapResource ohr = new StripedOffHeapResource(1024 * 1024, 4);
+    OffHeapResource pool = ohr.createSubPool("a", 64 * 1024, 512 * 1024);
+    assertThat(pool.reserve(256 * 1024), is(true));
+    assertThat(ohr.available(), is(768L * 1024));
+    ohr.destroySubPool("a");
+    assertThat(ohr.available(), is(1024L * 1024));
+  }
+
+  @Test
+  public void testPoolMaximumCanBeChanged() {
+    OffHeapResource ohr = new OffHeapResourceImpl(100);
+    OffHeapResource pool = ohr.createSubPool("a", 10, 50);
+    pool.reserve(40);
+    assertThat(pool.setCapacity(30, false), is(false));
+    assertThat(pool.setCapacity(30, true), is(true));
+    assertThat(pool.available(), is(0L));
+    pool.release(20);
+    assertThat(pool.available(), is(10L));
+    assertThat(pool.setCapacity(80, false), is(true));
+    assertThat(pool.available(), is(60L));
+    try {
+      pool.setCapacity(5, true);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testPoolsRejectOccupancyListeners() {
+    OffHeapResource pool = new OffHeapResourceImpl(100).createSubPool("a", 10, 50);
+    try {
+      pool.addOccupancyListener((threshold, upward, reserved) -> { });
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      //expected
+    }
+    try {
+      pool.removeOccupancyListener((threshold, upward, reserved) -> { });
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      //expected
+    }
+  }
+}
@@ -61,6 +61,7 @@ public class ClientProxyFactory {
         Entity.class.getClassLoader(),
         interfaces,
         new VoltronProxyInvocationHandler(
+            CommonProxyFactory.createMethodDescriptors(type),
             entityClientEndpoint,
             CommonProxyFactory.invert(CommonProxyFactory.createResponseTypeMappings(type, messageTypes)).values(),
             codec)
@@ -31,6 +31,7 @@ import org.terracotta.voltron.proxy.ProxyEntityResponse;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -59,13 +60,15 @@ class VoltronProxyInvocationHandler implements InvocationHandler {
     }
   }
 
+  private final Map<Method, MethodDescriptor> methods;
   private final EntityClientEndpoint<ProxyEntityMessage, ProxyEntityResponse> entityClientEndpoint;
   private final ConcurrentMap<Class<?>, CopyOnWriteArrayList<MessageListener>> listeners;
   private final Codec codec;
 
   private EndpointListener endpointListener;
 
-  VoltronProxyInvocationHandler(final EntityClientEndpoint<ProxyEntityMessage, ProxyEntityResponse> entityClientEndpoint, Collection<Class<?>> events, final Codec codec) {
+  VoltronProxyInvocationHandler(final Map<Method, MethodDescriptor> methods, final EntityClientEndpoint<ProxyEntityMessage, ProxyEntityResponse> entityClientEndpoint, Collection<Class<?>> events, final Codec codec) {
+    this.methods = methods;
     this.entityClientEndpoint = entityClientEndpoint;
     this.codec = codec;
     this.listeners = new ConcurrentHashMap<Class<?>, CopyOnWriteArrayList<MessageListener>>();
@@ -131,7 +134,10 @@ class VoltronProxyInvocationHandler implements InvocationHandler {
       return null;
     }
 
-    final MethodDescriptor methodDescriptor = MethodDescriptor.of(method);
+    MethodDescriptor methodDescriptor = methods.get(method);
+    if (methodDescriptor == null) {
+      methodDescriptor = MethodDescriptor.of(method);
+    }
 
     final InvocationBuilder<ProxyEntityMessage, ProxyEntityResponse> builder = entityClientEndpoint.beginInvoke()
         .message(new ProxyEntityMessage(methodDescriptor, args, false));
@@ -35,6 +35,7 @@ import java.util.Set;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.terracotta.voltron.proxy.CommonProxyFactory.createMethodDescriptors;
 import static org.terracotta.voltron.proxy.CommonProxyFactory.createMethodMappings;
 import static org.terracotta.voltron.proxy.CommonProxyFactory.invert;
 
@@ -64,7 +65,7 @@ public class VoltronProxyInvocationHandlerTest {
     when(future.get()).thenReturn(ProxyEntityResponse.response(Void.TYPE, null));
 
     Map<MethodDescriptor, Byte> methodMappings = invert(createMethodMappings(TestInterface.class));
-    VoltronProxyInvocationHandler handler = new VoltronProxyInvocationHandler(endpoint, Collections.<Class<?>>emptyList(), codec);
+    VoltronProxyInvocationHandler handler = new VoltronProxyInvocationHandler(createMethodDescriptors(TestInterface.class), endpoint, Collections.<Class<?>>emptyList(), codec);
     for (MethodDescriptor method : methodMappings.keySet()) {
       handler.invoke(null, method.getMethod(), new Object[] { "String", new Object() });
     }
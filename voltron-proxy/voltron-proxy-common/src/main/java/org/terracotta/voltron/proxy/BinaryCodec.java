@@ -0,0 +1,443 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link Codec} writing values in a compact binary form chosen from their declared type.
+ * <p>
+ * Primitives and their wrappers, {@code String}, enums, and arrays of any of these are written directly, as are the
+ * types given an {@link Encoder} through {@link #register(Class, Encoder)}. Values of any other declared type, such as
+ * {@code Object} or an interface, are written with Java serialization. Since the declared type decides the encoding,
+ * a registered type must be registered with the same encoder on both the client and the server, before any value is
+ * encoded.
+ * <p>
+ * As a {@link StreamingCodec}, its output is written straight into the messages of {@link ProxyMessageCodec}.
+ */
+public class BinaryCodec implements StreamingCodec {
+
+  /**
+   * Writes and reads the non-null values of a type.
+   *
+   * @param <T> the type of values
+   */
+  public interface Encoder<T> {
+
+    void encode(T value, DataOutput out) throws IOException;
+
+    T decode(DataInput in) throws IOException;
+  }
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final Encoder<Object> NOTHING = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) {
+    }
+
+    @Override
+    public Object decode(DataInput in) {
+      return null;
+    }
+  };
+
+  private static final Encoder<Object> BOOLEAN = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeBoolean((Boolean) value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return in.readBoolean();
+    }
+  };
+
+  private static final Encoder<Object> BYTE = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeByte((Byte) value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return in.readByte();
+    }
+  };
+
+  private static final Encoder<Object> SHORT = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeShort((Short) value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return in.readShort();
+    }
+  };
+
+  private static final Encoder<Object> CHAR = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeChar((Character) value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return in.readChar();
+    }
+  };
+
+  private static final Encoder<Object> INT = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeInt((Integer) value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return in.readInt();
+    }
+  };
+
+  private static final Encoder<Object> LONG = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeLong((Long) value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return in.readLong();
+    }
+  };
+
+  private static final Encoder<Object> FLOAT = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeFloat((Float) value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return in.readFloat();
+    }
+  };
+
+  private static final Encoder<Object> DOUBLE = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeDouble((Double) value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return in.readDouble();
+    }
+  };
+
+  private static final Encoder<Object> BYTES = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      byte[] bytes = (byte[]) value;
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return bytes;
+    }
+  };
+
+  private static final Encoder<Object> STRING = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      BYTES.encode(((String) value).getBytes(UTF8), out);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return new String((byte[]) BYTES.decode(in), UTF8);
+    }
+  };
+
+  /**
+   * Handles {@code null} itself, as it is written by the serialization stream.
+   */
+  private static final Encoder<Object> SERIALIZED = new Encoder<Object>() {
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      ObjectOutputStream oout = new ObjectOutputStream(bout);
+      oout.writeObject(value);
+      oout.close();
+      BYTES.encode(bout.toByteArray(), out);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream((byte[]) BYTES.decode(in)));
+      try {
+        return ois.readObject();
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      } finally {
+        ois.close();
+      }
+    }
+  };
+
+  /**
+   * Encoders of the types whose values are never {@code null}.
+   */
+  private static final Map<Class<?>, Encoder<Object>> PRIMITIVES = new HashMap<Class<?>, Encoder<Object>>();
+
+  /**
+   * Encoders of the built-in reference types, which only write non-null values.
+   */
+  private static final Map<Class<?>, Encoder<Object>> REFERENCES = new HashMap<Class<?>, Encoder<Object>>();
+
+  static {
+    PRIMITIVES.put(void.class, NOTHING);
+    PRIMITIVES.put(Void.class, NOTHING);
+    PRIMITIVES.put(boolean.class, BOOLEAN);
+    PRIMITIVES.put(byte.class, BYTE);
+    PRIMITIVES.put(short.class, SHORT);
+    PRIMITIVES.put(char.class, CHAR);
+    PRIMITIVES.put(int.class, INT);
+    PRIMITIVES.put(long.class, LONG);
+    PRIMITIVES.put(float.class, FLOAT);
+    PRIMITIVES.put(double.class, DOUBLE);
+
+    REFERENCES.put(Boolean.class, BOOLEAN);
+    REFERENCES.put(Byte.class, BYTE);
+    REFERENCES.put(Short.class, SHORT);
+    REFERENCES.put(Character.class, CHAR);
+    REFERENCES.put(Integer.class, INT);
+    REFERENCES.put(Long.class, LONG);
+    REFERENCES.put(Float.class, FLOAT);
+    REFERENCES.put(Double.class, DOUBLE);
+    REFERENCES.put(String.class, STRING);
+    REFERENCES.put(byte[].class, BYTES);
+  }
+
+  private final ConcurrentMap<Class<?>, Encoder<Object>> encoders = new ConcurrentHashMap<Class<?>, Encoder<Object>>();
+
+  /**
+   * Registers the encoder used for the values declared with the given type, in place of Java serialization.
+   *
+   * @param type the declared type
+   * @param encoder the encoder of its non-null values
+   * @param <T> the type of values
+   */
+  @SuppressWarnings("unchecked")
+  public <T> void register(Class<T> type, Encoder<T> encoder) {
+    if (type.isPrimitive()) {
+      throw new IllegalArgumentException("Primitive types cannot be registered: " + type);
+    }
+    encoders.put(type, nullable((Encoder<Object>) encoder));
+  }
+
+  @Override
+  public byte[] encode(Class<?> type, Object value) {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try {
+      encode(type, value, new DataOutputStream(bout));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return bout.toByteArray();
+  }
+
+  @Override
+  public byte[] encode(Class<?>[] types, Object[] values) {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try {
+      encode(types, values, new DataOutputStream(bout));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return bout.toByteArray();
+  }
+
+  @Override
+  public void encode(Class<?> type, Object value, DataOutput out) throws IOException {
+    encoderFor(type).encode(value, out);
+  }
+
+  @Override
+  public void encode(Class<?>[] types, Object[] values, DataOutput out) throws IOException {
+    if (values == null && types.length == 0) {
+      return;
+    }
+    if (values == null || types.length != values.length) {
+      throw new IllegalArgumentException();
+    }
+    for (int i = 0; i < types.length; i++) {
+      encoderFor(types[i]).encode(values[i], out);
+    }
+  }
+
+  @Override
+  public <T> T decode(Class<T> type, byte[] buffer) {
+    return decode(type, buffer, 0, buffer.length);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T decode(Class<T> type, byte[] buffer, int offset, int len) {
+    try {
+      // not cast through the type, which does not accept the wrapper of a primitive type
+      return (T) encoderFor(type).decode(new DataInputStream(new ByteArrayInputStream(buffer, offset, len)));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public Object[] decode(Class<?>[] types, byte[] buffer) {
+    return decode(types, buffer, 0, buffer.length);
+  }
+
+  @Override
+  public Object[] decode(Class<?>[] types, byte[] buffer, int offset, int len) {
+    DataInput in = new DataInputStream(new ByteArrayInputStream(buffer, offset, len));
+    Object[] values = new Object[types.length];
+    try {
+      for (int i = 0; i < types.length; i++) {
+        values[i] = encoderFor(types[i]).decode(in);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return values;
+  }
+
+  private Encoder<Object> encoderFor(Class<?> type) {
+    Encoder<Object> encoder = encoders.get(type);
+    if (encoder == null) {
+      encoder = resolve(type);
+      Encoder<Object> racing = encoders.putIfAbsent(type, encoder);
+      if (racing != null) {
+        encoder = racing;
+      }
+    }
+    return encoder;
+  }
+
+  private Encoder<Object> resolve(Class<?> type) {
+    Encoder<Object> encoder = PRIMITIVES.get(type);
+    if (encoder != null) {
+      return encoder;
+    }
+    encoder = REFERENCES.get(type);
+    if (encoder == null) {
+      if (type.isEnum()) {
+        encoder = new EnumEncoder(type.getEnumConstants());
+      } else if (type.isArray() && encoderFor(type.getComponentType()) != SERIALIZED) {
+        encoder = new ArrayEncoder(type.getComponentType(), encoderFor(type.getComponentType()));
+      } else {
+        return SERIALIZED;
+      }
+    }
+    return nullable(encoder);
+  }
+
+  private static Encoder<Object> nullable(final Encoder<Object> encoder) {
+    return new Encoder<Object>() {
+      @Override
+      public void encode(Object value, DataOutput out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+          encoder.encode(value, out);
+        }
+      }
+
+      @Override
+      public Object decode(DataInput in) throws IOException {
+        return in.readBoolean() ? encoder.decode(in) : null;
+      }
+    };
+  }
+
+  private static final class EnumEncoder implements Encoder<Object> {
+
+    private final Object[] constants;
+
+    EnumEncoder(Object[] constants) {
+      this.constants = constants;
+    }
+
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      out.writeInt(((Enum<?>) value).ordinal());
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      return constants[in.readInt()];
+    }
+  }
+
+  private static final class ArrayEncoder implements Encoder<Object> {
+
+    private final Class<?> componentType;
+    private final Encoder<Object> componentEncoder;
+
+    ArrayEncoder(Class<?> componentType, Encoder<Object> componentEncoder) {
+      this.componentType = componentType;
+      this.componentEncoder = componentEncoder;
+    }
+
+    @Override
+    public void encode(Object value, DataOutput out) throws IOException {
+      int length = Array.getLength(value);
+      out.writeInt(length);
+      for (int i = 0; i < length; i++) {
+        componentEncoder.encode(Array.get(value, i), out);
+      }
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+      int length = in.readInt();
+      Object array = Array.newInstance(componentType, length);
+      for (int i = 0; i < length; i++) {
+        Array.set(array, i, componentEncoder.decode(in));
+      }
+      return array;
+    }
+  }
+}
@@ -63,6 +63,20 @@ public class CommonProxyFactory {
     return map;
   }
 
+  /**
+   * Describes the methods of the given type once, so that proxies do not describe them again on each invocation.
+   *
+   * @param proxyType the proxied type
+   * @return the descriptors of the methods declared by the type
+   */
+  public static Map<Method, MethodDescriptor> createMethodDescriptors(final Class<?> proxyType) {
+    final HashMap<Method, MethodDescriptor> map = new HashMap<Method, MethodDescriptor>();
+    for (MethodDescriptor method : getSortedMethods(proxyType)) {
+      map.put(method.getMethod(), method);
+    }
+    return unmodifiableMap(map);
+  }
+
   public static Map<Class<?>, Byte> createResponseTypeMappings(Class<?> proxyType, Class<?>[] events) {
     final HashMap<Class<?>, Byte> map = new HashMap<Class<?>, Byte>();
     byte index = 0;
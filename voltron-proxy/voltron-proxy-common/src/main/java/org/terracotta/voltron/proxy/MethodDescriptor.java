@@ -24,10 +24,14 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.lang.reflect.WildcardType;
+import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /**
+ * Everything needed to invoke a proxied method, read once from the method signature and annotations so that
+ * invocations do not use reflection beyond the final dispatch.
+ *
  * @author Mathieu Carbou
  */
 public final class MethodDescriptor {
@@ -38,9 +42,13 @@ public final class MethodDescriptor {
   private final Async.Ack ack;
   private final ExecutionStrategy.Location location;
   private final int concurrencyKey;
+  private final Class<?>[] parameterTypes;
+  private final int[] clientIdParameters;
+  private volatile ResolvedCall resolvedCall;
 
   private MethodDescriptor(Method method) {
     this.method = method;
+    this.parameterTypes = method.getParameterTypes();
 
     // @Async
     Async asyncAnnot = method.getAnnotation(Async.class);
@@ -67,6 +75,20 @@ public final class MethodDescriptor {
     // @ConcurrencyStrategy
     ConcurrencyStrategy concurrencyStrategy = method.getAnnotation(ConcurrencyStrategy.class);
     concurrencyKey = concurrencyStrategy == null ? ConcurrencyStrategy.MANAGEMENT_KEY : concurrencyStrategy.key();
+
+    // @ClientId
+    Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+    int[] indexes = new int[parameterAnnotations.length];
+    int count = 0;
+    for (int i = 0; i < parameterAnnotations.length; i++) {
+      for (Annotation annotation : parameterAnnotations[i]) {
+        if (annotation.annotationType() == ClientId.class) {
+          indexes[count++] = i;
+          break;
+        }
+      }
+    }
+    clientIdParameters = Arrays.copyOf(indexes, count);
   }
 
   public int getConcurrencyKey() {
@@ -115,8 +137,18 @@ public final class MethodDescriptor {
     return method.hashCode();
   }
 
+  /**
+   * @return the parameter types of the method, which must not be modified
+   */
   public Class<?>[] getParameterTypes() {
-    return method.getParameterTypes();
+    return parameterTypes;
+  }
+
+  /**
+   * @return the indexes of the parameters annotated with {@link ClientId}, which must not be modified
+   */
+  public int[] getClientIdParameters() {
+    return clientIdParameters;
   }
 
   public Annotation[][] getParameterAnnotations() {
@@ -124,7 +156,27 @@ public final class MethodDescriptor {
   }
 
   public Object invoke(Object target, Object... args) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-    Object ret = method.invoke(target, args);
+    return invoke(MethodDispatcher.REFLECTIVE, target, args);
+  }
+
+  /**
+   * Invokes the method through the given dispatcher, waiting for the result of asynchronous methods.
+   * <p>
+   * The call resolved by a {@link ResolvingMethodDispatcher} is kept, and reused as long as the method is invoked
+   * through the same dispatcher.
+   */
+  public Object invoke(MethodDispatcher dispatcher, Object target, Object... args) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+    Object ret;
+    if (dispatcher instanceof ResolvingMethodDispatcher) {
+      ResolvedCall resolved = resolvedCall;
+      if (resolved == null || resolved.dispatcher != dispatcher) {
+        resolved = new ResolvedCall(dispatcher, ((ResolvingMethodDispatcher) dispatcher).resolve(method));
+        resolvedCall = resolved;
+      }
+      ret = resolved.call.call(target, args);
+    } else {
+      ret = dispatcher.dispatch(method, target, args);
+    }
     if (async) {
       try {
         ret = ((Future<?>) ret).get();
@@ -142,6 +194,16 @@ public final class MethodDescriptor {
     return method;
   }
 
+  private static final class ResolvedCall {
+    private final MethodDispatcher dispatcher;
+    private final ResolvingMethodDispatcher.Call call;
+
+    ResolvedCall(MethodDispatcher dispatcher, ResolvingMethodDispatcher.Call call) {
+      this.dispatcher = dispatcher;
+      this.call = call;
+    }
+  }
+
   private static Class<?> determineRawType(Type type) {
     if (type instanceof Class<?>) {
       return (Class<?>) type;
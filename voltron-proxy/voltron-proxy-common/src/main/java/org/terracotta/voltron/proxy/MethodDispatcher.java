@@ -0,0 +1,47 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Calls a proxied method on its target.
+ */
+public interface MethodDispatcher {
+
+  /**
+   * Dispatches through {@link Method#invoke(Object, Object...)}.
+   */
+  MethodDispatcher REFLECTIVE = new MethodDispatcher() {
+    @Override
+    public Object dispatch(Method method, Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+      return method.invoke(target, args);
+    }
+  };
+
+  /**
+   * Calls the given method on the given target.
+   *
+   * @param method the method to call
+   * @param target the target to call it on
+   * @param args the method arguments
+   * @return the value returned by the method
+   * @throws IllegalAccessException if the method cannot be accessed
+   * @throws InvocationTargetException if the method threw, wrapping what it threw
+   */
+  Object dispatch(Method method, Object target, Object[] args) throws IllegalAccessException, InvocationTargetException;
+}
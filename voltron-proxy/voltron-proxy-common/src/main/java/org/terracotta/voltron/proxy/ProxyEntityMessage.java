@@ -17,7 +17,6 @@ package org.terracotta.voltron.proxy;
 
 import org.terracotta.entity.EntityMessage;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -47,31 +46,33 @@ public class ProxyEntityMessage implements EntityMessage {
   }
 
   public Object invoke(final Object target, final Object clientDescriptor) throws InvocationTargetException, IllegalAccessException {
+    return invoke(MethodDispatcher.REFLECTIVE, target, clientDescriptor);
+  }
+
+  public Object invoke(final MethodDispatcher dispatcher, final Object target, final Object clientDescriptor) throws InvocationTargetException, IllegalAccessException {
 
     if(!consumed.compareAndSet(false, true)) {
       throw new IllegalStateException("Message was consumed already!");
     }
 
     if (clientDescriptor != null) {
-      final Annotation[][] allAnnotations = method.getParameterAnnotations();
-      for (int i = 0; i < allAnnotations.length; i++) {
-        for (Annotation parameterAnnotation : allAnnotations[i]) {
-          if (parameterAnnotation.annotationType() == ClientId.class) {
-            args[i] = clientDescriptor;
-            break;
-          }
-        }
+      for (int i : method.getClientIdParameters()) {
+        args[i] = clientDescriptor;
       }
     }
 
-    return method.invoke(target, args);
+    return method.invoke(dispatcher, target, args);
   }
 
   public Object invoke(final Object target) throws InvocationTargetException, IllegalAccessException {
+    return invoke(MethodDispatcher.REFLECTIVE, target);
+  }
+
+  public Object invoke(final MethodDispatcher dispatcher, final Object target) throws InvocationTargetException, IllegalAccessException {
     if(!consumed.compareAndSet(false, true)) {
       throw new IllegalStateException("Message was consumed already!");
     }
-    return method.invoke(target, args);
+    return method.invoke(dispatcher, target, args);
   }
 
   public Class<?> messageType() {
@@ -21,7 +21,6 @@ import org.terracotta.entity.MessageCodecException;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
 import java.util.Map;
 
 /**
@@ -65,7 +64,11 @@ public class ProxyMessageCodec implements MessageCodec<ProxyEntityMessage, Proxy
     DataOutputStream output = new DataOutputStream(byteOut);
     try {
       output.writeByte(messageTypeIdentifier);
-      output.write(codec.encode(r.getResponseType(), r.getResponse()));
+      if (codec instanceof StreamingCodec) {
+        ((StreamingCodec) codec).encode(r.getResponseType(), r.getResponse(), output);
+      } else {
+        output.write(codec.encode(r.getResponseType(), r.getResponse()));
+      }
       output.close();
     } catch (IOException e) {
       throw new RuntimeException(e);
@@ -100,20 +103,18 @@ public class ProxyMessageCodec implements MessageCodec<ProxyEntityMessage, Proxy
       ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
       DataOutputStream output = new DataOutputStream(byteOut);
 
-      final Annotation[][] parameterAnnotations = method.getParameterAnnotations();
-      for (int i = 0, parameterAnnotationsLength = parameterAnnotations.length; i < parameterAnnotationsLength; i++) {
-        final Annotation[] parameterAnnotation = parameterAnnotations[i];
-        for (Annotation annotation : parameterAnnotation) {
-          if (annotation.annotationType() == ClientId.class) {
-            args[i] = null;
-          }
-        }
+      for (int i : method.getClientIdParameters()) {
+        args[i] = null;
       }
 
       final Class<?>[] parameterTypes = method.getParameterTypes();
       output.writeByte(methodIdentifier);
       output.writeByte(message.isSyncMessage() ? 1 : 0);
-      output.write(codec.encode(parameterTypes, args));
+      if (codec instanceof StreamingCodec) {
+        ((StreamingCodec) codec).encode(parameterTypes, args, output);
+      } else {
+        output.write(codec.encode(parameterTypes, args));
+      }
 
       output.close();
       return byteOut.toByteArray();
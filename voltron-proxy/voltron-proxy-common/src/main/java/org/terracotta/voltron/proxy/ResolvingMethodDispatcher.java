@@ -0,0 +1,51 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * A {@link MethodDispatcher} resolving how to call a method once, so that a {@link MethodDescriptor} keeps the
+ * resolved call and dispatches to it without looking the method up again.
+ */
+public interface ResolvingMethodDispatcher extends MethodDispatcher {
+
+  /**
+   * Resolves the calls of the given method.
+   *
+   * @param method the method to call
+   * @return the call of {@code method}, behaving as {@link #dispatch(Method, Object, Object[])} does
+   */
+  Call resolve(Method method);
+
+  /**
+   * A resolved call of a method.
+   */
+  interface Call {
+
+    /**
+     * Calls the method on the given target.
+     *
+     * @param target the target to call it on
+     * @param args the method arguments
+     * @return the value returned by the method
+     * @throws IllegalAccessException if the method cannot be accessed
+     * @throws InvocationTargetException if the method threw, wrapping what it threw
+     */
+    Object call(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A {@link Codec} able to write its encoded values straight to an output, which {@link ProxyMessageCodec} uses to
+ * write them into its messages without copying them from an intermediate array.
+ */
+public interface StreamingCodec extends Codec {
+
+  /**
+   * Writes the given value to the given output, as {@link #encode(Class, Object)} would return it.
+   */
+  void encode(Class<?> type, Object value, DataOutput out) throws IOException;
+
+  /**
+   * Writes the given values to the given output, as {@link #encode(Class[], Object[])} would return them.
+   */
+  void encode(Class<?>[] types, Object[] values, DataOutput out) throws IOException;
+}
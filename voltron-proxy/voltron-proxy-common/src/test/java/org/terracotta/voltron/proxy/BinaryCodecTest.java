@@ -0,0 +1,158 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BinaryCodecTest {
+
+  private final BinaryCodec codec = new BinaryCodec();
+
+  @Test
+  public void test_primitives_and_wrappers() {
+    Class<?>[] types = {boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class, Long.class, Integer.class};
+    Object[] values = {true, (byte) 1, (short) 2, 'c', 3, 4L, 5.0f, 6.0d, 7L, null};
+    byte[] encoded = codec.encode(types, values);
+    assertThat(encoded.length, is(1 + 1 + 2 + 2 + 4 + 8 + 4 + 8 + 9 + 1));
+    assertThat(Arrays.asList(codec.decode(types, encoded)), equalTo(Arrays.asList(values)));
+  }
+
+  @Test
+  public void test_strings_arrays_and_enums() {
+    Class<?>[] types = {String.class, String.class, byte[].class, long[].class, String[].class, TimeUnit.class, TimeUnit[].class};
+    Object[] values = {"h\u00e9llo", null, new byte[] {1, 2}, new long[] {3L, 4L}, new String[] {"a", null}, TimeUnit.SECONDS, new TimeUnit[] {TimeUnit.DAYS}};
+    Object[] decoded = codec.decode(types, codec.encode(types, values));
+    assertThat(decoded[0], is((Object) "h\u00e9llo"));
+    assertThat(decoded[1], nullValue());
+    assertThat(Arrays.toString((byte[]) decoded[2]), is("[1, 2]"));
+    assertThat(Arrays.toString((long[]) decoded[3]), is("[3, 4]"));
+    assertThat(Arrays.toString((String[]) decoded[4]), is("[a, null]"));
+    assertThat(decoded[5], is((Object) TimeUnit.SECONDS));
+    assertThat(Arrays.toString((TimeUnit[]) decoded[6]), is("[DAYS]"));
+  }
+
+  @Test
+  public void test_primitive_return_type() {
+    assertThat(codec.decode(long.class, codec.encode(long.class, 42L)), is(42L));
+    assertThat(codec.encode(void.class, null).length, is(0));
+    assertThat(codec.decode(void.class, new byte[0]), nullValue());
+  }
+
+  @Test
+  public void test_unknown_types_are_serialized() {
+    Class<?>[] types = {Object.class, List.class, Serializable.class};
+    Object[] values = {"foo", Arrays.asList(1, 2), null};
+    assertThat(Arrays.asList(codec.decode(types, codec.encode(types, values))), equalTo(Arrays.asList(values)));
+  }
+
+  @Test
+  public void test_registered_types() {
+    codec.register(Point.class, new BinaryCodec.Encoder<Point>() {
+      @Override
+      public void encode(Point value, DataOutput out) throws IOException {
+        out.writeInt(value.x);
+        out.writeInt(value.y);
+      }
+
+      @Override
+      public Point decode(DataInput in) throws IOException {
+        return new Point(in.readInt(), in.readInt());
+      }
+    });
+    Class<?>[] types = {Point.class, Point[].class};
+    byte[] encoded = codec.encode(types, new Object[] {new Point(1, 2), new Point[] {null, new Point(3, 4)}});
+    assertThat(encoded.length, is(9 + 1 + 4 + 1 + 9));
+    Object[] decoded = codec.decode(types, encoded);
+    assertThat(decoded[0], is((Object) new Point(1, 2)));
+    assertThat(Arrays.asList((Point[]) decoded[1]), equalTo(Arrays.asList(null, new Point(3, 4))));
+  }
+
+  @Test
+  public void test_proxy_messages_and_responses() throws Exception {
+    ProxyMessageCodec messageCodec = new ProxyMessageCodec(Entity.class);
+    messageCodec.setCodec(codec);
+    MethodDescriptor method = MethodDescriptor.of(Entity.class.getMethod("put", String.class, long.class, TimeUnit.class));
+
+    ProxyEntityMessage message = messageCodec.decodeMessage(messageCodec.encodeMessage(
+        new ProxyEntityMessage(method, new Object[] {"key", 1L, TimeUnit.MINUTES}, true)));
+    assertThat(message.getMethod(), is(method));
+    assertThat(message.isSyncMessage(), is(true));
+    assertThat(Arrays.asList(message.getArguments()), equalTo(Arrays.<Object>asList("key", 1L, TimeUnit.MINUTES)));
+
+    ProxyEntityResponse response = messageCodec.decodeResponse(messageCodec.encodeResponse(ProxyEntityResponse.response(Integer.class, 3)));
+    assertThat(response.getResponse(), is((Object) 3));
+  }
+
+  @Test
+  public void test_proxy_messages_stream_through_the_codec() throws Exception {
+    ProxyMessageCodec messageCodec = new ProxyMessageCodec(Entity.class);
+    messageCodec.setCodec(new BinaryCodec() {
+      @Override
+      public byte[] encode(Class<?> type, Object value) {
+        throw new AssertionError();
+      }
+
+      @Override
+      public byte[] encode(Class<?>[] types, Object[] values) {
+        throw new AssertionError();
+      }
+    });
+    MethodDescriptor method = MethodDescriptor.of(Entity.class.getMethod("put", String.class, long.class, TimeUnit.class));
+
+    ProxyEntityMessage message = messageCodec.decodeMessage(messageCodec.encodeMessage(
+        new ProxyEntityMessage(method, new Object[] {"key", 1L, TimeUnit.MINUTES}, true)));
+    assertThat(Arrays.asList(message.getArguments()), equalTo(Arrays.<Object>asList("key", 1L, TimeUnit.MINUTES)));
+    ProxyEntityResponse response = messageCodec.decodeResponse(messageCodec.encodeResponse(ProxyEntityResponse.response(Integer.class, 3)));
+    assertThat(response.getResponse(), is((Object) 3));
+  }
+
+  public interface Entity {
+    Integer put(String key, long value, TimeUnit unit);
+  }
+
+  static final class Point {
+    final int x;
+    final int y;
+
+    Point(int x, int y) {
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * x + y;
+    }
+  }
+}
@@ -18,8 +18,10 @@ package org.terracotta.voltron.proxy;
 import org.hamcrest.core.Is;
 import org.junit.Test;
 
+import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -54,6 +56,25 @@ public class CommonProxyFactoryTest {
     }
   }
 
+  @Test
+  public void test_method_descriptors_created_once_per_method() throws Throwable {
+    Map<Method, MethodDescriptor> descriptors = CommonProxyFactory.createMethodDescriptors(ClientIdEntity.class);
+    assertThat(descriptors.size(), equalTo(ClientIdEntity.class.getDeclaredMethods().length));
+
+    MethodDescriptor none = descriptors.get(ClientIdEntity.class.getMethod("none", String.class));
+    assertThat(none.getClientIdParameters().length, equalTo(0));
+    assertThat(none.getParameterTypes(), equalTo(new Class<?>[] {String.class}));
+
+    MethodDescriptor some = descriptors.get(ClientIdEntity.class.getMethod("some", Object.class, String.class, Object.class));
+    assertThat(some.getClientIdParameters(), equalTo(new int[] {0, 2}));
+    assertThat(some.getConcurrencyKey(), equalTo(ConcurrencyStrategy.MANAGEMENT_KEY));
+  }
+
+  interface ClientIdEntity {
+    void none(String foo);
+    void some(@ClientId Object first, String foo, @ClientId Object second);
+  }
+
   interface AsyncEntity<V> {
     @Async Future<String> test1();
     @Async Future<Collection<String>> test2();
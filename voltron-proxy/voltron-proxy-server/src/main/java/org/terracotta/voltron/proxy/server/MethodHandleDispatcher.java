@@ -0,0 +1,131 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy.server;
+
+import org.terracotta.voltron.proxy.MethodDispatcher;
+import org.terracotta.voltron.proxy.ResolvingMethodDispatcher;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link MethodDispatcher} calling proxied methods through method handles, created once per proxied interface,
+ * which avoids the argument checks and the wrapping of {@link Method#invoke(Object, Object...)} on every call.
+ * <p>
+ * The handle of a method is looked up when its call is {@link #resolve(Method) resolved}, which method descriptors do
+ * once, so that the calls they dispatch go straight to the handle.
+ * <p>
+ * Methods that are not accessible to public lookups, such as those of non-public interfaces, are dispatched
+ * reflectively.
+ * <p>
+ * As with reflection, only the exceptions thrown by the target are wrapped in an {@link InvocationTargetException}:
+ * the handles mark them on their way out of the target, so that arguments which do not match the method parameters
+ * fail with an {@link IllegalArgumentException} instead.
+ */
+final class MethodHandleDispatcher implements ResolvingMethodDispatcher {
+
+  static final MethodHandleDispatcher INSTANCE = new MethodHandleDispatcher();
+
+  private static final Object[] NO_ARGS = new Object[0];
+  private static final MethodType DISPATCH_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+  private static final MethodHandle TARGET_EXCEPTION;
+
+  static {
+    try {
+      TARGET_EXCEPTION = MethodHandles.lookup().findConstructor(TargetException.class, MethodType.methodType(void.class, Throwable.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static final ClassValue<Map<Method, MethodHandle>> HANDLES = new ClassValue<Map<Method, MethodHandle>>() {
+    @Override
+    protected Map<Method, MethodHandle> computeValue(Class<?> type) {
+      Map<Method, MethodHandle> handles = new HashMap<>();
+      for (Method method : type.getDeclaredMethods()) {
+        try {
+          MethodHandle target = MethodHandles.publicLookup().unreflect(method);
+          MethodHandle rethrow = MethodHandles.filterReturnValue(TARGET_EXCEPTION,
+              MethodHandles.throwException(method.getReturnType(), TargetException.class));
+          handles.put(method, MethodHandles.catchException(target, Throwable.class, rethrow)
+              .asSpreader(Object[].class, method.getParameterCount())
+              .asType(DISPATCH_TYPE));
+        } catch (IllegalAccessException e) {
+          // left to reflection
+        }
+      }
+      return handles;
+    }
+  };
+
+  private MethodHandleDispatcher() {
+  }
+
+  @Override
+  public Object dispatch(Method method, Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+    MethodHandle handle = HANDLES.get(method.getDeclaringClass()).get(method);
+    if (handle == null) {
+      return method.invoke(target, args);
+    }
+    return invoke(handle, method, target, args);
+  }
+
+  @Override
+  public Call resolve(Method method) {
+    MethodHandle handle = HANDLES.get(method.getDeclaringClass()).get(method);
+    if (handle == null) {
+      return method::invoke;
+    }
+    return (target, args) -> invoke(handle, method, target, args);
+  }
+
+  private static Object invoke(MethodHandle handle, Method method, Object target, Object[] args) throws InvocationTargetException {
+    if (target == null) {
+      throw new NullPointerException("Null target for " + method);
+    }
+    Object[] arguments = args == null ? NO_ARGS : args;
+    try {
+      return (Object) handle.invokeExact(target, arguments);
+    } catch (TargetException e) {
+      throw new InvocationTargetException(e.getCause());
+    } catch (ClassCastException | NullPointerException | WrongMethodTypeException e) {
+      // thrown while converting the target and arguments, as the target exceptions are all marked
+      throw new IllegalArgumentException("Arguments do not match " + method, e);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new AssertionError(t);
+    }
+  }
+
+  /**
+   * Marks an exception thrown by the target of a handle, to tell it apart from argument conversion failures.
+   */
+  private static final class TargetException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    TargetException(Throwable cause) {
+      super(null, cause, false, false);
+    }
+  }
+}
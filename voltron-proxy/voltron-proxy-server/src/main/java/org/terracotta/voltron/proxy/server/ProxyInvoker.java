@@ -47,7 +47,7 @@ class ProxyInvoker<T> implements MessageFiring {
     try {
       try {
         invocationContext.set(new InvocationContext(clientDescriptor));
-        return ProxyEntityResponse.response(message.messageType(), message.invoke(target, clientDescriptor));
+        return ProxyEntityResponse.response(message.messageType(), message.invoke(MethodHandleDispatcher.INSTANCE, target, clientDescriptor));
       } finally {
         invocationContext.remove();
       }
@@ -67,7 +67,7 @@ class ProxyInvoker<T> implements MessageFiring {
 
   void invoke(final ProxyEntityMessage message) {
     try {
-      message.invoke(target);
+      message.invoke(MethodHandleDispatcher.INSTANCE, target);
     } catch (IllegalAccessException e) {
       throw new IllegalArgumentException(e);
     } catch (InvocationTargetException e) {
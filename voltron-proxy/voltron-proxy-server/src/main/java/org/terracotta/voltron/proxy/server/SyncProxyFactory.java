@@ -16,10 +16,13 @@
 package org.terracotta.voltron.proxy.server;
 
 import org.terracotta.entity.PassiveSynchronizationChannel;
+import org.terracotta.voltron.proxy.CommonProxyFactory;
 import org.terracotta.voltron.proxy.MethodDescriptor;
 import org.terracotta.voltron.proxy.ProxyEntityMessage;
 
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -31,11 +34,15 @@ class SyncProxyFactory {
 
   static <T> T createProxy(Class<T> synchronizerType) {
     Objects.requireNonNull(synchronizerType);
+    final Map<Method, MethodDescriptor> methods = CommonProxyFactory.createMethodDescriptors(synchronizerType);
     return synchronizerType.cast(Proxy.newProxyInstance(
         synchronizerType.getClassLoader(),
         new Class<?>[]{synchronizerType},
         (proxy, method, args) -> {
-          final MethodDescriptor methodDescriptor = MethodDescriptor.of(method);
+          MethodDescriptor methodDescriptor = methods.get(method);
+          if (methodDescriptor == null) {
+            methodDescriptor = MethodDescriptor.of(method);
+          }
           ProxyEntityMessage proxyEntityMessage = new ProxyEntityMessage(methodDescriptor, args, true);
           PassiveSynchronizationChannel<ProxyEntityMessage> channel = currentChannel.get();
           if (channel == null) {
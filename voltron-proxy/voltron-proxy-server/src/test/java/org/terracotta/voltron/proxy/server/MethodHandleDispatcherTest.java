@@ -0,0 +1,190 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy.server;
+
+import org.junit.Test;
+import org.terracotta.voltron.proxy.MethodDescriptor;
+import org.terracotta.voltron.proxy.MethodDispatcher;
+import org.terracotta.voltron.proxy.ResolvingMethodDispatcher;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MethodHandleDispatcherTest {
+
+  private final Counter counter = new Counter() {
+    private long value;
+
+    @Override
+    public long add(long delta, String reason) {
+      return value += delta + reason.length();
+    }
+
+    @Override
+    public String name() {
+      return "counter";
+    }
+
+    @Override
+    public void reset() throws IOException {
+      throw new IOException("reset");
+    }
+
+    @Override
+    public Object cast(Object value) {
+      return (String) value;
+    }
+  };
+
+  @Test
+  public void testReturnsTheResultOfTheTarget() throws Exception {
+    assertThat(dispatch(method("add", long.class, String.class), 1L, "ab"), is((Object) 3L));
+    assertThat(dispatch(method("add", long.class, String.class), 1L, ""), is((Object) 4L));
+  }
+
+  @Test
+  public void testMethodsWithoutArgumentsAcceptNullArguments() throws Exception {
+    assertThat(MethodHandleDispatcher.INSTANCE.dispatch(method("name"), counter, null), is((Object) "counter"));
+    assertThat(dispatch(method("name")), is((Object) "counter"));
+  }
+
+  @Test
+  public void testCheckedExceptionsOfTheTargetAreWrapped() throws Exception {
+    try {
+      dispatch(method("reset"));
+      fail("Expected InvocationTargetException");
+    } catch (InvocationTargetException e) {
+      assertThat(e.getCause(), instanceOf(IOException.class));
+    }
+  }
+
+  @Test
+  public void testClassCastExceptionsOfTheTargetAreWrapped() throws Exception {
+    try {
+      dispatch(method("cast", Object.class), 42);
+      fail("Expected InvocationTargetException");
+    } catch (InvocationTargetException e) {
+      assertThat(e.getCause(), instanceOf(ClassCastException.class));
+    }
+  }
+
+  @Test
+  public void testMismatchedArgumentsAreRejected() throws Exception {
+    Method add = method("add", long.class, String.class);
+    for (Object[] args : new Object[][] {{1L, 2L}, {null, "a"}, {1L}, {"a", 1L, 2L}}) {
+      try {
+        MethodHandleDispatcher.INSTANCE.dispatch(add, counter, args);
+        fail("Expected IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        //expected
+      }
+    }
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullTargetIsRejected() throws Exception {
+    MethodHandleDispatcher.INSTANCE.dispatch(method("name"), null, null);
+  }
+
+  @Test
+  public void testMethodsOfNonPublicInterfacesAreDispatchedReflectively() throws Exception {
+    Hidden hidden = new Hidden() {
+      @Override
+      public String value() {
+        return "hidden";
+      }
+
+      @Override
+      public void fail() {
+        throw new IllegalStateException("hidden");
+      }
+    };
+    assertThat(MethodHandleDispatcher.INSTANCE.dispatch(Hidden.class.getDeclaredMethod("value"), hidden, null), is((Object) "hidden"));
+    try {
+      MethodHandleDispatcher.INSTANCE.dispatch(Hidden.class.getDeclaredMethod("fail"), hidden, null);
+      fail("Expected InvocationTargetException");
+    } catch (InvocationTargetException e) {
+      assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    }
+  }
+
+  @Test
+  public void testVoidMethodsReturnNull() throws Exception {
+    Runnable runnable = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    assertThat(MethodHandleDispatcher.INSTANCE.dispatch(Runnable.class.getMethod("run"), runnable, null), nullValue());
+  }
+
+  @Test
+  public void testResolvedCallsBehaveAsDispatch() throws Exception {
+    ResolvingMethodDispatcher.Call add = MethodHandleDispatcher.INSTANCE.resolve(method("add", long.class, String.class));
+    assertThat(add.call(counter, new Object[] {1L, "ab"}), is((Object) 3L));
+    try {
+      add.call(counter, new Object[] {1L, 2L});
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      MethodHandleDispatcher.INSTANCE.resolve(method("reset")).call(counter, null);
+      fail("Expected InvocationTargetException");
+    } catch (InvocationTargetException e) {
+      assertThat(e.getCause(), instanceOf(IOException.class));
+    }
+  }
+
+  @Test
+  public void testDescriptorsInvokeTheResolvedCall() throws Exception {
+    MethodDescriptor descriptor = MethodDescriptor.of(method("add", long.class, String.class));
+    assertThat(descriptor.invoke(MethodHandleDispatcher.INSTANCE, counter, 1L, "ab"), is((Object) 3L));
+    assertThat(descriptor.invoke(MethodHandleDispatcher.INSTANCE, counter, 1L, ""), is((Object) 4L));
+    assertThat(descriptor.invoke(MethodDispatcher.REFLECTIVE, counter, 1L, ""), is((Object) 5L));
+  }
+
+  private Object dispatch(Method method, Object... args) throws Exception {
+    return MethodHandleDispatcher.INSTANCE.dispatch(method, counter, args);
+  }
+
+  private static Method method(String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+    return Counter.class.getMethod(name, parameterTypes);
+  }
+
+  public interface Counter {
+    long add(long delta, String reason);
+
+    String name();
+
+    void reset() throws IOException;
+
+    Object cast(Object value);
+  }
+
+  interface Hidden {
+    String value();
+
+    void fail();
+  }
+}
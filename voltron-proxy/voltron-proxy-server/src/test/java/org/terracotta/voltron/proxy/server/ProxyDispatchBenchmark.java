@@ -0,0 +1,90 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.voltron.proxy.MethodDispatcher;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of dispatching a decoded message to the proxied entity, reflectively and through method handles.
+ * <p>
+ * Not a test: run {@link #main(String[])} from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyDispatchBenchmark {
+
+  public interface Counter {
+    long add(long delta, String key);
+  }
+
+  public static class CounterImpl implements Counter {
+    private long value;
+
+    @Override
+    public long add(long delta, String key) {
+      return value += delta + key.length();
+    }
+  }
+
+  @Param({"reflective", "methodHandle"})
+  String dispatch;
+
+  private MethodDispatcher dispatcher;
+  private Method method;
+  private Counter target;
+  private Object[] args;
+
+  @Setup(Level.Trial)
+  public void setUp() throws NoSuchMethodException {
+    dispatcher = dispatch.equals("methodHandle") ? MethodHandleDispatcher.INSTANCE : MethodDispatcher.REFLECTIVE;
+    method = Counter.class.getMethod("add", long.class, String.class);
+    target = new CounterImpl();
+    args = new Object[] {1L, "key"};
+  }
+
+  @Benchmark
+  public Object dispatch() throws Exception {
+    return dispatcher.dispatch(method, target, args);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ProxyDispatchBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}